@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import de.hofuniversity.iisys.neo4j.websock.neo4j.INeo4jConnector;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.ScatterGather;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.StoreWarmup;
+import de.hofuniversity.iisys.neo4j.websock.procedures.IReadiness;
+
+/**
+ * A named database served by the server, with its own configuration and
+ * connector. Starts and stops the database including its optional
+ * warm-up.
+ */
+public class DatabaseContext implements IReadiness
+{
+    private final String fName;
+    private final GraphConfig fConfig;
+    private final INeo4jConnector fConn;
+
+    private final Logger fLogger;
+
+    private volatile boolean fReady = true;
+
+    /**
+     * Creates a context for the database with the given name, using the
+     * given configuration and its connector.
+     * None of the parameters may be null.
+     *
+     * @param name name of the database
+     * @param config configuration of the database
+     */
+    public DatabaseContext(String name, GraphConfig config)
+    {
+        if(name == null)
+        {
+            throw new NullPointerException("database name was null");
+        }
+        if(config == null)
+        {
+            throw new NullPointerException("configuration was null");
+        }
+
+        fName = name;
+        fConfig = config;
+        fConn = config.getConnector();
+        fLogger = Logger.getLogger(this.getClass().getName());
+    }
+
+    /**
+     * Starts the database and the configured warm-up.
+     *
+     * @throws Exception if startup fails or the warm-up mode is unknown
+     */
+    public void start() throws Exception
+    {
+        //check the configuration before starting anything
+        final String mode = getWarmupMode();
+
+        fLogger.log(Level.INFO, "starting Neo4j database '" + fName + "'");
+        fConn.start();
+
+        //read the store into caches before or while serving clients
+        warmUp(mode);
+    }
+
+    /**
+     * Stops parallel helpers and shuts down the database.
+     *
+     * @throws Exception if it fails
+     */
+    public void shutdown() throws Exception
+    {
+        fLogger.log(Level.INFO, "stopping Neo4j database '" + fName + "'");
+        ScatterGather.shutdownInstance(fConn.getService());
+        fConn.shutdown();
+    }
+
+    private String getWarmupMode()
+    {
+        String mode = fConfig.getProperty(WebsockContextHandler.WARMUP_PROP);
+        if(mode == null || mode.isEmpty())
+        {
+            mode = WebsockContextHandler.DEF_WARMUP;
+        }
+
+        if(!WebsockContextHandler.WARMUP_NONE.equals(mode)
+            && !WebsockContextHandler.WARMUP_STARTUP.equals(mode)
+            && !WebsockContextHandler.WARMUP_BACKGROUND.equals(mode))
+        {
+            throw new IllegalArgumentException("unknown warm-up mode '"
+                + mode + "' for database '" + fName + "'");
+        }
+
+        return mode;
+    }
+
+    private void warmUp(final String mode) throws InterruptedException
+    {
+        if(WebsockContextHandler.WARMUP_NONE.equals(mode))
+        {
+            return;
+        }
+
+        String threads = fConfig.getProperty(
+            WebsockContextHandler.WARMUP_THREADS_PROP);
+        if(threads == null || threads.isEmpty())
+        {
+            threads = WebsockContextHandler.DEF_WARMUP_THREADS;
+        }
+        String properties = fConfig.getProperty(
+            WebsockContextHandler.WARMUP_PROPERTIES_PROP);
+        if(properties == null || properties.isEmpty())
+        {
+            properties = WebsockContextHandler.DEF_WARMUP_PROPERTIES;
+        }
+
+        final StoreWarmup warmup = new StoreWarmup(fConn.getService(),
+            Integer.parseInt(threads));
+        warmup.setReadProperties(Boolean.parseBoolean(properties));
+
+        final String indexes = fConfig.getProperty(
+            WebsockContextHandler.WARMUP_INDEXES_PROP);
+        if(indexes != null && !indexes.trim().isEmpty())
+        {
+            warmup.setIndexes(Arrays.asList(indexes.trim().split(
+                "\\s*,\\s*")));
+        }
+        final String types = fConfig.getProperty(
+            WebsockContextHandler.WARMUP_TYPES_PROP);
+        if(types != null && !types.trim().isEmpty())
+        {
+            warmup.setRelationshipTypes(Arrays.asList(types.trim().split(
+                "\\s*,\\s*")));
+        }
+
+        if(WebsockContextHandler.WARMUP_BACKGROUND.equals(mode))
+        {
+            fReady = false;
+
+            final Thread thread = new Thread("store-warmup-" + fName)
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        warmup.run();
+                    }
+                    catch(Exception e)
+                    {
+                        fLogger.log(Level.WARNING, "warm-up of database '"
+                            + fName + "' failed", e);
+                    }
+                    finally
+                    {
+                        fReady = true;
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+        else
+        {
+            warmup.run();
+        }
+    }
+
+    /**
+     * @return name of the database
+     */
+    public String getName()
+    {
+        return fName;
+    }
+
+    /**
+     * @return configuration of the database
+     */
+    public GraphConfig getConfig()
+    {
+        return fConfig;
+    }
+
+    /**
+     * @return database service interface or null if not started
+     */
+    public GraphDatabaseService getDatabase()
+    {
+        return fConn.getService();
+    }
+
+    /**
+     * @return whether startup including a background warm-up is complete
+     */
+    @Override
+    public boolean isReady()
+    {
+        return fReady;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock;
+
+import javax.websocket.server.ServerEndpoint;
+
+/**
+ * Annotated server endpoint selecting the database by its path, like
+ * "/websocket/tenant", otherwise behaving like the default endpoint.
+ */
+@ServerEndpoint(value = "/websocket/{" + ServiceWebSocket.DATABASE_PARAM
+    + "}")
+public class DatabaseWebSocket extends ServiceWebSocket
+{
+}
@@ -18,16 +18,22 @@
  */
 package de.hofuniversity.iisys.neo4j.websock;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.ResourceBundle;
 
+import de.hofuniversity.iisys.neo4j.websock.handlers.SlowQueryLog;
 import de.hofuniversity.iisys.neo4j.websock.neo4j.INeo4jConnector;
 import de.hofuniversity.iisys.neo4j.websock.neo4j.Neo4jConnector;
 import de.hofuniversity.iisys.neo4j.websock.neo4j.Neo4jHAConnector;
 import de.hofuniversity.iisys.neo4j.websock.neo4j.Neo4jImpermConnector;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.MemoryTuner;
 
 /**
  * Base class that reads the configuration and chooses the right Neo4j
@@ -39,6 +45,19 @@ public class GraphConfig
     private static final String MODE = "neo4j.mode";
     private static final String PATH = "neo4j.path";
     private static final String CONF_PATH = "neo4j.configpath";
+    private static final String AUTOTUNE = "neo4j.autotune";
+    private static final String DATABASES = "neo4j.databases";
+
+    /**
+     * Prefix of properties only applying to an additional named database,
+     * followed by its name and a dot.
+     */
+    public static final String DATABASE_PREFIX = "database.";
+
+    //properties not inherited by additional databases
+    private static final List<String> LOCAL_PROPS = Arrays.asList(PATH,
+        CONF_PATH, ServiceWebSocket.JOURNAL_PROP,
+        ServiceWebSocket.DATABASE_USERS_PROP, SlowQueryLog.FILE_PROP);
 
     private static final String EMB_MODE = "embedded";
     private static final String HA_MODE = "enterprise";
@@ -94,6 +113,64 @@ public class GraphConfig
         fConnector = new Neo4jImpermConnector();
     }
 
+    /**
+     * Creates the configuration of an additional named database, based on
+     * the given configuration. Properties prefixed with "database.<name>."
+     * override the base configuration's. The database path, Neo4j
+     * configuration file, procedure journal, authorized users and slow query
+     * log file are not inherited.
+     * None of the parameters may be null.
+     *
+     * @param base configuration of the default database
+     * @param name name of the additional database
+     */
+    public GraphConfig(GraphConfig base, String name)
+    {
+        if(base == null)
+        {
+            throw new NullPointerException("base configuration was null");
+        }
+        if(name == null)
+        {
+            throw new NullPointerException("database name was null");
+        }
+
+        fProperties = new HashMap<String, String>();
+        fNeo4jParams = new HashMap<String, String>();
+
+        final String prefix = DATABASE_PREFIX + name + ".";
+
+        //inherited properties first, then the database's own
+        for(Entry<String, String> propE : base.fProperties.entrySet())
+        {
+            final String key = propE.getKey();
+            if(!key.startsWith(DATABASE_PREFIX) && !LOCAL_PROPS.contains(key))
+            {
+                fProperties.put(key, propE.getValue());
+                checkNeo4jParam(key, propE.getValue());
+            }
+        }
+        for(Entry<String, String> propE : base.fProperties.entrySet())
+        {
+            final String key = propE.getKey();
+            if(key.startsWith(prefix))
+            {
+                final String localKey = key.substring(prefix.length());
+                fProperties.put(localKey, propE.getValue());
+                checkNeo4jParam(localKey, propE.getValue());
+            }
+        }
+
+        if(fProperties.get(PATH) == null
+            && !IMP_MODE.equals(fProperties.get(MODE)))
+        {
+            throw new RuntimeException("no path configured for database '"
+                + name + "'");
+        }
+
+        fConnector = setConnector();
+    }
+
     private void checkNeo4jParam(String key, String value)
     {
         if(key.startsWith("neo4j.properties."))
@@ -112,27 +189,43 @@ public class GraphConfig
         String path = fProperties.get(PATH);
         String configpath = fProperties.get(CONF_PATH);
 
+        //derive memory mapping and cache settings from the store
+        MemoryTuner tuner = null;
+        if(Boolean.parseBoolean(fProperties.get(AUTOTUNE)))
+        {
+            //memory is shared by all databases in this process
+            tuner = new MemoryTuner();
+            tuner.setInstances(getDatabaseNames().size() + 1);
+        }
+
         if(EMB_MODE.equals(mode))
         {
+            Neo4jConnector embConn = null;
             if(configpath != null)
             {
-                conn = new Neo4jConnector(path, configpath);
+                embConn = new Neo4jConnector(path, configpath);
             }
             else
             {
-                conn = new Neo4jConnector(path);
+                embConn = new Neo4jConnector(path);
             }
+            embConn.setMemoryTuner(tuner);
+            conn = embConn;
         }
         else if(HA_MODE.equals(mode))
         {
+            Neo4jHAConnector haConn = null;
+
             if(configpath != null)
             {
-                conn = new Neo4jHAConnector(path, configpath);
+                haConn = new Neo4jHAConnector(path, configpath);
             }
             else
             {
-                conn = new Neo4jHAConnector(path);
+                haConn = new Neo4jHAConnector(path);
             }
+            haConn.setMemoryTuner(tuner);
+            conn = haConn;
         }
         else if(IMP_MODE.equals(mode))
         {
@@ -144,11 +237,36 @@ public class GraphConfig
             throw new RuntimeException("Neo4j mode '" + mode + "' is unknown");
         }
 
-        //TODO: pass properties
+        //parameters from "neo4j.properties.*"
+        conn.setConfig(fNeo4jParams);
 
         return conn;
     }
 
+    /**
+     * @return names of configured additional databases, not including the
+     *  default database
+     */
+    public List<String> getDatabaseNames()
+    {
+        final List<String> names = new ArrayList<String>();
+
+        final String databases = fProperties.get(DATABASES);
+        if(databases != null && !databases.trim().isEmpty())
+        {
+            for(String name : databases.trim().split("\\s*,\\s*"))
+            {
+                if(!name.isEmpty() && !names.contains(name)
+                    && !WebsockContextHandler.DEFAULT_DATABASE.equals(name))
+                {
+                    names.add(name);
+                }
+            }
+        }
+
+        return names;
+    }
+
     /**
      * @return configured neo4j implementation
      */
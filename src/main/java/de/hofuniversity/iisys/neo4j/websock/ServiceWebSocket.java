@@ -18,14 +18,25 @@
  */
 package de.hofuniversity.iisys.neo4j.websock;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
 import javax.websocket.EndpointConfig;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
@@ -38,9 +49,12 @@ import org.bson.types.BasicBSONList;
 import org.glassfish.tyrus.server.Server;
 import org.neo4j.graphdb.GraphDatabaseService;
 
+import de.hofuniversity.iisys.neo4j.websock.calls.AsyncProcedurePool;
 import de.hofuniversity.iisys.neo4j.websock.calls.CypherCallEngine;
+import de.hofuniversity.iisys.neo4j.websock.calls.CypherProcedure;
 import de.hofuniversity.iisys.neo4j.websock.calls.IStoredProcedure;
 import de.hofuniversity.iisys.neo4j.websock.handlers.ClientQueryHandler;
+import de.hofuniversity.iisys.neo4j.websock.handlers.SlowQueryLog;
 import de.hofuniversity.iisys.neo4j.websock.handlers.ThreadedClientQueryHandler;
 import de.hofuniversity.iisys.neo4j.websock.neo4j.security.DefaultAuthHandler;
 import de.hofuniversity.iisys.neo4j.websock.neo4j.security.DefaultPasswordScrambler;
@@ -48,8 +62,17 @@ import de.hofuniversity.iisys.neo4j.websock.neo4j.security.IAuthHandler;
 import de.hofuniversity.iisys.neo4j.websock.neo4j.security.IPasswordScrambler;
 import de.hofuniversity.iisys.neo4j.websock.neo4j.security.SecurityInterceptor;
 import de.hofuniversity.iisys.neo4j.websock.neo4j.service.Neo4jServiceProcedures;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.IndexLookupCache;
+import de.hofuniversity.iisys.neo4j.websock.procedures.BulkheadRegistry;
 import de.hofuniversity.iisys.neo4j.websock.procedures.CypherProcedureLoader;
+import de.hofuniversity.iisys.neo4j.websock.procedures.EProcedureLayer;
+import de.hofuniversity.iisys.neo4j.websock.procedures.GroupCommitter;
 import de.hofuniversity.iisys.neo4j.websock.procedures.GuiceProcedureLoader;
+import de.hofuniversity.iisys.neo4j.websock.procedures.IProcedureFileProvider;
+import de.hofuniversity.iisys.neo4j.websock.procedures.LoadingReport;
+import de.hofuniversity.iisys.neo4j.websock.procedures.ProcedureFileWatcher;
+import de.hofuniversity.iisys.neo4j.websock.procedures.ProcedureJournal;
+import de.hofuniversity.iisys.neo4j.websock.procedures.ProcedureRegistry;
 import de.hofuniversity.iisys.neo4j.websock.procedures.StoredProcedureHandler;
 import de.hofuniversity.iisys.neo4j.websock.query.IMessageHandler;
 import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
@@ -75,6 +98,10 @@ public class ServiceWebSocket
     public static final String PATH_PROP = "websocket.path";
     public static final String DEF_PATH = "/neo4j-websocket-server";
 
+    public static final String DATABASE_PARAM = "database";
+
+    public static final String DATABASE_USERS_PROP = "websocket.database.users";
+
     public static final String DEF_FORMAT_PROP = "websocket.default.format";
     public static final String DEF_FORMAT = WebsockConstants.JSON_FORMAT;
 
@@ -89,6 +116,38 @@ public class ServiceWebSocket
     public static final String THREADS_PROP = "websocket.default.threads";
     public static final String DEF_THREADS = "4";
 
+    public static final String TX_TIMEOUT_PROP =
+        "websocket.transaction.timeout";
+    public static final String DEF_TX_TIMEOUT = "60000";
+
+    public static final String RELOAD_PROP = "websocket.stored.reload";
+    public static final String DEF_RELOAD = "true";
+
+    public static final String JOURNAL_PROP = "websocket.stored.journal";
+
+    public static final String LOADER_THREADS_PROP = "websocket.stored.threads";
+    public static final String DEF_LOADER_THREADS = "4";
+
+    public static final String ASYNC_THREADS_PROP = "websocket.async.threads";
+    public static final String DEF_ASYNC_THREADS = "4";
+
+    public static final String INDEX_CACHE_PROP = "websocket.index.cache";
+    public static final String DEF_INDEX_CACHE = "0";
+
+    public static final String BULKHEAD_CONFIG_PROP =
+        "websocket.bulkhead.configurable";
+    public static final String DEF_BULKHEAD_CONFIG = "false";
+
+    public static final String GROUP_COMMIT_PROP =
+        "websocket.groupcommit.procedures";
+
+    public static final String GROUP_WINDOW_PROP =
+        "websocket.groupcommit.window";
+    public static final String DEF_GROUP_WINDOW = "5";
+
+    public static final String GROUP_SIZE_PROP = "websocket.groupcommit.size";
+    public static final String DEF_GROUP_SIZE = "100";
+
     public static final String AUTH_TYPE_PROP = "authentication.type";
     public static final String AUTH_TYPE_NONE = "none";
     public static final String AUTH_TYPE_DEFAULT = "default";
@@ -101,10 +160,16 @@ public class ServiceWebSocket
         "authentication.hash.method";
     public static final String DEF_AUTH_HASH_METHOD = "SHA-512";
 
+    private static final Object REGISTRY_LOCK = new Object();
+
+    //procedures and handlers shared by all endpoint instances, by database
+    private static final Map<String, DatabaseProcedures> fProcedures =
+        new HashMap<String, DatabaseProcedures>();
+
     private final Logger fLogger = Logger.getLogger(this.getClass().getName());
 
     private GraphConfig fConfig;
-    private GraphDatabaseService fDb;
+    private ImplUtil fImpl;
 
     private String fDefFormat;
     private boolean fThreading;
@@ -112,13 +177,14 @@ public class ServiceWebSocket
 
     private Map<Session, WebsockSession> fSessions;
     private Map<Session, IMessageHandler> fHandlers;
-    private StoredProcedureHandler fStoredProcs;
-    private CypherCallEngine fCypher;
+    private IAuthHandler fAuthHandler;
     private SecurityInterceptor fInterceptor;
 
     /**
      * Creates a service websocket, activating the database in necessary,
      * loading initial data and setting up persistent stored procedures.
+     *
+     * @throws RuntimeException if the configuration is invalid
      */
     public ServiceWebSocket()
     {
@@ -127,43 +193,244 @@ public class ServiceWebSocket
             WebsockContextHandler context = WebsockContextHandler.getInstance();
 
             fConfig = context.getConfig();
-            fDb = context.getDatabase();
 
             //configure optional authentication
             configureSecurity();
 
             //configure transfer format
-            final ImplUtil impl = configureTransfer();
+            fImpl = configureTransfer();
 
             //TODO: load initial data?
 
-            final Map<String, IStoredProcedure> procs =
-                new HashMap<String, IStoredProcedure>();
-
-            //load stored Cypher procedures
-            CypherProcedureLoader cpl = new CypherProcedureLoader(fDb);
-            procs.putAll(cpl.getProcedures());
-
-            //load native stored procedures
-            GuiceProcedureLoader gpl = new GuiceProcedureLoader(fDb, impl);
-            procs.putAll(gpl.getProcedures());
-
-            //load Neo4j utility service procedures
-            Neo4jServiceProcedures neo4jSvc = new Neo4jServiceProcedures(fDb);
-            procs.putAll(neo4jSvc.getProcedures());
-
-            fStoredProcs = new StoredProcedureHandler(fDb, procs, impl);
-            fCypher = new CypherCallEngine(fDb, impl);
+            configureAsync(fConfig);
 
             fSessions = new HashMap<Session, WebsockSession>();
             fHandlers = new HashMap<Session, IMessageHandler>();
         }
         catch(Exception e)
         {
-            e.printStackTrace();
             fLogger.log(Level.SEVERE,
                 "could not initialize service websocket", e);
+            throw new RuntimeException(
+                "could not initialize service websocket", e);
+        }
+    }
+
+    /**
+     * Loads the stored procedures of all databases, including those
+     * restored from the journals, if this has not happened yet. Called on
+     * startup so the first connecting clients don't have to wait.
+     *
+     * @throws Exception if the procedures of a database can't be loaded
+     */
+    public static void initProcedures() throws Exception
+    {
+        final GraphConfig config =
+            WebsockContextHandler.getInstance().getConfig();
+        configureAsync(config);
+
+        String format = config.getProperty(DEF_FORMAT_PROP);
+        if(format == null || format.isEmpty())
+        {
+            format = DEF_FORMAT;
+        }
+        final ImplUtil impl = createImpl(format);
+
+        for(DatabaseContext database
+            : WebsockContextHandler.getInstance().getDatabases())
+        {
+            getProcedures(database, impl);
+        }
+    }
+
+    private static void configureAsync(final GraphConfig config)
+    {
+        //size of the shared pool for asynchronous procedures
+        String asyncThreads = config.getProperty(ASYNC_THREADS_PROP);
+        if(asyncThreads == null || asyncThreads.isEmpty())
+        {
+            asyncThreads = DEF_ASYNC_THREADS;
+        }
+        AsyncProcedurePool.getInstance().setThreads(
+            Integer.parseInt(asyncThreads));
+    }
+
+    private static DatabaseProcedures getProcedures(
+        final DatabaseContext database, final ImplUtil impl) throws Exception
+    {
+        synchronized(REGISTRY_LOCK)
+        {
+            DatabaseProcedures procedures = fProcedures.get(
+                database.getName());
+
+            if(procedures == null)
+            {
+                procedures = loadProcedures(database, impl);
+                fProcedures.put(database.getName(), procedures);
+            }
+
+            return procedures;
+        }
+    }
+
+    private static DatabaseProcedures loadProcedures(
+        final DatabaseContext database, final ImplUtil impl) throws Exception
+    {
+        final Logger logger = Logger.getLogger(
+            ServiceWebSocket.class.getName());
+        final GraphConfig config = database.getConfig();
+        final GraphDatabaseService db = database.getDatabase();
+
+        //size of the database's index lookup cache
+        String indexCache = config.getProperty(INDEX_CACHE_PROP);
+        if(indexCache == null || indexCache.isEmpty())
+        {
+            indexCache = DEF_INDEX_CACHE;
+        }
+        IndexLookupCache.getInstance(db).setMaxEntries(
+            Integer.parseInt(indexCache));
+
+        final long start = System.nanoTime();
+        final ProcedureRegistry registry = new ProcedureRegistry();
+        final BulkheadRegistry bulkheads = new BulkheadRegistry();
+        final ProcedureFileWatcher watcher =
+            new ProcedureFileWatcher(registry, bulkheads);
+        final LoadingReport report = new LoadingReport();
+
+        String threads = config.getProperty(LOADER_THREADS_PROP);
+        if(threads == null || threads.isEmpty())
+        {
+            threads = DEF_LOADER_THREADS;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(
+            Integer.parseInt(threads));
+
+        try
+        {
+            //load Neo4j utility service procedures meanwhile
+            final Future<Map<String, IStoredProcedure>> neo4jSvc =
+                executor.submit(new Callable<Map<String, IStoredProcedure>>()
+            {
+                @Override
+                public Map<String, IStoredProcedure> call()
+                {
+                    final long svcStart = System.nanoTime();
+                    final Map<String, IStoredProcedure> procs =
+                        new Neo4jServiceProcedures(db).getProcedures();
+                    report.record(LoadingReport.PROVIDER,
+                        Neo4jServiceProcedures.class.getSimpleName(),
+                        System.nanoTime() - svcStart, procs.size());
+                    return procs;
+                }
+            });
+
+            //load stored Cypher and native procedures, native
+            //definitions overriding Cypher ones
+            final GuiceProcedureLoader nativeLoader =
+                new GuiceProcedureLoader(db, impl);
+            nativeLoader.setReport(report);
+            nativeLoader.setBulkheads(bulkheads);
+
+            final CypherProcedureLoader cypherLoader =
+                new CypherProcedureLoader(db);
+            cypherLoader.setBulkheads(bulkheads);
+
+            final List<IProcedureFileProvider> providers =
+                new ArrayList<IProcedureFileProvider>();
+            providers.add(cypherLoader);
+            providers.add(nativeLoader);
+            watcher.addProviders(providers, executor, report);
+            nativeLoader.setReport(null);
+
+            //service procedures override loaded ones
+            registry.setLayer(EProcedureLayer.SERVICE, neo4jSvc.get());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        logger.log(Level.INFO, "loaded procedures of database '"
+            + database.getName() + "'");
+        report.log(logger, System.nanoTime() - start);
+
+        //restore procedures stored at runtime
+        ProcedureJournal journal = null;
+        String journalFile = config.getProperty(JOURNAL_PROP);
+        if(journalFile != null && !journalFile.isEmpty())
+        {
+            journal = new ProcedureJournal(journalFile);
+
+            final Map<String, IStoredProcedure> stored =
+                new HashMap<String, IStoredProcedure>();
+            for(Entry<String, String> stmE : journal.restore().entrySet())
+            {
+                stored.put(stmE.getKey(), new CypherProcedure(
+                    stmE.getKey(), db, stmE.getValue()));
+            }
+            registry.update(null, stored);
+        }
+
+        //reload changed definition files in the background
+        String reload = config.getProperty(RELOAD_PROP);
+        if(reload == null || reload.isEmpty())
+        {
+            reload = DEF_RELOAD;
         }
+        if(Boolean.parseBoolean(reload))
+        {
+            watcher.start();
+        }
+
+        //optionally group small writes into shared commits
+        GroupCommitter committer = null;
+        String batchable = config.getProperty(GROUP_COMMIT_PROP);
+        if(batchable != null && !batchable.trim().isEmpty())
+        {
+            String window = config.getProperty(GROUP_WINDOW_PROP);
+            if(window == null || window.isEmpty())
+            {
+                window = DEF_GROUP_WINDOW;
+            }
+            String size = config.getProperty(GROUP_SIZE_PROP);
+            if(size == null || size.isEmpty())
+            {
+                size = DEF_GROUP_SIZE;
+            }
+
+            committer = new GroupCommitter(db, Long.parseLong(window),
+                Integer.parseInt(size));
+            committer.addBatchable(Arrays.asList(
+                batchable.trim().split("\\s*,\\s*")));
+        }
+
+        final StoredProcedureHandler storedProcs =
+            new StoredProcedureHandler(db, registry, impl);
+        storedProcs.setJournal(journal);
+        storedProcs.setGroupCommitter(committer);
+        storedProcs.setReadiness(database);
+        storedProcs.setBulkheads(bulkheads);
+
+        //runtime bulkhead configuration by clients
+        String bulkheadConfig = config.getProperty(BULKHEAD_CONFIG_PROP);
+        if(bulkheadConfig == null || bulkheadConfig.isEmpty())
+        {
+            bulkheadConfig = DEF_BULKHEAD_CONFIG;
+        }
+        storedProcs.setBulkheadsConfigurable(
+            Boolean.parseBoolean(bulkheadConfig));
+
+        //users allowed to connect, all authenticated users if not restricted
+        Set<String> users = null;
+        String usersString = config.getProperty(DATABASE_USERS_PROP);
+        if(usersString != null && !usersString.trim().isEmpty())
+        {
+            users = new HashSet<String>(Arrays.asList(
+                usersString.trim().split("\\s*,\\s*")));
+        }
+
+        return new DatabaseProcedures(storedProcs,
+            new CypherCallEngine(db, impl), new SlowQueryLog(config), users);
     }
 
     private ImplUtil configureTransfer() throws Exception
@@ -204,12 +471,24 @@ public class ServiceWebSocket
 
         //set default list and map implementation
         //TODO: set per session
+        final ImplUtil impl = createImpl(fDefFormat);
+        if(!WebsockConstants.JSON_FORMAT.equals(fDefFormat)
+            && !WebsockConstants.BSON_FORMAT.equals(fDefFormat))
+        {
+            fDefFormat = DEF_FORMAT;
+        }
+
+        return impl;
+    }
+
+    private static ImplUtil createImpl(final String format)
+    {
         @SuppressWarnings("rawtypes")
         Class<? extends List> listClass = null;
         @SuppressWarnings("rawtypes")
         Class<? extends Map> mapClass = null;
 
-        switch(fDefFormat)
+        switch(format)
         {
             case WebsockConstants.JSON_FORMAT:
                 listClass = JSONList.class;
@@ -222,9 +501,9 @@ public class ServiceWebSocket
                 break;
 
             default:
-                fLogger.log(Level.WARNING, "unknown format '" + fDefFormat
+                Logger.getLogger(ServiceWebSocket.class.getName()).log(
+                    Level.WARNING, "unknown format '" + format
                     + "', switching to default");
-                fDefFormat = DEF_FORMAT;
                 listClass = LinkedList.class;
                 mapClass = HashMap.class;
         }
@@ -249,12 +528,11 @@ public class ServiceWebSocket
 
             IPasswordScrambler scrambler = new DefaultPasswordScrambler(
                 hashMethod);
-            IAuthHandler authHandler = new DefaultAuthHandler(userFile,
-                scrambler);
-            fInterceptor = new SecurityInterceptor(authHandler);
+            fAuthHandler = new DefaultAuthHandler(userFile, scrambler);
+            fInterceptor = new SecurityInterceptor(fAuthHandler);
         }
         else if(authType != null && !authType.isEmpty()
-            && AUTH_TYPE_NONE.equals(authType))
+            && !AUTH_TYPE_NONE.equals(authType))
         {
             fLogger.log(Level.SEVERE, "unknown authentication type: "
                 + authType + "\nstopping startup");
@@ -263,7 +541,11 @@ public class ServiceWebSocket
     }
 
     /**
-     * Opens a new session for a client, attaching a message handler.
+     * Opens a new session for a client, attaching a message handler for the
+     * selected database. The database is selected through the endpoint path
+     * or the "database" request parameter, otherwise the default database is
+     * used. Sessions for unknown databases are closed, as are sessions for
+     * databases restricted to certain users if authentication is disabled.
      *
      * @param session session opened
      * @param config configuration received
@@ -273,6 +555,46 @@ public class ServiceWebSocket
     {
         fLogger.log(Level.FINE, "opened session");
 
+        final DatabaseContext database = selectDatabase(
+            session.getPathParameters(), session.getRequestParameterMap());
+        DatabaseProcedures procedures = null;
+        if(database != null)
+        {
+            try
+            {
+                procedures = getProcedures(database, fImpl);
+            }
+            catch(Exception e)
+            {
+                fLogger.log(Level.SEVERE, "could not load stored procedures "
+                    + "of database '" + database.getName() + "'", e);
+            }
+        }
+
+        if(procedures == null)
+        {
+            close(session, CloseCodes.CANNOT_ACCEPT, "database not available");
+            return;
+        }
+
+        //restricted databases require authentication
+        SecurityInterceptor interceptor = fInterceptor;
+        if(procedures.fUsers != null)
+        {
+            if(fAuthHandler == null)
+            {
+                fLogger.log(Level.WARNING, "database '" + database.getName()
+                    + "' is restricted to users, but authentication is "
+                    + "disabled");
+                close(session, CloseCodes.VIOLATED_POLICY,
+                    "database not authorized");
+                return;
+            }
+
+            interceptor = new SecurityInterceptor(fAuthHandler,
+                procedures.fUsers);
+        }
+
         WebsockSession wsSess = new WebsockSession(session);
         fSessions.put(session, wsSess);
 
@@ -281,18 +603,71 @@ public class ServiceWebSocket
 
         if(!fThreading)
         {
-            handler = new ClientQueryHandler(wsSess, fStoredProcs, fCypher,
-                fInterceptor);
+            handler = new ClientQueryHandler(wsSess, procedures.fStoredProcs,
+                procedures.fCypher, procedures.fSlowLog, interceptor);
         }
         else
         {
-            handler = new ThreadedClientQueryHandler(wsSess, fStoredProcs,
-                fCypher, fInterceptor, fDefThreads);
+            handler = new ThreadedClientQueryHandler(wsSess,
+                procedures.fStoredProcs, procedures.fCypher,
+                procedures.fSlowLog, interceptor, fDefThreads);
         }
 
         fHandlers.put(session, handler);
     }
 
+    private void close(final Session session, final CloseCodes code,
+        final String reason)
+    {
+        try
+        {
+            session.close(new CloseReason(code, reason));
+        }
+        catch(IOException e)
+        {
+            fLogger.log(Level.WARNING, "could not close session", e);
+        }
+    }
+
+    /**
+     * Selects the database a session is routed to, by the endpoint path,
+     * then by the handshake parameter, otherwise the default database.
+     * None of the parameters may be null.
+     *
+     * @param pathParams path parameters of the session
+     * @param requestParams handshake request parameters of the session
+     * @return selected database or null if it is unknown
+     */
+    static DatabaseContext selectDatabase(final Map<String, String> pathParams,
+        final Map<String, List<String>> requestParams)
+    {
+        //endpoint path, then handshake parameter
+        String name = pathParams.get(DATABASE_PARAM);
+        if(name == null || name.isEmpty())
+        {
+            final List<String> values = requestParams.get(DATABASE_PARAM);
+            if(values != null && !values.isEmpty())
+            {
+                name = values.get(0);
+            }
+        }
+        if(name == null || name.isEmpty())
+        {
+            name = WebsockContextHandler.DEFAULT_DATABASE;
+        }
+
+        final DatabaseContext database = WebsockContextHandler.getInstance()
+            .getDatabaseContext(name);
+        if(database == null)
+        {
+            Logger.getLogger(ServiceWebSocket.class.getName()).log(
+                Level.WARNING, "session requested unknown database '"
+                + name + "'");
+        }
+
+        return database;
+    }
+
     /**
      * Closes a session for a client.
      *
@@ -360,10 +735,30 @@ public class ServiceWebSocket
             path = DEF_PATH;
         }
 
-        //start server
+        //start server, selecting databases by parameter or path
         Server server = new Server(host, portNum, path,
-            ServiceWebSocket.class);
+            ServiceWebSocket.class, DatabaseWebSocket.class);
 
         server.start();
     }
+
+    //handlers of a database, shared by all of its sessions
+    private static class DatabaseProcedures
+    {
+        private final StoredProcedureHandler fStoredProcs;
+        private final CypherCallEngine fCypher;
+        private final SlowQueryLog fSlowLog;
+
+        //users allowed to connect or null if not restricted
+        private final Set<String> fUsers;
+
+        public DatabaseProcedures(StoredProcedureHandler storedProcs,
+            CypherCallEngine cypher, SlowQueryLog slowLog, Set<String> users)
+        {
+            fStoredProcs = storedProcs;
+            fCypher = cypher;
+            fSlowLog = slowLog;
+            fUsers = users;
+        }
+    }
 }
@@ -18,6 +18,12 @@
  */
 package de.hofuniversity.iisys.neo4j.websock;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,20 +32,43 @@ import javax.servlet.ServletContextListener;
 
 import org.neo4j.graphdb.GraphDatabaseService;
 
-import de.hofuniversity.iisys.neo4j.websock.neo4j.INeo4jConnector;
-
 /**
  * Context handler, reading the configuration, setting up and shutting down the
- * database exactly once and providing it over a singleton object.
+ * databases exactly once and providing them over a singleton object.
+ * Besides the default database, additional named databases can be
+ * configured, each with its own connector, procedures and caches.
  */
 public class WebsockContextHandler implements ServletContextListener
 {
+    public static final String DEFAULT_DATABASE = "default";
+
+    public static final String WARMUP_PROP = "neo4j.warmup";
+    public static final String WARMUP_NONE = "none";
+    public static final String WARMUP_STARTUP = "startup";
+    public static final String WARMUP_BACKGROUND = "background";
+    public static final String DEF_WARMUP = WARMUP_NONE;
+
+    public static final String WARMUP_THREADS_PROP = "neo4j.warmup.threads";
+    public static final String DEF_WARMUP_THREADS = "4";
+
+    public static final String WARMUP_INDEXES_PROP = "neo4j.warmup.indexes";
+
+    public static final String WARMUP_TYPES_PROP = "neo4j.warmup.types";
+
+    public static final String WARMUP_PROPERTIES_PROP =
+        "neo4j.warmup.properties";
+    public static final String DEF_WARMUP_PROPERTIES = "true";
+
     private static WebsockContextHandler fInstance;
 
     private final Logger fLogger = Logger.getLogger(this.getClass().getName());
 
+    //started databases by name, the default database first
+    private final Map<String, DatabaseContext> fDatabases =
+        Collections.synchronizedMap(
+            new LinkedHashMap<String, DatabaseContext>());
+
     private GraphConfig fConfig;
-    private INeo4jConnector fConn;
 
     /**
      * @return single instance of this class
@@ -55,38 +84,95 @@ public class WebsockContextHandler implements ServletContextListener
         fInstance = this;
 
         fConfig = new GraphConfig();
-        fConn = fConfig.getConnector();
 
+        //default database and additional named databases
+        final List<DatabaseContext> contexts =
+            new ArrayList<DatabaseContext>();
         try
         {
-            fLogger.log(Level.INFO, "starting Neo4j database");
-            fConn.start();
+            contexts.add(new DatabaseContext(DEFAULT_DATABASE, fConfig));
+            for(String name : fConfig.getDatabaseNames())
+            {
+                contexts.add(new DatabaseContext(name,
+                    new GraphConfig(fConfig, name)));
+            }
         }
         catch(Exception e)
         {
             e.printStackTrace();
-            fLogger.log(Level.SEVERE, "could not start database", e);
+            fLogger.log(Level.SEVERE, "invalid database configuration", e);
+        }
+
+        //a failing database does not keep the others from being served
+        for(DatabaseContext context : contexts)
+        {
+            try
+            {
+                context.start();
+                fDatabases.put(context.getName(), context);
+            }
+            catch(Exception e)
+            {
+                e.printStackTrace();
+                fLogger.log(Level.SEVERE, "could not start database '"
+                    + context.getName() + "'", e);
+            }
+        }
+
+        try
+        {
+            //prepare stored procedures before accepting connections
+            ServiceWebSocket.initProcedures();
+        }
+        catch(Exception e)
+        {
+            fLogger.log(Level.SEVERE, "could not load stored procedures", e);
+            throw new RuntimeException("could not load stored procedures", e);
         }
     }
 
     @Override
     public void contextDestroyed(ServletContextEvent arg0)
     {
-        try
+        final List<DatabaseContext> contexts =
+            new ArrayList<DatabaseContext>(fDatabases.values());
+        fDatabases.clear();
+
+        for(DatabaseContext context : contexts)
         {
-            fLogger.log(Level.INFO, "stopping Neo4j database");
-            fConn.shutdown();
+            try
+            {
+                context.shutdown();
+            }
+            catch(Exception e)
+            {
+                e.printStackTrace();
+                fLogger.log(Level.SEVERE, "could not stop database '"
+                    + context.getName() + "'", e);
+            }
         }
-        catch(Exception e)
+    }
+
+    /**
+     * @return whether startup including background warm-ups is complete
+     */
+    public boolean isReady()
+    {
+        for(DatabaseContext context : getDatabases())
         {
-            e.printStackTrace();
-            fLogger.log(Level.SEVERE, "could not stop database", e);
+            if(!context.isReady())
+            {
+                return false;
+            }
         }
+
+        return true;
     }
 
     /**
      * Initializes the context without reading external files using the given
-     * configuration object.
+     * configuration object, registering the default and the configured named
+     * databases without starting them.
      *
      * @param config configuration to use
      */
@@ -95,7 +181,14 @@ public class WebsockContextHandler implements ServletContextListener
         fInstance = this;
 
         fConfig = config;
-        fConn = fConfig.getConnector();
+        fDatabases.clear();
+        fDatabases.put(DEFAULT_DATABASE,
+            new DatabaseContext(DEFAULT_DATABASE, config));
+        for(String name : config.getDatabaseNames())
+        {
+            fDatabases.put(name,
+                new DatabaseContext(name, new GraphConfig(config, name)));
+        }
     }
 
     /**
@@ -107,10 +200,71 @@ public class WebsockContextHandler implements ServletContextListener
     }
 
     /**
-     * @return database service interface
+     * Returns the configuration of the served database the given service
+     * belongs to, or the default configuration if it is not known.
+     *
+     * @param database database service interface
+     * @return configuration of the database
+     */
+    public GraphConfig getConfig(GraphDatabaseService database)
+    {
+        GraphConfig config = fConfig;
+
+        for(DatabaseContext context : getDatabases())
+        {
+            if(database != null && database == context.getDatabase())
+            {
+                config = context.getConfig();
+                break;
+            }
+        }
+
+        return config;
+    }
+
+    /**
+     * @return default database service interface
      */
     public GraphDatabaseService getDatabase()
     {
-        return fConn.getService();
+        return getDatabase(DEFAULT_DATABASE);
+    }
+
+    /**
+     * @param name name of a database
+     * @return database service interface or null if there is no such
+     *  database
+     */
+    public GraphDatabaseService getDatabase(String name)
+    {
+        final DatabaseContext context = getDatabaseContext(name);
+
+        GraphDatabaseService database = null;
+        if(context != null)
+        {
+            database = context.getDatabase();
+        }
+
+        return database;
+    }
+
+    /**
+     * @param name name of a database
+     * @return context of the database or null if there is no such database
+     */
+    public DatabaseContext getDatabaseContext(String name)
+    {
+        return fDatabases.get(name);
+    }
+
+    /**
+     * @return contexts of all served databases, the default database first
+     */
+    public Collection<DatabaseContext> getDatabases()
+    {
+        synchronized(fDatabases)
+        {
+            return new ArrayList<DatabaseContext>(fDatabases.values());
+        }
     }
 }
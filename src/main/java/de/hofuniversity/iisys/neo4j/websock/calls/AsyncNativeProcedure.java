@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.calls;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import de.hofuniversity.iisys.neo4j.websock.result.AResultSet;
+
+/**
+ * Native procedure calling a Java method that returns a result promise
+ * instead of a result set, allowing it to complete on another thread, for
+ * example one of the AsyncProcedurePool's.
+ */
+public class AsyncNativeProcedure extends NativeProcedure
+    implements IAsyncProcedure
+{
+    /**
+     * Creates a named asynchronous native procedure, which calls the given
+     * method on the given object, mapping the sequence of parameters using
+     * the given list of parameter names in that order.
+     * Name, object and method may not be null and the method has to return a
+     * ResultPromise.
+     *
+     * @param name name of the procedure
+     * @param object object to call the method on
+     * @param method method to call
+     * @param paramNames ordered list of parameter names
+     */
+    public AsyncNativeProcedure(String name, Object object, Method method,
+        List<String> paramNames)
+    {
+        super(name, object, method, paramNames);
+
+        if(!ResultPromise.class.isAssignableFrom(method.getReturnType()))
+        {
+            throw new IllegalArgumentException("method " + method.getName()
+                + " does not return a result promise");
+        }
+    }
+
+    @Override
+    public ResultPromise callAsync(final Map<String, Object> parameters)
+    {
+        return (ResultPromise) invoke(parameters);
+    }
+
+    @Override
+    public AResultSet<?> call(final Map<String, Object> parameters)
+    {
+        try
+        {
+            return callAsync(parameters).get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for "
+                + getName(), e);
+        }
+        catch(ExecutionException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.calls;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.hofuniversity.iisys.neo4j.websock.result.AResultSet;
+
+/**
+ * Small shared thread pool for asynchronous procedures, completing their
+ * promises from its own threads so slow or waiting work does not occupy the
+ * threads handling client messages.
+ */
+public class AsyncProcedurePool
+{
+    private static final int DEF_THREADS = 4;
+
+    private static final Object INSTANCE_LOCK = new Object();
+
+    private static AsyncProcedurePool fInstance;
+
+    private final ThreadPoolExecutor fExecutor;
+
+    /**
+     * @return existing or newly created procedure pool
+     */
+    public static AsyncProcedurePool getInstance()
+    {
+        synchronized(INSTANCE_LOCK)
+        {
+            if(fInstance == null)
+            {
+                fInstance = new AsyncProcedurePool(DEF_THREADS);
+            }
+        }
+
+        return fInstance;
+    }
+
+    /**
+     * Creates a procedure pool with the given number of daemon threads.
+     * To use the shared pool, use the class' getInstance method.
+     *
+     * @param threads number of threads, at least 1
+     */
+    public AsyncProcedurePool(int threads)
+    {
+        if(threads < 1)
+        {
+            throw new IllegalArgumentException("at least one thread needed");
+        }
+
+        final AtomicInteger count = new AtomicInteger();
+        fExecutor = new ThreadPoolExecutor(threads, threads, 60,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "async-procedure-"
+                    + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        fExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Changes the number of threads in the pool.
+     *
+     * @param threads number of threads, at least 1
+     */
+    public void setThreads(int threads)
+    {
+        if(threads < 1)
+        {
+            throw new IllegalArgumentException("at least one thread needed");
+        }
+
+        //keep core size <= maximum size during the change
+        if(threads > fExecutor.getMaximumPoolSize())
+        {
+            fExecutor.setMaximumPoolSize(threads);
+            fExecutor.setCorePoolSize(threads);
+        }
+        else
+        {
+            fExecutor.setCorePoolSize(threads);
+            fExecutor.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * Runs the given task on one of the pool's threads, completing the
+     * returned promise with its result or error.
+     * The task must not be null.
+     *
+     * @param task task computing a procedure result
+     * @return promise for the task's result
+     */
+    public ResultPromise submit(final Callable<AResultSet<?>> task)
+    {
+        if(task == null)
+        {
+            throw new NullPointerException("task was null");
+        }
+
+        final ResultPromise promise = new ResultPromise();
+
+        fExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if(promise.isDone())
+                {
+                    //cancelled before starting
+                    return;
+                }
+
+                try
+                {
+                    promise.complete(task.call());
+                }
+                catch(Throwable t)
+                {
+                    promise.fail(t);
+                }
+            }
+        });
+
+        return promise;
+    }
+}
@@ -18,18 +18,24 @@
  */
 package de.hofuniversity.iisys.neo4j.websock.calls;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.neo4j.cypher.javacompat.ExecutionEngine;
 import org.neo4j.cypher.javacompat.ExecutionResult;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
 
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.ConversionTimer;
 import de.hofuniversity.iisys.neo4j.websock.neo4j.util.CypherResultConverter;
 import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
 import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
 import de.hofuniversity.iisys.neo4j.websock.result.AResultSet;
+import de.hofuniversity.iisys.neo4j.websock.result.TableResult;
 import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
 import de.hofuniversity.iisys.neo4j.websock.util.ImplUtil;
 import de.hofuniversity.iisys.neo4j.websock.util.ResultSetConverter;
@@ -72,8 +78,18 @@ public class CypherCallEngine
         fLogger = Logger.getLogger(this.getClass().getName());
     }
 
+    /**
+     * @return database queries are executed on
+     */
+    public GraphDatabaseService getDatabase()
+    {
+        return fDb;
+    }
+
     /**
      * Executes the Cypher query contained in the given message.
+     * If the payload is a list of statements, they are executed as a batch
+     * in a single transaction.
      * The given message must not be null or of an incompatible type.
      *
      * @param query message containing the query to execute
@@ -81,6 +97,11 @@ public class CypherCallEngine
      */
     public WebsockQuery call(WebsockQuery query)
     {
+        if(query.getPayload() instanceof List<?>)
+        {
+            return callBatch(query);
+        }
+
         WebsockQuery response = null;
         ExecutionResult result = null;
 
@@ -108,6 +129,119 @@ public class CypherCallEngine
         return response;
     }
 
+    /**
+     * Executes a list of Cypher statements in a single transaction, returning
+     * a list of results, one per statement. Each entry is either a query
+     * String or a map containing the query and its parameters. Parameters
+     * can reference results of previous statements in the batch.
+     * If any statement fails, the whole batch is rolled back.
+     * The given message must not be null and must contain a list payload.
+     *
+     * @param query message containing the batch to execute
+     * @return response
+     */
+    public WebsockQuery callBatch(WebsockQuery query)
+    {
+        WebsockQuery response = null;
+
+        final List<?> statements = (List<?>) query.getPayload();
+        final List<List<Map<String, Object>>> stmRows =
+            new ArrayList<List<Map<String, Object>>>(statements.size());
+        final List<Object> results = new ArrayList<Object>(statements.size());
+
+        int index = 0;
+        Transaction tx = fDb.beginTx();
+
+        try
+        {
+            String statement = null;
+            Map<String, Object> params = null;
+            ExecutionResult result = null;
+            List<Map<String, Object>> rows = null;
+            TableResult table = null;
+            long converting = 0;
+
+            for(Object stmObj : statements)
+            {
+                statement = getStatement(stmObj);
+                params = getStatementParams(stmObj, stmRows);
+
+                result = fEngine.execute(statement, params);
+
+                //keep unconverted rows for references
+                rows = new ArrayList<Map<String, Object>>();
+                for(Map<String, Object> row : result)
+                {
+                    rows.add(row);
+                }
+                stmRows.add(rows);
+
+                table = CypherResultConverter.toTableResult(result.columns(),
+                    rows.iterator(), 0, 0, CypherResultConverter
+                        .getProjection(params.get(ServerQueries.FIELDS)));
+                converting = System.nanoTime();
+                results.add(ResultSetConverter.toMap(table, fImpl.newMap()));
+                ConversionTimer.add(System.nanoTime() - converting);
+
+                ++index;
+            }
+
+            tx.success();
+
+            response = new WebsockQuery(query.getId(), EQueryType.RESULT);
+            response.setPayload(results);
+        }
+        catch(Exception e)
+        {
+            tx.failure();
+
+            e.printStackTrace();
+            fLogger.log(Level.SEVERE, "failed to execute Cypher batch", e);
+
+            response = new WebsockQuery(query.getId(), EQueryType.ERROR);
+            response.setPayload("failed to execute batch statement " + index
+                + ":\n" + e.getMessage());
+        }
+        finally
+        {
+            tx.finish();
+        }
+
+        return response;
+    }
+
+    private String getStatement(final Object stmObj)
+    {
+        Object statement = stmObj;
+
+        if(stmObj instanceof Map<?, ?>)
+        {
+            statement = ((Map<?, ?>) stmObj).get(ServerQueries.STATEMENT);
+        }
+
+        if(statement == null)
+        {
+            throw new NullPointerException("batch statement was null");
+        }
+
+        return statement.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> getStatementParams(final Object stmObj,
+        final List<List<Map<String, Object>>> stmRows)
+    {
+        Map<String, Object> given = null;
+
+        if(stmObj instanceof Map<?, ?>)
+        {
+            given = (Map<String, Object>)
+                ((Map<?, ?>) stmObj).get(ServerQueries.STATEMENT_PARAMS);
+        }
+
+        return ResultReferences.resolveAll(given, stmRows);
+    }
+
     private WebsockQuery handleResult(final WebsockQuery query,
         final ExecutionResult result) throws Exception
     {
@@ -127,13 +261,19 @@ public class CypherCallEngine
         }
         max += first;
 
+        //property projection
+        final Map<String, Set<String>> projection = CypherResultConverter
+            .getProjection(query.getParameter(ServerQueries.FIELDS));
+
         AResultSet<?> resultSet = CypherResultConverter.toTableResult(result,
-            first, max);
+            first, max, projection);
         WebsockQuery response = new WebsockQuery(query.getId(),
             EQueryType.RESULT);
 
+        final long converting = System.nanoTime();
         final Map<String, Object> map = fImpl.newMap();
         response.setPayload(ResultSetConverter.toMap(resultSet, map));
+        ConversionTimer.add(System.nanoTime() - converting);
         return response;
     }
 }
@@ -18,31 +18,62 @@
  */
 package de.hofuniversity.iisys.neo4j.websock.calls;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.neo4j.cypher.javacompat.ExecutionEngine;
 import org.neo4j.cypher.javacompat.ExecutionResult;
 import org.neo4j.graphdb.GraphDatabaseService;
 
 import de.hofuniversity.iisys.neo4j.websock.neo4j.util.CypherResultConverter;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.IndexLookupCache;
 import de.hofuniversity.iisys.neo4j.websock.result.AResultSet;
 import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
 
 /**
  * Wrapper for a stored, named Cypher statement that can be executed with
  * different parameters.
+ * Legacy index lookups with parameters in START clauses, like
+ * "node:persons({idLookup})" or "node:persons(id={id})", are resolved
+ * through the database's IndexLookupCache and passed to the statement as
+ * node IDs.
  */
 public class CypherProcedure implements IStoredProcedure
 {
+    //"node:<index>({<query>})" or "node:<index>(<key>={<value>})"
+    private static final Pattern LOOKUP_PATTERN = Pattern.compile(
+        "node:(\\w+)\\(\\s*(?:(\\w+)\\s*=\\s*)?\\{(\\w+)\\}\\s*\\)");
+
+    private static final String LOOKUP_PARAM = "websockLookup";
+
+    //clauses modifying the graph
+    private static final Pattern WRITE_PATTERN = Pattern.compile(
+        "\\b(CREATE|MERGE|SET|DELETE|REMOVE|FOREACH|DROP)\\b",
+        Pattern.CASE_INSENSITIVE);
+
+    //string literals and quoted identifiers, ignored when classifying
+    private static final Pattern LITERAL_PATTERN = Pattern.compile(
+        "\"(?:[^\"\\\\]|\\\\.)*\"|'(?:[^'\\\\]|\\\\.)*'|`[^`]*`");
+
     private final String fName;
     private final String fQuery;
+    private final boolean fReadOnly;
 
     private final GraphDatabaseService fDb;
     private final ExecutionEngine fEngine;
     private final Logger fLogger;
 
+    private final IndexLookupCache fLookups;
+    private final String fLookupQuery;
+    private final List<String[]> fLookupParams;
+
     /**
      * Creates a stored cypher procedure that executes a prepared statement
      * on the given database when called by its name.
@@ -70,10 +101,48 @@ public class CypherProcedure implements IStoredProcedure
 
         fName = name;
         fQuery = query;
+        fReadOnly = isReadOnly(query);
 
         fDb = database;
         fEngine = new ExecutionEngine(fDb);
         fLogger = Logger.getLogger(this.getClass().getName());
+
+        //replace index lookups by node IDs resolved through the cache
+        fLookupParams = new ArrayList<String[]>();
+        final Matcher matcher = LOOKUP_PATTERN.matcher(query);
+        final StringBuffer buffer = new StringBuffer();
+        while(matcher.find())
+        {
+            final String param = LOOKUP_PARAM + fLookupParams.size();
+            fLookupParams.add(new String[] {matcher.group(1),
+                matcher.group(2), matcher.group(3), param});
+            matcher.appendReplacement(buffer, "node({" + param + "})");
+        }
+        matcher.appendTail(buffer);
+
+        if(fLookupParams.isEmpty())
+        {
+            fLookups = null;
+            fLookupQuery = null;
+        }
+        else
+        {
+            fLookups = IndexLookupCache.getInstance(fDb);
+            fLookupQuery = buffer.toString();
+        }
+    }
+
+    /**
+     * Classifies a Cypher statement as reading or modifying the graph.
+     *
+     * @param statement Cypher statement
+     * @return whether the statement only reads
+     */
+    public static boolean isReadOnly(String statement)
+    {
+        final String stripped = LITERAL_PATTERN.matcher(statement)
+            .replaceAll("''");
+        return !WRITE_PATTERN.matcher(stripped).find();
     }
 
     @Override
@@ -89,7 +158,7 @@ public class CypherProcedure implements IStoredProcedure
 
         try
         {
-            result = fEngine.execute(fQuery, parameters);
+            result = execute(parameters);
         }
         catch(Exception e)
         {
@@ -118,7 +187,75 @@ public class CypherProcedure implements IStoredProcedure
         }
         max += first;
 
-        return CypherResultConverter.toTableResult(result, first, max);
+        //property projection
+        final Map<String, Set<String>> projection = CypherResultConverter
+            .getProjection(parameters.get(ServerQueries.FIELDS));
+
+        return CypherResultConverter.toTableResult(result, first, max,
+            projection);
+    }
+
+    /**
+     * Executes the statement on the local database within the calling
+     * thread's transaction and returns its rows without converting them, so
+     * nodes and relationships can be passed on to further statements.
+     * The given parameter map must not be null.
+     *
+     * @param parameters parameters for the statement
+     * @return raw result rows by column
+     */
+    public List<Map<String, Object>> callRows(Map<String, Object> parameters)
+    {
+        final List<Map<String, Object>> rows =
+            new ArrayList<Map<String, Object>>();
+
+        for(Map<String, Object> row : execute(parameters))
+        {
+            rows.add(row);
+        }
+
+        return rows;
+    }
+
+    private ExecutionResult execute(final Map<String, Object> parameters)
+    {
+        if(fLookups == null)
+        {
+            return fEngine.execute(fQuery, parameters);
+        }
+
+        final Map<String, Object> params =
+            new HashMap<String, Object>(parameters);
+
+        for(String[] lookup : fLookupParams)
+        {
+            final Object value = parameters.get(lookup[2]);
+
+            //let the engine report missing parameters
+            if(value == null)
+            {
+                return fEngine.execute(fQuery, parameters);
+            }
+
+            long[] ids = null;
+            if(lookup[1] == null)
+            {
+                ids = fLookups.query(lookup[0], value);
+            }
+            else
+            {
+                ids = fLookups.get(lookup[0], lookup[1], value);
+            }
+
+            final List<Long> idList = new ArrayList<Long>(ids.length);
+            for(long id : ids)
+            {
+                idList.add(id);
+            }
+            params.put(lookup[3], idList);
+        }
+
+        return fEngine.execute(fLookupQuery, params);
     }
 
     @Override
@@ -127,6 +264,14 @@ public class CypherProcedure implements IStoredProcedure
         return false;
     }
 
+    /**
+     * @return whether the statement only reads data
+     */
+    public boolean isReadOnly()
+    {
+        return fReadOnly;
+    }
+
     /**
      * @return the internally stored Cypher query
      */
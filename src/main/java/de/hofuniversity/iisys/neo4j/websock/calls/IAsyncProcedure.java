@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.calls;
+
+import java.util.Map;
+
+/**
+ * Interface for stored procedures that complete their results
+ * asynchronously, so the calling thread does not have to wait for them.
+ * The synchronous call method is still used where a result has to be
+ * available immediately, for example within a client's transaction.
+ */
+public interface IAsyncProcedure extends IStoredProcedure
+{
+    /**
+     * Starts the procedure using the given parameters, returning a promise
+     * that is completed by whichever thread finishes the call.
+     *
+     * @param parameters parameter map
+     * @return promise for the procedure's result
+     */
+    public ResultPromise callAsync(Map<String, Object> parameters);
+}
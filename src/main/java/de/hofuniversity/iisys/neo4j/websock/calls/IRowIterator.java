@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.calls;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Lazy iterator over the rows of a streamed procedure result. Rows are only
+ * computed when requested and the iterator is closed as soon as no further
+ * rows are needed, releasing transactions or other resources held.
+ */
+public interface IRowIterator extends Iterator<List<Object>>
+{
+    /**
+     * @return names of the columns of all rows
+     */
+    public List<String> getColumns();
+
+    /**
+     * Releases all resources held by the iterator, even if not all rows have
+     * been read. Calling it more than once has no effect.
+     */
+    public void close();
+}
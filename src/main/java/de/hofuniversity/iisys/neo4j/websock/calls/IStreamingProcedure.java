@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.calls;
+
+import java.util.Map;
+
+/**
+ * Interface for a stored procedure that can return its results as a lazy
+ * stream of rows, which the caller reads incrementally and can abandon after
+ * the rows it needs.
+ */
+public interface IStreamingProcedure extends IStoredProcedure
+{
+    /**
+     * Calls the procedure with the given map of parameters, returning an
+     * iterator over the result rows that has to be closed by the caller.
+     *
+     * @param parameters parameters to pass
+     * @return iterator over result rows
+     */
+    public IRowIterator stream(Map<String, Object> parameters);
+}
@@ -160,7 +160,8 @@ public class LoggingCypherCallEngine
         max += first;
 
         AResultSet<?> resultSet = CypherResultConverter.toTableResult(result,
-            first, max);
+            first, max, CypherResultConverter.getProjection(
+                query.getParameter(ServerQueries.FIELDS)));
         WebsockQuery response = new WebsockQuery(query.getId(),
             EQueryType.RESULT);
 
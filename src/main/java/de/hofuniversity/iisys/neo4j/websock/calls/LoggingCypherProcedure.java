@@ -131,7 +131,9 @@ public class LoggingCypherProcedure implements IStoredProcedure
         }
         max += first;
 
-        TableResult r = CypherResultConverter.toTableResult(result, first, max);
+        TableResult r = CypherResultConverter.toTableResult(result, first, max,
+            CypherResultConverter.getProjection(
+                parameters.get(ServerQueries.FIELDS)));
 
         time = System.nanoTime() - time;
 
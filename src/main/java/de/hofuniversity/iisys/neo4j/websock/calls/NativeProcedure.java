@@ -18,9 +18,14 @@
  */
 package de.hofuniversity.iisys.neo4j.websock.calls;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import de.hofuniversity.iisys.neo4j.websock.result.AResultSet;
 import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
@@ -28,13 +33,26 @@ import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
 /**
  * Wrapper for a stored procedure, pointing to a Java method that can be
  * executed with different sets of named parameters.
+ * The method is bound to its object once when the procedure is created and
+ * the parameter names are resolved into an extraction plan, so that calls do
+ * not need reflective access checks or name comparisons.
+ * Numeric parameters of primitive types accept any number, which is unboxed
+ * using the matching conversion method. Arguments are still passed as an
+ * object array, so there is no separate path for primitive values.
  */
 public class NativeProcedure implements IStoredProcedure
 {
+    private static final Object[] NO_ARGS = new Object[0];
+
     private final String fName;
+    private final MethodHandle fInvoker;
+
+    //reflective fallback if the parameter names don't match the method
     private final Object fObject;
     private final Method fMethod;
-    private final List<String> fParamNames;
+
+    //extraction plan: parameter names, null for the options map
+    private final String[] fParamNames;
 
     private final int fParamCount;
 
@@ -42,7 +60,9 @@ public class NativeProcedure implements IStoredProcedure
      * Creates a named native procedure, which calls the given method on the
      * given object, mapping the sequence of parameters using the given list of
      * parameter names in that order.
-     * Name, object and method may not be null.
+     * Name, object and method may not be null. If the number of parameter
+     * names does not match the method's parameter count, a warning is logged
+     * and calls are passed on reflectively.
      *
      * @param name name of the procedure
      * @param object object to call the method on
@@ -66,20 +86,102 @@ public class NativeProcedure implements IStoredProcedure
         }
 
         fName = name;
-        fObject = object;
-        fMethod = method;
-        fParamNames = paramNames;
 
-        if(fParamNames == null)
+        if(paramNames == null)
         {
             fParamCount = 0;
         }
         else
         {
-            fParamCount = fParamNames.size();
+            fParamCount = paramNames.size();
+        }
+
+        //precompute parameter extraction
+        fParamNames = new String[fParamCount];
+        for(int i = 0; i < fParamCount; ++i)
+        {
+            final String paramName = paramNames.get(i);
+
+            if(!WebsockConstants.OPTIONS_MAP.equals(paramName))
+            {
+                fParamNames[i] = paramName;
+            }
+        }
+
+        if(method.getParameterTypes().length == fParamCount)
+        {
+            fInvoker = bind(object, method, fParamCount);
+            fObject = null;
+            fMethod = null;
+        }
+        else
+        {
+            Logger.getLogger(this.getClass().getName()).log(Level.WARNING,
+                "method " + method.getName() + " takes "
+                + method.getParameterTypes().length + " parameters, "
+                + fParamCount + " names given for procedure " + name);
+
+            fInvoker = null;
+            fObject = object;
+            fMethod = method;
         }
     }
 
+    private static MethodHandle bind(final Object object, final Method method,
+        final int paramCount)
+    {
+        MethodHandle handle = null;
+
+        final Class<?>[] types = method.getParameterTypes();
+
+        try
+        {
+            handle = MethodHandles.lookup().unreflect(method).bindTo(object);
+        }
+        catch(IllegalAccessException e)
+        {
+            throw new RuntimeException("method " + method.getName()
+                + " is not accessible", e);
+        }
+
+        //convert numbers directly to primitive parameter types
+        final MethodHandle[] filters = new MethodHandle[types.length];
+        boolean filtered = false;
+        for(int i = 0; i < types.length; ++i)
+        {
+            filters[i] = getNumberConverter(types[i]);
+            filtered |= filters[i] != null;
+        }
+        if(filtered)
+        {
+            handle = MethodHandles.filterArguments(handle, 0, filters);
+        }
+
+        //generic signature, taking an argument array and returning an object
+        handle = handle.asType(MethodType.genericMethodType(types.length));
+        return handle.asSpreader(Object[].class, paramCount);
+    }
+
+    private static MethodHandle getNumberConverter(final Class<?> type)
+    {
+        MethodHandle converter = null;
+
+        if(type.isPrimitive() && type != Boolean.TYPE && type != Character.TYPE)
+        {
+            try
+            {
+                converter = MethodHandles.lookup().findVirtual(Number.class,
+                    type.getName() + "Value", MethodType.methodType(type));
+            }
+            catch(Exception e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        return converter;
+    }
+
     @Override
     public String getName()
     {
@@ -90,35 +192,56 @@ public class NativeProcedure implements IStoredProcedure
     public AResultSet<?> call(final Map<String, Object> parameters)
     {
         AResultSet<?> result = null;
-        final Object[] args = new Object[fParamCount];
+        Object resObj = invoke(parameters);
+
+        if(resObj != null)
+        {
+            result = (AResultSet<?>) resObj;
+        }
+
+        return result;
+    }
+
+    /**
+     * Calls the method with the parameters extracted from the given map,
+     * returning its unconverted return value.
+     *
+     * @param parameters parameters to pass
+     * @return return value of the method or null
+     */
+    protected Object invoke(final Map<String, Object> parameters)
+    {
+        Object[] args = NO_ARGS;
 
         //extract matching parameters
-        String name = null;
-        Object param = null;
-        for(int i = 0; i < fParamCount; ++i)
+        if(fParamCount > 0)
         {
-            name = fParamNames.get(i);
+            args = new Object[fParamCount];
 
-            if(!WebsockConstants.OPTIONS_MAP.equals(name))
+            String name = null;
+            for(int i = 0; i < fParamCount; ++i)
             {
-                param = parameters.get(name);
-            }
-            else
-            {
-                param = parameters;
-            }
+                name = fParamNames[i];
 
-            args[i] = param;
+                if(name != null)
+                {
+                    args[i] = parameters.get(name);
+                }
+                else
+                {
+                    args[i] = parameters;
+                }
+            }
         }
 
         try
         {
-            Object resObj = fMethod.invoke(fObject, args);
-
-            if(resObj != null)
+            if(fInvoker == null)
             {
-                result = (AResultSet<?>) resObj;
+                return fMethod.invoke(fObject, args);
             }
+
+            return fInvoker.invokeExact(args);
         }
         //TODO: verbose error messages
         catch (Exception e)
@@ -126,8 +249,15 @@ public class NativeProcedure implements IStoredProcedure
             e.printStackTrace();
             throw new RuntimeException(e);
         }
-
-        return result;
+        catch (Error e)
+        {
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            //neither exception nor error, declared by the method handle
+            throw new RuntimeException(e);
+        }
     }
 
     @Override
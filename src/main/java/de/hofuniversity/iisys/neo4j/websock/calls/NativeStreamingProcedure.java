@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.calls;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import de.hofuniversity.iisys.neo4j.websock.result.AResultSet;
+import de.hofuniversity.iisys.neo4j.websock.result.TableResult;
+import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
+
+/**
+ * Native procedure calling a Java method that returns a lazy row iterator
+ * instead of a complete result set. When called without streaming support,
+ * the requested subset of rows is collected into a table result.
+ */
+public class NativeStreamingProcedure extends NativeProcedure
+    implements IStreamingProcedure
+{
+    /**
+     * Creates a named native streaming procedure, which calls the given
+     * method on the given object, mapping the sequence of parameters using
+     * the given list of parameter names in that order.
+     * Name, object and method may not be null and the method has to return an
+     * IRowIterator.
+     *
+     * @param name name of the procedure
+     * @param object object to call the method on
+     * @param method method to call
+     * @param paramNames ordered list of parameter names
+     */
+    public NativeStreamingProcedure(String name, Object object, Method method,
+        List<String> paramNames)
+    {
+        super(name, object, method, paramNames);
+
+        if(!IRowIterator.class.isAssignableFrom(method.getReturnType()))
+        {
+            throw new IllegalArgumentException("method " + method.getName()
+                + " does not return a row iterator");
+        }
+    }
+
+    @Override
+    public IRowIterator stream(final Map<String, Object> parameters)
+    {
+        return (IRowIterator) invoke(parameters);
+    }
+
+    @Override
+    public AResultSet<?> call(final Map<String, Object> parameters)
+    {
+        //pagination
+        Integer first =
+            (Integer) parameters.get(WebsockConstants.SUBSET_START);
+        Integer max =
+            (Integer) parameters.get(WebsockConstants.SUBSET_SIZE);
+
+        if(first == null)
+        {
+            first = 0;
+        }
+        if(max == null)
+        {
+            max = 0;
+        }
+
+        final List<List<Object>> entries = new ArrayList<List<Object>>();
+        final IRowIterator rows = stream(parameters);
+        int total = 0;
+
+        try
+        {
+            //stop reading once the subset is complete
+            while((max == 0 || entries.size() < max) && rows.hasNext())
+            {
+                if(total >= first)
+                {
+                    entries.add(rows.next());
+                }
+                else
+                {
+                    rows.next();
+                }
+
+                ++total;
+            }
+
+            if(rows.hasNext())
+            {
+                //not read completely, total unknown
+                total = -1;
+            }
+        }
+        finally
+        {
+            rows.close();
+        }
+
+        TableResult table = new TableResult(rows.getColumns(), entries);
+        table.setFirst(first);
+        if(max > 0)
+        {
+            table.setMax(max);
+        }
+        table.setTotal(total);
+
+        return table;
+    }
+}
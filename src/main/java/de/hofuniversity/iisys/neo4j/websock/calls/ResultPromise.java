@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.calls;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.hofuniversity.iisys.neo4j.websock.result.AResultSet;
+
+/**
+ * Future for a procedure result that is completed explicitly by whichever
+ * thread finishes the procedure. Registered callbacks are run on the
+ * completing thread or immediately if the promise is already completed.
+ */
+public class ResultPromise implements Future<AResultSet<?>>
+{
+    private final List<IResultCallback> fCallbacks;
+    private final Logger fLogger;
+
+    private boolean fDone = false;
+    private boolean fCancelled = false;
+    private AResultSet<?> fResult;
+    private Throwable fError;
+
+    /**
+     * Creates an uncompleted promise.
+     */
+    public ResultPromise()
+    {
+        fCallbacks = new ArrayList<IResultCallback>();
+        fLogger = Logger.getLogger(this.getClass().getName());
+    }
+
+    /**
+     * Completes the promise with the given result, which may be null.
+     * Has no effect if the promise is already completed.
+     *
+     * @param result result of the procedure
+     * @return whether the promise was completed by this call
+     */
+    public boolean complete(AResultSet<?> result)
+    {
+        return finish(result, null, false);
+    }
+
+    /**
+     * Completes the promise with the given error.
+     * Has no effect if the promise is already completed.
+     * The error must not be null.
+     *
+     * @param error cause of the failure
+     * @return whether the promise was completed by this call
+     */
+    public boolean fail(Throwable error)
+    {
+        if(error == null)
+        {
+            throw new NullPointerException("error was null");
+        }
+
+        return finish(null, error, false);
+    }
+
+    /**
+     * Registers a callback to be notified once the promise is completed.
+     * If it already is, the callback is called immediately on the calling
+     * thread. The callback must not be null.
+     *
+     * @param callback callback to register
+     */
+    public void addCallback(IResultCallback callback)
+    {
+        if(callback == null)
+        {
+            throw new NullPointerException("callback was null");
+        }
+
+        synchronized(this)
+        {
+            if(!fDone)
+            {
+                fCallbacks.add(callback);
+                return;
+            }
+        }
+
+        notifyCallback(callback);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        return finish(null, new CancellationException(), true);
+    }
+
+    @Override
+    public synchronized boolean isCancelled()
+    {
+        return fCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone()
+    {
+        return fDone;
+    }
+
+    @Override
+    public synchronized AResultSet<?> get() throws InterruptedException,
+        ExecutionException
+    {
+        while(!fDone)
+        {
+            wait();
+        }
+
+        return getResult();
+    }
+
+    @Override
+    public synchronized AResultSet<?> get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long remaining = unit.toNanos(timeout);
+
+        while(!fDone)
+        {
+            if(remaining <= 0)
+            {
+                throw new TimeoutException();
+            }
+
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+
+        return getResult();
+    }
+
+    private AResultSet<?> getResult() throws ExecutionException
+    {
+        if(fCancelled)
+        {
+            throw (CancellationException) fError;
+        }
+        if(fError != null)
+        {
+            throw new ExecutionException(fError);
+        }
+
+        return fResult;
+    }
+
+    private boolean finish(final AResultSet<?> result, final Throwable error,
+        final boolean cancelled)
+    {
+        List<IResultCallback> callbacks = null;
+
+        synchronized(this)
+        {
+            if(fDone)
+            {
+                return false;
+            }
+
+            fResult = result;
+            fError = error;
+            fCancelled = cancelled;
+            fDone = true;
+
+            callbacks = new ArrayList<IResultCallback>(fCallbacks);
+            fCallbacks.clear();
+            notifyAll();
+        }
+
+        //callbacks are run outside of the lock
+        for(IResultCallback callback : callbacks)
+        {
+            notifyCallback(callback);
+        }
+
+        return true;
+    }
+
+    private void notifyCallback(final IResultCallback callback)
+    {
+        try
+        {
+            if(fError == null)
+            {
+                callback.onResult(fResult);
+            }
+            else
+            {
+                callback.onError(fError);
+            }
+        }
+        catch(Exception e)
+        {
+            fLogger.log(Level.SEVERE, "result callback failed", e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.calls;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Utility resolving parameter values that reference rows of previously
+ * executed statements or procedures, in the form
+ * "$<index>.<column>[*]".
+ */
+public class ResultReferences
+{
+    /**
+     * Returns a copy of the given parameter map with all references resolved
+     * against the given rows of previous results.
+     * The list of previous results must not be null.
+     *
+     * @param given parameters to resolve or null
+     * @param results rows of previous results in order of execution
+     * @return map with resolved parameters
+     */
+    public static Map<String, Object> resolveAll(
+        final Map<String, Object> given,
+        final List<List<Map<String, Object>>> results)
+    {
+        final Map<String, Object> params = new HashMap<String, Object>();
+
+        if(given != null)
+        {
+            for(Entry<String, Object> paramE : given.entrySet())
+            {
+                params.put(paramE.getKey(),
+                    resolve(paramE.getValue(), results));
+            }
+        }
+
+        return params;
+    }
+
+    /**
+     * Resolves a single parameter value if it is a reference to a previous
+     * result, returning the first row's value or a list of all rows' values
+     * for a trailing "*". Other values are returned unchanged.
+     * The list of previous results must not be null.
+     *
+     * @param value parameter value to resolve
+     * @param results rows of previous results in order of execution
+     * @return resolved value
+     */
+    public static Object resolve(final Object value,
+        final List<List<Map<String, Object>>> results)
+    {
+        if(!(value instanceof String)
+            || !((String) value).startsWith(ServerQueries.REFERENCE_PREFIX))
+        {
+            return value;
+        }
+
+        //format: $<index>.<column>[*]
+        String ref = ((String) value).substring(
+            ServerQueries.REFERENCE_PREFIX.length());
+        final int dot = ref.indexOf('.');
+        if(dot < 1)
+        {
+            return value;
+        }
+
+        int index = -1;
+        try
+        {
+            index = Integer.parseInt(ref.substring(0, dot));
+        }
+        catch(NumberFormatException e)
+        {
+            //not a reference
+            return value;
+        }
+
+        if(index >= results.size())
+        {
+            throw new IllegalArgumentException("reference to statement "
+                + index + " which has not been executed yet");
+        }
+
+        String column = ref.substring(dot + 1);
+        final boolean all = column.endsWith(ServerQueries.REFERENCE_ALL);
+        if(all)
+        {
+            column = column.substring(0, column.length()
+                - ServerQueries.REFERENCE_ALL.length());
+        }
+
+        final List<Map<String, Object>> rows = results.get(index);
+        Object resolved = null;
+
+        if(all)
+        {
+            final List<Object> values = new ArrayList<Object>(rows.size());
+            for(Map<String, Object> row : rows)
+            {
+                values.add(row.get(column));
+            }
+            resolved = values;
+        }
+        else if(!rows.isEmpty())
+        {
+            resolved = rows.get(0).get(column);
+        }
+
+        return resolved;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.calls;
+
+/**
+ * Names and parameter keys of server-side query extensions that are not part
+ * of the common protocol's query types, but transported in the existing
+ * message types.
+ */
+public class ServerQueries
+{
+    /**
+     * Procedure call name beginning a transaction bound to the session.
+     */
+    public static final String BEGIN_TX = "$begin";
+
+    /**
+     * Procedure call name committing the session's transaction.
+     */
+    public static final String COMMIT_TX = "$commit";
+
+    /**
+     * Procedure call name rolling back the session's transaction.
+     */
+    public static final String ROLLBACK_TX = "$rollback";
+
+    /**
+     * Procedure call name executing a Cypher query or stored procedure in
+     * profiling mode, returning its execution plan with statistics.
+     */
+    public static final String PROFILE = "$profile";
+
+    /**
+     * Procedure call name returning the execution plan of a read-only Cypher
+     * query or stored procedure without reading results. Updating queries
+     * are rejected.
+     */
+    public static final String EXPLAIN = "$explain";
+
+    /**
+     * Parameter key naming the stored procedure to profile or explain.
+     */
+    public static final String PROFILED_PROCEDURE = "proc";
+
+    /**
+     * Key of the execution plan in a profiling response.
+     */
+    public static final String PLAN = "plan";
+
+    /**
+     * Key of an operator's name in an execution plan.
+     */
+    public static final String PLAN_NAME = "name";
+
+    /**
+     * Key of an operator's arguments in an execution plan.
+     */
+    public static final String PLAN_ARGS = "args";
+
+    /**
+     * Key of an operator's number of rows in an execution plan.
+     */
+    public static final String PLAN_ROWS = "rows";
+
+    /**
+     * Key of an operator's number of database hits in an execution plan.
+     */
+    public static final String PLAN_DB_HITS = "dbHits";
+
+    /**
+     * Key of an operator's child operators in an execution plan.
+     */
+    public static final String PLAN_CHILDREN = "children";
+
+    /**
+     * Parameter key for the properties of nodes and relationships to return,
+     * either a list of names for all columns or a map of lists by column.
+     * Names may contain "*" as a wildcard.
+     */
+    public static final String FIELDS = "$fields";
+
+    /**
+     * Column name in a field projection applying to all other columns.
+     */
+    public static final String ALL_COLUMNS = "*";
+
+    /**
+     * Key of a statement's Cypher query in a batch entry or profiling
+     * request.
+     */
+    public static final String STATEMENT = "stm";
+
+    /**
+     * Key of a statement's parameter map in a batch entry.
+     */
+    public static final String STATEMENT_PARAMS = "par";
+
+    /**
+     * Prefix of a parameter value referencing a previous statement's result
+     * in a batch or pipeline, in the form "$<statement index>.<column>".
+     * A trailing "*" references the column's values of all rows as a list.
+     */
+    public static final String REFERENCE_PREFIX = "$";
+
+    /**
+     * Suffix of a batch or pipeline reference selecting all rows.
+     */
+    public static final String REFERENCE_ALL = "*";
+
+    /**
+     * Procedure call name configuring a bulkhead, limiting the concurrent
+     * calls of the procedures assigned to it.
+     */
+    public static final String BULKHEAD = "$bulkhead";
+
+    /**
+     * Procedure call name returning the configuration and state of all
+     * bulkheads by name.
+     */
+    public static final String BULKHEADS = "$bulkheads";
+
+    /**
+     * Key of a bulkhead's name.
+     */
+    public static final String BULKHEAD_NAME = "name";
+
+    /**
+     * Key of a bulkhead's maximum number of concurrent calls.
+     */
+    public static final String BULKHEAD_LIMIT = "limit";
+
+    /**
+     * Key of a bulkhead's maximum number of waiting calls.
+     */
+    public static final String BULKHEAD_QUEUE = "queue";
+
+    /**
+     * Key of a bulkhead's maximum waiting time in milliseconds.
+     */
+    public static final String BULKHEAD_WAIT = "wait";
+
+    /**
+     * Key of the list of procedures assigned to a bulkhead.
+     */
+    public static final String BULKHEAD_PROCEDURES = "procs";
+
+    /**
+     * Key of a bulkhead's number of calls in progress.
+     */
+    public static final String BULKHEAD_ACTIVE = "active";
+
+    /**
+     * Key of a bulkhead's number of currently waiting calls.
+     */
+    public static final String BULKHEAD_QUEUED = "queued";
+
+    /**
+     * Key of a bulkhead's total number of rejected calls.
+     */
+    public static final String BULKHEAD_REJECTED = "rejected";
+
+    /**
+     * Procedure call name returning the numeric handles of all stored
+     * procedures, which can be used as call payloads instead of names.
+     */
+    public static final String HANDLES = "$handles";
+
+    /**
+     * Key of the map of procedure handles by name in a handle table.
+     */
+    public static final String HANDLE_TABLE = "handles";
+
+    /**
+     * Key of the procedure registry's version in a handle table.
+     */
+    public static final String REGISTRY_VERSION = "version";
+
+    /**
+     * Procedure call name returning whether the database has completed its
+     * startup, including a warm-up running in the background.
+     */
+    public static final String READY = "$ready";
+
+    /**
+     * Key of the readiness flag in the response to a readiness request.
+     */
+    public static final String READY_FIELD = "ready";
+
+    /**
+     * Parameter key for the number of rows after which a streaming
+     * procedure's rows are sent in a partial result message.
+     */
+    public static final String CHUNK_SIZE = "$chunk";
+
+    /**
+     * Parameter key marking a partial result message, which is followed by
+     * further results for the same query.
+     */
+    public static final String MORE = "$more";
+
+    /**
+     * Payload of a call executing a sequence of stored procedures in one
+     * transaction, only returning the last procedure's result.
+     */
+    public static final String PIPELINE = "$pipeline";
+
+    /**
+     * Parameter key for the list of steps in a pipeline.
+     */
+    public static final String PIPELINE_STEPS = "steps";
+
+    /**
+     * Key of a pipeline step's procedure name or handle.
+     */
+    public static final String PIPELINE_PROCEDURE = "proc";
+
+    /**
+     * Column name under which plain values of list results can be
+     * referenced in a pipeline.
+     */
+    public static final String PIPELINE_VALUE = "value";
+}
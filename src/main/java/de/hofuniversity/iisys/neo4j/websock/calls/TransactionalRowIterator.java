@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.calls;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Row iterator wrapping a lazy iterator that needs to be read within a
+ * transaction. The transaction is started on creation and finished as soon as
+ * the rows are exhausted or the iterator is closed, so it is only kept open
+ * as long as iteration needs it. Has to be read on the creating thread.
+ */
+public class TransactionalRowIterator implements IRowIterator
+{
+    private final List<String> fColumns;
+    private final Iterator<List<Object>> fRows;
+
+    private Transaction fTx;
+
+    /**
+     * Creates a row iterator, starting a transaction in the given database.
+     * None of the parameters may be null.
+     *
+     * @param database database to start the transaction in
+     * @param columns names of the columns
+     * @param rows lazy iterator over rows
+     */
+    public TransactionalRowIterator(GraphDatabaseService database,
+        List<String> columns, Iterator<List<Object>> rows)
+    {
+        if(database == null)
+        {
+            throw new NullPointerException("database service was null");
+        }
+        if(columns == null)
+        {
+            throw new NullPointerException("column list was null");
+        }
+        if(rows == null)
+        {
+            throw new NullPointerException("row iterator was null");
+        }
+
+        fColumns = columns;
+        fRows = rows;
+        fTx = database.beginTx();
+    }
+
+    @Override
+    public List<String> getColumns()
+    {
+        return fColumns;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if(fTx == null)
+        {
+            return false;
+        }
+
+        boolean next = false;
+
+        try
+        {
+            next = fRows.hasNext();
+        }
+        catch(RuntimeException e)
+        {
+            fTx.failure();
+            close();
+            throw e;
+        }
+
+        //finished as soon as exhausted
+        if(!next)
+        {
+            close();
+        }
+
+        return next;
+    }
+
+    @Override
+    public List<Object> next()
+    {
+        return fRows.next();
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close()
+    {
+        if(fTx != null)
+        {
+            fTx.success();
+            fTx.finish();
+            fTx = null;
+        }
+    }
+}
@@ -19,6 +19,8 @@
 package de.hofuniversity.iisys.neo4j.websock.handlers;
 
 import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,7 +31,9 @@ import de.hofuniversity.iisys.neo4j.websock.GraphConfig;
 import de.hofuniversity.iisys.neo4j.websock.ServiceWebSocket;
 import de.hofuniversity.iisys.neo4j.websock.WebsockContextHandler;
 import de.hofuniversity.iisys.neo4j.websock.calls.CypherCallEngine;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.ConversionTimer;
 import de.hofuniversity.iisys.neo4j.websock.neo4j.security.SecurityInterceptor;
+import de.hofuniversity.iisys.neo4j.websock.procedures.IResponseSink;
 import de.hofuniversity.iisys.neo4j.websock.procedures.StoredProcedureHandler;
 import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
 import de.hofuniversity.iisys.neo4j.websock.query.IMessageHandler;
@@ -51,23 +55,28 @@ public class ClientQueryHandler implements IMessageHandler
     private final Session fSession;
     private final Logger fLogger;
     private final TransferUtil fTransfer;
+    private final ClientSession fClientSess;
+    private final TransactionHandler fTxHandler;
+    private final SlowQueryLog fSlowLog;
 
     private final SecurityInterceptor fInteceptor;
     private String fAuthenticated;
 
     /**
      * Creates a query handler for the given session, using the given
-     * stored procedure handler and cypher call engine to execute queries.
+     * stored procedure handler and cypher call engine to execute queries and
+     * logging slow queries to the given log.
      * None of the parameters may be null.
      *
      * @param wsSess session information object
      * @param procHandler stored procedure handler to use
      * @param cypher cypher engine to use
+     * @param slowLog slow query log to use
      * @param interceptor security query interceptor (optional)
      */
     public ClientQueryHandler(WebsockSession wsSess,
         StoredProcedureHandler procHandler, CypherCallEngine cypher,
-        SecurityInterceptor interceptor)
+        SlowQueryLog slowLog, SecurityInterceptor interceptor)
     {
         if(wsSess == null)
         {
@@ -81,6 +90,10 @@ public class ClientQueryHandler implements IMessageHandler
         {
             throw new RuntimeException("cypher engine was null");
         }
+        if(slowLog == null)
+        {
+            throw new RuntimeException("slow query log was null");
+        }
 
         fWsSess = wsSess;
         fProcHandler = procHandler;
@@ -103,6 +116,17 @@ public class ClientQueryHandler implements IMessageHandler
             ServiceWebSocket.DEF_COMPRESSION_PROP);
         fTransfer.setFormat(format, comp);
 
+        //session state for client-controlled transactions
+        fClientSess = new ClientSession(fTransfer);
+        String timeout = config.getProperty(ServiceWebSocket.TX_TIMEOUT_PROP);
+        if(timeout == null || timeout.isEmpty())
+        {
+            timeout = ServiceWebSocket.DEF_TX_TIMEOUT;
+        }
+        fClientSess.setTransactionTimeout(Long.parseLong(timeout));
+        fTxHandler = new TransactionHandler(cypher.getDatabase());
+        fSlowLog = slowLog;
+
         fSession.addMessageHandler(btUtil);
         fSession.addMessageHandler(stUtil);
 
@@ -119,12 +143,15 @@ public class ClientQueryHandler implements IMessageHandler
     @Override
     public void dispose()
     {
-        //not needed
+        //roll back open transactions
+        fClientSess.dispose();
     }
 
-    private void handle(final WebsockQuery msg)
+    private void handle(final WebsockQuery msg, long decodeTime)
     {
         WebsockQuery response = null;
+        ConversionTimer.take();
+        final long start = System.nanoTime();
 
         switch(msg.getType())
         {
@@ -168,22 +195,40 @@ public class ClientQueryHandler implements IMessageHandler
                 response = handleUnknownType(msg);
                 break;
         }
+        final long executed = System.nanoTime();
+        final long convertTime = ConversionTimer.take();
 
         if(response != null)
         {
-            try
-            {
-                fTransfer.sendMessage(response);
-            }
-            catch (Exception e)
-            {
-                e.printStackTrace();
-                fLogger.log(Level.SEVERE,
-                    "failed to send response to client", e);
-            }
+            send(response);
+        }
+
+        if(fSlowLog.shouldLog(executed - start))
+        {
+            logQuery(msg, response, decodeTime,
+                executed - start - convertTime, convertTime,
+                System.nanoTime() - executed);
         }
     }
 
+    private void logQuery(WebsockQuery msg, WebsockQuery response,
+        long decodeTime, long execTime, long convertTime, long sendTime)
+    {
+        Map<String, Object> plan = null;
+
+        //plans can't be retrieved within client transactions
+        if(fSlowLog.isCapturingPlans()
+            && fSlowLog.isSlow(execTime + convertTime)
+            && fClientSess.getTransaction() == null)
+        {
+            plan = fSlowLog.capturePlan(msg, fProcHandler);
+        }
+
+        //not queued, handled directly
+        fSlowLog.log(msg, response, 0, decodeTime, execTime, convertTime,
+            sendTime, plan);
+    }
+
     private void handleUnauth(final WebsockQuery msg)
     {
         //query while no user is authenticated
@@ -218,16 +263,25 @@ public class ClientQueryHandler implements IMessageHandler
 
         if(response != null)
         {
-            try
+            send(response);
+        }
+    }
+
+    private void send(final WebsockQuery response)
+    {
+        try
+        {
+            //shared with threads completing asynchronous calls
+            synchronized(fTransfer)
             {
                 fTransfer.sendMessage(response);
             }
-            catch (Exception e)
-            {
-                e.printStackTrace();
-                fLogger.log(Level.SEVERE,
-                    "failed to send response to client", e);
-            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            fLogger.log(Level.SEVERE,
+                "failed to send response to client", e);
         }
     }
 
@@ -236,11 +290,17 @@ public class ClientQueryHandler implements IMessageHandler
     {
         try
         {
-            WebsockQuery query = fTransfer.convert(buffer);
+            final long received = System.nanoTime();
+            WebsockQuery query = null;
+            synchronized(fTransfer)
+            {
+                query = fTransfer.convert(buffer);
+            }
+            final long decoded = System.nanoTime();
 
             if(fAuthenticated != null)
             {
-                handle(query);
+                handle(query, decoded - received);
             }
             else
             {
@@ -259,11 +319,17 @@ public class ClientQueryHandler implements IMessageHandler
     {
         try
         {
-            WebsockQuery query = fTransfer.convert(message);
+            final long received = System.nanoTime();
+            WebsockQuery query = null;
+            synchronized(fTransfer)
+            {
+                query = fTransfer.convert(message);
+            }
+            final long decoded = System.nanoTime();
 
             if(fAuthenticated != null)
             {
-                handle(query);
+                handle(query, decoded - received);
             }
             else
             {
@@ -280,12 +346,45 @@ public class ClientQueryHandler implements IMessageHandler
     //TODO: security
     private WebsockQuery handleCall(final WebsockQuery msg)
     {
-        return fProcHandler.handleCall(msg);
+        if(fTxHandler.isControlMessage(msg))
+        {
+            return fTxHandler.handleControl(msg, fClientSess);
+        }
+
+        return fTxHandler.execute(msg, fClientSess,
+            new Callable<WebsockQuery>()
+        {
+            @Override
+            public WebsockQuery call() throws Exception
+            {
+                //asynchronous completion is only possible outside of
+                //client transactions
+                return fProcHandler.handleCall(msg, new IResponseSink()
+                {
+                    @Override
+                    public void send(WebsockQuery response) throws Exception
+                    {
+                        synchronized(fTransfer)
+                        {
+                            fTransfer.sendMessage(response);
+                        }
+                    }
+                }, fClientSess.getTransaction() == null);
+            }
+        });
     }
 
     private WebsockQuery handleQuery(final WebsockQuery msg)
     {
-        return fCypher.call(msg);
+        return fTxHandler.execute(msg, fClientSess,
+            new Callable<WebsockQuery>()
+        {
+            @Override
+            public WebsockQuery call() throws Exception
+            {
+                return fCypher.call(msg);
+            }
+        });
     }
 
     private WebsockQuery handlePing(final WebsockQuery msg)
@@ -18,17 +18,34 @@
  */
 package de.hofuniversity.iisys.neo4j.websock.handlers;
 
+import de.hofuniversity.iisys.neo4j.websock.calls.CypherCallEngine;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.security.SecurityInterceptor;
+import de.hofuniversity.iisys.neo4j.websock.procedures.StoredProcedureHandler;
 import de.hofuniversity.iisys.neo4j.websock.query.encoding.TransferUtil;
 
 /**
- * Session object containing a transfer utility and the currently authenticated
- * user.
+ * Session object containing a transfer utility, the currently authenticated
+ * user, an optional client-controlled transaction and optionally the
+ * handlers of the database the client is connected to.
  */
 public class ClientSession
 {
     private final TransferUtil fTransfer;
     private String fAuthenticated;
 
+    private volatile SessionTransaction fTransaction;
+    private long fTxTimeout;
+    private boolean fTxTimedOut;
+
+    private ResponderThread fResponder;
+    private int fBeginning;
+
+    private StoredProcedureHandler fProcHandler;
+    private CypherCallEngine fCypher;
+    private TransactionHandler fTxHandler;
+    private SlowQueryLog fSlowLog;
+    private SecurityInterceptor fInterceptor;
+
     /**
      * Creates a client session around the given transfer utility.
      * The given transfer utility must not be null.
@@ -70,4 +87,231 @@ public class ClientSession
     {
         fAuthenticated = user;
     }
+
+    /**
+     * @return currently open transaction or null
+     */
+    public SessionTransaction getTransaction()
+    {
+        return fTransaction;
+    }
+
+    /**
+     * Sets the currently open transaction for this session, clearing any
+     * pending timeout notice.
+     *
+     * @param transaction open transaction or null
+     */
+    public synchronized void setTransaction(SessionTransaction transaction)
+    {
+        fTransaction = transaction;
+        fTxTimedOut = false;
+
+        releasePin();
+    }
+
+    /**
+     * Removes the session's transaction if it was rolled back due to
+     * inactivity, remembering the timeout for the client's next message.
+     */
+    public synchronized void clearTimedOut()
+    {
+        if(fTransaction != null && fTransaction.isTimedOut())
+        {
+            fTransaction = null;
+            fTxTimedOut = true;
+
+            releasePin();
+        }
+    }
+
+    /**
+     * Returns whether the session's last transaction timed out since it was
+     * last asked, resetting the notice.
+     *
+     * @return whether the last transaction timed out
+     */
+    public synchronized boolean consumeTimedOut()
+    {
+        final boolean timedOut = fTxTimedOut;
+        fTxTimedOut = false;
+        return timedOut;
+    }
+
+    /**
+     * @return idle timeout for transactions in milliseconds
+     */
+    public long getTransactionTimeout()
+    {
+        return fTxTimeout;
+    }
+
+    /**
+     * Sets the idle timeout after which open transactions are rolled back.
+     * Values of zero or less disable the timeout.
+     *
+     * @param timeout idle timeout in milliseconds
+     */
+    public void setTransactionTimeout(long timeout)
+    {
+        fTxTimeout = timeout;
+    }
+
+    /**
+     * Sets the stored procedure handler, Cypher engine and slow query log of
+     * the database this session is connected to, which shared responders use
+     * instead of their own.
+     * None of the parameters may be null.
+     *
+     * @param procHandler stored procedure handler of the database
+     * @param cypher Cypher engine of the database
+     * @param slowLog slow query log of the database
+     */
+    public void setDatabaseHandlers(StoredProcedureHandler procHandler,
+        CypherCallEngine cypher, SlowQueryLog slowLog)
+    {
+        if(procHandler == null)
+        {
+            throw new NullPointerException(
+                "stored procedure handler was null");
+        }
+        if(cypher == null)
+        {
+            throw new NullPointerException("cypher query engine was null");
+        }
+        if(slowLog == null)
+        {
+            throw new NullPointerException("slow query log was null");
+        }
+
+        fProcHandler = procHandler;
+        fCypher = cypher;
+        fTxHandler = new TransactionHandler(cypher.getDatabase());
+        fSlowLog = slowLog;
+    }
+
+    /**
+     * @return the database's stored procedure handler or null if not set
+     */
+    public StoredProcedureHandler getProcedureHandler()
+    {
+        return fProcHandler;
+    }
+
+    /**
+     * @return the database's Cypher engine or null if not set
+     */
+    public CypherCallEngine getCypherEngine()
+    {
+        return fCypher;
+    }
+
+    /**
+     * @return the database's transaction handler or null if not set
+     */
+    public TransactionHandler getTransactionHandler()
+    {
+        return fTxHandler;
+    }
+
+    /**
+     * @return the database's slow query log or null if not set
+     */
+    public SlowQueryLog getSlowLog()
+    {
+        return fSlowLog;
+    }
+
+    /**
+     * Sets the security interceptor authorizing users for the database this
+     * session is connected to, which shared responders use instead of their
+     * own.
+     *
+     * @param interceptor security interceptor of the database or null
+     */
+    public void setSecurityInterceptor(SecurityInterceptor interceptor)
+    {
+        fInterceptor = interceptor;
+    }
+
+    /**
+     * @return the database's security interceptor or null if not set
+     */
+    public SecurityInterceptor getSecurityInterceptor()
+    {
+        return fInterceptor;
+    }
+
+    /**
+     * Returns the responder handling this session's messages, selecting one
+     * from the given pool if none is pinned. The session is only pinned to
+     * the responder while a transaction is open or possibly beginning, so
+     * messages following a transaction's begin are handled in order and
+     * within the transaction, while other messages are spread over the pool.
+     * The given pool must not be null.
+     *
+     * @param pool pool to select a responder from
+     * @param beginning whether the message may begin a transaction
+     * @return responder to enqueue the next message to or null
+     */
+    public synchronized ResponderThread acquireResponder(
+        HandlerThreadPool pool, boolean beginning)
+    {
+        ResponderThread responder = fResponder;
+        if(responder == null || !responder.isActive())
+        {
+            responder = pool.getThread();
+        }
+
+        if(responder != null && (beginning || fTransaction != null))
+        {
+            if(beginning)
+            {
+                ++fBeginning;
+            }
+            fResponder = responder;
+        }
+
+        return responder;
+    }
+
+    /**
+     * Signals that a message of this session has been handled by its
+     * responder.
+     *
+     * @param beginning whether the message was acquired as possibly beginning
+     *  a transaction
+     */
+    public synchronized void releaseResponder(boolean beginning)
+    {
+        if(beginning && fBeginning > 0)
+        {
+            --fBeginning;
+        }
+
+        releasePin();
+    }
+
+    private void releasePin()
+    {
+        //called while holding the lock
+        if(fBeginning == 0 && fTransaction == null)
+        {
+            fResponder = null;
+        }
+    }
+
+    /**
+     * Releases the session's resources, rolling back any open transaction.
+     */
+    public void dispose()
+    {
+        final SessionTransaction tx = fTransaction;
+        setTransaction(null);
+
+        if(tx != null)
+        {
+            tx.rollback();
+        }
+    }
 }
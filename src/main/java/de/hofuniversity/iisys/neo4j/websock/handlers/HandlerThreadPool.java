@@ -297,8 +297,8 @@ public class HandlerThreadPool
 
     private void addThread()
     {
-        ResponderThread thread = new ResponderThread(fProcHandler, fCypher,
-            fInterceptor);
+        ResponderThread thread = new ResponderThread(this, fProcHandler,
+            fCypher, fInterceptor);
         fThreads.add(thread);
         new Thread(thread).start();
     }
@@ -19,15 +19,18 @@
 package de.hofuniversity.iisys.neo4j.websock.handlers;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import de.hofuniversity.iisys.neo4j.websock.calls.CypherCallEngine;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.ConversionTimer;
 import de.hofuniversity.iisys.neo4j.websock.neo4j.security.SecurityInterceptor;
+import de.hofuniversity.iisys.neo4j.websock.procedures.IResponseSink;
 import de.hofuniversity.iisys.neo4j.websock.procedures.StoredProcedureHandler;
 import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
 import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
@@ -46,27 +49,36 @@ public class ResponderThread implements Runnable
 
     private final Map<ClientSession, TransferUtil> fTransUitls;
 
+    private final HandlerThreadPool fPool;
     private final StoredProcedureHandler fProcHandler;
     private final CypherCallEngine fCypher;
     private final SecurityInterceptor fInteceptor;
+    private final TransactionHandler fTxHandler;
+    private final SlowQueryLog fSlowLog;
 
     private final Logger fLogger;
 
     private int fWaiting = 0;
-    private boolean fActive = false;
+    private volatile boolean fActive = true;
 
     /**
-     * Creates a responder thread, using the given stored procedure handler and
-     * Cypher query engine to handle queries and the optional security
-     * interceptor for authentication.
+     * Creates a responder thread of the given pool, using the given stored
+     * procedure handler and Cypher query engine to handle queries and the
+     * optional security interceptor for authentication.
      *
+     * @param pool pool the responder belongs to
      * @param procHandler stored procedure handler to use
      * @param cypher Cypher query engine to use
      * @param interceptor security interceptor to use for authentication
      */
-    public ResponderThread(StoredProcedureHandler procHandler,
-        CypherCallEngine cypher, SecurityInterceptor interceptor)
+    public ResponderThread(HandlerThreadPool pool,
+        StoredProcedureHandler procHandler, CypherCallEngine cypher,
+        SecurityInterceptor interceptor)
     {
+        if(pool == null)
+        {
+            throw new NullPointerException("thread pool was null");
+        }
         if(procHandler == null)
         {
             throw new NullPointerException(
@@ -80,10 +92,13 @@ public class ResponderThread implements Runnable
         fTrigger = new Object();
         fLogger = Logger.getLogger(this.getClass().getName());
         fQueue = new LinkedList<QueryContainer>();
-        fTransUitls = new HashMap<ClientSession, TransferUtil>();
+        fTransUitls = new ConcurrentHashMap<ClientSession, TransferUtil>();
+        fPool = pool;
         fInteceptor = interceptor;
         fProcHandler = procHandler;
         fCypher = cypher;
+        fTxHandler = new TransactionHandler(cypher.getDatabase());
+        fSlowLog = SlowQueryLog.getInstance();
     }
 
     /**
@@ -127,12 +142,15 @@ public class ResponderThread implements Runnable
      *
      * @param buffer binary message received
      * @param session session to respond to
+     * @param beginning whether the session's responder was acquired for a
+     *  message possibly beginning a transaction
      */
-    public void enqueue(ByteBuffer buffer, ClientSession session)
+    public void enqueue(ByteBuffer buffer, ClientSession session,
+        boolean beginning)
     {
         synchronized(fQueue)
         {
-            fQueue.add(new QueryContainer(session, buffer));
+            fQueue.add(new QueryContainer(session, buffer, beginning));
             ++fWaiting;
         }
 
@@ -147,12 +165,38 @@ public class ResponderThread implements Runnable
      *
      * @param message text message received
      * @param session session to respond to
+     * @param beginning whether the session's responder was acquired for a
+     *  message possibly beginning a transaction
+     */
+    public void enqueue(String message, ClientSession session,
+        boolean beginning)
+    {
+        synchronized(fQueue)
+        {
+            fQueue.add(new QueryContainer(session, message, beginning));
+            ++fWaiting;
+        }
+
+        synchronized(fTrigger)
+        {
+            fTrigger.notify();
+        }
+    }
+
+    /**
+     * Enqueues a response completed asynchronously for sending to a certain
+     * client session, so only the responder's thread uses its transfer
+     * utilities.
+     *
+     * @param response response to send
+     * @param session session to send the response to
      */
-    public void enqueue(String message, ClientSession session)
+    public void enqueueResponse(WebsockQuery response,
+        ClientSession session)
     {
         synchronized(fQueue)
         {
-            fQueue.add(new QueryContainer(session, message));
+            fQueue.add(new QueryContainer(response, session));
             ++fWaiting;
         }
 
@@ -162,6 +206,14 @@ public class ResponderThread implements Runnable
         }
     }
 
+    /**
+     * @return whether the responder has not been deactivated
+     */
+    public boolean isActive()
+    {
+        return fActive;
+    }
+
     /**
      * @return number of waiting queries
      */
@@ -200,11 +252,12 @@ public class ResponderThread implements Runnable
     public void run()
     {
         final List<QueryContainer> handling = new LinkedList<QueryContainer>();
-        fActive = true;
 
         WebsockQuery query = null;
         ClientSession session = null;
         String user = null;
+        long dequeued = 0;
+        long decoded = 0;
         while(fActive)
         {
             synchronized(fQueue)
@@ -216,6 +269,23 @@ public class ResponderThread implements Runnable
             //waiting queries
             for(QueryContainer container : handling)
             {
+                session = container.getSession();
+                if(container.getResponse() != null)
+                {
+                    //completed asynchronously
+                    try
+                    {
+                        send(session, container.getResponse());
+                    }
+                    finally
+                    {
+                        session.releaseResponder(false);
+                    }
+                    --fWaiting;
+                    continue;
+                }
+
+                dequeued = System.nanoTime();
                 try
                 {
                     query = container.getQuery();
@@ -225,16 +295,25 @@ public class ResponderThread implements Runnable
                     e.printStackTrace();
                     //TODO: logging
                 }
+                decoded = System.nanoTime();
 
-                session = container.getSession();
                 user = session.getAuthenticatedUser();
-                if(user != null)
+                try
                 {
-                    handle(query, session);
+                    if(user != null)
+                    {
+                        handle(query, session,
+                            dequeued - container.getReceived(),
+                            decoded - dequeued);
+                    }
+                    else
+                    {
+                        handleUnauth(query, session);
+                    }
                 }
-                else
+                finally
                 {
-                    handleUnauth(query, session);
+                    session.releaseResponder(container.isBeginning());
                 }
                 --fWaiting;
             }
@@ -263,18 +342,21 @@ public class ResponderThread implements Runnable
         }
     }
 
-    private void handle(WebsockQuery msg, ClientSession session)
+    private void handle(WebsockQuery msg, ClientSession session,
+        long queueTime, long decodeTime)
     {
         WebsockQuery response = null;
+        ConversionTimer.take();
+        final long start = System.nanoTime();
 
         switch(msg.getType())
         {
             case PROCEDURE_CALL:
-                response = handleCall(msg);
+                response = handleCall(msg, session);
                 break;
 
             case DIRECT_CYPHER:
-                response = handleQuery(msg);
+                response = handleQuery(msg, session);
                 break;
 
             case PING:
@@ -286,11 +368,11 @@ public class ResponderThread implements Runnable
                 break;
 
             case STORE_PROCEDURE:
-                response = storeProcedure(msg);
+                response = storeProcedure(msg, session);
                 break;
 
             case DELETE_PROCEDURE:
-                response = deleteProcedure(msg);
+                response = deleteProcedure(msg, session);
                 break;
 
             case AUTHENTICATION:
@@ -309,22 +391,41 @@ public class ResponderThread implements Runnable
                 response = handleUnknownType(msg);
                 break;
         }
+        final long executed = System.nanoTime();
+        final long convertTime = ConversionTimer.take();
 
         if(response != null)
         {
-            try
-            {
-                fTransUitls.get(session).sendMessage(response);
-            }
-            catch (Exception e)
-            {
-                e.printStackTrace();
-                fLogger.log(Level.SEVERE,
-                    "failed to send response to client", e);
-            }
+            send(session, response);
+        }
+
+        if(getSlowLog(session).shouldLog(executed - start))
+        {
+            logQuery(msg, response, session, queueTime, decodeTime,
+                executed - start - convertTime, convertTime,
+                System.nanoTime() - executed);
         }
     }
 
+    private void logQuery(WebsockQuery msg, WebsockQuery response,
+        ClientSession session, long queueTime, long decodeTime,
+        long execTime, long convertTime, long sendTime)
+    {
+        final SlowQueryLog slowLog = getSlowLog(session);
+        Map<String, Object> plan = null;
+
+        //plans can't be retrieved within client transactions
+        if(slowLog.isCapturingPlans()
+            && slowLog.isSlow(execTime + convertTime)
+            && session.getTransaction() == null)
+        {
+            plan = slowLog.capturePlan(msg, getProcedureHandler(session));
+        }
+
+        slowLog.log(msg, response, queueTime, decodeTime, execTime,
+            convertTime, sendTime, plan);
+    }
+
     private void handleUnauth(final WebsockQuery msg, ClientSession session)
     {
         //query while no user is authenticated
@@ -359,27 +460,113 @@ public class ResponderThread implements Runnable
 
         if(response != null)
         {
-            try
-            {
-                fTransUitls.get(session).sendMessage(response);
-            }
-            catch (Exception e)
-            {
-                e.printStackTrace();
-                fLogger.log(Level.SEVERE,
-                    "failed to send response to client", e);
-            }
+            send(session, response);
         }
     }
 
-    private WebsockQuery handleCall(final WebsockQuery msg)
+    private void send(final ClientSession session,
+        final WebsockQuery response)
     {
-        return fProcHandler.handleCall(msg);
+        final TransferUtil util = fTransUitls.get(session);
+        if(util == null)
+        {
+            fLogger.log(Level.FINE, "dropped response to closed session");
+            return;
+        }
+
+        try
+        {
+            util.sendMessage(response);
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            fLogger.log(Level.SEVERE,
+                "failed to send response to client", e);
+        }
+    }
+
+    //handlers of the session's database, if it differs from the default
+    private StoredProcedureHandler getProcedureHandler(ClientSession session)
+    {
+        final StoredProcedureHandler procHandler =
+            session.getProcedureHandler();
+        return procHandler != null ? procHandler : fProcHandler;
     }
 
-    private WebsockQuery handleQuery(final WebsockQuery msg)
+    private CypherCallEngine getCypherEngine(ClientSession session)
     {
-        return fCypher.call(msg);
+        final CypherCallEngine cypher = session.getCypherEngine();
+        return cypher != null ? cypher : fCypher;
+    }
+
+    private TransactionHandler getTransactionHandler(ClientSession session)
+    {
+        final TransactionHandler txHandler = session.getTransactionHandler();
+        return txHandler != null ? txHandler : fTxHandler;
+    }
+
+    private SlowQueryLog getSlowLog(ClientSession session)
+    {
+        final SlowQueryLog slowLog = session.getSlowLog();
+        return slowLog != null ? slowLog : fSlowLog;
+    }
+
+    private SecurityInterceptor getSecurityInterceptor(ClientSession session)
+    {
+        final SecurityInterceptor interceptor =
+            session.getSecurityInterceptor();
+        return interceptor != null ? interceptor : fInteceptor;
+    }
+
+    private WebsockQuery handleCall(final WebsockQuery msg,
+        final ClientSession session)
+    {
+        final TransactionHandler txHandler = getTransactionHandler(session);
+        final StoredProcedureHandler procHandler =
+            getProcedureHandler(session);
+
+        if(txHandler.isControlMessage(msg))
+        {
+            return txHandler.handleControl(msg, session);
+        }
+
+        final CallSink sink = new CallSink(session);
+        try
+        {
+            return txHandler.execute(msg, session,
+                new Callable<WebsockQuery>()
+            {
+                @Override
+                public WebsockQuery call() throws Exception
+                {
+                    //asynchronous completion is only possible outside of
+                    //client transactions
+                    return procHandler.handleCall(msg, sink,
+                        session.getTransaction() == null);
+                }
+            });
+        }
+        finally
+        {
+            sink.finish();
+        }
+    }
+
+    private WebsockQuery handleQuery(final WebsockQuery msg,
+        ClientSession session)
+    {
+        final CypherCallEngine cypher = getCypherEngine(session);
+
+        return getTransactionHandler(session).execute(msg, session,
+            new Callable<WebsockQuery>()
+        {
+            @Override
+            public WebsockQuery call() throws Exception
+            {
+                return cypher.call(msg);
+            }
+        });
     }
 
     private WebsockQuery handlePing(final WebsockQuery msg)
@@ -418,23 +605,27 @@ public class ResponderThread implements Runnable
         return response;
     }
 
-    private WebsockQuery storeProcedure(final WebsockQuery msg)
+    private WebsockQuery storeProcedure(final WebsockQuery msg,
+        ClientSession session)
     {
-        return fProcHandler.storeProcedure(msg);
+        return getProcedureHandler(session).storeProcedure(msg);
     }
 
-    private WebsockQuery deleteProcedure(final WebsockQuery msg)
+    private WebsockQuery deleteProcedure(final WebsockQuery msg,
+        ClientSession session)
     {
-        return fProcHandler.deleteProcedure(msg);
+        return getProcedureHandler(session).deleteProcedure(msg);
     }
 
     private WebsockQuery handleAuthentication(final WebsockQuery msg,
         ClientSession session)
     {
+        final SecurityInterceptor interceptor =
+            getSecurityInterceptor(session);
         String authenticated = session.getAuthenticatedUser();
         WebsockQuery response = null;
 
-        if(fInteceptor == null)
+        if(interceptor == null)
         {
             //no authentication
             response = new WebsockQuery(msg.getId(), EQueryType.ERROR);
@@ -449,7 +640,7 @@ public class ResponderThread implements Runnable
             //handle authentication
             //the interceptor sends its own messages
             TransferUtil util = fTransUitls.get(session);
-            authenticated = fInteceptor.handle(msg, util);
+            authenticated = interceptor.handle(msg, util);
             session.setAuthenticatedUser(authenticated);
         }
 
@@ -463,23 +654,75 @@ public class ResponderThread implements Runnable
     }
 
 
+    //sends partial and asynchronous responses directly while the call is
+    //handled, afterwards through the session's responder queue
+    private class CallSink implements IResponseSink
+    {
+        private final ClientSession fSession;
+        private boolean fHandling = true;
+
+        public CallSink(ClientSession session)
+        {
+            fSession = session;
+        }
+
+        @Override
+        public synchronized void send(WebsockQuery response) throws Exception
+        {
+            if(fHandling)
+            {
+                final TransferUtil util = fTransUitls.get(fSession);
+                if(util != null)
+                {
+                    util.sendMessage(response);
+                }
+                return;
+            }
+
+            final ResponderThread responder =
+                fSession.acquireResponder(fPool, false);
+            if(responder != null)
+            {
+                responder.enqueueResponse(response, fSession);
+            }
+            else
+            {
+                fLogger.log(Level.WARNING, "dropped asynchronous response, "
+                    + "no responder available");
+            }
+        }
+
+        public synchronized void finish()
+        {
+            fHandling = false;
+        }
+    }
+
     private class QueryContainer
     {
         private final ClientSession fSession;
         private final ByteBuffer fBinary;
         private final String fText;
+        private final WebsockQuery fResponse;
+        private final boolean fBeginning;
+        private final long fReceived;
 
         /**
          * Creates a new query container for incoming binary data.
          *
          * @param session client session to respond to
          * @param binary binary data received
+         * @param beginning whether the data may begin a transaction
          */
-        public QueryContainer(ClientSession session, ByteBuffer binary)
+        public QueryContainer(ClientSession session, ByteBuffer binary,
+            boolean beginning)
         {
             fSession = session;
             fBinary = binary;
             fText = null;
+            fResponse = null;
+            fBeginning = beginning;
+            fReceived = System.nanoTime();
         }
 
         /**
@@ -487,12 +730,49 @@ public class ResponderThread implements Runnable
          *
          * @param session client session to respond to
          * @param text String data received
+         * @param beginning whether the data may begin a transaction
          */
-        public QueryContainer(ClientSession session, String text)
+        public QueryContainer(ClientSession session, String text,
+            boolean beginning)
         {
             fSession = session;
             fBinary = null;
             fText = text;
+            fResponse = null;
+            fBeginning = beginning;
+            fReceived = System.nanoTime();
+        }
+
+        /**
+         * Creates a new container for a response to send.
+         *
+         * @param response response to send
+         * @param session client session to respond to
+         */
+        public QueryContainer(WebsockQuery response, ClientSession session)
+        {
+            fSession = session;
+            fBinary = null;
+            fText = null;
+            fResponse = response;
+            fBeginning = false;
+            fReceived = System.nanoTime();
+        }
+
+        /**
+         * @return whether the received data may begin a transaction
+         */
+        public boolean isBeginning()
+        {
+            return fBeginning;
+        }
+
+        /**
+         * @return response to send or null for received queries
+         */
+        public WebsockQuery getResponse()
+        {
+            return fResponse;
         }
 
         /**
@@ -503,6 +783,14 @@ public class ResponderThread implements Runnable
             return fSession;
         }
 
+        /**
+         * @return time of reception in nanoseconds
+         */
+        public long getReceived()
+        {
+            return fReceived;
+        }
+
         /**
          * Converts the stored raw data into a WebsockQuery using a
          * registered transfer utility.
@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.handlers;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Client-controlled transaction spanning multiple messages. Since Neo4j binds
+ * transactions to threads, the transaction is started, used and finished on a
+ * worker thread it occupies until it is finished. Worker threads are reused
+ * between transactions and idle transactions are rolled back automatically
+ * after a configurable timeout by a scheduler shared by all transactions.
+ */
+public class SessionTransaction
+{
+    private static final ExecutorService WORKERS =
+        Executors.newCachedThreadPool(new DaemonFactory(
+            "session transaction"));
+    private static final ScheduledExecutorService SCHEDULER =
+        Executors.newSingleThreadScheduledExecutor(new DaemonFactory(
+            "session transaction timeout"));
+
+    private final GraphDatabaseService fDb;
+    private final long fTimeout;
+    private final Runnable fTimeoutHandler;
+
+    private final BlockingQueue<FutureTask<?>> fTasks;
+    private final Logger fLogger;
+
+    private Transaction fTx;
+    private ScheduledFuture<?> fIdleCheck;
+    private long fLastActive;
+    private int fRunning;
+    private volatile boolean fClosed;
+    private volatile boolean fTimedOut;
+    private volatile boolean fFinished;
+
+    /**
+     * Creates and starts a new transaction on the given database on its own
+     * thread, rolling it back if it is idle longer than the given timeout.
+     * A timeout of zero or less disables the idle check.
+     * The given database must not be null.
+     *
+     * @param database database to start the transaction on
+     * @param timeout idle timeout in milliseconds
+     */
+    public SessionTransaction(GraphDatabaseService database, long timeout)
+    {
+        this(database, timeout, null);
+    }
+
+    /**
+     * Creates and starts a new transaction on the given database on its own
+     * thread, rolling it back if it is idle longer than the given timeout and
+     * running the given handler afterwards.
+     * A timeout of zero or less disables the idle check.
+     * The given database must not be null.
+     *
+     * @param database database to start the transaction on
+     * @param timeout idle timeout in milliseconds
+     * @param timeoutHandler handler called after a timeout (optional)
+     */
+    public SessionTransaction(GraphDatabaseService database, long timeout,
+        Runnable timeoutHandler)
+    {
+        if(database == null)
+        {
+            throw new NullPointerException("database service was null");
+        }
+
+        fDb = database;
+        fTimeout = timeout;
+        fTimeoutHandler = timeoutHandler;
+        fLogger = Logger.getLogger(this.getClass().getName());
+        fTasks = new LinkedBlockingQueue<FutureTask<?>>();
+
+        //occupy a worker until the transaction is finished
+        WORKERS.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                work();
+            }
+        });
+
+        try
+        {
+            execute(new Callable<Object>()
+            {
+                @Override
+                public Object call() throws Exception
+                {
+                    try
+                    {
+                        fTx = fDb.beginTx();
+                    }
+                    catch(RuntimeException e)
+                    {
+                        fClosed = true;
+                        throw e;
+                    }
+                    return null;
+                }
+            });
+        }
+        catch(RuntimeException e)
+        {
+            fFinished = true;
+            throw e;
+        }
+
+        if(fTimeout > 0)
+        {
+            fIdleCheck = SCHEDULER.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    checkIdle();
+                }
+            }, fTimeout, fTimeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Executes the given task on the transaction's thread, waiting for its
+     * result. Throws an IllegalStateException if the transaction has
+     * already been finished or timed out.
+     *
+     * @param task task to execute within the transaction
+     * @return task's result
+     */
+    public <T> T execute(Callable<T> task)
+    {
+        final FutureTask<T> future = new FutureTask<T>(task);
+
+        synchronized(this)
+        {
+            checkOpen();
+
+            ++fRunning;
+            fTasks.add(future);
+        }
+
+        try
+        {
+            return await(future);
+        }
+        finally
+        {
+            synchronized(this)
+            {
+                --fRunning;
+                fLastActive = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Commits the transaction and releases its thread.
+     * Throws an IllegalStateException if the transaction has already been
+     * finished or timed out.
+     */
+    public void commit()
+    {
+        FutureTask<Object> future = null;
+
+        synchronized(this)
+        {
+            checkOpen();
+            future = enqueueFinish(true);
+        }
+
+        await(future);
+    }
+
+    /**
+     * Rolls back the transaction and releases its thread. Does nothing if the
+     * transaction has already been finished.
+     */
+    public void rollback()
+    {
+        FutureTask<Object> future = null;
+
+        synchronized(this)
+        {
+            if(!fFinished && !fTimedOut)
+            {
+                future = enqueueFinish(false);
+            }
+        }
+
+        if(future != null)
+        {
+            await(future);
+        }
+    }
+
+    /**
+     * @return whether the transaction was rolled back due to inactivity
+     */
+    public boolean isTimedOut()
+    {
+        return fTimedOut;
+    }
+
+    private void checkOpen()
+    {
+        if(fTimedOut)
+        {
+            throw new IllegalStateException(
+                "transaction timed out and was rolled back");
+        }
+        if(fFinished)
+        {
+            throw new IllegalStateException("transaction already finished");
+        }
+    }
+
+    private FutureTask<Object> enqueueFinish(final boolean success)
+    {
+        //called while holding the lock, the finishing task is the last one
+        fFinished = true;
+
+        if(fIdleCheck != null)
+        {
+            fIdleCheck.cancel(false);
+        }
+
+        final FutureTask<Object> future = new FutureTask<Object>(
+            new Callable<Object>()
+        {
+            @Override
+            public Object call() throws Exception
+            {
+                finishTx(success);
+                return null;
+            }
+        });
+        fTasks.add(future);
+
+        return future;
+    }
+
+    private <T> T await(FutureTask<T> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch(ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        catch(InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void work()
+    {
+        //executed on the transaction's thread until it is finished
+        while(!fClosed)
+        {
+            try
+            {
+                fTasks.take().run();
+            }
+            catch(InterruptedException e)
+            {
+                //tasks are still pending, keep working
+                fLogger.log(Level.WARNING,
+                    "transaction thread interrupted", e);
+            }
+        }
+    }
+
+    private void finishTx(boolean success)
+    {
+        try
+        {
+            if(success)
+            {
+                fTx.success();
+            }
+            else
+            {
+                fTx.failure();
+            }
+
+            fTx.finish();
+        }
+        finally
+        {
+            //releases the worker thread
+            fClosed = true;
+        }
+    }
+
+    private void checkIdle()
+    {
+        //executed on the shared scheduler, rollback on the transaction thread
+        synchronized(this)
+        {
+            if(fFinished || fTimedOut || fRunning > 0
+                || System.currentTimeMillis() - fLastActive <= fTimeout)
+            {
+                return;
+            }
+
+            fTimedOut = true;
+            enqueueFinish(false);
+        }
+
+        fLogger.log(Level.WARNING, "rolling back idle transaction");
+
+        if(fTimeoutHandler != null)
+        {
+            fTimeoutHandler.run();
+        }
+    }
+
+    private static class DaemonFactory implements ThreadFactory
+    {
+        private final String fName;
+
+        public DaemonFactory(String name)
+        {
+            fName = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, fName);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.handlers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import de.hofuniversity.iisys.neo4j.websock.GraphConfig;
+import de.hofuniversity.iisys.neo4j.websock.WebsockContextHandler;
+import de.hofuniversity.iisys.neo4j.websock.calls.CypherProcedure;
+import de.hofuniversity.iisys.neo4j.websock.calls.IStoredProcedure;
+import de.hofuniversity.iisys.neo4j.websock.calls.ServerQueries;
+import de.hofuniversity.iisys.neo4j.websock.procedures.StoredProcedureHandler;
+import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
+
+/**
+ * Log for slow queries, writing their normalized text or procedure name,
+ * parameter types, timings, result sizes and execution plans to a rotating
+ * set of files. Queries below the threshold can be sampled at a configurable
+ * rate. The log is disabled if no file is configured.
+ */
+public class SlowQueryLog
+{
+    public static final String FILE_PROP = "websocket.slowlog.file";
+
+    public static final String THRESHOLD_PROP = "websocket.slowlog.threshold";
+    public static final String DEF_THRESHOLD = "100";
+
+    public static final String SAMPLE_RATE_PROP =
+        "websocket.slowlog.samplerate";
+    public static final String DEF_SAMPLE_RATE = "0";
+
+    public static final String PLANS_PROP = "websocket.slowlog.plans";
+    public static final String DEF_PLANS = "false";
+
+    public static final String FILE_SIZE_PROP = "websocket.slowlog.filesize";
+    public static final String DEF_FILE_SIZE = "10485760";
+
+    public static final String FILE_COUNT_PROP = "websocket.slowlog.files";
+    public static final String DEF_FILE_COUNT = "5";
+
+    private static final Object INSTANCE_LOCK = new Object();
+
+    private static final double MS_FACT = 1 / 1000000.;
+
+    private static final Pattern STRING_LITERAL =
+        Pattern.compile("'[^']*'|\"[^\"]*\"");
+    private static final Pattern NUMBER_LITERAL =
+        Pattern.compile("\\b\\d+(\\.\\d+)?\\b");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static SlowQueryLog fInstance;
+
+    private final Logger fLogger;
+    private final Logger fSlowLogger;
+
+    private final boolean fEnabled;
+    private final long fThreshold;
+    private final double fSampleRate;
+    private final boolean fPlans;
+
+    /**
+     * @return existing or newly created slow query log based on the server's
+     *  configuration
+     */
+    public static SlowQueryLog getInstance()
+    {
+        synchronized(INSTANCE_LOCK)
+        {
+            if(fInstance == null)
+            {
+                GraphConfig config =
+                    WebsockContextHandler.getInstance().getConfig();
+                fInstance = new SlowQueryLog(config);
+            }
+        }
+
+        return fInstance;
+    }
+
+    /**
+     * Creates a slow query log as specified in the given configuration.
+     * To use the shared log, use the class' getInstance method.
+     * The given configuration must not be null.
+     *
+     * @param config configuration to read settings from
+     */
+    public SlowQueryLog(GraphConfig config)
+    {
+        if(config == null)
+        {
+            throw new NullPointerException("configuration was null");
+        }
+
+        fLogger = Logger.getLogger(this.getClass().getName());
+        //own logger per instance, so each database writes to its own files
+        fSlowLogger = Logger.getAnonymousLogger();
+        fSlowLogger.setUseParentHandlers(false);
+
+        fThreshold = (long) (Long.parseLong(getProperty(config, THRESHOLD_PROP,
+            DEF_THRESHOLD)) / MS_FACT);
+        fSampleRate = Double.parseDouble(getProperty(config, SAMPLE_RATE_PROP,
+            DEF_SAMPLE_RATE));
+        fPlans = Boolean.parseBoolean(getProperty(config, PLANS_PROP,
+            DEF_PLANS));
+
+        boolean enabled = false;
+        String file = config.getProperty(FILE_PROP);
+        if(file != null && !file.isEmpty())
+        {
+            try
+            {
+                //rotating files with a bounded size
+                int size = Integer.parseInt(getProperty(config, FILE_SIZE_PROP,
+                    DEF_FILE_SIZE));
+                int count = Integer.parseInt(getProperty(config,
+                    FILE_COUNT_PROP, DEF_FILE_COUNT));
+
+                FileHandler handler = new FileHandler(file, size, count, true);
+                handler.setFormatter(new Formatter()
+                {
+                    @Override
+                    public String format(LogRecord record)
+                    {
+                        return record.getMillis() + " " + record.getMessage()
+                            + "\n";
+                    }
+                });
+                fSlowLogger.addHandler(handler);
+
+                enabled = true;
+            }
+            catch(Exception e)
+            {
+                e.printStackTrace();
+                fLogger.log(Level.SEVERE, "could not open slow query log "
+                    + file, e);
+            }
+        }
+        fEnabled = enabled;
+    }
+
+    private String getProperty(GraphConfig config, String key, String def)
+    {
+        String value = config.getProperty(key);
+        if(value == null || value.isEmpty())
+        {
+            value = def;
+        }
+        return value;
+    }
+
+    /**
+     * @return whether queries are logged at all
+     */
+    public boolean isEnabled()
+    {
+        return fEnabled;
+    }
+
+    /**
+     * @param execTime execution time in nanoseconds
+     * @return whether the execution time exceeds the threshold
+     */
+    public boolean isSlow(long execTime)
+    {
+        return execTime >= fThreshold;
+    }
+
+    /**
+     * Determines whether a query with the given execution time should be
+     * logged, either because it is slow or because it was sampled.
+     *
+     * @param execTime execution time in nanoseconds
+     * @return whether to log the query
+     */
+    public boolean shouldLog(long execTime)
+    {
+        return fEnabled && (isSlow(execTime) || (fSampleRate > 0
+            && ThreadLocalRandom.current().nextDouble() < fSampleRate));
+    }
+
+    /**
+     * @return whether plans should be captured for slow queries
+     */
+    public boolean isCapturingPlans()
+    {
+        return fPlans;
+    }
+
+    /**
+     * Retrieves the execution plan for the given read-only Cypher query or
+     * call to a read-only stored Cypher procedure by executing it again
+     * without reading its results. Returns null for other queries, which are
+     * never executed again, or if retrieving the plan fails.
+     * Must not be called within a client-controlled transaction.
+     *
+     * @param msg query to retrieve the plan for
+     * @param handler stored procedure handler to use
+     * @return execution plan or null
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> capturePlan(final WebsockQuery msg,
+        final StoredProcedureHandler handler)
+    {
+        Object payload = msg.getPayload();
+
+        //resolve calls by handle
+        if(msg.getType() == EQueryType.PROCEDURE_CALL)
+        {
+            payload = handler.getProcedureName(payload);
+        }
+
+        if(!(payload instanceof String))
+        {
+            return null;
+        }
+
+        WebsockQuery explain = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        explain.setPayload(ServerQueries.EXPLAIN);
+        if(msg.getParameters() != null)
+        {
+            for(Entry<String, Object> paramE : msg.getParameters().entrySet())
+            {
+                explain.setParameter(paramE.getKey(), paramE.getValue());
+            }
+        }
+
+        //updating queries must not be executed again
+        if(msg.getType() == EQueryType.DIRECT_CYPHER)
+        {
+            if(!CypherProcedure.isReadOnly(payload.toString()))
+            {
+                return null;
+            }
+            explain.setParameter(ServerQueries.STATEMENT, payload);
+        }
+        else
+        {
+            IStoredProcedure proc = handler.getProcedure(payload.toString());
+            if(!(proc instanceof CypherProcedure)
+                || !((CypherProcedure) proc).isReadOnly())
+            {
+                return null;
+            }
+            explain.setParameter(ServerQueries.PROFILED_PROCEDURE, payload);
+        }
+
+        Map<String, Object> plan = null;
+        WebsockQuery response = handler.handleProfile(explain, false);
+        if(response.getType() == EQueryType.RESULT)
+        {
+            plan = (Map<String, Object>) ((Map<String, Object>)
+                response.getPayload()).get(ServerQueries.PLAN);
+        }
+
+        return plan;
+    }
+
+    /**
+     * Writes an entry for the given query and response to the log.
+     * Times are given in nanoseconds.
+     *
+     * @param msg query received
+     * @param response response sent or null
+     * @param queueTime time spent waiting in a queue
+     * @param decodeTime time spent decoding the query
+     * @param execTime time spent executing the query
+     * @param convertTime time spent converting results for transfer
+     * @param sendTime time spent encoding and sending the response, which the
+     *  transfer utility does in one step
+     * @param plan captured execution plan or null
+     */
+    public void log(final WebsockQuery msg, final WebsockQuery response,
+        long queueTime, long decodeTime, long execTime, long convertTime,
+        long sendTime, Map<String, Object> plan)
+    {
+        final StringBuilder entry = new StringBuilder();
+
+        entry.append(isSlow(execTime + convertTime) ? "slow" : "sampled");
+        entry.append(" type=").append(msg.getType());
+        entry.append(" query=").append(normalize(msg));
+        entry.append(" params=").append(getParamShapes(
+            msg.getParameters()));
+        entry.append(" queue=").append(queueTime * MS_FACT);
+        entry.append(" decode=").append(decodeTime * MS_FACT);
+        entry.append(" exec=").append(execTime * MS_FACT);
+        entry.append(" convert=").append(convertTime * MS_FACT);
+        entry.append(" send=").append(sendTime * MS_FACT);
+        entry.append(" result=").append(getResultSize(response));
+
+        if(plan != null)
+        {
+            entry.append(" plan=").append(plan);
+        }
+
+        fSlowLogger.log(Level.INFO, entry.toString());
+    }
+
+    private String normalize(final WebsockQuery msg)
+    {
+        final Object payload = msg.getPayload();
+        String query = null;
+
+        if(payload == null)
+        {
+            query = "";
+        }
+        else if(msg.getType() == EQueryType.DIRECT_CYPHER
+            && payload instanceof String)
+        {
+            //remove literal values and line breaks
+            query = STRING_LITERAL.matcher(payload.toString()).replaceAll("?");
+            query = NUMBER_LITERAL.matcher(query).replaceAll("?");
+            query = WHITESPACE.matcher(query).replaceAll(" ").trim();
+        }
+        else if(payload instanceof List<?>)
+        {
+            query = "batch(" + ((List<?>) payload).size() + ")";
+        }
+        else
+        {
+            //procedure name
+            query = payload.toString();
+        }
+
+        return query;
+    }
+
+    private String getParamShapes(final Map<String, Object> params)
+    {
+        final StringBuilder shapes = new StringBuilder("{");
+
+        if(params != null)
+        {
+            boolean first = true;
+            Object value = null;
+            for(Entry<String, Object> paramE : params.entrySet())
+            {
+                if(!first)
+                {
+                    shapes.append(',');
+                }
+                first = false;
+
+                value = paramE.getValue();
+                shapes.append(paramE.getKey()).append(':');
+
+                if(value == null)
+                {
+                    shapes.append("null");
+                }
+                else if(value instanceof List<?>)
+                {
+                    shapes.append("List[").append(((List<?>) value).size())
+                        .append(']');
+                }
+                else if(value instanceof Map<?, ?>)
+                {
+                    shapes.append("Map[").append(((Map<?, ?>) value).size())
+                        .append(']');
+                }
+                else
+                {
+                    shapes.append(value.getClass().getSimpleName());
+                }
+            }
+        }
+
+        return shapes.append('}').toString();
+    }
+
+    private int getResultSize(final WebsockQuery response)
+    {
+        int size = 0;
+
+        if(response != null && response.getPayload() instanceof Map<?, ?>)
+        {
+            Object result = ((Map<?, ?>) response.getPayload()).get(
+                WebsockConstants.RESULT);
+
+            if(result instanceof List<?>)
+            {
+                size = ((List<?>) result).size();
+            }
+            else if(result != null)
+            {
+                size = 1;
+            }
+        }
+        else if(response != null && response.getPayload() instanceof List<?>)
+        {
+            size = ((List<?>) response.getPayload()).size();
+        }
+
+        return size;
+    }
+}
@@ -19,6 +19,7 @@
 package de.hofuniversity.iisys.neo4j.websock.handlers;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.logging.Logger;
 
 import javax.websocket.RemoteEndpoint.Basic;
@@ -28,12 +29,14 @@ import de.hofuniversity.iisys.neo4j.websock.GraphConfig;
 import de.hofuniversity.iisys.neo4j.websock.ServiceWebSocket;
 import de.hofuniversity.iisys.neo4j.websock.WebsockContextHandler;
 import de.hofuniversity.iisys.neo4j.websock.calls.CypherCallEngine;
+import de.hofuniversity.iisys.neo4j.websock.calls.ServerQueries;
 import de.hofuniversity.iisys.neo4j.websock.neo4j.security.SecurityInterceptor;
 import de.hofuniversity.iisys.neo4j.websock.procedures.StoredProcedureHandler;
 import de.hofuniversity.iisys.neo4j.websock.query.IMessageHandler;
 import de.hofuniversity.iisys.neo4j.websock.query.encoding.BinaryTransferUtil;
 import de.hofuniversity.iisys.neo4j.websock.query.encoding.StringTransferUtil;
 import de.hofuniversity.iisys.neo4j.websock.query.encoding.TransferUtil;
+import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
 import de.hofuniversity.iisys.neo4j.websock.session.WebsockSession;
 
 /**
@@ -42,27 +45,33 @@ import de.hofuniversity.iisys.neo4j.websock.session.WebsockSession;
  */
 public class ThreadedClientQueryHandler implements IMessageHandler
 {
+    private static final byte[] BEGIN_BYTES =
+        ServerQueries.BEGIN_TX.getBytes(Charset.forName("UTF-8"));
+
     private final HandlerThreadPool fPool;
     private final ClientSession fClientSess;
+    private final boolean fCompressed;
 
     private final Logger fLogger;
 
     /**
      * Creates a threaded query handler for the given session, using the given
      * stored procedure handler and Cypher call engine to execute queries with
-     * the given number of threads.
+     * the given number of threads, logging slow queries to the given log.
      * None of the parameters may be null.
      * The number of threads must be a positive number.
      *
      * @param wsSess session information object
      * @param procHandler stored procedure handler to use
      * @param cypher Cypher engine to use
+     * @param slowLog slow query log to use
      * @param interceptor security query interceptor (optional)
      * @param threadCount number of threads to use
      */
     public ThreadedClientQueryHandler(final WebsockSession wsSess,
         StoredProcedureHandler procHandler, CypherCallEngine cypher,
-        final SecurityInterceptor interceptor, final int threadCount)
+        SlowQueryLog slowLog, final SecurityInterceptor interceptor,
+        final int threadCount)
     {
         if(wsSess == null)
         {
@@ -76,6 +85,10 @@ public class ThreadedClientQueryHandler implements IMessageHandler
         {
             throw new RuntimeException("cypher engine was null");
         }
+        if(slowLog == null)
+        {
+            throw new RuntimeException("slow query log was null");
+        }
 
         fLogger = Logger.getLogger(this.getClass().getName());
 
@@ -93,6 +106,8 @@ public class ThreadedClientQueryHandler implements IMessageHandler
         String comp = config.getProperty(
             ServiceWebSocket.DEF_COMPRESSION_PROP);
         transfer.setFormat(format, comp);
+        fCompressed = comp != null && !comp.isEmpty()
+            && !WebsockConstants.NO_COMPRESSION.equals(comp);
 
         session.addMessageHandler(btUtil);
         session.addMessageHandler(stUtil);
@@ -107,6 +122,16 @@ public class ThreadedClientQueryHandler implements IMessageHandler
 
         //create and pass session
         fClientSess = new ClientSession(transfer);
+        String timeout = config.getProperty(ServiceWebSocket.TX_TIMEOUT_PROP);
+        if(timeout == null || timeout.isEmpty())
+        {
+            timeout = ServiceWebSocket.DEF_TX_TIMEOUT;
+        }
+        fClientSess.setTransactionTimeout(Long.parseLong(timeout));
+
+        //the pool is shared between databases
+        fClientSess.setDatabaseHandlers(procHandler, cypher, slowLog);
+        fClientSess.setSecurityInterceptor(interceptor);
         fPool.addSession(fClientSess);
 
         if(interceptor == null)
@@ -126,16 +151,21 @@ public class ThreadedClientQueryHandler implements IMessageHandler
     {
         //cleanup session's links
         fPool.removeSession(fClientSess);
+
+        //roll back open transactions
+        fClientSess.dispose();
     }
 
     @Override
     public void onMessage(ByteBuffer buffer)
     {
-        ResponderThread responder = fPool.getThread();
+        final boolean beginning = mayBegin(buffer);
+        ResponderThread responder = fClientSess.acquireResponder(fPool,
+            beginning);
 
         if(responder != null)
         {
-            responder.enqueue(buffer, fClientSess);
+            responder.enqueue(buffer, fClientSess, beginning);
         }
         else
         {
@@ -147,11 +177,13 @@ public class ThreadedClientQueryHandler implements IMessageHandler
     @Override
     public void onMessage(String message)
     {
-        ResponderThread responder = fPool.getThread();
+        final boolean beginning = message.contains(ServerQueries.BEGIN_TX);
+        ResponderThread responder = fClientSess.acquireResponder(fPool,
+            beginning);
 
         if(responder != null)
         {
-            responder.enqueue(message, fClientSess);
+            responder.enqueue(message, fClientSess, beginning);
         }
         else
         {
@@ -159,4 +191,32 @@ public class ThreadedClientQueryHandler implements IMessageHandler
                 "no threads available, thread pool already terminated?");
         }
     }
+
+    private boolean mayBegin(ByteBuffer buffer)
+    {
+        //compressed messages can't be inspected before decoding
+        if(fCompressed)
+        {
+            return true;
+        }
+
+        //look for the procedure name without moving the buffer's position
+        final int last = buffer.limit() - BEGIN_BYTES.length;
+        for(int i = buffer.position(); i <= last; ++i)
+        {
+            int j = 0;
+            while(j < BEGIN_BYTES.length
+                && buffer.get(i + j) == BEGIN_BYTES[j])
+            {
+                ++j;
+            }
+
+            if(j == BEGIN_BYTES.length)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.handlers;
+
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import de.hofuniversity.iisys.neo4j.websock.calls.ServerQueries;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.ConversionTimer;
+import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+
+/**
+ * Handler for client-controlled transactions, beginning, committing and
+ * rolling back transactions bound to client sessions and executing queries
+ * within them.
+ */
+public class TransactionHandler
+{
+    private static final String TIMED_OUT =
+        "transaction timed out and was rolled back";
+
+    private final GraphDatabaseService fDb;
+    private final Logger fLogger;
+
+    /**
+     * Creates a transaction handler starting transactions on the given
+     * database.
+     * The given database must not be null.
+     *
+     * @param database database to start transactions on
+     */
+    public TransactionHandler(GraphDatabaseService database)
+    {
+        if(database == null)
+        {
+            throw new NullPointerException("database service was null");
+        }
+
+        fDb = database;
+        fLogger = Logger.getLogger(this.getClass().getName());
+    }
+
+    /**
+     * @param msg incoming message
+     * @return whether the message begins, commits or rolls back a transaction
+     */
+    public boolean isControlMessage(final WebsockQuery msg)
+    {
+        final Object name = msg.getPayload();
+
+        return msg.getType() == EQueryType.PROCEDURE_CALL
+            && (ServerQueries.BEGIN_TX.equals(name)
+            || ServerQueries.COMMIT_TX.equals(name)
+            || ServerQueries.ROLLBACK_TX.equals(name));
+    }
+
+    /**
+     * Begins, commits or rolls back the given session's transaction as
+     * requested by the given control message.
+     *
+     * @param msg transaction control message
+     * @param session session the transaction is bound to
+     * @return response for caller
+     */
+    public WebsockQuery handleControl(final WebsockQuery msg,
+        final ClientSession session)
+    {
+        WebsockQuery response = null;
+        final Object name = msg.getPayload();
+        final SessionTransaction tx = session.getTransaction();
+
+        try
+        {
+            if(ServerQueries.BEGIN_TX.equals(name))
+            {
+                if(tx != null)
+                {
+                    throw new IllegalStateException(
+                        "a transaction is already open in this session");
+                }
+
+                //the session forgets the transaction once it timed out
+                session.setTransaction(new SessionTransaction(fDb,
+                    session.getTransactionTimeout(), new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        session.clearTimedOut();
+                    }
+                }));
+            }
+            else if(tx == null && session.consumeTimedOut())
+            {
+                //rolling back is what already happened
+                if(ServerQueries.COMMIT_TX.equals(name))
+                {
+                    throw new IllegalStateException(TIMED_OUT);
+                }
+            }
+            else if(tx == null)
+            {
+                throw new IllegalStateException(
+                    "no transaction open in this session");
+            }
+            else
+            {
+                //transaction is unbound in any case
+                session.setTransaction(null);
+
+                if(ServerQueries.COMMIT_TX.equals(name))
+                {
+                    tx.commit();
+                }
+                else
+                {
+                    tx.rollback();
+                }
+            }
+
+            response = new WebsockQuery(msg.getId(), EQueryType.SUCCESS);
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace();
+            fLogger.log(Level.SEVERE, "transaction control failed", e);
+            response = new WebsockQuery(msg.getId(), EQueryType.ERROR);
+            response.setPayload(e.toString());
+        }
+
+        return response;
+    }
+
+    /**
+     * Executes the given task within the session's open transaction, if there
+     * is one, or directly otherwise.
+     *
+     * @param msg message the task is handling
+     * @param session session the message came from
+     * @param task task creating the response
+     * @return response for caller
+     */
+    public WebsockQuery execute(final WebsockQuery msg,
+        final ClientSession session, final Callable<WebsockQuery> task)
+    {
+        final SessionTransaction tx = session.getTransaction();
+        WebsockQuery response = null;
+
+        try
+        {
+            if(tx == null && session.consumeTimedOut())
+            {
+                //don't silently continue outside of the transaction
+                throw new IllegalStateException(TIMED_OUT);
+            }
+            else if(tx == null)
+            {
+                response = task.call();
+            }
+            else
+            {
+                //conversion time is measured on the transaction's thread
+                final long[] convertTime = new long[1];
+                response = tx.execute(new Callable<WebsockQuery>()
+                {
+                    @Override
+                    public WebsockQuery call() throws Exception
+                    {
+                        ConversionTimer.take();
+                        try
+                        {
+                            return task.call();
+                        }
+                        finally
+                        {
+                            convertTime[0] = ConversionTimer.take();
+                        }
+                    }
+                });
+                ConversionTimer.add(convertTime[0]);
+            }
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace();
+            fLogger.log(Level.SEVERE, "error during query execution", e);
+            response = new WebsockQuery(msg.getId(), EQueryType.ERROR);
+            response.setPayload(e.toString());
+        }
+
+        return response;
+    }
+}
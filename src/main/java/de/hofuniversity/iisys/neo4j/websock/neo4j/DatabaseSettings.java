@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.helpers.collection.MapUtil;
+
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.MemoryTuner;
+
+/**
+ * Combines automatically tuned settings, a Neo4j properties file and
+ * explicitly configured parameters into the settings a database is started
+ * with. Later sources override earlier ones.
+ */
+final class DatabaseSettings
+{
+    private DatabaseSettings()
+    {
+        //utility class
+    }
+
+    /**
+     * Builds and logs the settings for the database at the given path.
+     *
+     * @param dbPath path to the database
+     * @param propFile path to a properties file or null
+     * @param tuner memory tuner or null
+     * @param params explicit parameters or null
+     * @return combined settings
+     * @throws IOException if the properties file can't be read
+     */
+    static Map<String, String> build(final String dbPath,
+        final String propFile, final MemoryTuner tuner,
+        final Map<String, String> params) throws IOException
+    {
+        final Map<String, String> settings = new HashMap<String, String>();
+
+        if(tuner != null)
+        {
+            settings.putAll(tuner.tune(dbPath));
+        }
+        if(propFile != null && !propFile.isEmpty())
+        {
+            settings.putAll(MapUtil.load(new File(propFile)));
+        }
+        if(params != null)
+        {
+            settings.putAll(params);
+        }
+
+        Logger.getLogger(DatabaseSettings.class.getName()).log(Level.INFO,
+            "database settings for " + dbPath + ": "
+            + new TreeMap<String, String>(settings));
+
+        return settings;
+    }
+}
@@ -18,6 +18,8 @@
  */
 package de.hofuniversity.iisys.neo4j.websock.neo4j;
 
+import java.util.Map;
+
 import org.neo4j.graphdb.GraphDatabaseService;
 
 /**
@@ -34,6 +36,14 @@ public interface INeo4jConnector
      */
     public void start() throws Exception;
 
+    /**
+     * Sets parameters the database is started with, overriding those from a
+     * properties file. Has no effect once started.
+     *
+     * @param params Neo4j parameters or null
+     */
+    public void setConfig(Map<String, String> params);
+
     /**
      * Tries to shut down the database connection.
      *
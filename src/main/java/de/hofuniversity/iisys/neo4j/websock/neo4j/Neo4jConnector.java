@@ -18,9 +18,14 @@
  */
 package de.hofuniversity.iisys.neo4j.websock.neo4j;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.MemoryTuner;
+
 /**
  * Utility class for connecting to a Neo4j-Database, getting an interface
  * and shutting it down again.
@@ -29,6 +34,9 @@ public class Neo4jConnector implements INeo4jConnector
 {
     private final String fDbPath, fProperties;
 
+    private Map<String, String> fParams;
+    private MemoryTuner fTuner;
+
     private GraphDatabaseService fDbService;
 
     /**
@@ -60,6 +68,29 @@ public class Neo4jConnector implements INeo4jConnector
 
         fDbPath = dbPath;
         fProperties = properties;
+        fParams = new HashMap<String, String>();
+    }
+
+    @Override
+    public void setConfig(Map<String, String> params)
+    {
+        fParams = new HashMap<String, String>();
+
+        if(params != null)
+        {
+            fParams.putAll(params);
+        }
+    }
+
+    /**
+     * Sets a tuner deriving memory mapping and cache settings from the
+     * store, which are overridden by the properties file and parameters.
+     *
+     * @param tuner memory tuner or null for Neo4j's defaults
+     */
+    public void setMemoryTuner(MemoryTuner tuner)
+    {
+        fTuner = tuner;
     }
 
     /**
@@ -74,20 +105,14 @@ public class Neo4jConnector implements INeo4jConnector
         if(fDbService != null)
         {
             //already started
+            return;
         }
-        //start without properties
-        else if(fProperties == null || fProperties.isEmpty())
-        {
-            fDbService = new GraphDatabaseFactory()
-                .newEmbeddedDatabase(fDbPath);
-        }
-        //start with properties
-        else
-        {
-            fDbService = new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(
-                fDbPath).loadPropertiesFromFile(fProperties)
-                .newGraphDatabase();
-        }
+
+        //start with tuned settings, properties and parameters
+        final Map<String, String> settings = DatabaseSettings.build(fDbPath,
+            fProperties, fTuner, fParams);
+        fDbService = new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(
+            fDbPath).setConfig(settings).newGraphDatabase();
 
         Runtime.getRuntime().addShutdownHook(new Thread()
         {
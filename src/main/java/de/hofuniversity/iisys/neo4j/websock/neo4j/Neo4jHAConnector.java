@@ -18,9 +18,14 @@
  */
 package de.hofuniversity.iisys.neo4j.websock.neo4j;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.factory.HighlyAvailableGraphDatabaseFactory;
 
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.MemoryTuner;
+
 /**
  * Utility class for connecting to a highly available Neo4j-Database, getting
  * an interface and shutting it down again.
@@ -30,6 +35,9 @@ public class Neo4jHAConnector implements INeo4jConnector
 {
     private final String fDbPath, fProperties;
 
+    private Map<String, String> fParams;
+    private MemoryTuner fTuner;
+
     private GraphDatabaseService fDbService;
 
     /**
@@ -61,6 +69,38 @@ public class Neo4jHAConnector implements INeo4jConnector
 
         fDbPath = dbPath;
         fProperties = properties;
+
+        fParams = new HashMap<String, String>();
+    }
+
+    /**
+     * Sets parameters the database is started with, overriding those from
+     * its properties file.
+     * Has no effect once started.
+     *
+     * @param params Neo4j parameters or null
+     */
+    @Override
+    public void setConfig(Map<String, String> params)
+    {
+        fParams = new HashMap<String, String>();
+
+        if(params != null)
+        {
+            fParams.putAll(params);
+        }
+    }
+
+    /**
+     * Sets a tuner deriving memory mapping and cache settings from the
+     * store. Tuned settings are overridden by the properties file and
+     * parameters.
+     *
+     * @param tuner memory tuner or null for Neo4j's defaults
+     */
+    public void setMemoryTuner(MemoryTuner tuner)
+    {
+        fTuner = tuner;
     }
 
     /**
@@ -75,18 +115,15 @@ public class Neo4jHAConnector implements INeo4jConnector
         if(fDbService != null)
         {
             //already started
+            return;
         }
-        else if(fProperties == null || fProperties.isEmpty())
-        {
-            fDbService = new HighlyAvailableGraphDatabaseFactory()
-                .newHighlyAvailableDatabase(fDbPath);
-        }
-        else
-        {
-            fDbService = new HighlyAvailableGraphDatabaseFactory()
-                .newHighlyAvailableDatabaseBuilder(fDbPath)
-                .loadPropertiesFromFile(fProperties).newGraphDatabase();
-        }
+
+        final Map<String, String> settings = DatabaseSettings.build(fDbPath,
+            fProperties, fTuner, fParams);
+
+        fDbService = new HighlyAvailableGraphDatabaseFactory()
+            .newHighlyAvailableDatabaseBuilder(fDbPath).setConfig(settings)
+            .newGraphDatabase();
 
         Runtime.getRuntime().addShutdownHook(new Thread()
         {
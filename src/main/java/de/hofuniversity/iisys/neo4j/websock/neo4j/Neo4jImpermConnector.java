@@ -18,6 +18,9 @@
  */
 package de.hofuniversity.iisys.neo4j.websock.neo4j;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
@@ -29,11 +32,25 @@ public class Neo4jImpermConnector implements INeo4jConnector
 {
     private GraphDatabaseService fDbService;
 
+    private Map<String, String> fParams = new HashMap<String, String>();
+
+    @Override
+    public void setConfig(Map<String, String> params)
+    {
+        fParams = new HashMap<String, String>();
+
+        if(params != null)
+        {
+            fParams.putAll(params);
+        }
+    }
+
     @Override
     public void start() throws Exception
     {
         TestGraphDatabaseFactory fact = new TestGraphDatabaseFactory();
-        fDbService = fact.newImpermanentDatabase();
+        fDbService = fact.newImpermanentDatabaseBuilder().setConfig(fParams)
+            .newGraphDatabase();
 
         Runtime.getRuntime().addShutdownHook(new Thread()
         {
@@ -29,6 +29,7 @@ public interface IGraphObject
     /**
      * Converts the object to a transferable map, only containing the fields
      * specified. If no fields are specified, all fields are copied.
+     * Field names may contain "*" as a wildcard.
      *
      * @param fields set of fields or null
      * @return object converted to map
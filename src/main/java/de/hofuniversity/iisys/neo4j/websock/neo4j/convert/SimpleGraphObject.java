@@ -35,6 +35,8 @@ import de.hofuniversity.iisys.neo4j.websock.util.ImplUtil;
  */
 public class SimpleGraphObject implements IGraphObject
 {
+    private static final char WILDCARD = '*';
+
     private final PropertyContainer fContainer;
 
     private final ImplUtil fImpl;
@@ -85,7 +87,7 @@ public class SimpleGraphObject implements IGraphObject
                 map.put(key, fContainer.getProperty(key));
             }
         }
-        else
+        else if(!hasWildcards(fields))
         {
             for(String key : fields)
             {
@@ -95,10 +97,85 @@ public class SimpleGraphObject implements IGraphObject
                 }
             }
         }
+        else
+        {
+            //only read values of matching keys
+            for(String key : fContainer.getPropertyKeys())
+            {
+                if(matches(key, fields))
+                {
+                    map.put(key, fContainer.getProperty(key));
+                }
+            }
+        }
 
         return map;
     }
 
+    private boolean hasWildcards(final Set<String> fields)
+    {
+        for(String field : fields)
+        {
+            if(field.indexOf(WILDCARD) >= 0)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean matches(final String key, final Set<String> fields)
+    {
+        if(fields.contains(key))
+        {
+            return true;
+        }
+
+        for(String field : fields)
+        {
+            if(field.indexOf(WILDCARD) >= 0
+                && matches(key, field, 0, 0))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean matches(final String key, final String pattern,
+        int keyPos, int patPos)
+    {
+        //simple glob matching, only supporting '*'
+        while(patPos < pattern.length())
+        {
+            char c = pattern.charAt(patPos);
+
+            if(c == WILDCARD)
+            {
+                //try all possible lengths for the wildcard
+                for(int i = keyPos; i <= key.length(); ++i)
+                {
+                    if(matches(key, pattern, i, patPos + 1))
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            else if(keyPos >= key.length() || key.charAt(keyPos) != c)
+            {
+                return false;
+            }
+
+            ++keyPos;
+            ++patPos;
+        }
+
+        return keyPos == key.length();
+    }
+
     @Override
     public void setData(Map<String, ?> map)
     {
@@ -18,6 +18,7 @@
  */
 package de.hofuniversity.iisys.neo4j.websock.neo4j.security;
 
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,6 +36,8 @@ public class SecurityInterceptor
 
     private final IAuthHandler fAuthHandler;
 
+    private final Set<String> fUsers;
+
     /**
      * Creates a security interceptor using the given authentication handler.
      * The authentication handler must not be null.
@@ -42,6 +45,20 @@ public class SecurityInterceptor
      * @param authHandler authentication handler to use
      */
     public SecurityInterceptor(IAuthHandler authHandler)
+    {
+        this(authHandler, null);
+    }
+
+    /**
+     * Creates a security interceptor using the given authentication handler,
+     * only accepting the given users. If no set of users is given, all
+     * authenticated users are accepted.
+     * The authentication handler must not be null.
+     *
+     * @param authHandler authentication handler to use
+     * @param users users authorized to connect or null
+     */
+    public SecurityInterceptor(IAuthHandler authHandler, Set<String> users)
     {
         if(authHandler == null)
         {
@@ -50,12 +67,14 @@ public class SecurityInterceptor
 
         fLogger = Logger.getLogger(this.getClass().getName());
         fAuthHandler = authHandler;
+        fUsers = users;
     }
 
     /**
      * Handles an authentication attempt from the client, i.e. a websocket
      * query with the type AUTHENTICATION and returns the authenticated user
-     * if authentication was successful and null if not.
+     * if authentication was successful and null if not. Users that are not
+     * authorized are rejected like failed authentications.
      *
      * @param query authentication request received
      * @param transfer utility to respond with
@@ -66,11 +85,20 @@ public class SecurityInterceptor
         String username =  fAuthHandler.handleAuthentication(query);
         int queryId = query.getId();
 
+        String error = "authentication failure";
+        if(username != null && fUsers != null && !fUsers.contains(username))
+        {
+            fLogger.log(Level.WARNING, "user '" + username
+                + "' is not authorized");
+            error = "user not authorized";
+            username = null;
+        }
+
         if(username == null)
         {
             //send error message
             query = new WebsockQuery(queryId, EQueryType.ERROR);
-            query.setPayload("authentication failure");
+            query.setPayload(error);
             send(query, transfer);
 
             //send new challenge
@@ -0,0 +1,672 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+
+import de.hofuniversity.iisys.neo4j.websock.neo4j.Neo4jRelTypes;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.convert.SimpleGraphObject;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.ExternalIdMap;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.IndexLookupCache;
+import de.hofuniversity.iisys.neo4j.websock.result.SingleResult;
+import de.hofuniversity.iisys.neo4j.websock.service.Neo4jServiceQueries;
+
+/**
+ * Imports streams of node and relationship records sent in several calls,
+ * committing them in large batches. Nodes are referenced by external IDs,
+ * which are resolved to node IDs for the duration of an import.
+ */
+public class GraphImporter
+{
+    /**
+     * Key of a node record's external ID and result key of an import's ID.
+     */
+    public static final String ID_FIELD = "id";
+
+    /**
+     * Key of a record's property map.
+     */
+    public static final String PROPERTIES_FIELD = "props";
+
+    /**
+     * Key of a node record's list of index entries, each containing an index
+     * name, a key and a value.
+     */
+    public static final String INDEX_FIELD = "index";
+
+    /**
+     * Key of a relationship record's start node's external ID.
+     */
+    public static final String FROM_FIELD = "from";
+
+    /**
+     * Key of a relationship record's end node's external ID.
+     */
+    public static final String TO_FIELD = "to";
+
+    /**
+     * Key of a relationship record's type.
+     */
+    public static final String TYPE_FIELD = "type";
+
+    /**
+     * Summary key for the number of nodes created.
+     */
+    public static final String NODES_FIELD = "nodes";
+
+    /**
+     * Summary key for the number of relationships created.
+     */
+    public static final String RELATIONSHIPS_FIELD = "relationships";
+
+    /**
+     * Summary key for the number of index entries created.
+     */
+    public static final String INDEX_ENTRIES_FIELD = "indexEntries";
+
+    /**
+     * Summary key for the number of records pending for the next batch.
+     */
+    public static final String PENDING_FIELD = "pending";
+
+    /**
+     * Summary key for the number of elements imported per second so far.
+     */
+    public static final String RATE_FIELD = "rate";
+
+    private static final int DEF_BATCH_SIZE = 10000;
+
+    //time after which abandoned imports are discarded
+    private static final long IMPORT_TIMEOUT = 600000;
+
+    private final GraphDatabaseService fDatabase;
+    private final int fBatchSize;
+
+    private final ConcurrentMap<String, Import> fImports;
+
+    private final Map<String, RelationshipType> fRelTypes;
+
+    private final IndexLookupCache fLookups;
+
+    private final Logger fLogger;
+
+    /**
+     * Creates an importer using the given database service, committing
+     * batches of 10000 elements.
+     * The given service must not be null.
+     *
+     * @param database database service to use
+     */
+    public GraphImporter(GraphDatabaseService database)
+    {
+        this(database, DEF_BATCH_SIZE);
+    }
+
+    /**
+     * Creates an importer using the given database service, committing
+     * batches of the given number of elements.
+     * The given service must not be null.
+     *
+     * @param database database service to use
+     * @param batchSize number of elements per transaction, at least 1
+     */
+    public GraphImporter(GraphDatabaseService database, int batchSize)
+    {
+        if(database == null)
+        {
+            throw new NullPointerException("Neo4j database service was null");
+        }
+        if(batchSize < 1)
+        {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+
+        fDatabase = database;
+        fBatchSize = batchSize;
+
+        fImports = new ConcurrentHashMap<String, Import>();
+
+        fRelTypes = new ConcurrentHashMap<String, RelationshipType>();
+        for(Neo4jRelTypes type : Neo4jRelTypes.values())
+        {
+            fRelTypes.put(type.name(), type);
+        }
+
+        fLookups = IndexLookupCache.getInstance(database);
+
+        fLogger = Logger.getLogger(this.getClass().getName());
+    }
+
+    /**
+     * Begins an import to which records can be added in several calls.
+     * Imports not used for ten minutes are discarded.
+     *
+     * @return result containing the import's ID
+     */
+    public SingleResult beginImport()
+    {
+        discardAbandoned();
+
+        final String id = UUID.randomUUID().toString();
+        fImports.put(id, new Import());
+
+        final Map<String, Object> resMap = new HashMap<String, Object>();
+        resMap.put(ID_FIELD, id);
+        return new SingleResult(resMap);
+    }
+
+    /**
+     * Adds node and relationship records to an import, committing them once
+     * a batch is complete. Nodes are created before relationships, so
+     * relationships may reference nodes sent in the same call. Invalid
+     * records are skipped and counted as failed.
+     * The given ID must belong to an active import.
+     *
+     * @param importId ID of the import
+     * @param nodes node records to add, may be null
+     * @param relationships relationship records to add, may be null
+     * @return progress of the import so far
+     */
+    public SingleResult importRecords(final String importId,
+        final List<?> nodes, final List<?> relationships)
+    {
+        final Import imp = getImport(importId);
+
+        synchronized(imp)
+        {
+            imp.fLastUsed = System.currentTimeMillis();
+
+            if(nodes != null)
+            {
+                imp.fNodes.addAll(nodes);
+            }
+            if(relationships != null)
+            {
+                imp.fRelationships.addAll(relationships);
+            }
+
+            if(imp.fNodes.size() + imp.fRelationships.size() >= fBatchSize)
+            {
+                flush(imp);
+            }
+
+            return new SingleResult(imp.getSummary());
+        }
+    }
+
+    /**
+     * Commits the remaining records of an import and ends it, discarding
+     * its external ID mapping.
+     * The given ID must belong to an active import.
+     *
+     * @param importId ID of the import
+     * @return summary of the whole import
+     */
+    public SingleResult finishImport(final String importId)
+    {
+        final Import imp = getImport(importId);
+        fImports.remove(importId);
+
+        synchronized(imp)
+        {
+            flush(imp);
+
+            final Map<String, Object> summary = imp.getSummary();
+            fLogger.info("import " + importId + " finished: " + summary);
+            return new SingleResult(summary);
+        }
+    }
+
+    private Import getImport(final String importId)
+    {
+        final Import imp = fImports.get(importId);
+
+        if(imp == null)
+        {
+            throw new IllegalArgumentException("unknown import: " + importId);
+        }
+
+        return imp;
+    }
+
+    private void discardAbandoned()
+    {
+        final long limit = System.currentTimeMillis() - IMPORT_TIMEOUT;
+
+        for(Entry<String, Import> impE : fImports.entrySet())
+        {
+            if(impE.getValue().fLastUsed < limit)
+            {
+                fImports.remove(impE.getKey());
+                fLogger.warning("discarded abandoned import " + impE.getKey());
+            }
+        }
+    }
+
+    private void flush(final Import imp)
+    {
+        //nodes first so relationships can reference them
+        final int total = imp.fNodes.size() + imp.fRelationships.size();
+        int done = 0;
+
+        while(done < total)
+        {
+            final int end = Math.min(done + fBatchSize, total);
+            imp.beginBatch();
+            Transaction tx = fDatabase.beginTx();
+            boolean committing = false;
+
+            try
+            {
+                for(int i = done; i < end; ++i)
+                {
+                    //invalid records don't affect the rest of the batch
+                    Object record = null;
+                    try
+                    {
+                        if(i < imp.fNodes.size())
+                        {
+                            record = imp.fNodes.get(i);
+                            importNode(imp, record);
+                        }
+                        else
+                        {
+                            record = imp.fRelationships.get(
+                                i - imp.fNodes.size());
+                            importRelationship(imp, record);
+                        }
+                    }
+                    catch(RuntimeException e)
+                    {
+                        imp.addError(record, e);
+                    }
+                }
+
+                tx.success();
+                committing = true;
+                tx.finish();
+            }
+            catch(RuntimeException e)
+            {
+                //a failed commit has already ended the transaction
+                if(!committing)
+                {
+                    tx.failure();
+                    tx.finish();
+                }
+
+                //this batch and all records after it are lost
+                imp.rollbackBatch(total - done, e);
+                imp.fNodes.clear();
+                imp.fRelationships.clear();
+                throw e;
+            }
+
+            ++imp.fBatches;
+            for(String index : imp.fIndices.keySet())
+            {
+                fLookups.invalidateIndex(index);
+            }
+
+            done = end;
+        }
+
+        imp.fNodes.clear();
+        imp.fRelationships.clear();
+    }
+
+    private void importNode(final Import imp, final Object recordObj)
+    {
+        final Map<?, ?> record = toMap(recordObj);
+        final Object id = record.get(ID_FIELD);
+
+        //validate properties and index entries before creating anything
+        final Map<String, ?> props = getProperties(record);
+
+        final List<Map<?, ?>> entries = new ArrayList<Map<?, ?>>();
+        final Object entriesObj = record.get(INDEX_FIELD);
+        if(entriesObj instanceof List<?>)
+        {
+            for(Object entryObj : (List<?>) entriesObj)
+            {
+                final Map<?, ?> entry = toMap(entryObj);
+                if(entry.get(Neo4jServiceQueries.INDEX) == null
+                    || entry.get(Neo4jServiceQueries.KEY) == null
+                    || entry.get(Neo4jServiceQueries.VALUE) == null)
+                {
+                    throw new NullPointerException("incomplete index entry");
+                }
+                entries.add(entry);
+            }
+        }
+
+        final Node node = fDatabase.createNode();
+        try
+        {
+            setProperties(node, props);
+        }
+        catch(RuntimeException e)
+        {
+            //don't commit a half-built node with the rest of the batch
+            node.delete();
+            throw e;
+        }
+        ++imp.fNodeCount;
+
+        if(id != null)
+        {
+            imp.mapId(id.toString(), node.getId());
+        }
+
+        for(Map<?, ?> entry : entries)
+        {
+            imp.getIndex(fDatabase,
+                entry.get(Neo4jServiceQueries.INDEX).toString()).add(node,
+                entry.get(Neo4jServiceQueries.KEY).toString(),
+                entry.get(Neo4jServiceQueries.VALUE));
+            ++imp.fIndexCount;
+        }
+    }
+
+    private void importRelationship(final Import imp, final Object recordObj)
+    {
+        final Map<?, ?> record = toMap(recordObj);
+        final Node from = resolve(imp, record.get(FROM_FIELD));
+        final Node to = resolve(imp, record.get(TO_FIELD));
+
+        final Object type = record.get(TYPE_FIELD);
+        if(type == null)
+        {
+            throw new NullPointerException("no relationship type given");
+        }
+
+        final Map<String, ?> props = getProperties(record);
+
+        final Relationship rel = from.createRelationshipTo(to,
+            getRelType(type.toString()));
+        try
+        {
+            setProperties(rel, props);
+        }
+        catch(RuntimeException e)
+        {
+            rel.delete();
+            throw e;
+        }
+        ++imp.fRelCount;
+    }
+
+    private Node resolve(final Import imp, final Object id)
+    {
+        if(id == null)
+        {
+            throw new NullPointerException("relationship end not given");
+        }
+
+        final long nodeId = imp.fIds.get(id.toString());
+        if(nodeId == ExternalIdMap.MISSING)
+        {
+            throw new IllegalArgumentException("unknown node: " + id);
+        }
+
+        return fDatabase.getNodeById(nodeId);
+    }
+
+    private RelationshipType getRelType(final String name)
+    {
+        RelationshipType type = fRelTypes.get(name);
+
+        if(type == null)
+        {
+            type = DynamicRelationshipType.withName(name);
+            fRelTypes.put(name, type);
+        }
+
+        return type;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, ?> getProperties(final Map<?, ?> record)
+    {
+        final Object props = record.get(PROPERTIES_FIELD);
+
+        if(props == null)
+        {
+            return null;
+        }
+        if(!(props instanceof Map<?, ?>))
+        {
+            throw new IllegalArgumentException("properties were not a map");
+        }
+
+        for(Entry<?, ?> propE : ((Map<?, ?>) props).entrySet())
+        {
+            if(!(propE.getKey() instanceof String))
+            {
+                throw new IllegalArgumentException("invalid property key: "
+                    + propE.getKey());
+            }
+            if(!isValidValue(propE.getValue()))
+            {
+                throw new IllegalArgumentException("invalid value for "
+                    + "property " + propE.getKey());
+            }
+        }
+
+        return (Map<String, ?>) props;
+    }
+
+    private boolean isValidValue(final Object value)
+    {
+        //null removes the property
+        if(value == null || isSimpleValue(value))
+        {
+            return true;
+        }
+
+        if(value instanceof List<?>)
+        {
+            //lists are stored as arrays
+            for(Object element : (List<?>) value)
+            {
+                if(element == null || !isSimpleValue(element))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        final Class<?> type = value.getClass().getComponentType();
+        return type != null && (type.isPrimitive()
+            || String.class.equals(type) || Boolean.class.equals(type)
+            || Character.class.equals(type)
+            || Number.class.isAssignableFrom(type));
+    }
+
+    private boolean isSimpleValue(final Object value)
+    {
+        return value instanceof String || value instanceof Boolean
+            || value instanceof Character || value instanceof Byte
+            || value instanceof Short || value instanceof Integer
+            || value instanceof Long || value instanceof Float
+            || value instanceof Double;
+    }
+
+    private void setProperties(final PropertyContainer container,
+        final Map<String, ?> props)
+    {
+        if(props != null)
+        {
+            new SimpleGraphObject(container).setData(props);
+        }
+    }
+
+    private Map<?, ?> toMap(final Object record)
+    {
+        if(!(record instanceof Map<?, ?>))
+        {
+            throw new IllegalArgumentException("record was not a map");
+        }
+
+        return (Map<?, ?>) record;
+    }
+
+    private class Import
+    {
+        private final ExternalIdMap fIds;
+        private final Map<String, Index<Node>> fIndices;
+
+        private final List<Object> fNodes;
+        private final List<Object> fRelationships;
+        private final List<String> fErrors;
+
+        private final long fStarted;
+        private volatile long fLastUsed;
+
+        private int fNodeCount, fRelCount, fIndexCount, fFailed, fBatches;
+
+        //state before the current batch, restored if it is rolled back
+        private final Map<String, Long> fBatchIds;
+        private int fSavedNodes, fSavedRels, fSavedIndex, fSavedFailed;
+
+        public Import()
+        {
+            fIds = new ExternalIdMap();
+            fIndices = new HashMap<String, Index<Node>>();
+
+            fNodes = new ArrayList<Object>();
+            fRelationships = new ArrayList<Object>();
+            fErrors = new ArrayList<String>();
+
+            fBatchIds = new HashMap<String, Long>();
+
+            fStarted = System.currentTimeMillis();
+            fLastUsed = fStarted;
+        }
+
+        public Index<Node> getIndex(final GraphDatabaseService database,
+            final String name)
+        {
+            Index<Node> index = fIndices.get(name);
+
+            if(index == null)
+            {
+                index = database.index().forNodes(name);
+                fIndices.put(name, index);
+            }
+
+            return index;
+        }
+
+        public void beginBatch()
+        {
+            fBatchIds.clear();
+            fSavedNodes = fNodeCount;
+            fSavedRels = fRelCount;
+            fSavedIndex = fIndexCount;
+            fSavedFailed = fFailed;
+        }
+
+        public void mapId(final String id, final long nodeId)
+        {
+            //remember the mapping from before the batch
+            if(!fBatchIds.containsKey(id))
+            {
+                fBatchIds.put(id, fIds.get(id));
+            }
+
+            fIds.put(id, nodeId);
+        }
+
+        public void rollbackBatch(final int lost, final Exception e)
+        {
+            //drop mappings to nodes that were never committed
+            for(Entry<String, Long> idE : fBatchIds.entrySet())
+            {
+                if(idE.getValue() == ExternalIdMap.MISSING)
+                {
+                    fIds.remove(idE.getKey());
+                }
+                else
+                {
+                    fIds.put(idE.getKey(), idE.getValue());
+                }
+            }
+            fBatchIds.clear();
+
+            fNodeCount = fSavedNodes;
+            fRelCount = fSavedRels;
+            fIndexCount = fSavedIndex;
+            fFailed = fSavedFailed + lost;
+
+            if(fErrors.size() < 10)
+            {
+                fErrors.add("batch rolled back, " + lost
+                    + " records lost: " + e.toString());
+            }
+        }
+
+        public void addError(final Object record, final Exception e)
+        {
+            ++fFailed;
+
+            if(fErrors.size() < 10)
+            {
+                fErrors.add(record + ": " + e.toString());
+            }
+        }
+
+        public Map<String, Object> getSummary()
+        {
+            final long elements = fNodeCount + fRelCount;
+            final long time = Math.max(1,
+                System.currentTimeMillis() - fStarted);
+
+            final Map<String, Object> summary = new HashMap<String, Object>();
+            summary.put(NODES_FIELD, fNodeCount);
+            summary.put(RELATIONSHIPS_FIELD, fRelCount);
+            summary.put(INDEX_ENTRIES_FIELD, fIndexCount);
+            summary.put(PENDING_FIELD, fNodes.size() + fRelationships.size());
+            summary.put(IndexManager.FAILED_FIELD, fFailed);
+            summary.put(IndexManager.BATCHES_FIELD, fBatches);
+            summary.put(IndexManager.ERRORS_FIELD,
+                new ArrayList<String>(fErrors));
+            summary.put(RATE_FIELD, elements * 1000 / time);
+            return summary;
+        }
+    }
+}
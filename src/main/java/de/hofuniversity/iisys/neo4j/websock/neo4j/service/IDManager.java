@@ -20,38 +20,98 @@ package de.hofuniversity.iisys.neo4j.websock.neo4j.service;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.TransactionManager;
 
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.index.Index;
+import org.neo4j.kernel.GraphDatabaseAPI;
 
 import de.hofuniversity.iisys.neo4j.websock.result.SingleResult;
 
 /**
  * Class that manages the creation of unique IDs per type of node.
+ * IDs are reserved in blocks per type, using one transaction per block, and
+ * handed out from memory afterwards. IDs of a block that are not used before
+ * shutdown are skipped. Reservations are committed in their own transaction,
+ * even if the calling thread is in a transaction that is rolled back later.
  */
 public class IDManager
 {
+    /**
+     * Result key for the common prefix of a reserved range of IDs.
+     */
+    public static final String PREFIX_FIELD = "prefix";
+
+    /**
+     * Result key for the first number of a reserved range of IDs.
+     */
+    public static final String START_FIELD = "start";
+
+    /**
+     * Result key for the number of IDs in a reserved range.
+     */
+    public static final String COUNT_FIELD = "count";
+
     private static final String ID_NODE = "id";
 
+    private static final int DEF_BLOCK_SIZE = 1;
+
     private final GraphDatabaseService fDatabase;
     private final Node fIdNode;
+    private final int fBlockSize;
+    private final TransactionManager fTxManager;
+
+    //current blocks per type
+    private final ConcurrentMap<String, Block> fBlocks;
 
     /**
-     * Creates an ID manager using data from the given Neo4j database service.
+     * Creates an ID manager using data from the given Neo4j database service,
+     * reserving one ID at a time.
      * Throws a NullPointerException if the given service is null.
      *
      * @param database graph database to use
      */
     public IDManager(GraphDatabaseService database)
+    {
+        this(database, DEF_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates an ID manager using data from the given Neo4j database service,
+     * reserving blocks of the given size.
+     * Throws a NullPointerException if the given service is null.
+     *
+     * @param database graph database to use
+     * @param blockSize number of IDs to reserve at once, at least 1
+     */
+    public IDManager(GraphDatabaseService database, int blockSize)
     {
         if(database == null)
         {
             throw new NullPointerException("database service was null");
         }
+        if(blockSize < 1)
+        {
+            throw new IllegalArgumentException("block size must be positive");
+        }
 
         fDatabase = database;
+        fBlockSize = blockSize;
+        fBlocks = new ConcurrentHashMap<String, Block>();
+
+        TransactionManager txManager = null;
+        if(database instanceof GraphDatabaseAPI)
+        {
+            txManager = ((GraphDatabaseAPI) database).getDependencyResolver()
+                .resolveDependency(TransactionManager.class);
+        }
+        fTxManager = txManager;
 
         //retrieve ID management node
         Index<Node> idNodes = fDatabase.index().forNodes(ID_NODE);
@@ -92,32 +152,80 @@ public class IDManager
      */
     public String genID(final String type)
     {
-        Long nextId = null;
-        String id = type + ':';
-
         if(type == null)
         {
             throw new NullPointerException("type was null");
         }
 
+        Block block = fBlocks.get(type);
+        long id = 0;
+
+        while(true)
+        {
+            if(block != null)
+            {
+                id = block.fNext.getAndIncrement();
+
+                if(id < block.fEnd)
+                {
+                    break;
+                }
+            }
+
+            //block used up, reserve the next one
+            block = reserve(type, block);
+        }
+
+        return type + ':' + id;
+    }
+
+    private synchronized Block reserve(final String type, final Block used)
+    {
+        //another thread may already have reserved a new block
+        final Block current = fBlocks.get(type);
+        if(current != used)
+        {
+            return current;
+        }
+
+        final long start = reserveRange(type, fBlockSize);
+        final Block block = new Block(start, start + fBlockSize);
+
+        fBlocks.put(type, block);
+        return block;
+    }
+
+    private synchronized long reserveRange(final String type,
+        final long count)
+    {
+        //don't join the caller's transaction, its rollback would reissue IDs
+        final javax.transaction.Transaction outer = suspend();
+
+        try
+        {
+            return commitRange(type, count);
+        }
+        finally
+        {
+            resume(outer);
+        }
+    }
+
+    private long commitRange(final String type, final long count)
+    {
+        long start = 0;
         Transaction tx = fDatabase.beginTx();
 
         try
         {
+            //start counting at 0
             if(fIdNode.hasProperty(type))
             {
-                //get ID and store next
-                nextId = (Long)fIdNode.getProperty(type);
-                id += nextId;
-                fIdNode.setProperty(type, ++nextId);
-            }
-            else
-            {
-                //start counting at 0
-                id += '0';
-                fIdNode.setProperty(type, 1L);
+                start = (Long) fIdNode.getProperty(type);
             }
 
+            fIdNode.setProperty(type, start + count);
+
             tx.success();
             tx.finish();
         }
@@ -131,7 +239,70 @@ public class IDManager
             throw new RuntimeException(e);
         }
 
-        return id;
+        return start;
+    }
+
+    private javax.transaction.Transaction suspend()
+    {
+        javax.transaction.Transaction outer = null;
+
+        if(fTxManager != null)
+        {
+            try
+            {
+                if(fTxManager.getTransaction() != null)
+                {
+                    outer = fTxManager.suspend();
+                }
+            }
+            catch(Exception e)
+            {
+                throw new RuntimeException("could not suspend transaction",
+                    e);
+            }
+        }
+
+        return outer;
+    }
+
+    private void resume(final javax.transaction.Transaction outer)
+    {
+        if(outer != null)
+        {
+            try
+            {
+                fTxManager.resume(outer);
+            }
+            catch(Exception e)
+            {
+                throw new RuntimeException("could not resume transaction",
+                    e);
+            }
+        }
+    }
+
+    /**
+     * Reserves a contiguous range of unique IDs for the given type in a
+     * single transaction, independent of the current block.
+     * Throws a NullPointerException if the given type is null.
+     *
+     * @param type type of the objects to create IDs for
+     * @param count number of IDs to reserve, at least 1
+     * @return first number of the reserved range
+     */
+    public long reserveIDs(final String type, final int count)
+    {
+        if(type == null)
+        {
+            throw new NullPointerException("type was null");
+        }
+        if(count < 1)
+        {
+            throw new IllegalArgumentException("count must be positive");
+        }
+
+        //share the counter with block reservations
+        return reserveRange(type, count);
     }
 
     /**
@@ -151,5 +322,38 @@ public class IDManager
         return new SingleResult(resMap);
     }
 
+    /**
+     * Reserves a contiguous range of unique IDs for the given type (for
+     * procedure calls), returned as the common prefix, the first number and
+     * the number of IDs.
+     * Throws a NullPointerException if the given type is null.
+     *
+     * @param type type of the objects to create IDs for
+     * @param count number of IDs to reserve, at least 1
+     * @return result with the reserved range
+     */
+    public SingleResult requestIds(String type, int count)
+    {
+        final long start = reserveIDs(type, count);
+
+        Map<String, Object> resMap = new HashMap<String, Object>();
+        resMap.put(PREFIX_FIELD, type + ':');
+        resMap.put(START_FIELD, start);
+        resMap.put(COUNT_FIELD, count);
+        return new SingleResult(resMap);
+    }
+
     //TODO: free IDs again?
+
+    private static class Block
+    {
+        private final AtomicLong fNext;
+        private final long fEnd;
+
+        public Block(long start, long end)
+        {
+            fNext = new AtomicLong(start);
+            fEnd = end;
+        }
+    }
 }
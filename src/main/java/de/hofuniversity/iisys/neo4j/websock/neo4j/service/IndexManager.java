@@ -18,7 +18,15 @@
  */
 package de.hofuniversity.iisys.neo4j.websock.neo4j.service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
@@ -26,21 +34,110 @@ import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.index.Index;
 import org.neo4j.graphdb.index.IndexHits;
 
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.IndexLookupCache;
+import de.hofuniversity.iisys.neo4j.websock.result.SingleResult;
+import de.hofuniversity.iisys.neo4j.websock.service.Neo4jServiceQueries;
+
 /**
  * Class managing index entries in a Neo4j database.
+ * Index handles are cached and bulk operations are applied in transactions
+ * of a configurable number of entries. Changes invalidate the affected
+ * lookups in the database's IndexLookupCache.
  */
 public class IndexManager
 {
+    /**
+     * Summary key for the number of entries processed successfully.
+     */
+    public static final String PROCESSED_FIELD = "processed";
+
+    /**
+     * Summary key for the number of entries that could not be processed.
+     */
+    public static final String FAILED_FIELD = "failed";
+
+    /**
+     * Summary key for the number of transactions committed.
+     */
+    public static final String BATCHES_FIELD = "batches";
+
+    /**
+     * Summary key for the list of error messages for failed entries.
+     */
+    public static final String ERRORS_FIELD = "errors";
+
+    /**
+     * Result key for the ID of a bulk operation spanning several calls.
+     */
+    public static final String BULK_FIELD = "bulk";
+
+    private static final int DEF_BATCH_SIZE = 1000;
+
+    //maximum number of error messages returned
+    private static final int MAX_ERRORS = 10;
+
+    //time after which abandoned bulk operations are discarded
+    private static final long BULK_TIMEOUT = 600000;
+
     private final GraphDatabaseService fDatabase;
+    private final int fBatchSize;
+
+    private final ConcurrentMap<String, Index<Node>> fIndices;
+    private final ConcurrentMap<String, Bulk> fBulks;
+
+    private final IndexLookupCache fLookups;
 
+    /**
+     * Creates an index manager using the given database service, applying
+     * bulk operations in transactions of 1000 entries.
+     * The given service must not be null.
+     *
+     * @param database database service to use
+     */
     public IndexManager(GraphDatabaseService database)
+    {
+        this(database, DEF_BATCH_SIZE);
+    }
+
+    /**
+     * Creates an index manager using the given database service, applying
+     * bulk operations in transactions of the given number of entries.
+     * The given service must not be null.
+     *
+     * @param database database service to use
+     * @param batchSize number of entries per transaction, at least 1
+     */
+    public IndexManager(GraphDatabaseService database, int batchSize)
     {
         if(database == null)
         {
             throw new NullPointerException("Neo4j database service was null");
         }
+        if(batchSize < 1)
+        {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
 
         fDatabase = database;
+        fBatchSize = batchSize;
+
+        fIndices = new ConcurrentHashMap<String, Index<Node>>();
+        fBulks = new ConcurrentHashMap<String, Bulk>();
+
+        fLookups = IndexLookupCache.getInstance(database);
+    }
+
+    private Index<Node> getIndex(final String name)
+    {
+        Index<Node> index = fIndices.get(name);
+
+        if(index == null)
+        {
+            index = fDatabase.index().forNodes(name);
+            fIndices.put(name, index);
+        }
+
+        return index;
     }
 
     /**
@@ -77,12 +174,13 @@ public class IndexManager
 
         try
         {
-            Index<Node> nodeIdx = fDatabase.index().forNodes(index);
+            Index<Node> nodeIdx = getIndex(index);
             Node node = fDatabase.getNodeById(nodeId);
             nodeIdx.add(node, key, value);
 
             tx.success();
             tx.finish();
+            fLookups.invalidate(index, key, value);
         }
         catch(Exception e)
         {
@@ -124,26 +222,11 @@ public class IndexManager
 
         try
         {
-            final Index<Node> nodeIdx = fDatabase.index().forNodes(index);
-
-            //either directly request a node or delete all if none is specified
-            if(nodeId != null)
-            {
-                Node node = fDatabase.getNodeById(nodeId);
-                removeEntry(nodeIdx, node, key, value);
-            }
-            else
-            {
-                IndexHits<Node> hits = nodeIdx.get(key, value);
-                final Iterator<Node> iter = hits.iterator();
-                while(iter.hasNext())
-                {
-                    removeEntry(nodeIdx, iter.next(), key, value);
-                }
-            }
+            removeEntries(getIndex(index), nodeId, key, value);
 
             tx.success();
             tx.finish();
+            fLookups.invalidate(index, key, value);
         }
         catch(Exception e)
         {
@@ -154,6 +237,26 @@ public class IndexManager
         }
     }
 
+    private void removeEntries(final Index<Node> nodeIdx, final Long nodeId,
+        final String key, final String value)
+    {
+        //either directly request a node or delete all if none is specified
+        if(nodeId != null)
+        {
+            Node node = fDatabase.getNodeById(nodeId);
+            removeEntry(nodeIdx, node, key, value);
+        }
+        else
+        {
+            IndexHits<Node> hits = nodeIdx.get(key, value);
+            final Iterator<Node> iter = hits.iterator();
+            while(iter.hasNext())
+            {
+                removeEntry(nodeIdx, iter.next(), key, value);
+            }
+        }
+    }
+
     private void removeEntry(final Index<Node> nodeIdx, final Node node,
         final String key, final String value)
     {
@@ -188,11 +291,13 @@ public class IndexManager
 
         try
         {
-            final Index<Node> nodeIdx = fDatabase.index().forNodes(index);
+            final Index<Node> nodeIdx = getIndex(index);
             nodeIdx.delete();
+            fIndices.remove(index);
 
             tx.success();
             tx.finish();
+            fLookups.invalidateIndex(index);
         }
         catch(Exception e)
         {
@@ -202,4 +307,353 @@ public class IndexManager
             throw e;
         }
     }
+
+    /**
+     * Resolves several values of a key in the index with the given name to
+     * the IDs of the nodes indexed under them, using the lookup cache.
+     * None of the parameters may be null.
+     *
+     * @param index name of the index
+     * @param key property key of the entries
+     * @param values values to resolve
+     * @return lists of node IDs by value
+     */
+    public SingleResult resolveNodeIds(final String index, final String key,
+        final List<?> values)
+    {
+        if(index == null || index.isEmpty())
+        {
+            throw new NullPointerException("no index name given");
+        }
+        if(key == null || key.isEmpty())
+        {
+            throw new NullPointerException("no property key given");
+        }
+        if(values == null)
+        {
+            throw new NullPointerException("no values given");
+        }
+
+        final long[][] ids = fLookups.getAll(index, key, values);
+
+        final Map<String, Object> resMap = new HashMap<String, Object>();
+        for(int i = 0; i < ids.length; ++i)
+        {
+            final List<Long> idList = new ArrayList<Long>(ids[i].length);
+            for(long id : ids[i])
+            {
+                idList.add(id);
+            }
+            resMap.put(String.valueOf(values.get(i)), idList);
+        }
+
+        return new SingleResult(resMap);
+    }
+
+    /**
+     * Creates entries in the index with the given name, committing a
+     * transaction per batch. Each entry is a map containing a node ID, a key
+     * and a value as for single entries. Invalid entries are skipped and
+     * counted as failed.
+     * The index name and list of entries must not be null.
+     *
+     * @param index name of the index to manipulate
+     * @param entries list of entries to create
+     * @return summary of processed and failed entries and batches
+     */
+    public SingleResult createIndexEntries(final String index,
+        final List<?> entries)
+    {
+        return new SingleResult(applyAll(index, entries, false));
+    }
+
+    /**
+     * Deletes entries from the index with the given name, committing a
+     * transaction per batch. Each entry is a map containing a node ID and/or
+     * a key-value combination as for single entries. Invalid entries are
+     * skipped and counted as failed.
+     * The index name and list of entries must not be null.
+     *
+     * @param index name of the index to manipulate
+     * @param entries list of entries to delete
+     * @return summary of processed and failed entries and batches
+     */
+    public SingleResult deleteIndexEntries(final String index,
+        final List<?> entries)
+    {
+        return new SingleResult(applyAll(index, entries, true));
+    }
+
+    /**
+     * Begins a bulk operation on the index with the given name, to which
+     * entries can be added in several calls. Entries are committed whenever a
+     * batch is complete, the rest when the operation is finished.
+     * Operations not used for ten minutes are discarded.
+     * The given index name must not be null or empty.
+     *
+     * @param index name of the index to manipulate
+     * @param delete whether to delete entries instead of creating them
+     * @return result containing the bulk operation's ID
+     */
+    public SingleResult beginBulkIndex(final String index,
+        final Boolean delete)
+    {
+        if(index == null || index.isEmpty())
+        {
+            throw new NullPointerException("no index name given");
+        }
+
+        discardAbandoned();
+
+        final String id = UUID.randomUUID().toString();
+        fBulks.put(id, new Bulk(index, Boolean.TRUE.equals(delete)));
+
+        final Map<String, Object> resMap = new HashMap<String, Object>();
+        resMap.put(BULK_FIELD, id);
+        return new SingleResult(resMap);
+    }
+
+    /**
+     * Adds entries to a bulk operation, committing all complete batches.
+     * The given ID must belong to an active bulk operation.
+     *
+     * @param bulkId ID of the bulk operation
+     * @param entries entries to add
+     * @return summary of the operation so far
+     */
+    public SingleResult addBulkIndexEntries(final String bulkId,
+        final List<?> entries)
+    {
+        final Bulk bulk = getBulk(bulkId);
+
+        synchronized(bulk)
+        {
+            bulk.fLastUsed = System.currentTimeMillis();
+
+            if(entries != null)
+            {
+                bulk.fPending.addAll(entries);
+            }
+
+            //keep an incomplete batch for the next call
+            final int complete = bulk.fPending.size()
+                - bulk.fPending.size() % fBatchSize;
+            if(complete > 0)
+            {
+                final List<Object> batch = new ArrayList<Object>(
+                    bulk.fPending.subList(0, complete));
+                bulk.fPending.subList(0, complete).clear();
+
+                apply(bulk.fIndex, batch, bulk.fDelete, bulk.fSummary);
+            }
+
+            return new SingleResult(new HashMap<String, Object>(
+                bulk.fSummary));
+        }
+    }
+
+    /**
+     * Commits the remaining entries of a bulk operation and ends it.
+     * The given ID must belong to an active bulk operation.
+     *
+     * @param bulkId ID of the bulk operation
+     * @return summary of the whole operation
+     */
+    public SingleResult finishBulkIndex(final String bulkId)
+    {
+        final Bulk bulk = getBulk(bulkId);
+        fBulks.remove(bulkId);
+
+        synchronized(bulk)
+        {
+            apply(bulk.fIndex, bulk.fPending, bulk.fDelete, bulk.fSummary);
+            bulk.fPending.clear();
+
+            return new SingleResult(bulk.fSummary);
+        }
+    }
+
+    private Bulk getBulk(final String bulkId)
+    {
+        final Bulk bulk = fBulks.get(bulkId);
+
+        if(bulk == null)
+        {
+            throw new IllegalArgumentException("unknown bulk operation: "
+                + bulkId);
+        }
+
+        return bulk;
+    }
+
+    private void discardAbandoned()
+    {
+        final long limit = System.currentTimeMillis() - BULK_TIMEOUT;
+
+        for(Entry<String, Bulk> bulkE : fBulks.entrySet())
+        {
+            if(bulkE.getValue().fLastUsed < limit)
+            {
+                fBulks.remove(bulkE.getKey());
+            }
+        }
+    }
+
+    private Map<String, Object> applyAll(final String index,
+        final List<?> entries, final boolean delete)
+    {
+        if(index == null || index.isEmpty())
+        {
+            throw new NullPointerException("no index name given");
+        }
+        if(entries == null)
+        {
+            throw new NullPointerException("no entries given");
+        }
+
+        final Map<String, Object> summary = newSummary();
+        apply(index, entries, delete, summary);
+        return summary;
+    }
+
+    private Map<String, Object> newSummary()
+    {
+        final Map<String, Object> summary = new HashMap<String, Object>();
+        summary.put(PROCESSED_FIELD, 0);
+        summary.put(FAILED_FIELD, 0);
+        summary.put(BATCHES_FIELD, 0);
+        summary.put(ERRORS_FIELD, new ArrayList<String>());
+        return summary;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void apply(final String index, final List<?> entries,
+        final boolean delete, final Map<String, Object> summary)
+    {
+        final Index<Node> nodeIdx = getIndex(index);
+        final List<String> errors = (List<String>) summary.get(ERRORS_FIELD);
+
+        int processed = (Integer) summary.get(PROCESSED_FIELD);
+        int failed = (Integer) summary.get(FAILED_FIELD);
+        int batches = (Integer) summary.get(BATCHES_FIELD);
+
+        int from = 0;
+        while(from < entries.size())
+        {
+            final int to = Math.min(from + fBatchSize, entries.size());
+            Transaction tx = fDatabase.beginTx();
+
+            try
+            {
+                for(Object entry : entries.subList(from, to))
+                {
+                    //invalid entries don't affect the rest of the batch
+                    try
+                    {
+                        applyEntry(nodeIdx, entry, delete);
+                        ++processed;
+                    }
+                    catch(RuntimeException e)
+                    {
+                        ++failed;
+                        if(errors.size() < MAX_ERRORS)
+                        {
+                            errors.add(entry + ": " + e.toString());
+                        }
+                    }
+                }
+
+                tx.success();
+                tx.finish();
+                ++batches;
+                fLookups.invalidateIndex(index);
+            }
+            catch(RuntimeException e)
+            {
+                tx.failure();
+                tx.finish();
+
+                throw e;
+            }
+            finally
+            {
+                summary.put(PROCESSED_FIELD, processed);
+                summary.put(FAILED_FIELD, failed);
+                summary.put(BATCHES_FIELD, batches);
+            }
+
+            from = to;
+        }
+    }
+
+    private void applyEntry(final Index<Node> nodeIdx, final Object entryObj,
+        final boolean delete)
+    {
+        if(!(entryObj instanceof Map<?, ?>))
+        {
+            throw new IllegalArgumentException("entry was not a map");
+        }
+
+        final Map<?, ?> entry = (Map<?, ?>) entryObj;
+        final Object nodeId = entry.get(Neo4jServiceQueries.NODE_ID);
+        final Object key = entry.get(Neo4jServiceQueries.KEY);
+        final Object value = entry.get(Neo4jServiceQueries.VALUE);
+
+        Long id = null;
+        if(nodeId instanceof Number)
+        {
+            id = ((Number) nodeId).longValue();
+        }
+
+        final String keyString = key == null ? null : key.toString();
+        final String valueString = value == null ? null : value.toString();
+
+        if(delete)
+        {
+            if(id == null
+                && (keyString == null || keyString.isEmpty()
+                    || valueString == null || valueString.isEmpty()))
+            {
+                throw new NullPointerException("insufficient parameters");
+            }
+
+            removeEntries(nodeIdx, id, keyString, valueString);
+        }
+        else
+        {
+            if(id == null)
+            {
+                throw new NullPointerException("no node ID given");
+            }
+            if(keyString == null || keyString.isEmpty())
+            {
+                throw new NullPointerException("no property key given");
+            }
+            if(valueString == null || valueString.isEmpty())
+            {
+                throw new NullPointerException("no property value given");
+            }
+
+            nodeIdx.add(fDatabase.getNodeById(id), keyString, valueString);
+        }
+    }
+
+    private class Bulk
+    {
+        private final String fIndex;
+        private final boolean fDelete;
+        private final List<Object> fPending;
+        private final Map<String, Object> fSummary;
+
+        private volatile long fLastUsed;
+
+        public Bulk(String index, boolean delete)
+        {
+            fIndex = index;
+            fDelete = delete;
+            fPending = new ArrayList<Object>();
+            fSummary = newSummary();
+            fLastUsed = System.currentTimeMillis();
+        }
+    }
 }
@@ -28,6 +28,8 @@ import java.util.logging.Logger;
 
 import org.neo4j.graphdb.GraphDatabaseService;
 
+import de.hofuniversity.iisys.neo4j.websock.GraphConfig;
+import de.hofuniversity.iisys.neo4j.websock.WebsockContextHandler;
 import de.hofuniversity.iisys.neo4j.websock.calls.IStoredProcedure;
 import de.hofuniversity.iisys.neo4j.websock.calls.NativeProcedure;
 import de.hofuniversity.iisys.neo4j.websock.procedures.IProcedureProvider;
@@ -39,6 +41,111 @@ import de.hofuniversity.iisys.neo4j.websock.service.Neo4jServiceQueries;
  */
 public class Neo4jServiceProcedures implements IProcedureProvider
 {
+    public static final String ID_BLOCK_PROP = "websocket.id.blocksize";
+    public static final String DEF_ID_BLOCK = "100";
+
+    public static final String INDEX_BATCH_PROP = "websocket.index.batchsize";
+    public static final String DEF_INDEX_BATCH = "1000";
+
+    public static final String IMPORT_BATCH_PROP = "websocket.import.batchsize";
+    public static final String DEF_IMPORT_BATCH = "10000";
+
+    /**
+     * Name of the procedure reserving a range of IDs, taking the type and
+     * the number of IDs as parameters.
+     */
+    public static final String RESERVE_IDS_QUERY = "requestIds";
+
+    /**
+     * Parameter name for the number of IDs to reserve.
+     */
+    public static final String ID_COUNT = "count";
+
+    /**
+     * Name of the procedure creating a list of index entries.
+     */
+    public static final String CREATE_INDEX_ENTRIES_QUERY =
+        "createIndexEntries";
+
+    /**
+     * Name of the procedure deleting a list of index entries.
+     */
+    public static final String DELETE_INDEX_ENTRIES_QUERY =
+        "deleteIndexEntries";
+
+    /**
+     * Name of the procedure beginning a bulk index operation spanning
+     * several calls.
+     */
+    public static final String BEGIN_BULK_INDEX_QUERY = "beginBulkIndex";
+
+    /**
+     * Name of the procedure adding entries to a bulk index operation.
+     */
+    public static final String ADD_BULK_INDEX_QUERY = "addBulkIndexEntries";
+
+    /**
+     * Name of the procedure finishing a bulk index operation.
+     */
+    public static final String FINISH_BULK_INDEX_QUERY = "finishBulkIndex";
+
+    /**
+     * Parameter name for a list of index entries.
+     */
+    public static final String ENTRIES = "entries";
+
+    /**
+     * Parameter name for the ID of a bulk index operation.
+     */
+    public static final String BULK_ID = "bulk";
+
+    /**
+     * Parameter name for the flag making a bulk operation delete entries.
+     */
+    public static final String DELETE = "delete";
+
+    /**
+     * Name of the procedure resolving several values of an index key to node
+     * IDs through the index lookup cache.
+     */
+    public static final String RESOLVE_IDS_QUERY = "resolveNodeIds";
+
+    /**
+     * Parameter name for a list of index values.
+     */
+    public static final String VALUES = "values";
+
+    /**
+     * Name of the procedure beginning a graph import spanning several calls.
+     */
+    public static final String BEGIN_IMPORT_QUERY = "beginImport";
+
+    /**
+     * Name of the procedure adding node and relationship records to an
+     * import.
+     */
+    public static final String IMPORT_QUERY = "importRecords";
+
+    /**
+     * Name of the procedure finishing a graph import.
+     */
+    public static final String FINISH_IMPORT_QUERY = "finishImport";
+
+    /**
+     * Parameter name for the ID of a graph import.
+     */
+    public static final String IMPORT_ID = "import";
+
+    /**
+     * Parameter name for a list of node records.
+     */
+    public static final String NODES = "nodes";
+
+    /**
+     * Parameter name for a list of relationship records.
+     */
+    public static final String RELATIONSHIPS = "rels";
+
     private final GraphDatabaseService fDb;
 
     private final Logger fLogger;
@@ -72,6 +179,7 @@ public class Neo4jServiceProcedures implements IProcedureProvider
         {
             addIdService(procedures);
             addIndexService(procedures);
+            addImportService(procedures);
         }
         catch(Exception e)
         {
@@ -86,7 +194,17 @@ public class Neo4jServiceProcedures implements IProcedureProvider
     private void addIdService(
         final Map<String, IStoredProcedure> procedures) throws Exception
     {
-        final IDManager idMan = new IDManager(fDb);
+        //number of IDs reserved per transaction
+        GraphConfig config = WebsockContextHandler.getInstance()
+            .getConfig(fDb);
+        String blockSize = config.getProperty(ID_BLOCK_PROP);
+        if(blockSize == null || blockSize.isEmpty())
+        {
+            blockSize = DEF_ID_BLOCK;
+        }
+
+        final IDManager idMan = new IDManager(fDb,
+            Integer.parseInt(blockSize));
 
         //requestId
         Method genId = IDManager.class.getMethod(
@@ -98,12 +216,34 @@ public class Neo4jServiceProcedures implements IProcedureProvider
         IStoredProcedure proc = new NativeProcedure(
             Neo4jServiceQueries.GET_UID_METHOD, idMan, genId, paramNames);
         procedures.put(Neo4jServiceQueries.GET_UID_QUERY, proc);
+
+        //requestIds
+        Method reserveIds = IDManager.class.getMethod(RESERVE_IDS_QUERY,
+            String.class, Integer.TYPE);
+
+        paramNames = new ArrayList<String>();
+        paramNames.add(Neo4jServiceQueries.TYPE);
+        paramNames.add(ID_COUNT);
+
+        proc = new NativeProcedure(RESERVE_IDS_QUERY, idMan, reserveIds,
+            paramNames);
+        procedures.put(RESERVE_IDS_QUERY, proc);
     }
 
     private void addIndexService(
         final Map<String, IStoredProcedure> procedures) throws Exception
     {
-        final IndexManager idxMan = new IndexManager(fDb);
+        //number of entries per transaction for bulk operations
+        GraphConfig config = WebsockContextHandler.getInstance()
+            .getConfig(fDb);
+        String batchSize = config.getProperty(INDEX_BATCH_PROP);
+        if(batchSize == null || batchSize.isEmpty())
+        {
+            batchSize = DEF_INDEX_BATCH;
+        }
+
+        final IndexManager idxMan = new IndexManager(fDb,
+            Integer.parseInt(batchSize));
 
         //createIndexEntry
         Method createIdxEntry = IndexManager.class.getMethod(
@@ -148,5 +288,124 @@ public class Neo4jServiceProcedures implements IProcedureProvider
             Neo4jServiceQueries.CLEAR_INDEX_METHOD, idxMan, clearIdx,
             paramNames);
         procedures.put(Neo4jServiceQueries.CLEAR_INDEX_QUERY, proc);
+
+        //createIndexEntries
+        Method createIdxEntries = IndexManager.class.getMethod(
+            CREATE_INDEX_ENTRIES_QUERY, String.class, List.class);
+
+        paramNames = new ArrayList<String>();
+        paramNames.add(Neo4jServiceQueries.INDEX);
+        paramNames.add(ENTRIES);
+
+        proc = new NativeProcedure(CREATE_INDEX_ENTRIES_QUERY, idxMan,
+            createIdxEntries, paramNames);
+        procedures.put(CREATE_INDEX_ENTRIES_QUERY, proc);
+
+        //deleteIndexEntries
+        Method deleteIdxEntries = IndexManager.class.getMethod(
+            DELETE_INDEX_ENTRIES_QUERY, String.class, List.class);
+
+        paramNames = new ArrayList<String>();
+        paramNames.add(Neo4jServiceQueries.INDEX);
+        paramNames.add(ENTRIES);
+
+        proc = new NativeProcedure(DELETE_INDEX_ENTRIES_QUERY, idxMan,
+            deleteIdxEntries, paramNames);
+        procedures.put(DELETE_INDEX_ENTRIES_QUERY, proc);
+
+        //resolveNodeIds
+        Method resolveIds = IndexManager.class.getMethod(RESOLVE_IDS_QUERY,
+            String.class, String.class, List.class);
+
+        paramNames = new ArrayList<String>();
+        paramNames.add(Neo4jServiceQueries.INDEX);
+        paramNames.add(Neo4jServiceQueries.KEY);
+        paramNames.add(VALUES);
+
+        proc = new NativeProcedure(RESOLVE_IDS_QUERY, idxMan, resolveIds,
+            paramNames);
+        procedures.put(RESOLVE_IDS_QUERY, proc);
+
+        //beginBulkIndex
+        Method beginBulk = IndexManager.class.getMethod(
+            BEGIN_BULK_INDEX_QUERY, String.class, Boolean.class);
+
+        paramNames = new ArrayList<String>();
+        paramNames.add(Neo4jServiceQueries.INDEX);
+        paramNames.add(DELETE);
+
+        proc = new NativeProcedure(BEGIN_BULK_INDEX_QUERY, idxMan, beginBulk,
+            paramNames);
+        procedures.put(BEGIN_BULK_INDEX_QUERY, proc);
+
+        //addBulkIndexEntries
+        Method addBulk = IndexManager.class.getMethod(ADD_BULK_INDEX_QUERY,
+            String.class, List.class);
+
+        paramNames = new ArrayList<String>();
+        paramNames.add(BULK_ID);
+        paramNames.add(ENTRIES);
+
+        proc = new NativeProcedure(ADD_BULK_INDEX_QUERY, idxMan, addBulk,
+            paramNames);
+        procedures.put(ADD_BULK_INDEX_QUERY, proc);
+
+        //finishBulkIndex
+        Method finishBulk = IndexManager.class.getMethod(
+            FINISH_BULK_INDEX_QUERY, String.class);
+
+        paramNames = new ArrayList<String>();
+        paramNames.add(BULK_ID);
+
+        proc = new NativeProcedure(FINISH_BULK_INDEX_QUERY, idxMan,
+            finishBulk, paramNames);
+        procedures.put(FINISH_BULK_INDEX_QUERY, proc);
+    }
+
+    private void addImportService(
+        final Map<String, IStoredProcedure> procedures) throws Exception
+    {
+        //number of elements per transaction
+        GraphConfig config = WebsockContextHandler.getInstance()
+            .getConfig(fDb);
+        String batchSize = config.getProperty(IMPORT_BATCH_PROP);
+        if(batchSize == null || batchSize.isEmpty())
+        {
+            batchSize = DEF_IMPORT_BATCH;
+        }
+
+        final GraphImporter importer = new GraphImporter(fDb,
+            Integer.parseInt(batchSize));
+
+        //beginImport
+        Method begin = GraphImporter.class.getMethod(BEGIN_IMPORT_QUERY);
+
+        IStoredProcedure proc = new NativeProcedure(BEGIN_IMPORT_QUERY,
+            importer, begin, new ArrayList<String>());
+        procedures.put(BEGIN_IMPORT_QUERY, proc);
+
+        //importRecords
+        Method importRecs = GraphImporter.class.getMethod(IMPORT_QUERY,
+            String.class, List.class, List.class);
+
+        List<String> paramNames = new ArrayList<String>();
+        paramNames.add(IMPORT_ID);
+        paramNames.add(NODES);
+        paramNames.add(RELATIONSHIPS);
+
+        proc = new NativeProcedure(IMPORT_QUERY, importer, importRecs,
+            paramNames);
+        procedures.put(IMPORT_QUERY, proc);
+
+        //finishImport
+        Method finish = GraphImporter.class.getMethod(FINISH_IMPORT_QUERY,
+            String.class);
+
+        paramNames = new ArrayList<String>();
+        paramNames.add(IMPORT_ID);
+
+        proc = new NativeProcedure(FINISH_IMPORT_QUERY, importer, finish,
+            paramNames);
+        procedures.put(FINISH_IMPORT_QUERY, proc);
     }
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.util;
+
+/**
+ * Per-thread accumulator for the time spent converting results into
+ * transferable maps, so it can be reported separately from the execution.
+ */
+public class ConversionTimer
+{
+    private static final ThreadLocal<long[]> fTimes =
+        new ThreadLocal<long[]>()
+    {
+        @Override
+        protected long[] initialValue()
+        {
+            return new long[1];
+        }
+    };
+
+    /**
+     * Adds the given conversion time to the current thread's total.
+     *
+     * @param time conversion time in nanoseconds
+     */
+    public static void add(long time)
+    {
+        fTimes.get()[0] += time;
+    }
+
+    /**
+     * Returns the current thread's total conversion time since the last
+     * call and resets it.
+     *
+     * @return conversion time in nanoseconds
+     */
+    public static long take()
+    {
+        final long[] times = fTimes.get();
+        final long time = times[0];
+        times[0] = 0;
+        return time;
+    }
+}
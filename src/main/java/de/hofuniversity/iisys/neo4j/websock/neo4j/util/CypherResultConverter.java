@@ -19,16 +19,24 @@
 package de.hofuniversity.iisys.neo4j.websock.neo4j.util;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import org.neo4j.cypher.javacompat.ExecutionResult;
+import org.neo4j.cypher.javacompat.PlanDescription;
+import org.neo4j.cypher.javacompat.ProfilerStatistics;
 import org.neo4j.graphdb.PropertyContainer;
 
+import de.hofuniversity.iisys.neo4j.websock.calls.ServerQueries;
 import de.hofuniversity.iisys.neo4j.websock.neo4j.convert.SimpleGraphObject;
 import de.hofuniversity.iisys.neo4j.websock.result.TableResult;
+import de.hofuniversity.iisys.neo4j.websock.util.ImplUtil;
 
 /**
  * Converter class transforming the output of local Cypher queries into a
@@ -47,12 +55,118 @@ public class CypherResultConverter
      */
     public static TableResult toTableResult(final ExecutionResult result,
         final int first, final int last)
+    {
+        return toTableResult(result.columns(), result.iterator(), first, last,
+            null);
+    }
+
+    /**
+     * Converts the given execution result into a result table, only including
+     * the entries specified for pagination support and only the properties
+     * specified per column for nodes and relationships.
+     *
+     * @param result result returned by Cypher execution engine
+     * @param first index of first result to retrieve
+     * @param last index of last result to retrieve (exclusive)
+     * @param projection properties to include per column or null
+     * @return results converted to a table
+     */
+    public static TableResult toTableResult(final ExecutionResult result,
+        final int first, final int last,
+        final Map<String, Set<String>> projection)
+    {
+        return toTableResult(result.columns(), result.iterator(), first, last,
+            projection);
+    }
+
+    /**
+     * Converts a field projection parameter into sets of properties to
+     * include per column. The parameter can either be a list of property
+     * names for all columns or a map of such lists by column name, using
+     * "*" as the name for all other columns. Property names can contain "*"
+     * as a wildcard. Returns null if there is no projection.
+     *
+     * @param param projection parameter or null
+     * @return properties to include per column or null
+     */
+    public static Map<String, Set<String>> getProjection(final Object param)
+    {
+        Map<String, Set<String>> projection = null;
+
+        if(param instanceof List<?>)
+        {
+            projection = new HashMap<String, Set<String>>();
+            projection.put(ServerQueries.ALL_COLUMNS,
+                toFieldSet((List<?>) param));
+        }
+        else if(param instanceof Map<?, ?>)
+        {
+            projection = new HashMap<String, Set<String>>();
+
+            for(Entry<?, ?> colE : ((Map<?, ?>) param).entrySet())
+            {
+                if(colE.getValue() instanceof List<?>)
+                {
+                    projection.put(colE.getKey().toString(),
+                        toFieldSet((List<?>) colE.getValue()));
+                }
+            }
+        }
+
+        return projection;
+    }
+
+    private static Set<String> toFieldSet(final List<?> fields)
+    {
+        final Set<String> set = new HashSet<String>();
+
+        for(Object field : fields)
+        {
+            set.add(field.toString());
+        }
+
+        return set;
+    }
+
+    /**
+     * Converts the given raw result rows into a result table, only including
+     * the entries specified for pagination support.
+     *
+     * @param columnNames names of the result's columns
+     * @param rows iterator over the result rows by column name
+     * @param first index of first result to retrieve
+     * @param last index of last result to retrieve (exclusive)
+     * @param projection properties to include per column or null
+     * @return results converted to a table
+     */
+    public static TableResult toTableResult(final List<String> columnNames,
+        final Iterator<Map<String, Object>> rows, final int first,
+        final int last, final Map<String, Set<String>> projection)
     {
         //TODO: specify list and map implementations
 
-        final List<String> columnNames = result.columns();
         final int columnCount = columnNames.size();
 
+        //properties to retrieve per column
+        final List<Set<String>> colFields =
+            new ArrayList<Set<String>>(columnCount);
+        for(String colName : columnNames)
+        {
+            Set<String> fields = null;
+
+            if(projection != null)
+            {
+                fields = projection.get(colName);
+
+                if(fields == null)
+                {
+                    fields = projection.get(ServerQueries.ALL_COLUMNS);
+                }
+            }
+
+            colFields.add(fields);
+        }
+
         int total = 0;
 
         /*
@@ -61,7 +175,6 @@ public class CypherResultConverter
          * add all columns' values to the individual lists for each entry
          * attention: columns can only be iterated over once
          */
-        Iterator<Map<String, Object>> rows = result.iterator();
         final List<List<Object>> entries = new LinkedList<List<Object>>();
         List<Object> entry = null;
         Map<String, Object> map = null;
@@ -81,12 +194,12 @@ public class CypherResultConverter
 
             entry = new ArrayList<Object>(columnCount);
 
-            for(String colName : columnNames)
+            for(int i = 0; i < columnCount; ++i)
             {
-                value = map.get(colName);
+                value = map.get(columnNames.get(i));
 
                 //convert if necessary
-                value = getConvertedObject(value);
+                value = getConvertedObject(value, colFields.get(i));
 
                 entry.add(value);
             }
@@ -105,8 +218,64 @@ public class CypherResultConverter
         return table;
     }
 
+    /**
+     * Converts the given execution plan into a transferable tree of maps,
+     * including the number of rows and database hits per operator if the
+     * plan was profiled.
+     *
+     * @param plan execution plan to convert
+     * @param impl implementation utility to create maps with
+     * @return plan converted to a map
+     */
+    public static Map<String, Object> toPlanMap(final PlanDescription plan,
+        final ImplUtil impl)
+    {
+        final Map<String, Object> map = impl.newMap();
+        map.put(ServerQueries.PLAN_NAME, plan.getName());
+
+        //arguments may contain internal objects
+        final Map<String, Object> args = impl.newMap();
+        Object value = null;
+        for(Entry<String, Object> argE : plan.getArguments().entrySet())
+        {
+            value = argE.getValue();
+
+            if(value != null
+                && !(value instanceof Number)
+                && !(value instanceof Boolean))
+            {
+                value = value.toString();
+            }
+
+            args.put(argE.getKey(), value);
+        }
+        map.put(ServerQueries.PLAN_ARGS, args);
+
+        try
+        {
+            ProfilerStatistics stats = plan.getProfilerStatistics();
+            map.put(ServerQueries.PLAN_ROWS, stats.getRows());
+            map.put(ServerQueries.PLAN_DB_HITS, stats.getDbHits());
+        }
+        catch(Exception e)
+        {
+            //not profiled
+        }
+
+        final List<PlanDescription> children = plan.getChildren();
+        final List<Object> childMaps = new ArrayList<Object>(children.size());
+        for(PlanDescription child : children)
+        {
+            childMaps.add(toPlanMap(child, impl));
+        }
+        map.put(ServerQueries.PLAN_CHILDREN, childMaps);
+
+        return map;
+    }
+
     @SuppressWarnings("unchecked")
-    private static Object getConvertedObject(Object value)
+    private static Object getConvertedObject(Object value,
+        final Set<String> fields)
     {
         //convert nodes and relationships
         if(value == null)
@@ -116,7 +285,7 @@ public class CypherResultConverter
         else if(value instanceof PropertyContainer)
         {
             value = new SimpleGraphObject(
-                (PropertyContainer)value).toMap(null);
+                (PropertyContainer)value).toMap(fields);
         }
         //convert lists of nodes and relationships
         else if(value instanceof List<?>
@@ -130,7 +299,7 @@ public class CypherResultConverter
 
                 for(PropertyContainer con : (List<PropertyContainer>)value)
                 {
-                    mapList.add(new SimpleGraphObject(con).toMap(null));
+                    mapList.add(new SimpleGraphObject(con).toMap(fields));
                 }
 
                 value = mapList;
@@ -142,7 +311,7 @@ public class CypherResultConverter
 
                 for(Object o : (List<?>)value)
                 {
-                    newList.add(getConvertedObject(o));
+                    newList.add(getConvertedObject(o, fields));
                 }
 
                 value = newList;
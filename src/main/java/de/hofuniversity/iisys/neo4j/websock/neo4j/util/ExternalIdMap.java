@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.util;
+
+/**
+ * Open addressing hash map from external IDs to node IDs, storing node IDs as
+ * primitives so millions of mappings don't create a wrapper object each.
+ * Not thread-safe.
+ */
+public class ExternalIdMap
+{
+    /**
+     * Value returned for IDs that are not mapped.
+     */
+    public static final long MISSING = -1;
+
+    private static final int DEF_CAPACITY = 1024;
+
+    private String[] fKeys;
+    private long[] fValues;
+    private int fSize;
+
+    /**
+     * Creates an empty map.
+     */
+    public ExternalIdMap()
+    {
+        this(DEF_CAPACITY);
+    }
+
+    /**
+     * Creates an empty map sized for the given number of mappings.
+     *
+     * @param expected expected number of mappings
+     */
+    public ExternalIdMap(int expected)
+    {
+        int capacity = 16;
+        while(capacity < expected * 2)
+        {
+            capacity <<= 1;
+        }
+
+        fKeys = new String[capacity];
+        fValues = new long[capacity];
+    }
+
+    /**
+     * Maps the given external ID to the given node ID, replacing any previous
+     * mapping.
+     * The given ID must not be null and the node ID must not be negative.
+     *
+     * @param id external ID
+     * @param nodeId node ID to map it to
+     */
+    public void put(final String id, final long nodeId)
+    {
+        if(id == null)
+        {
+            throw new NullPointerException("external ID was null");
+        }
+        if(nodeId < 0)
+        {
+            throw new IllegalArgumentException("node ID was negative");
+        }
+
+        //keep the load factor at or below one half
+        if((fSize + 1) * 2 > fKeys.length)
+        {
+            resize(fKeys.length * 2);
+        }
+
+        final int slot = find(fKeys, id);
+        if(fKeys[slot] == null)
+        {
+            fKeys[slot] = id;
+            ++fSize;
+        }
+        fValues[slot] = nodeId;
+    }
+
+    /**
+     * Returns the node ID mapped to the given external ID or MISSING if
+     * there is none.
+     *
+     * @param id external ID
+     * @return mapped node ID or MISSING
+     */
+    public long get(final String id)
+    {
+        if(id == null)
+        {
+            return MISSING;
+        }
+
+        final int slot = find(fKeys, id);
+        return fKeys[slot] == null ? MISSING : fValues[slot];
+    }
+
+    /**
+     * Removes the mapping of the given external ID and returns the node ID
+     * it was mapped to or MISSING if there was none.
+     *
+     * @param id external ID
+     * @return previously mapped node ID or MISSING
+     */
+    public long remove(final String id)
+    {
+        if(id == null)
+        {
+            return MISSING;
+        }
+
+        int slot = find(fKeys, id);
+        if(fKeys[slot] == null)
+        {
+            return MISSING;
+        }
+
+        final long nodeId = fValues[slot];
+        fKeys[slot] = null;
+        --fSize;
+
+        //re-insert the rest of the cluster so lookups don't stop at the gap
+        final int mask = fKeys.length - 1;
+        slot = (slot + 1) & mask;
+        while(fKeys[slot] != null)
+        {
+            final String key = fKeys[slot];
+            final long value = fValues[slot];
+            fKeys[slot] = null;
+
+            final int target = find(fKeys, key);
+            fKeys[target] = key;
+            fValues[target] = value;
+
+            slot = (slot + 1) & mask;
+        }
+
+        return nodeId;
+    }
+
+    /**
+     * @return number of mappings
+     */
+    public int size()
+    {
+        return fSize;
+    }
+
+    private static int find(final String[] keys, final String id)
+    {
+        final int mask = keys.length - 1;
+
+        //spread hash bits since the table size is a power of two
+        int hash = id.hashCode();
+        hash ^= hash >>> 16;
+        int slot = (hash * 0x9E3779B9) & mask;
+
+        while(keys[slot] != null && !keys[slot].equals(id))
+        {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void resize(final int capacity)
+    {
+        final String[] oldKeys = fKeys;
+        final long[] oldValues = fValues;
+
+        fKeys = new String[capacity];
+        fValues = new long[capacity];
+
+        for(int i = 0; i < oldKeys.length; ++i)
+        {
+            if(oldKeys[i] != null)
+            {
+                final int slot = find(fKeys, oldKeys[i]);
+                fKeys[slot] = oldKeys[i];
+                fValues[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,590 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.transaction.TransactionManager;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.kernel.GraphDatabaseAPI;
+
+/**
+ * Bounded cache of legacy index lookups, mapping index entries and index
+ * queries to the IDs of the nodes found as primitive arrays. There is one
+ * cache per database, obtained through the class' getInstance method.
+ *
+ * Entries are invalidated by IndexManager mutations and by committed
+ * transactions deleting nodes or changing their properties; cached queries
+ * are also invalidated by transactions creating nodes. Index entries
+ * created by other means only become visible for values that were not found
+ * before, since empty results are never cached. Code adding or removing
+ * index entries directly must call one of the invalidation methods.
+ * Lookups within a transaction bypass the cache, so they see the
+ * transaction's own changes. Since stale results can't be ruled out, the
+ * cache is disabled until a maximum number of entries is set.
+ */
+public class IndexLookupCache
+{
+    /**
+     * Default maximum number of cached lookups, disabling the cache.
+     */
+    public static final int DEF_MAX_ENTRIES = 0;
+
+    private static final Object INSTANCE_LOCK = new Object();
+
+    private static final Map<GraphDatabaseService, IndexLookupCache>
+        fInstances =
+        new WeakHashMap<GraphDatabaseService, IndexLookupCache>();
+
+    private static final long[] EMPTY = new long[0];
+
+    private static final char SEPARATOR = '\u0000';
+
+    private final GraphDatabaseService fDb;
+    private final TransactionManager fTxManager;
+
+    private final Map<String, CachedIds> fEntries;
+    private final Map<String, Long> fIndexGens;
+    private final Map<String, Long> fQueryGens;
+
+    //keys of the cached lookups containing each node
+    private final Map<Long, Set<String>> fNodeKeys;
+
+    private final Logger fLogger;
+
+    private int fMaxEntries;
+    private long fModCount;
+    private long fCreateGen;
+    private long fHits, fMisses;
+
+    /**
+     * Returns the shared cache for the given database, creating it and
+     * registering its transaction event handler if necessary.
+     * The given database must not be null.
+     *
+     * @param database database service
+     * @return existing or newly created cache for the database
+     */
+    public static IndexLookupCache getInstance(GraphDatabaseService database)
+    {
+        if(database == null)
+        {
+            throw new NullPointerException("database service was null");
+        }
+
+        synchronized(INSTANCE_LOCK)
+        {
+            IndexLookupCache cache = fInstances.get(database);
+
+            if(cache == null)
+            {
+                cache = new IndexLookupCache(database, DEF_MAX_ENTRIES);
+                database.registerTransactionEventHandler(
+                    cache.new Invalidator());
+                fInstances.put(database, cache);
+            }
+
+            return cache;
+        }
+    }
+
+    /**
+     * Creates a cache for the given database holding up to the given number
+     * of lookups, without registering it for transaction events. To use the
+     * shared cache, use the class' getInstance method.
+     * The given database must not be null.
+     *
+     * @param database database service
+     * @param maxEntries maximum number of cached lookups, 0 to disable
+     */
+    public IndexLookupCache(GraphDatabaseService database, int maxEntries)
+    {
+        if(database == null)
+        {
+            throw new NullPointerException("database service was null");
+        }
+
+        fDb = database;
+        fMaxEntries = maxEntries;
+        fLogger = Logger.getLogger(this.getClass().getName());
+
+        fEntries = new LinkedHashMap<String, CachedIds>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                Entry<String, CachedIds> eldest)
+            {
+                if(size() > fMaxEntries)
+                {
+                    unlink(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        fIndexGens = new HashMap<String, Long>();
+        fQueryGens = new HashMap<String, Long>();
+        fNodeKeys = new HashMap<Long, Set<String>>();
+
+        fTxManager = getTxManager(database);
+    }
+
+    private TransactionManager getTxManager(final GraphDatabaseService db)
+    {
+        TransactionManager txManager = null;
+
+        try
+        {
+            if(db instanceof GraphDatabaseAPI)
+            {
+                txManager = ((GraphDatabaseAPI) db).getDependencyResolver()
+                    .resolveDependency(TransactionManager.class);
+            }
+        }
+        catch(Exception e)
+        {
+            fLogger.log(Level.WARNING, "transaction manager not available, "
+                + "lookups in transactions may be served from the cache", e);
+        }
+
+        return txManager;
+    }
+
+    /**
+     * Sets the maximum number of cached lookups, evicting the least recently
+     * used ones if necessary.
+     *
+     * @param maxEntries maximum number of lookups, 0 to disable caching
+     */
+    public synchronized void setMaxEntries(int maxEntries)
+    {
+        fMaxEntries = maxEntries;
+
+        final Iterator<Entry<String, CachedIds>> entries =
+            fEntries.entrySet().iterator();
+        while(fEntries.size() > fMaxEntries && entries.hasNext())
+        {
+            final Entry<String, CachedIds> entry = entries.next();
+            unlink(entry.getKey(), entry.getValue());
+            entries.remove();
+        }
+    }
+
+    /**
+     * Returns the IDs of the nodes indexed under the given key and value.
+     * The returned array is shared and must not be modified.
+     * None of the parameters may be null.
+     *
+     * @param index name of the index
+     * @param key key of the entry
+     * @param value value of the entry
+     * @return IDs of the nodes found, possibly empty
+     */
+    public long[] get(final String index, final String key,
+        final Object value)
+    {
+        final String cacheKey = index + SEPARATOR + key + SEPARATOR + value;
+
+        return lookup(cacheKey, index, false, new Loader()
+        {
+            @Override
+            public IndexHits<Node> load()
+            {
+                return fDb.index().forNodes(index).get(key, value);
+            }
+        });
+    }
+
+    /**
+     * Returns the IDs of the nodes found using the given index query, as used
+     * in Cypher START clauses like "node:persons({query})".
+     * The returned array is shared and must not be modified.
+     * None of the parameters may be null.
+     *
+     * @param index name of the index
+     * @param query index query
+     * @return IDs of the nodes found, possibly empty
+     */
+    public long[] query(final String index, final Object query)
+    {
+        final String cacheKey = index + SEPARATOR + SEPARATOR + query;
+
+        return lookup(cacheKey, index, true, new Loader()
+        {
+            @Override
+            public IndexHits<Node> load()
+            {
+                return fDb.index().forNodes(index).query(query);
+            }
+        });
+    }
+
+    /**
+     * Resolves several values of the same index key at once, returning the
+     * IDs found for each value in the order of the given values.
+     * None of the parameters may be null.
+     *
+     * @param index name of the index
+     * @param key key of the entries
+     * @param values values to resolve
+     * @return IDs of the nodes found for each value
+     */
+    public long[][] getAll(final String index, final String key,
+        final List<?> values)
+    {
+        final long[][] ids = new long[values.size()][];
+
+        for(int i = 0; i < ids.length; ++i)
+        {
+            ids[i] = get(index, key, values.get(i));
+        }
+
+        return ids;
+    }
+
+    private long[] lookup(final String cacheKey, final String index,
+        final boolean isQuery, final Loader loader)
+    {
+        //transactions need to see their own changes
+        final boolean cacheable = fMaxEntries > 0 && !inTransaction();
+
+        long modCount = 0;
+        long indexGen = 0;
+        long queryGen = 0;
+
+        if(cacheable)
+        {
+            synchronized(this)
+            {
+                indexGen = getGen(fIndexGens, index);
+                queryGen = getQueryGen(index);
+
+                final CachedIds cached = fEntries.get(cacheKey);
+                if(cached != null && cached.fIndexGen == indexGen
+                    && (!isQuery || cached.fQueryGen == queryGen))
+                {
+                    ++fHits;
+                    return cached.fIds;
+                }
+
+                ++fMisses;
+                modCount = fModCount;
+            }
+        }
+
+        final long[] ids = toIds(loader.load());
+
+        //don't cache results of loads overlapping with invalidations
+        if(cacheable && ids.length > 0)
+        {
+            synchronized(this)
+            {
+                if(modCount == fModCount)
+                {
+                    final CachedIds cached = new CachedIds(ids, indexGen,
+                        queryGen);
+                    unlink(cacheKey, fEntries.put(cacheKey, cached));
+                    link(cacheKey, cached);
+                }
+            }
+        }
+
+        return ids;
+    }
+
+    private boolean inTransaction()
+    {
+        boolean inTx = false;
+
+        if(fTxManager != null)
+        {
+            try
+            {
+                inTx = fTxManager.getTransaction() != null;
+            }
+            catch(Exception e)
+            {
+                inTx = true;
+            }
+        }
+
+        return inTx;
+    }
+
+    private long getGen(final Map<String, Long> gens, final String index)
+    {
+        final Long gen = gens.get(index);
+        return gen == null ? 0 : gen;
+    }
+
+    private long getQueryGen(final String index)
+    {
+        //both only grow, so the sum changes whenever one of them does
+        return getGen(fQueryGens, index) + fCreateGen;
+    }
+
+    private void link(final String key, final CachedIds cached)
+    {
+        for(long id : cached.fIds)
+        {
+            Set<String> keys = fNodeKeys.get(id);
+            if(keys == null)
+            {
+                keys = new HashSet<String>();
+                fNodeKeys.put(id, keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    private void unlink(final String key, final CachedIds cached)
+    {
+        if(cached == null)
+        {
+            return;
+        }
+
+        for(long id : cached.fIds)
+        {
+            final Set<String> keys = fNodeKeys.get(id);
+            if(keys != null)
+            {
+                keys.remove(key);
+                if(keys.isEmpty())
+                {
+                    fNodeKeys.remove(id);
+                }
+            }
+        }
+    }
+
+    private long[] toIds(final IndexHits<Node> hits)
+    {
+        try
+        {
+            if(!hits.hasNext())
+            {
+                return EMPTY;
+            }
+
+            final List<Node> nodes = new ArrayList<Node>();
+            for(Node node : hits)
+            {
+                nodes.add(node);
+            }
+
+            final long[] ids = new long[nodes.size()];
+            for(int i = 0; i < ids.length; ++i)
+            {
+                ids[i] = nodes.get(i).getId();
+            }
+            return ids;
+        }
+        finally
+        {
+            hits.close();
+        }
+    }
+
+    /**
+     * Invalidates the cached lookup of the given entry and all cached
+     * queries of its index.
+     *
+     * @param index name of the index
+     * @param key key of the entry or null for all keys
+     * @param value value of the entry or null for all values
+     */
+    public synchronized void invalidate(String index, String key,
+        Object value)
+    {
+        ++fModCount;
+
+        if(key == null || value == null)
+        {
+            invalidateIndex(index);
+        }
+        else
+        {
+            final String cacheKey = index + SEPARATOR + key + SEPARATOR
+                + value;
+            unlink(cacheKey, fEntries.remove(cacheKey));
+            fQueryGens.put(index, getGen(fQueryGens, index) + 1);
+        }
+    }
+
+    /**
+     * Invalidates all cached lookups of the given index.
+     *
+     * @param index name of the index
+     */
+    public synchronized void invalidateIndex(String index)
+    {
+        ++fModCount;
+        fIndexGens.put(index, getGen(fIndexGens, index) + 1);
+    }
+
+    /**
+     * Invalidates all cached lookups containing any of the given node IDs.
+     *
+     * @param nodeIds IDs of changed nodes
+     */
+    public synchronized void invalidateNodes(Set<Long> nodeIds)
+    {
+        ++fModCount;
+
+        for(Long id : nodeIds)
+        {
+            final Set<String> keys = fNodeKeys.remove(id);
+            if(keys != null)
+            {
+                for(String key : keys)
+                {
+                    unlink(key, fEntries.remove(key));
+                }
+            }
+        }
+    }
+
+    /**
+     * Invalidates all cached queries, since newly created nodes may match
+     * them.
+     */
+    public synchronized void invalidateQueries()
+    {
+        ++fModCount;
+        ++fCreateGen;
+    }
+
+    /**
+     * Removes all cached lookups.
+     */
+    public synchronized void clear()
+    {
+        ++fModCount;
+        fEntries.clear();
+        fNodeKeys.clear();
+    }
+
+    /**
+     * @return number of cached lookups
+     */
+    public synchronized int size()
+    {
+        return fEntries.size();
+    }
+
+    /**
+     * @return number of lookups served from the cache
+     */
+    public synchronized long getHits()
+    {
+        return fHits;
+    }
+
+    /**
+     * @return number of lookups that had to read the index
+     */
+    public synchronized long getMisses()
+    {
+        return fMisses;
+    }
+
+    private interface Loader
+    {
+        public IndexHits<Node> load();
+    }
+
+    private static class CachedIds
+    {
+        private final long[] fIds;
+        private final long fIndexGen;
+        private final long fQueryGen;
+
+        public CachedIds(long[] ids, long indexGen, long queryGen)
+        {
+            fIds = ids;
+            fIndexGen = indexGen;
+            fQueryGen = queryGen;
+        }
+    }
+
+    private class Invalidator implements TransactionEventHandler<Object>
+    {
+        @Override
+        public Object beforeCommit(TransactionData data) throws Exception
+        {
+            return null;
+        }
+
+        @Override
+        public void afterCommit(TransactionData data, Object state)
+        {
+            final Set<Long> changed = new HashSet<Long>();
+
+            for(Node node : data.deletedNodes())
+            {
+                changed.add(node.getId());
+            }
+            for(PropertyEntry<Node> prop : data.assignedNodeProperties())
+            {
+                changed.add(prop.entity().getId());
+            }
+            for(PropertyEntry<Node> prop : data.removedNodeProperties())
+            {
+                changed.add(prop.entity().getId());
+            }
+
+            if(!changed.isEmpty())
+            {
+                invalidateNodes(changed);
+            }
+
+            //new nodes may match cached queries of any index
+            if(data.createdNodes().iterator().hasNext())
+            {
+                invalidateQueries();
+            }
+        }
+
+        @Override
+        public void afterRollback(TransactionData data, Object state)
+        {
+            //nothing changed
+        }
+    }
+}
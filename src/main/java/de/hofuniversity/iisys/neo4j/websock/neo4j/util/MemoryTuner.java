@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.util;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Derives memory mapping and object cache settings for an embedded
+ * database from the sizes of its store files, the maximum heap size and the
+ * physical memory available.
+ * Node and relationship stores are mapped first, the remaining budget is
+ * split between the property stores in proportion to their sizes. Unless
+ * the heap can hold the whole graph, a soft or weak object cache is chosen.
+ */
+public class MemoryTuner
+{
+    /**
+     * Store file names, in order of mapping priority.
+     */
+    public static final String[] STORES =
+    {
+        "neostore.nodestore.db",
+        "neostore.relationshipstore.db",
+        "neostore.propertystore.db",
+        "neostore.propertystore.db.strings",
+        "neostore.propertystore.db.arrays"
+    };
+
+    /**
+     * Suffix of a store's mapped memory setting.
+     */
+    public static final String MAPPED_MEMORY = ".mapped_memory";
+
+    /**
+     * Setting for the object cache type.
+     */
+    public static final String CACHE_TYPE = "cache_type";
+
+    /**
+     * Setting for whether mapped memory is used.
+     */
+    public static final String USE_MAPPED = "use_memory_mapped_buffers";
+
+    private static final long MB = 1024L * 1024L;
+
+    //smallest mapping per store, leaving room for some growth
+    private static final long MIN_MAPPED = MB;
+
+    //number of high priority stores at the beginning of STORES
+    private static final int PRIMARY_STORES = 2;
+
+    //memory left to the operating system and other processes
+    private static final long MIN_RESERVE = 512 * MB;
+    private static final double RESERVE_SHARE = 0.1;
+
+    //approximate size of cached objects compared to their records
+    private static final int CACHE_FACTOR = 4;
+
+    private final long fMaxHeap, fPhysical;
+    private final boolean fMappedInHeap;
+
+    private int fInstances;
+
+    /**
+     * Creates a tuner for the current JVM, detecting the maximum heap size,
+     * the physical memory and whether the operating system maps memory
+     * within the heap (on Windows).
+     */
+    public MemoryTuner()
+    {
+        this(Runtime.getRuntime().maxMemory(), detectPhysicalMemory(),
+            System.getProperty("os.name", "").toLowerCase()
+                .startsWith("windows"));
+    }
+
+    /**
+     * Creates a tuner based on the given memory sizes.
+     *
+     * @param maxHeap maximum heap size in bytes
+     * @param physical physical memory in bytes or a value below one if
+     *  unknown
+     * @param mappedInHeap whether mapped memory is taken from the heap
+     */
+    public MemoryTuner(long maxHeap, long physical, boolean mappedInHeap)
+    {
+        if(maxHeap < 1)
+        {
+            throw new IllegalArgumentException("heap size must be positive");
+        }
+
+        fMaxHeap = maxHeap;
+        fPhysical = physical;
+        fMappedInHeap = mappedInHeap;
+        fInstances = 1;
+    }
+
+    private static long detectPhysicalMemory()
+    {
+        long physical = -1;
+
+        final OperatingSystemMXBean os =
+            ManagementFactory.getOperatingSystemMXBean();
+        if(os instanceof com.sun.management.OperatingSystemMXBean)
+        {
+            physical = ((com.sun.management.OperatingSystemMXBean) os)
+                .getTotalPhysicalMemorySize();
+        }
+
+        return physical;
+    }
+
+    /**
+     * Sets the number of database instances sharing this process' memory,
+     * each getting an equal share.
+     *
+     * @param instances number of database instances
+     */
+    public void setInstances(int instances)
+    {
+        if(instances < 1)
+        {
+            throw new IllegalArgumentException(
+                "number of instances must be positive");
+        }
+
+        fInstances = instances;
+    }
+
+    /**
+     * @return number of database instances sharing this process' memory
+     */
+    public int getInstances()
+    {
+        return fInstances;
+    }
+
+    /**
+     * Determines settings for the database stored in the given directory.
+     * The directory does not need to exist, in which case minimum mappings
+     * are used.
+     * Mapped memory is left at Neo4j's defaults if the physical memory is
+     * unknown.
+     *
+     * @param storeDir database directory
+     * @return database settings
+     */
+    public Map<String, String> tune(String storeDir)
+    {
+        if(storeDir == null)
+        {
+            throw new NullPointerException("store directory was null");
+        }
+
+        final Map<String, String> settings = new HashMap<String, String>();
+
+        final long[] sizes = new long[STORES.length];
+        long total = 0;
+        for(int i = 0; i < STORES.length; ++i)
+        {
+            sizes[i] = new File(storeDir, STORES[i]).length();
+            total += sizes[i];
+        }
+
+        //budget for mapped memory
+        long mapBudget = -1;
+        if(fMappedInHeap)
+        {
+            mapBudget = fMaxHeap / 2;
+        }
+        else if(fPhysical > 0)
+        {
+            final long reserve = Math.max(MIN_RESERVE,
+                (long) (fPhysical * RESERVE_SHARE));
+            mapBudget = Math.max(0, fPhysical - fMaxHeap - reserve);
+        }
+
+        if(mapBudget >= 0)
+        {
+            mapBudget /= fInstances;
+
+            final long[] mapped = distribute(sizes, mapBudget);
+            for(int i = 0; i < STORES.length; ++i)
+            {
+                settings.put(STORES[i] + MAPPED_MEMORY, toMegabytes(mapped[i]));
+            }
+            settings.put(USE_MAPPED, Boolean.toString(!fMappedInHeap));
+        }
+
+        //budget for the object cache
+        long cacheBudget = fMaxHeap;
+        if(fMappedInHeap)
+        {
+            cacheBudget -= fMaxHeap / 2;
+        }
+        cacheBudget /= fInstances;
+
+        final long cached = total * CACHE_FACTOR;
+        String cacheType = null;
+        if(cached <= cacheBudget / 2)
+        {
+            //whole graph fits comfortably
+            cacheType = "strong";
+        }
+        else if(cached <= cacheBudget * 4)
+        {
+            //large parts fit, let the garbage collector decide
+            cacheType = "soft";
+        }
+        else
+        {
+            //only a small part fits, avoid collection pressure
+            cacheType = "weak";
+        }
+        settings.put(CACHE_TYPE, cacheType);
+
+        return settings;
+    }
+
+    private long[] distribute(final long[] sizes, final long budget)
+    {
+        final long[] mapped = new long[sizes.length];
+
+        //wanted mapping with room for growth
+        final long[] wanted = new long[sizes.length];
+        for(int i = 0; i < sizes.length; ++i)
+        {
+            wanted[i] = Math.max(MIN_MAPPED, sizes[i] + sizes[i] / 10);
+        }
+
+        //node and relationship stores first, then properties
+        long remaining = budget - MIN_MAPPED * sizes.length;
+        remaining = share(wanted, mapped, 0, PRIMARY_STORES, remaining);
+        share(wanted, mapped, PRIMARY_STORES, sizes.length, remaining);
+
+        return mapped;
+    }
+
+    private long share(final long[] wanted, final long[] mapped,
+        final int from, final int to, long remaining)
+    {
+        long extra = 0;
+        for(int i = from; i < to; ++i)
+        {
+            extra += wanted[i] - MIN_MAPPED;
+        }
+
+        //scale down proportionally if not everything fits
+        final double ratio = extra <= remaining || extra == 0 ? 1.0
+            : Math.max(0, remaining) / (double) extra;
+
+        for(int i = from; i < to; ++i)
+        {
+            final long add = (long) ((wanted[i] - MIN_MAPPED) * ratio);
+            mapped[i] = MIN_MAPPED + add;
+            remaining -= add;
+        }
+
+        return remaining;
+    }
+
+    private String toMegabytes(final long bytes)
+    {
+        return ((bytes + MB - 1) / MB) + "M";
+    }
+}
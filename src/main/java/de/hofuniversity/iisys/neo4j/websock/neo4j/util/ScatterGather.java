@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Helper for native procedures fanning out from many start elements.
+ * The start elements are split into partitions that are processed in
+ * parallel read transactions on a fork/join pool and the partitions' results
+ * are merged, optionally sorted and limited to the top results.
+ * Results are returned in the order of the start elements if no order is
+ * given.
+ * Partitions run in their own transactions on the pool's threads, so they
+ * can't see uncommitted changes of the calling thread, like those of an open
+ * client transaction.
+ * There is one shared helper per database, obtained through the class'
+ * getInstance method and shut down with the database.
+ */
+public class ScatterGather
+{
+    //partitions per thread, allowing work stealing for uneven partitions
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    private static final Object INSTANCE_LOCK = new Object();
+
+    private static final Map<GraphDatabaseService, ScatterGather> fInstances =
+        new WeakHashMap<GraphDatabaseService, ScatterGather>();
+
+    private final GraphDatabaseService fDb;
+    private final ForkJoinPool fPool;
+
+    /**
+     * Returns the shared helper for the given database, creating it with as
+     * many threads as there are available processors if necessary.
+     * The given database must not be null.
+     *
+     * @param database database service
+     * @return existing or newly created helper for the database
+     */
+    public static ScatterGather getInstance(GraphDatabaseService database)
+    {
+        if(database == null)
+        {
+            throw new NullPointerException("database service was null");
+        }
+
+        synchronized(INSTANCE_LOCK)
+        {
+            ScatterGather scatter = fInstances.get(database);
+
+            if(scatter == null)
+            {
+                scatter = new ScatterGather(database);
+                fInstances.put(database, scatter);
+            }
+
+            return scatter;
+        }
+    }
+
+    /**
+     * Shuts down and removes the shared helper of the given database, if
+     * there is one. Called when the database is shut down.
+     *
+     * @param database database service
+     */
+    public static void shutdownInstance(GraphDatabaseService database)
+    {
+        ScatterGather scatter = null;
+
+        synchronized(INSTANCE_LOCK)
+        {
+            scatter = fInstances.remove(database);
+        }
+
+        if(scatter != null)
+        {
+            scatter.shutdown();
+        }
+    }
+
+    /**
+     * Creates a scatter-gather helper using as many threads as there are
+     * available processors. To use the shared helper, use the class'
+     * getInstance method.
+     * The given database must not be null.
+     *
+     * @param database database to open read transactions in
+     */
+    public ScatterGather(GraphDatabaseService database)
+    {
+        this(database, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a scatter-gather helper using the given number of threads.
+     * The given database must not be null.
+     *
+     * @param database database to open read transactions in
+     * @param parallelism number of threads, at least 1
+     */
+    public ScatterGather(GraphDatabaseService database, int parallelism)
+    {
+        if(database == null)
+        {
+            throw new NullPointerException("database service was null");
+        }
+
+        fDb = database;
+        fPool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * @return number of threads used
+     */
+    public int getParallelism()
+    {
+        return fPool.getParallelism();
+    }
+
+    /**
+     * Processes all start elements in parallel, returning all results in the
+     * order of their start elements.
+     * Start elements and task must not be null.
+     *
+     * @param starts start elements to process
+     * @param task task processing a single start element
+     * @return merged results
+     */
+    public <S, R> List<R> gather(List<S> starts, IScatterTask<S, R> task)
+    {
+        return gather(starts, task, null, 0);
+    }
+
+    /**
+     * Processes all start elements in parallel, returning the results sorted
+     * using the given comparator and limited to the given number of top
+     * results. Each partition only keeps its own top results, so no complete
+     * list of results needs to be sorted.
+     * Start elements and task must not be null.
+     *
+     * @param starts start elements to process
+     * @param task task processing a single start element
+     * @param order order of results or null to keep the start elements' order
+     * @param limit maximum number of results, 0 for no limit
+     * @return merged results
+     */
+    public <S, R> List<R> gather(List<S> starts, IScatterTask<S, R> task,
+        Comparator<? super R> order, int limit)
+    {
+        if(starts == null)
+        {
+            throw new NullPointerException("start elements were null");
+        }
+        if(task == null)
+        {
+            throw new NullPointerException("task was null");
+        }
+
+        if(starts.isEmpty())
+        {
+            return new ArrayList<R>();
+        }
+
+        final int partitions = fPool.getParallelism() * PARTITIONS_PER_THREAD;
+        final int partSize = Math.max(1,
+            (starts.size() + partitions - 1) / partitions);
+
+        return fPool.invoke(new PartitionTask<S, R>(starts, 0, starts.size(),
+            partSize, task, order, limit));
+    }
+
+    /**
+     * Shuts down the helper's threads.
+     */
+    public void shutdown()
+    {
+        fPool.shutdown();
+    }
+
+    private static <R> List<R> limit(final List<R> results, final int limit)
+    {
+        if(limit > 0 && results.size() > limit)
+        {
+            return new ArrayList<R>(results.subList(0, limit));
+        }
+
+        return results;
+    }
+
+    private static <R> List<R> merge(final List<R> left, final List<R> right,
+        final Comparator<? super R> order, final int limit)
+    {
+        if(order == null)
+        {
+            left.addAll(right);
+            return limit(left, limit);
+        }
+
+        //merge sorted partial results, stopping at the limit
+        int max = left.size() + right.size();
+        if(limit > 0 && limit < max)
+        {
+            max = limit;
+        }
+
+        final List<R> merged = new ArrayList<R>(max);
+        int l = 0;
+        int r = 0;
+        while(merged.size() < max)
+        {
+            if(r >= right.size() || (l < left.size()
+                && order.compare(left.get(l), right.get(r)) <= 0))
+            {
+                merged.add(left.get(l++));
+            }
+            else
+            {
+                merged.add(right.get(r++));
+            }
+        }
+
+        return merged;
+    }
+
+    private class PartitionTask<S, R> extends RecursiveTask<List<R>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<S> fStarts;
+        private final int fFrom;
+        private final int fTo;
+        private final int fPartSize;
+        private final IScatterTask<S, R> fTask;
+        private final Comparator<? super R> fOrder;
+        private final int fLimit;
+
+        public PartitionTask(List<S> starts, int from, int to, int partSize,
+            IScatterTask<S, R> task, Comparator<? super R> order, int limit)
+        {
+            fStarts = starts;
+            fFrom = from;
+            fTo = to;
+            fPartSize = partSize;
+            fTask = task;
+            fOrder = order;
+            fLimit = limit;
+        }
+
+        @Override
+        protected List<R> compute()
+        {
+            if(fTo - fFrom <= fPartSize)
+            {
+                return process();
+            }
+
+            //split, processing the left half in this thread
+            final int middle = fFrom + (fTo - fFrom) / 2;
+            final PartitionTask<S, R> right = new PartitionTask<S, R>(fStarts,
+                middle, fTo, fPartSize, fTask, fOrder, fLimit);
+            right.fork();
+
+            final List<R> left = new PartitionTask<S, R>(fStarts, fFrom,
+                middle, fPartSize, fTask, fOrder, fLimit).compute();
+
+            return merge(left, right.join(), fOrder, fLimit);
+        }
+
+        private List<R> process()
+        {
+            final List<R> results = new ArrayList<R>();
+            final Transaction tx = fDb.beginTx();
+
+            try
+            {
+                for(int i = fFrom; i < fTo; ++i)
+                {
+                    fTask.process(fStarts.get(i), results);
+                }
+
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+
+            if(fOrder != null)
+            {
+                Collections.sort(results, fOrder);
+            }
+
+            return limit(results, fLimit);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * Reads nodes, their relationships and properties once so their records are
+ * cached before clients send queries. Either all nodes or only those in the
+ * given indexes are read, following all or only the given relationship
+ * types. Nodes are handed to parallel readers in chunks and progress is
+ * logged periodically.
+ */
+public class StoreWarmup
+{
+    private static final int CHUNK_SIZE = 1000;
+
+    //interval between progress messages
+    private static final long LOG_INTERVAL = 10000;
+
+    private final GraphDatabaseService fDb;
+    private final int fThreads;
+
+    private final Logger fLogger;
+
+    private final AtomicLong fNodes, fRelationships, fProperties;
+
+    private List<String> fIndexes;
+    private RelationshipType[] fTypes;
+    private boolean fReadProperties;
+
+    private volatile long fStart;
+    private volatile long fLastLog;
+    private volatile long fDuration;
+
+    /**
+     * Creates a warm-up for the given database, reading with the given
+     * number of threads.
+     * The given database must not be null.
+     *
+     * @param database database to warm up
+     * @param threads number of parallel readers
+     */
+    public StoreWarmup(GraphDatabaseService database, int threads)
+    {
+        if(database == null)
+        {
+            throw new NullPointerException("database service was null");
+        }
+        if(threads < 1)
+        {
+            throw new IllegalArgumentException(
+                "number of threads must be positive");
+        }
+
+        fDb = database;
+        fThreads = threads;
+        fLogger = Logger.getLogger(this.getClass().getName());
+
+        fNodes = new AtomicLong();
+        fRelationships = new AtomicLong();
+        fProperties = new AtomicLong();
+
+        fIndexes = Collections.emptyList();
+        fTypes = new RelationshipType[0];
+        fReadProperties = true;
+    }
+
+    /**
+     * Limits the warm-up to the nodes in the given node indexes.
+     *
+     * @param indexes names of indexes or null or empty for all nodes
+     */
+    public void setIndexes(List<String> indexes)
+    {
+        if(indexes == null)
+        {
+            fIndexes = Collections.emptyList();
+        }
+        else
+        {
+            fIndexes = new ArrayList<String>(indexes);
+        }
+    }
+
+    /**
+     * Limits the relationships read to the given types.
+     *
+     * @param types names of relationship types or null or empty for all
+     */
+    public void setRelationshipTypes(List<String> types)
+    {
+        if(types == null)
+        {
+            fTypes = new RelationshipType[0];
+        }
+        else
+        {
+            fTypes = new RelationshipType[types.size()];
+            for(int i = 0; i < fTypes.length; ++i)
+            {
+                fTypes[i] = DynamicRelationshipType.withName(types.get(i));
+            }
+        }
+    }
+
+    /**
+     * @param readProperties whether to read properties of nodes and
+     *  relationships
+     */
+    public void setReadProperties(boolean readProperties)
+    {
+        fReadProperties = readProperties;
+    }
+
+    /**
+     * Runs the warm-up, returning when all selected nodes were read.
+     *
+     * @throws InterruptedException if interrupted while waiting for readers
+     */
+    public void run() throws InterruptedException
+    {
+        fStart = System.currentTimeMillis();
+        fLastLog = fStart;
+        fLogger.log(Level.INFO, "warming up database with " + fThreads
+            + " threads");
+
+        //readers get chunks from a bounded queue, the producer helps out
+        //when it is full
+        final ThreadPoolExecutor readers = new ThreadPoolExecutor(fThreads,
+            fThreads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(fThreads * 2),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+        try
+        {
+            if(fIndexes.isEmpty())
+            {
+                submit(readers, GlobalGraphOperations.at(fDb).getAllNodes());
+            }
+            else
+            {
+                for(String index : fIndexes)
+                {
+                    final IndexHits<Node> hits = fDb.index().forNodes(index)
+                        .query("*:*");
+                    try
+                    {
+                        submit(readers, hits);
+                    }
+                    finally
+                    {
+                        hits.close();
+                    }
+                }
+            }
+        }
+        finally
+        {
+            readers.shutdown();
+            readers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+
+        fDuration = System.currentTimeMillis() - fStart;
+        fLogger.log(Level.INFO, "warm-up finished: " + getProgress());
+    }
+
+    private void submit(final ThreadPoolExecutor readers,
+        final Iterable<Node> nodes)
+    {
+        List<Node> chunk = new ArrayList<Node>(CHUNK_SIZE);
+
+        for(Node node : nodes)
+        {
+            chunk.add(node);
+
+            if(chunk.size() == CHUNK_SIZE)
+            {
+                readers.execute(new Reader(chunk));
+                chunk = new ArrayList<Node>(CHUNK_SIZE);
+            }
+        }
+
+        if(!chunk.isEmpty())
+        {
+            readers.execute(new Reader(chunk));
+        }
+    }
+
+    private void read(final List<Node> chunk)
+    {
+        long rels = 0;
+        long props = 0;
+
+        for(Node node : chunk)
+        {
+            if(fReadProperties)
+            {
+                props += readProperties(node);
+            }
+
+            final Iterable<Relationship> relIter = fTypes.length == 0
+                ? node.getRelationships() : node.getRelationships(fTypes);
+            for(Relationship rel : relIter)
+            {
+                //loads the other node's record
+                rel.getOtherNode(node);
+                ++rels;
+
+                if(fReadProperties)
+                {
+                    props += readProperties(rel);
+                }
+            }
+        }
+
+        fNodes.addAndGet(chunk.size());
+        fRelationships.addAndGet(rels);
+        fProperties.addAndGet(props);
+
+        logProgress();
+    }
+
+    private long readProperties(final PropertyContainer container)
+    {
+        long count = 0;
+
+        for(String key : container.getPropertyKeys())
+        {
+            container.getProperty(key);
+            ++count;
+        }
+
+        return count;
+    }
+
+    private void logProgress()
+    {
+        final long now = System.currentTimeMillis();
+
+        if(now - fLastLog >= LOG_INTERVAL)
+        {
+            synchronized(this)
+            {
+                if(now - fLastLog >= LOG_INTERVAL)
+                {
+                    fLastLog = now;
+                    fLogger.log(Level.INFO, "warm-up progress: "
+                        + getProgress());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return summary of the nodes, relationships and properties read so far
+     */
+    public String getProgress()
+    {
+        final long time = fDuration > 0 ? fDuration
+            : System.currentTimeMillis() - fStart;
+
+        return fNodes.get() + " nodes, " + fRelationships.get()
+            + " relationships, " + fProperties.get() + " properties in "
+            + time + " ms";
+    }
+
+    /**
+     * @return number of nodes read
+     */
+    public long getNodes()
+    {
+        return fNodes.get();
+    }
+
+    /**
+     * @return number of relationships read
+     */
+    public long getRelationships()
+    {
+        return fRelationships.get();
+    }
+
+    /**
+     * @return number of properties read
+     */
+    public long getProperties()
+    {
+        return fProperties.get();
+    }
+
+    /**
+     * @return duration of the finished warm-up in milliseconds
+     */
+    public long getDuration()
+    {
+        return fDuration;
+    }
+
+    private class Reader implements Runnable
+    {
+        private final List<Node> fChunk;
+
+        public Reader(List<Node> chunk)
+        {
+            fChunk = chunk;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                read(fChunk);
+            }
+            catch(Exception e)
+            {
+                //nodes may have been deleted meanwhile
+                fLogger.log(Level.FINE, "warm-up reader failed", e);
+            }
+        }
+    }
+}
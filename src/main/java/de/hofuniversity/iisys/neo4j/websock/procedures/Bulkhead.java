@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.procedures;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import de.hofuniversity.iisys.neo4j.websock.calls.ServerQueries;
+import de.hofuniversity.iisys.neo4j.websock.util.ImplUtil;
+
+/**
+ * Limits the number of concurrent calls to a procedure or group of
+ * procedures, so that expensive procedures can't occupy all handler threads.
+ * Deferred calls exceeding the limit wait in a bounded queue for a limited
+ * time without occupying a thread and are rejected if the queue is full or
+ * the time runs out. Calls that can't be deferred are rejected immediately.
+ */
+public class Bulkhead
+{
+    //rejects deferred calls that waited too long
+    private static final ScheduledExecutorService EXPIRY =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "bulkhead expiry");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final String fName;
+    private final Object fLock;
+
+    private final LinkedList<Waiting> fWaiting;
+
+    private int fLimit;
+    private int fMaxQueue;
+    private long fMaxWait;
+
+    private int fActive;
+    private long fRejected;
+
+    /**
+     * Creates a bulkhead with the given name and limits.
+     * The name must not be null.
+     *
+     * @param name name of the bulkhead
+     * @param limit maximum number of concurrent calls
+     * @param maxQueue maximum number of waiting calls
+     * @param maxWait maximum waiting time in milliseconds
+     */
+    public Bulkhead(String name, int limit, int maxQueue, long maxWait)
+    {
+        if(name == null)
+        {
+            throw new NullPointerException("name was null");
+        }
+
+        fName = name;
+        fLock = new Object();
+        fWaiting = new LinkedList<Waiting>();
+
+        configure(limit, maxQueue, maxWait);
+    }
+
+    /**
+     * @return name of the bulkhead
+     */
+    public String getName()
+    {
+        return fName;
+    }
+
+    /**
+     * Changes the limits of the bulkhead. A raised limit starts waiting
+     * calls, the waiting time of calls already waiting stays unchanged.
+     *
+     * @param limit maximum number of concurrent calls, at least 1
+     * @param maxQueue maximum number of waiting calls, 0 for immediate
+     *  rejection
+     * @param maxWait maximum waiting time in milliseconds
+     */
+    public void configure(int limit, int maxQueue, long maxWait)
+    {
+        if(limit < 1)
+        {
+            throw new IllegalArgumentException("limit must be at least 1");
+        }
+        if(maxQueue < 0 || maxWait < 0)
+        {
+            throw new IllegalArgumentException(
+                "queue size and waiting time must not be negative");
+        }
+
+        List<Waiting> admitted = null;
+        synchronized(fLock)
+        {
+            fLimit = limit;
+            fMaxQueue = maxQueue;
+            fMaxWait = maxWait;
+
+            admitted = admit();
+        }
+
+        start(admitted);
+    }
+
+    /**
+     * Tries to enter the bulkhead without waiting. Each successful call has
+     * to be followed by a call to release.
+     *
+     * @return whether the call may proceed
+     */
+    public boolean tryAcquire()
+    {
+        synchronized(fLock)
+        {
+            if(fActive < fLimit && fWaiting.isEmpty())
+            {
+                ++fActive;
+                return true;
+            }
+
+            ++fRejected;
+            return false;
+        }
+    }
+
+    /**
+     * Tries to enter the bulkhead, queueing the given call if the limit is
+     * reached and there is space in the queue. If the call may proceed
+     * immediately, true is returned and the caller has to call release once
+     * done. Otherwise the call is either rejected right away or started or
+     * rejected later, in which case it has to release the bulkhead itself.
+     * The given call must not be null.
+     *
+     * @param call call to start or reject later
+     * @return whether the call may proceed immediately
+     */
+    public boolean acquire(final IDeferredCall call)
+    {
+        if(call == null)
+        {
+            throw new NullPointerException("call was null");
+        }
+
+        synchronized(fLock)
+        {
+            if(fActive < fLimit && fWaiting.isEmpty())
+            {
+                ++fActive;
+                return true;
+            }
+
+            if(fWaiting.size() < fMaxQueue && fMaxWait > 0)
+            {
+                final Waiting waiting = new Waiting(call);
+                fWaiting.add(waiting);
+                waiting.fExpiry = EXPIRY.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        expire(waiting);
+                    }
+                }, fMaxWait, TimeUnit.MILLISECONDS);
+                return false;
+            }
+
+            ++fRejected;
+        }
+
+        call.reject();
+        return false;
+    }
+
+    /**
+     * Leaves the bulkhead after a successful acquisition or a started
+     * deferred call, starting the next waiting call.
+     */
+    public void release()
+    {
+        List<Waiting> admitted = null;
+        synchronized(fLock)
+        {
+            --fActive;
+            admitted = admit();
+        }
+
+        start(admitted);
+    }
+
+    private List<Waiting> admit()
+    {
+        final List<Waiting> admitted = new ArrayList<Waiting>();
+
+        while(fActive < fLimit && !fWaiting.isEmpty())
+        {
+            final Waiting waiting = fWaiting.removeFirst();
+            waiting.fExpiry.cancel(false);
+            admitted.add(waiting);
+            ++fActive;
+        }
+
+        return admitted;
+    }
+
+    private void start(final List<Waiting> admitted)
+    {
+        //outside the lock, calls may release immediately
+        for(Waiting waiting : admitted)
+        {
+            waiting.fCall.start();
+        }
+    }
+
+    private void expire(final Waiting waiting)
+    {
+        synchronized(fLock)
+        {
+            if(!fWaiting.remove(waiting))
+            {
+                //already started
+                return;
+            }
+
+            ++fRejected;
+        }
+
+        waiting.fCall.reject();
+    }
+
+    /**
+     * @return number of calls waiting
+     */
+    public int getQueued()
+    {
+        synchronized(fLock)
+        {
+            return fWaiting.size();
+        }
+    }
+
+    /**
+     * @return total number of rejected calls
+     */
+    public long getRejected()
+    {
+        synchronized(fLock)
+        {
+            return fRejected;
+        }
+    }
+
+    /**
+     * Returns the configuration and current state of the bulkhead as a
+     * transferable map.
+     *
+     * @param impl implementation utility to use
+     * @return map containing limits, active, queued and rejected calls
+     */
+    public Map<String, Object> toMap(ImplUtil impl)
+    {
+        final Map<String, Object> map = impl.newMap();
+
+        synchronized(fLock)
+        {
+            map.put(ServerQueries.BULKHEAD_LIMIT, fLimit);
+            map.put(ServerQueries.BULKHEAD_QUEUE, fMaxQueue);
+            map.put(ServerQueries.BULKHEAD_WAIT, fMaxWait);
+            map.put(ServerQueries.BULKHEAD_ACTIVE, fActive);
+            map.put(ServerQueries.BULKHEAD_QUEUED, fWaiting.size());
+            map.put(ServerQueries.BULKHEAD_REJECTED, fRejected);
+        }
+
+        return map;
+    }
+
+    private static class Waiting
+    {
+        private final IDeferredCall fCall;
+        private ScheduledFuture<?> fExpiry;
+
+        public Waiting(IDeferredCall call)
+        {
+            fCall = call;
+        }
+    }
+}
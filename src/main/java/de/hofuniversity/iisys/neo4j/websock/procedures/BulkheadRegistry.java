@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.procedures;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.hofuniversity.iisys.neo4j.websock.calls.ServerQueries;
+import de.hofuniversity.iisys.neo4j.websock.util.ImplUtil;
+
+/**
+ * Registry of named bulkheads and the procedures assigned to them.
+ * Bulkheads can be declared in procedure definition files using the
+ * directives:
+ *
+ * "@limit <bulkhead name> <max. concurrent> [<max. queued> [<max. ms>]]"
+ * "@group <bulkhead name> <procedure 1> ... <procedure n>"
+ *
+ * A bulkhead named like a procedure applies to that procedure unless it is
+ * assigned to another bulkhead.
+ * Directives are recorded by the file they came from, so that reloading a
+ * file replaces its previous directives.
+ */
+public class BulkheadRegistry
+{
+    /**
+     * Prefix of bulkhead directives in procedure definition files.
+     */
+    public static final String DIRECTIVE_PREFIX = "@";
+
+    private static final String LIMIT_DIRECTIVE = "@limit";
+    private static final String GROUP_DIRECTIVE = "@group";
+
+    private static final int DEF_QUEUE = 0;
+    private static final long DEF_WAIT = 0;
+
+    private static final Object INSTANCE_LOCK = new Object();
+
+    private static BulkheadRegistry fInstance;
+
+    private final Map<String, Bulkhead> fBulkheads;
+    private final Map<String, Bulkhead> fAssigned;
+
+    //bulkheads declared and procedures assigned by directives, by source
+    private final Map<String, Set<String>> fDeclared;
+    private final Map<String, Map<String, String>> fGrouped;
+
+    private final Logger fLogger;
+
+    /**
+     * @return existing or newly created bulkhead registry
+     */
+    public static BulkheadRegistry getInstance()
+    {
+        synchronized(INSTANCE_LOCK)
+        {
+            if(fInstance == null)
+            {
+                fInstance = new BulkheadRegistry();
+            }
+        }
+
+        return fInstance;
+    }
+
+    /**
+     * Creates an empty bulkhead registry. To use the shared registry, use
+     * the class' getInstance method.
+     */
+    public BulkheadRegistry()
+    {
+        fBulkheads = new ConcurrentHashMap<String, Bulkhead>();
+        fAssigned = new ConcurrentHashMap<String, Bulkhead>();
+
+        fDeclared = new HashMap<String, Set<String>>();
+        fGrouped = new HashMap<String, Map<String, String>>();
+
+        fLogger = Logger.getLogger(this.getClass().getName());
+    }
+
+    /**
+     * Creates a bulkhead or changes the limits of an existing one.
+     * The name must not be null.
+     *
+     * @param name name of the bulkhead
+     * @param limit maximum number of concurrent calls
+     * @param maxQueue maximum number of waiting calls
+     * @param maxWait maximum waiting time in milliseconds
+     * @return created or changed bulkhead
+     */
+    public synchronized Bulkhead configure(String name, int limit,
+        int maxQueue, long maxWait)
+    {
+        Bulkhead bulkhead = fBulkheads.get(name);
+
+        if(bulkhead == null)
+        {
+            bulkhead = new Bulkhead(name, limit, maxQueue, maxWait);
+            fBulkheads.put(name, bulkhead);
+
+            //applies to procedure with the same name by default
+            if(!fAssigned.containsKey(name))
+            {
+                fAssigned.put(name, bulkhead);
+            }
+        }
+        else
+        {
+            bulkhead.configure(limit, maxQueue, maxWait);
+        }
+
+        return bulkhead;
+    }
+
+    /**
+     * Assigns a procedure to an existing bulkhead.
+     *
+     * @param procedure name of the procedure
+     * @param name name of the bulkhead
+     */
+    public synchronized void assign(String procedure, String name)
+    {
+        final Bulkhead bulkhead = fBulkheads.get(name);
+
+        if(bulkhead == null)
+        {
+            throw new IllegalArgumentException("unknown bulkhead: " + name);
+        }
+
+        fAssigned.put(procedure, bulkhead);
+    }
+
+    /**
+     * Returns the bulkhead the given procedure is assigned to or null if it
+     * is not limited.
+     *
+     * @param procedure name of the procedure
+     * @return bulkhead or null
+     */
+    public Bulkhead get(String procedure)
+    {
+        return fAssigned.get(procedure);
+    }
+
+    /**
+     * Parses a bulkhead directive line from a procedure definition file and
+     * applies it.
+     *
+     * @param line directive line
+     */
+    public synchronized void parseDirective(String line)
+    {
+        applyDirective(line, null, null);
+    }
+
+    /**
+     * Replaces all directives previously applied from the given source with
+     * the given directive lines. Bulkheads only declared by the source's
+     * previous directives are removed along with their assignments, while
+     * bulkheads declared again keep their state. Invalid lines are logged and
+     * skipped.
+     * The given source must not be null.
+     *
+     * @param source source of the directives, usually a file path
+     * @param lines directive lines or null to remove the source's directives
+     */
+    public synchronized void setDirectives(String source, List<String> lines)
+    {
+        final Set<String> declared = new HashSet<String>();
+        final Map<String, String> grouped = new HashMap<String, String>();
+
+        final Set<String> oldDeclared = fDeclared.remove(source);
+        final Map<String, String> oldGrouped = fGrouped.remove(source);
+
+        //apply new directives first, so existing bulkheads keep their state
+        if(lines != null)
+        {
+            for(String line : lines)
+            {
+                try
+                {
+                    applyDirective(line, declared, grouped);
+                }
+                catch(Exception e)
+                {
+                    fLogger.log(Level.WARNING, "skipping invalid bulkhead "
+                        + "directive in " + source + ": " + line, e);
+                }
+            }
+        }
+
+        //drop previous assignments that were not made again
+        if(oldGrouped != null)
+        {
+            Bulkhead bulkhead = null;
+            for(Entry<String, String> procE : oldGrouped.entrySet())
+            {
+                bulkhead = fAssigned.get(procE.getKey());
+
+                if(bulkhead != null
+                    && bulkhead.getName().equals(procE.getValue())
+                    && !procE.getValue().equals(grouped.get(procE.getKey())))
+                {
+                    fAssigned.remove(procE.getKey());
+                }
+            }
+        }
+
+        //drop bulkheads no longer declared by any source
+        if(oldDeclared != null)
+        {
+            oldDeclared.removeAll(declared);
+            for(Set<String> others : fDeclared.values())
+            {
+                oldDeclared.removeAll(others);
+            }
+
+            for(String name : oldDeclared)
+            {
+                removeBulkhead(name);
+            }
+        }
+
+        fDeclared.put(source, declared);
+        fGrouped.put(source, grouped);
+
+        //procedures no longer grouped fall back to their own bulkhead
+        for(Bulkhead bulkhead : fBulkheads.values())
+        {
+            if(!fAssigned.containsKey(bulkhead.getName()))
+            {
+                fAssigned.put(bulkhead.getName(), bulkhead);
+            }
+        }
+    }
+
+    private void applyDirective(final String line, final Set<String> declared,
+        final Map<String, String> grouped)
+    {
+        final String[] parts = line.trim().split("\\s+");
+
+        if(LIMIT_DIRECTIVE.equals(parts[0]) && parts.length >= 3)
+        {
+            int queue = DEF_QUEUE;
+            long wait = DEF_WAIT;
+
+            if(parts.length > 3)
+            {
+                queue = Integer.parseInt(parts[3]);
+            }
+            if(parts.length > 4)
+            {
+                wait = Long.parseLong(parts[4]);
+            }
+
+            configure(parts[1], Integer.parseInt(parts[2]), queue, wait);
+
+            if(declared != null)
+            {
+                declared.add(parts[1]);
+            }
+        }
+        else if(GROUP_DIRECTIVE.equals(parts[0]) && parts.length >= 3)
+        {
+            for(int i = 2; i < parts.length; ++i)
+            {
+                assign(parts[i], parts[1]);
+
+                if(grouped != null)
+                {
+                    grouped.put(parts[i], parts[1]);
+                }
+            }
+        }
+        else
+        {
+            throw new IllegalArgumentException("invalid directive: " + line);
+        }
+    }
+
+    private void removeBulkhead(final String name)
+    {
+        final Bulkhead bulkhead = fBulkheads.remove(name);
+
+        final Iterator<Entry<String, Bulkhead>> assigned =
+            fAssigned.entrySet().iterator();
+        while(assigned.hasNext())
+        {
+            if(assigned.next().getValue() == bulkhead)
+            {
+                assigned.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the configuration and state of all bulkheads including the
+     * procedures assigned to them as a transferable map.
+     *
+     * @param impl implementation utility to use
+     * @return maps of bulkhead states by bulkhead name
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized Map<String, Object> toMap(ImplUtil impl)
+    {
+        final Map<String, Object> map = impl.newMap();
+
+        Map<String, Object> bhMap = null;
+        for(Bulkhead bulkhead : fBulkheads.values())
+        {
+            bhMap = bulkhead.toMap(impl);
+            bhMap.put(ServerQueries.BULKHEAD_PROCEDURES,
+                new ArrayList<String>());
+            map.put(bulkhead.getName(), bhMap);
+        }
+
+        for(Entry<String, Bulkhead> procE : fAssigned.entrySet())
+        {
+            bhMap = (Map<String, Object>) map.get(procE.getValue().getName());
+            ((List<String>) bhMap.get(ServerQueries.BULKHEAD_PROCEDURES))
+                .add(procE.getKey());
+        }
+
+        return map;
+    }
+}
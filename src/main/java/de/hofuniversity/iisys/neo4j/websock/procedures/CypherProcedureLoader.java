@@ -21,8 +21,11 @@ package de.hofuniversity.iisys.neo4j.websock.procedures;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,16 +47,24 @@ import de.hofuniversity.iisys.neo4j.websock.calls.IStoredProcedure;
  * <query line n>
  * <empty line>
  * <next name>
+ *
+ * Bulkhead directives limiting concurrent calls can be placed between
+ * definitions, see BulkheadRegistry.
  */
-public class CypherProcedureLoader implements IProcedureProvider
+public class CypherProcedureLoader implements IProcedureFileProvider
 {
     public static final String CYPHER_FILES = "websocket.stored.cypher";
 
     private final GraphDatabaseService fDb;
     private final Logger fLogger;
 
+    //directives of the last load of each file
+    private final Map<String, List<String>> fDirectives;
+
     private String[] fFiles;
 
+    private volatile BulkheadRegistry fBulkheads;
+
     /**
      * Creates a Cypher procedure loader creating procedures using the given
      * graph database.
@@ -68,8 +79,10 @@ public class CypherProcedureLoader implements IProcedureProvider
             throw new NullPointerException("database service was null");
         }
         fDb = database;
+        fDirectives = new ConcurrentHashMap<String, List<String>>();
 
-        GraphConfig config = WebsockContextHandler.getInstance().getConfig();
+        GraphConfig config = WebsockContextHandler.getInstance()
+            .getConfig(fDb);
         String filesString = config.getProperty(CYPHER_FILES);
 
         if(filesString != null && !filesString.isEmpty())
@@ -78,6 +91,24 @@ public class CypherProcedureLoader implements IProcedureProvider
         }
 
         fLogger = Logger.getLogger(this.getClass().getName());
+        fBulkheads = BulkheadRegistry.getInstance();
+    }
+
+    /**
+     * Sets the registry receiving the bulkhead directives of loaded files,
+     * replacing the shared registry used by default.
+     * The given registry must not be null.
+     *
+     * @param bulkheads bulkhead registry to use
+     */
+    public void setBulkheads(BulkheadRegistry bulkheads)
+    {
+        if(bulkheads == null)
+        {
+            throw new NullPointerException("bulkhead registry was null");
+        }
+
+        fBulkheads = bulkheads;
     }
 
     @Override
@@ -92,7 +123,8 @@ public class CypherProcedureLoader implements IProcedureProvider
             {
                 try
                 {
-                    addProcedures(file, procedures);
+                    procedures.putAll(getProcedures(file));
+                    fBulkheads.setDirectives(file, getDirectives(file));
                 }
                 catch (Exception e)
                 {
@@ -106,14 +138,66 @@ public class CypherProcedureLoader implements IProcedureProvider
         return procedures;
     }
 
-    private void addProcedures(String file,
-        final Map<String, IStoredProcedure> procedures) throws Exception
+    @Override
+    public String[] getFiles()
+    {
+        if(fFiles == null)
+        {
+            return new String[0];
+        }
+
+        return fFiles;
+    }
+
+    @Override
+    public boolean isIndependent()
+    {
+        return true;
+    }
+
+    @Override
+    public Map<String, IStoredProcedure> getProcedures(String file)
+        throws Exception
     {
+        final Map<String, IStoredProcedure> procedures =
+            new HashMap<String, IStoredProcedure>();
+        final List<String> directives = new ArrayList<String>();
+
         final BufferedReader reader = new BufferedReader(
             new FileReader(new File(file)));
 
+        try
+        {
+            addProcedures(reader, procedures, directives);
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        fDirectives.put(file, directives);
+        return procedures;
+    }
+
+    @Override
+    public List<String> getDirectives(String file)
+    {
+        final List<String> directives = fDirectives.get(file);
+
+        if(directives == null)
+        {
+            return new ArrayList<String>();
+        }
+
+        return directives;
+    }
+
+    private void addProcedures(final BufferedReader reader,
+        final Map<String, IStoredProcedure> procedures,
+        final List<String> directives) throws Exception
+    {
         String name = null;
-        String query = "";
+        final StringBuilder query = new StringBuilder();
 
         String line = reader.readLine();
 
@@ -126,23 +210,28 @@ public class CypherProcedureLoader implements IProcedureProvider
                 line = reader.readLine();
                 continue;
             }
+            else if(name == null
+                && line.startsWith(BulkheadRegistry.DIRECTIVE_PREFIX))
+            {
+                directives.add(line);
+            }
             else if(line.isEmpty())
             {
                 if(name != null
-                    && !query.isEmpty())
+                    && query.length() > 0)
                 {
                     //end of statement, store
-                    proc = new CypherProcedure(name, fDb, query);
+                    proc = new CypherProcedure(name, fDb, query.toString());
                     procedures.put(name, proc);
 
                     name = null;
-                    query = "";
+                    query.setLength(0);
                 }
             }
             else if(name != null)
             {
                 //statement (continued)
-                query += line + "\n";
+                query.append(line).append('\n');
             }
             else
             {
@@ -155,14 +244,11 @@ public class CypherProcedureLoader implements IProcedureProvider
 
         //include last query with no trailing empty line
         if(name != null
-            && !query.isEmpty())
+            && query.length() > 0)
         {
             //end of statement, store
-            proc = new CypherProcedure(name, fDb, query);
+            proc = new CypherProcedure(name, fDb, query.toString());
             procedures.put(name, proc);
-
-            name = null;
-            query = "";
         }
     }
 }
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.procedures;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+import de.hofuniversity.iisys.neo4j.websock.calls.IStoredProcedure;
+import de.hofuniversity.iisys.neo4j.websock.calls.ResultPromise;
+import de.hofuniversity.iisys.neo4j.websock.result.AResultSet;
+
+/**
+ * Executes calls of procedures marked as batchable on a dedicated writer
+ * thread, grouping calls arriving within a short window into one shared
+ * transaction so they share a single commit. If any call of a group fails or
+ * the group can't be committed, the group is rolled back and each call is
+ * executed on its own, so every caller gets the result it would have gotten
+ * without grouping. Callers are not blocked while a group is collected, they
+ * receive a promise that is completed once the group is done.
+ */
+public class GroupCommitter
+{
+    private final GraphDatabaseService fDb;
+    private final long fWindow;
+    private final int fMaxSize;
+
+    private final Set<String> fBatchable;
+    private final BlockingQueue<Write> fQueue;
+
+    private final Logger fLogger;
+
+    private Thread fWriter;
+
+    /**
+     * Creates a group committer using the given database, waiting for
+     * further calls for the given time after the first call of a group and
+     * grouping up to the given number of calls.
+     * The database must not be null.
+     *
+     * @param database database service to use
+     * @param window time to wait for further calls in milliseconds
+     * @param maxSize maximum number of calls per group
+     */
+    public GroupCommitter(GraphDatabaseService database, long window,
+        int maxSize)
+    {
+        if(database == null)
+        {
+            throw new NullPointerException("database service was null");
+        }
+        if(maxSize < 1)
+        {
+            throw new IllegalArgumentException("group size must be positive");
+        }
+
+        fDb = database;
+        fWindow = window;
+        fMaxSize = maxSize;
+
+        fBatchable = Collections.newSetFromMap(
+            new ConcurrentHashMap<String, Boolean>());
+        fQueue = new LinkedBlockingQueue<Write>();
+
+        fLogger = Logger.getLogger(this.getClass().getName());
+    }
+
+    /**
+     * Marks the procedures with the given names as batchable.
+     *
+     * @param procedures names of procedures
+     */
+    public void addBatchable(Collection<String> procedures)
+    {
+        fBatchable.addAll(procedures);
+    }
+
+    /**
+     * @param procedure name of a procedure
+     * @return whether calls of the procedure are grouped
+     */
+    public boolean isBatchable(String procedure)
+    {
+        return procedure != null && fBatchable.contains(procedure);
+    }
+
+    /**
+     * Adds a procedure call to the next group and returns a promise for its
+     * result, which fails with the procedure's error if the call fails.
+     * The procedure must not be null.
+     *
+     * @param proc procedure to call
+     * @param parameters parameters of the call
+     * @return promise for the result of the call
+     */
+    public ResultPromise submit(final IStoredProcedure proc,
+        final Map<String, Object> parameters)
+    {
+        if(proc == null)
+        {
+            throw new NullPointerException("procedure was null");
+        }
+
+        final Write write = new Write(proc, parameters);
+
+        startWriter();
+        fQueue.add(write);
+
+        return write.fPromise;
+    }
+
+    /**
+     * Executes a procedure call as part of the next group, waiting for its
+     * result. Errors thrown by the procedure are rethrown unchanged.
+     * The procedure must not be null.
+     *
+     * @param proc procedure to call
+     * @param parameters parameters of the call
+     * @return result of the call
+     * @throws Exception if the call fails
+     */
+    public AResultSet<?> call(final IStoredProcedure proc,
+        final Map<String, Object> parameters) throws Exception
+    {
+        try
+        {
+            return submit(proc, parameters).get();
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof Exception)
+            {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private synchronized void startWriter()
+    {
+        if(fWriter == null)
+        {
+            fWriter = new Thread("group-commit-writer")
+            {
+                @Override
+                public void run()
+                {
+                    writeLoop();
+                }
+            };
+            fWriter.setDaemon(true);
+            fWriter.start();
+        }
+    }
+
+    private void writeLoop()
+    {
+        final List<Write> group = new ArrayList<Write>(fMaxSize);
+
+        while(true)
+        {
+            try
+            {
+                group.add(fQueue.take());
+
+                //collect further calls within the window
+                final long deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(fWindow);
+                while(group.size() < fMaxSize)
+                {
+                    final Write next = fQueue.poll(
+                        deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if(next == null)
+                    {
+                        break;
+                    }
+                    group.add(next);
+                }
+
+                execute(group);
+            }
+            catch(InterruptedException e)
+            {
+                return;
+            }
+            catch(Throwable t)
+            {
+                //never leave callers waiting
+                for(Write write : group)
+                {
+                    write.fPromise.fail(t);
+                }
+                fLogger.log(Level.SEVERE, "group commit failed", t);
+            }
+            finally
+            {
+                group.clear();
+            }
+        }
+    }
+
+    private void execute(final List<Write> group)
+    {
+        final List<AResultSet<?>> results =
+            new ArrayList<AResultSet<?>>(group.size());
+        boolean failed = false;
+
+        Transaction tx = fDb.beginTx();
+
+        try
+        {
+            for(Write write : group)
+            {
+                results.add(write.fProc.call(write.fParameters));
+            }
+
+            tx.success();
+        }
+        catch(Exception e)
+        {
+            failed = true;
+            tx.failure();
+        }
+
+        try
+        {
+            tx.finish();
+        }
+        catch(Exception e)
+        {
+            failed = true;
+        }
+
+        if(!failed)
+        {
+            for(int i = 0; i < group.size(); ++i)
+            {
+                group.get(i).fPromise.complete(results.get(i));
+            }
+
+            if(fLogger.isLoggable(Level.FINE))
+            {
+                fLogger.log(Level.FINE, "committed group of " + group.size()
+                    + " calls");
+            }
+        }
+        else
+        {
+            //isolate the failure by executing each call on its own
+            fLogger.log(Level.FINE, "group of " + group.size()
+                + " calls failed, retrying individually");
+
+            for(Write write : group)
+            {
+                try
+                {
+                    write.fPromise.complete(write.fProc.call(
+                        write.fParameters));
+                }
+                catch(Exception e)
+                {
+                    write.fPromise.fail(e);
+                }
+            }
+        }
+    }
+
+    private static class Write
+    {
+        private final IStoredProcedure fProc;
+        private final Map<String, Object> fParameters;
+        private final ResultPromise fPromise;
+
+        public Write(IStoredProcedure proc, Map<String, Object> parameters)
+        {
+            fProc = proc;
+            fParameters = parameters;
+            fPromise = new ResultPromise();
+        }
+    }
+}
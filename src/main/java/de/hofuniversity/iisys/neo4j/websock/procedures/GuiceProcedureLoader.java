@@ -21,11 +21,15 @@ package de.hofuniversity.iisys.neo4j.websock.procedures;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,6 +45,8 @@ import com.google.inject.name.Names;
 import de.hofuniversity.iisys.neo4j.websock.GraphConfig;
 import de.hofuniversity.iisys.neo4j.websock.WebsockContextHandler;
 import de.hofuniversity.iisys.neo4j.websock.calls.IStoredProcedure;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.IndexLookupCache;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.ScatterGather;
 import de.hofuniversity.iisys.neo4j.websock.util.ImplUtil;
 
 /**
@@ -55,22 +61,40 @@ import de.hofuniversity.iisys.neo4j.websock.util.ImplUtil;
  * <empty line>
  * <next name>
  *
+ * Bulkhead directives limiting concurrent calls can be placed on separate
+ * lines, see BulkheadRegistry.
+ *
+ * Each file's modules are bound in a child injector of the previous file's
+ * injector, so modules can use bindings from earlier files and files have to
+ * be loaded in order.
  */
 public class GuiceProcedureLoader extends AbstractModule
-    implements IProcedureProvider
+    implements IProcedureFileProvider
 {
     public static final String NATIVE_FILES = "websocket.stored.native";
 
     private final GraphDatabaseService fDb;
     private final GraphConfig fConfig;
     private final ImplUtil fImpl;
+    private final ScatterGather fScatter;
 
     private final Logger fLogger;
 
-    private Injector fInjector;
+    //base injector, parent of the first file's injector
+    private final Injector fInjector;
+
+    //injectors of the loaded files, each the parent of the next file's
+    private final Map<Path, Injector> fInjectors;
+
+    //directives of the last load of each file
+    private final Map<String, List<String>> fDirectives;
 
     private String[] fFiles;
 
+    private volatile LoadingReport fReport;
+
+    private volatile BulkheadRegistry fBulkheads;
+
     /**
      * Creates a native procedure loader creating procedures using the given
      * graph database.
@@ -91,10 +115,13 @@ public class GuiceProcedureLoader extends AbstractModule
         }
 
         fDb = database;
+        fDirectives = new ConcurrentHashMap<String, List<String>>();
+        fInjectors = new ConcurrentHashMap<Path, Injector>();
 
-        fConfig = WebsockContextHandler.getInstance().getConfig();
+        fConfig = WebsockContextHandler.getInstance().getConfig(fDb);
         String filesString = fConfig.getProperty(NATIVE_FILES);
         fImpl = impl;
+        fScatter = ScatterGather.getInstance(fDb);
 
         if(filesString != null && !filesString.isEmpty())
         {
@@ -103,16 +130,38 @@ public class GuiceProcedureLoader extends AbstractModule
 
         fLogger = Logger.getLogger(this.getClass().getName());
 
+        fBulkheads = BulkheadRegistry.getInstance();
+
         //create initial injector
         fInjector = Guice.createInjector(this);
     }
 
+    /**
+     * Sets the registry receiving the bulkhead directives of loaded files,
+     * replacing the shared registry used by default.
+     * The given registry must not be null.
+     *
+     * @param bulkheads bulkhead registry to use
+     */
+    public void setBulkheads(BulkheadRegistry bulkheads)
+    {
+        if(bulkheads == null)
+        {
+            throw new NullPointerException("bulkhead registry was null");
+        }
+
+        fBulkheads = bulkheads;
+    }
+
     @Override
     protected void configure()
     {
         bind(GraphDatabaseService.class).toInstance(fDb);
         bind(ImplUtil.class).toInstance(fImpl);
         bind(GraphConfig.class).toInstance(fConfig);
+        bind(ScatterGather.class).toInstance(fScatter);
+        bind(IndexLookupCache.class).toInstance(
+            IndexLookupCache.getInstance(fDb));
     }
 
     @Override
@@ -127,8 +176,8 @@ public class GuiceProcedureLoader extends AbstractModule
             {
                 try
                 {
-                    List<String> providers = getProviders(file);
-                    addProcedures(procedures, providers);
+                    addAll(procedures, getProcedures(file), file);
+                    fBulkheads.setDirectives(file, getDirectives(file));
                 }
                 catch (Exception e)
                 {
@@ -142,15 +191,116 @@ public class GuiceProcedureLoader extends AbstractModule
         return procedures;
     }
 
-    private List<String> getProviders(String file) throws Exception
+    @Override
+    public String[] getFiles()
     {
-        //load all guice modules, return list of named providers
+        if(fFiles == null)
+        {
+            return new String[0];
+        }
+
+        return fFiles;
+    }
+
+    @Override
+    public boolean isIndependent()
+    {
+        return false;
+    }
+
+    /**
+     * Sets a report to record the time spent loading modules and providers
+     * in, null to stop recording.
+     *
+     * @param report report to record loading times in or null
+     */
+    public void setReport(LoadingReport report)
+    {
+        fReport = report;
+    }
+
+    @Override
+    public Map<String, IStoredProcedure> getProcedures(String file)
+        throws Exception
+    {
+        final Map<String, IStoredProcedure> procedures =
+            new HashMap<String, IStoredProcedure>();
+
         final BufferedReader reader = new BufferedReader(
             new FileReader(new File(file)));
 
+        final List<String> directives = new ArrayList<String>();
+
+        try
+        {
+            List<Module> modules = new LinkedList<Module>();
+            List<String> providers = getProviders(reader, modules,
+                directives);
+
+            //modules may use bindings from earlier files
+            final Path path = Paths.get(file).toAbsolutePath().normalize();
+            Injector injector = getParent(path).createChildInjector(modules);
+            fInjectors.put(path, injector);
+
+            addProcedures(injector, procedures, providers);
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        fDirectives.put(file, directives);
+        return procedures;
+    }
+
+    @Override
+    public List<String> getDirectives(String file)
+    {
+        final List<String> directives = fDirectives.get(file);
+
+        if(directives == null)
+        {
+            return new ArrayList<String>();
+        }
+
+        return directives;
+    }
+
+    private Injector getParent(final Path file)
+    {
+        //injector of the closest earlier file that was loaded
+        Injector parent = fInjector;
+        Injector injector = null;
+
+        if(fFiles != null)
+        {
+            Path path = null;
+            for(String other : fFiles)
+            {
+                path = Paths.get(other).toAbsolutePath().normalize();
+                if(path.equals(file))
+                {
+                    break;
+                }
+
+                injector = fInjectors.get(path);
+                if(injector != null)
+                {
+                    parent = injector;
+                }
+            }
+        }
+
+        return parent;
+    }
+
+    private List<String> getProviders(final BufferedReader reader,
+        final List<Module> modules, final List<String> directives)
+        throws Exception
+    {
+        //load all guice modules, return list of named providers
         Module mod = null;
 
-        final List<Module> modules = new LinkedList<Module>();
         final List<String> providers = new LinkedList<String>();
 
         String line = reader.readLine();
@@ -164,14 +314,20 @@ public class GuiceProcedureLoader extends AbstractModule
                 line = reader.readLine();
                 continue;
             }
+            else if(line.startsWith(BulkheadRegistry.DIRECTIVE_PREFIX))
+            {
+                directives.add(line);
+            }
             else if(line.isEmpty())
             {
                 mod = null;
             }
             else if(mod == null)
             {
+                final long start = System.nanoTime();
                 mod = getModule(line);
                 modules.add(mod);
+                record(LoadingReport.MODULE, line, start, -1);
             }
             else
             {
@@ -181,9 +337,6 @@ public class GuiceProcedureLoader extends AbstractModule
             line = reader.readLine();
         }
 
-        //extend injector
-        fInjector = fInjector.createChildInjector(modules);
-
         return providers;
     }
 
@@ -210,20 +363,23 @@ public class GuiceProcedureLoader extends AbstractModule
         return mod;
     }
 
-    private void addProcedures(final Map<String, IStoredProcedure> procedures,
-        List<String> providers)
+    private void addProcedures(final Injector injector,
+        final Map<String, IStoredProcedure> procedures, List<String> providers)
     {
         Map<String, IStoredProcedure> newProcs = null;
 
         IProcedureProvider provider = null;
         Key<IProcedureProvider> key = null;
 
+        long start = 0;
         for(String provName : providers)
         {
+            start = System.nanoTime();
+
             try
             {
                 key = Key.get(IProcedureProvider.class, Names.named(provName));
-                provider = fInjector.getInstance(key);
+                provider = injector.getInstance(key);
             }
             catch(Exception e)
             {
@@ -238,10 +394,23 @@ public class GuiceProcedureLoader extends AbstractModule
                 addAll(procedures, newProcs, provName);
 
                 provider = null;
+                record(LoadingReport.PROVIDER, provName, start,
+                    newProcs.size());
             }
         }
     }
 
+    private void record(final String category, final String name,
+        final long start, final int procedures)
+    {
+        final LoadingReport report = fReport;
+        if(report != null)
+        {
+            report.record(category, name, System.nanoTime() - start,
+                procedures);
+        }
+    }
+
     private void addAll(final Map<String, IStoredProcedure> procedures,
         final Map<String, IStoredProcedure> newProcs, String provName)
     {
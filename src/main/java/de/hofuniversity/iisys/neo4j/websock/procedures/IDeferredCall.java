@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.procedures;
+
+/**
+ * Interface for a call waiting in a bulkhead's queue without occupying a
+ * thread, which is either started once a slot is free or rejected.
+ */
+public interface IDeferredCall
+{
+    /**
+     * Starts the call after it entered the bulkhead. Called by the thread
+     * freeing the slot, so implementations should hand the actual work to
+     * another thread and release the bulkhead once done.
+     */
+    public void start();
+
+    /**
+     * Rejects the call because the queue was full or the maximum waiting
+     * time ran out.
+     */
+    public void reject();
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.procedures;
+
+import java.util.List;
+import java.util.Map;
+
+import de.hofuniversity.iisys.neo4j.websock.calls.IStoredProcedure;
+
+/**
+ * Interface for a source of stored procedures defined in a list of files,
+ * which can be loaded individually.
+ */
+public interface IProcedureFileProvider extends IProcedureProvider
+{
+    /**
+     * @return paths of the definition files, may be empty
+     */
+    public String[] getFiles();
+
+    /**
+     * @return whether files can be loaded independently and in parallel,
+     *  otherwise they are loaded in order since later files depend on
+     *  earlier ones
+     */
+    public boolean isIndependent();
+
+    /**
+     * Loads all stored procedures defined in the given file.
+     *
+     * @param file path of the definition file
+     * @return stored procedures mapped by their name
+     * @throws Exception if the file could not be loaded
+     */
+    public Map<String, IStoredProcedure> getProcedures(String file)
+        throws Exception;
+
+    /**
+     * Returns the bulkhead directives read when the given file was last
+     * loaded, which are not applied by the provider itself.
+     *
+     * @param file path of the definition file
+     * @return directive lines, may be empty
+     */
+    public List<String> getDirectives(String file);
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.procedures;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Thread safe collection of the time spent loading procedure definition
+ * files, Guice modules and procedure providers during startup.
+ */
+public class LoadingReport
+{
+    /**
+     * Category of entries for definition files.
+     */
+    public static final String FILE = "file";
+
+    /**
+     * Category of entries for Guice modules.
+     */
+    public static final String MODULE = "module";
+
+    /**
+     * Category of entries for procedure providers.
+     */
+    public static final String PROVIDER = "provider";
+
+    private final List<Entry> fEntries;
+
+    /**
+     * Creates an empty loading report.
+     */
+    public LoadingReport()
+    {
+        fEntries = new ArrayList<Entry>();
+    }
+
+    /**
+     * Records the time spent loading an item.
+     * Category and name must not be null.
+     *
+     * @param category category of the item
+     * @param name name of the item
+     * @param nanos time spent in nanoseconds
+     * @param procedures number of procedures loaded or -1 if not applicable
+     */
+    public void record(String category, String name, long nanos,
+        int procedures)
+    {
+        if(category == null)
+        {
+            throw new NullPointerException("category was null");
+        }
+        if(name == null)
+        {
+            throw new NullPointerException("name was null");
+        }
+
+        synchronized(fEntries)
+        {
+            fEntries.add(new Entry(category, name, nanos, procedures));
+        }
+    }
+
+    /**
+     * @param category category to get the entries for
+     * @return number of entries recorded for the category
+     */
+    public int getCount(String category)
+    {
+        int count = 0;
+
+        synchronized(fEntries)
+        {
+            for(Entry entry : fEntries)
+            {
+                if(entry.fCategory.equals(category))
+                {
+                    ++count;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Logs all recorded entries to the given logger, slowest first per
+     * category, followed by the given total time.
+     * The given logger must not be null.
+     *
+     * @param logger logger to write to
+     * @param totalNanos total loading time in nanoseconds
+     */
+    public void log(Logger logger, long totalNanos)
+    {
+        List<Entry> entries = null;
+        synchronized(fEntries)
+        {
+            entries = new ArrayList<Entry>(fEntries);
+        }
+
+        Collections.sort(entries, new Comparator<Entry>()
+        {
+            @Override
+            public int compare(Entry e1, Entry e2)
+            {
+                int comp = e1.fCategory.compareTo(e2.fCategory);
+                if(comp == 0)
+                {
+                    comp = Long.compare(e2.fNanos, e1.fNanos);
+                }
+                return comp;
+            }
+        });
+
+        final StringBuilder buffer = new StringBuilder();
+        buffer.append("loaded procedures in ");
+        buffer.append(totalNanos / 1000000);
+        buffer.append(" ms");
+
+        for(Entry entry : entries)
+        {
+            buffer.append("\n  ");
+            buffer.append(entry.fCategory);
+            buffer.append(' ');
+            buffer.append(entry.fName);
+            buffer.append(": ");
+            buffer.append(entry.fNanos / 1000000);
+            buffer.append(" ms");
+
+            if(entry.fProcedures >= 0)
+            {
+                buffer.append(", ");
+                buffer.append(entry.fProcedures);
+                buffer.append(" procedures");
+            }
+        }
+
+        logger.log(Level.INFO, buffer.toString());
+    }
+
+    private static class Entry
+    {
+        private final String fCategory;
+        private final String fName;
+        private final long fNanos;
+        private final int fProcedures;
+
+        public Entry(String category, String name, long nanos,
+            int procedures)
+        {
+            fCategory = category;
+            fName = name;
+            fNanos = nanos;
+            fProcedures = procedures;
+        }
+    }
+}
@@ -0,0 +1,490 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.procedures;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.hofuniversity.iisys.neo4j.websock.calls.IStoredProcedure;
+
+/**
+ * Loads stored procedures from definition files into the file layer of a
+ * procedure registry and optionally watches the files for changes in the
+ * background. Changed files are reloaded completely and the file layer is
+ * swapped atomically, removing procedures no longer defined, while service
+ * procedures and procedures stored at runtime are left untouched. Later
+ * files override earlier ones. Calls already in progress finish using the
+ * procedures they started with.
+ * A file's bulkhead directives replace its previous ones on each load.
+ * If a file can't be loaded, its previous definitions are kept.
+ */
+public class ProcedureFileWatcher implements Runnable
+{
+    //time to wait for further changes before reloading
+    private static final long SETTLE_TIME = 200;
+
+    private final ProcedureRegistry fRegistry;
+    private final BulkheadRegistry fBulkheads;
+    private final Logger fLogger;
+
+    private final Map<Path, IProcedureFileProvider> fProviders;
+
+    //procedures of each file in definition order
+    private final Map<Path, Map<String, IStoredProcedure>> fLoaded;
+
+    private WatchService fWatcher;
+    private Thread fThread;
+    private volatile boolean fActive;
+
+    /**
+     * Creates a file watcher loading procedures into the given registry and
+     * bulkhead directives into the shared bulkhead registry.
+     * The given registry must not be null.
+     *
+     * @param registry registry to load procedures into
+     */
+    public ProcedureFileWatcher(ProcedureRegistry registry)
+    {
+        this(registry, BulkheadRegistry.getInstance());
+    }
+
+    /**
+     * Creates a file watcher loading procedures into the given registry and
+     * bulkhead directives into the given bulkhead registry.
+     * None of the parameters may be null.
+     *
+     * @param registry registry to load procedures into
+     * @param bulkheads registry to load bulkhead directives into
+     */
+    public ProcedureFileWatcher(ProcedureRegistry registry,
+        BulkheadRegistry bulkheads)
+    {
+        if(registry == null)
+        {
+            throw new NullPointerException("procedure registry was null");
+        }
+        if(bulkheads == null)
+        {
+            throw new NullPointerException("bulkhead registry was null");
+        }
+
+        fRegistry = registry;
+        fBulkheads = bulkheads;
+        fLogger = Logger.getLogger(this.getClass().getName());
+
+        fProviders = new HashMap<Path, IProcedureFileProvider>();
+        fLoaded = new LinkedHashMap<Path, Map<String, IStoredProcedure>>();
+    }
+
+    /**
+     * Loads the procedures from all of the given provider's files into the
+     * registry and remembers the files for watching. Providers have to be
+     * added before the watcher is started.
+     * The given provider must not be null.
+     *
+     * @param provider provider of procedures from files
+     */
+    public synchronized void addProvider(IProcedureFileProvider provider)
+    {
+        if(provider == null)
+        {
+            throw new NullPointerException("procedure provider was null");
+        }
+
+        Path path = null;
+        for(String file : provider.getFiles())
+        {
+            path = Paths.get(file).toAbsolutePath().normalize();
+
+            fProviders.put(path, provider);
+
+            reload(path);
+        }
+    }
+
+    /**
+     * Loads the procedures from all files of the given providers in parallel
+     * using the given executor and remembers the files for watching. Files
+     * of providers whose files depend on each other are loaded in order.
+     * Procedures are added to the registry in a single update in the order of
+     * the providers and their files, later definitions overriding earlier
+     * ones with the same name. Files that can't be loaded are skipped.
+     * Providers have to be added before the watcher is started.
+     * The given list of providers and executor must not be null.
+     *
+     * @param providers providers of procedures from files, in order
+     * @param executor executor to load files with
+     * @param report report to record loading times in or null
+     */
+    public synchronized void addProviders(
+        List<? extends IProcedureFileProvider> providers,
+        ExecutorService executor, final LoadingReport report)
+    {
+        if(providers == null)
+        {
+            throw new NullPointerException("procedure providers were null");
+        }
+        if(executor == null)
+        {
+            throw new NullPointerException("executor was null");
+        }
+
+        //register files in definition order
+        final List<Path> paths = new ArrayList<Path>();
+        Path path = null;
+        for(IProcedureFileProvider provider : providers)
+        {
+            for(String file : provider.getFiles())
+            {
+                path = Paths.get(file).toAbsolutePath().normalize();
+
+                if(!fProviders.containsKey(path))
+                {
+                    paths.add(path);
+                }
+                fProviders.put(path, provider);
+            }
+        }
+
+        //load independent files in parallel, dependent files of a provider
+        //in order within a single task
+        final List<List<Path>> groups = new ArrayList<List<Path>>();
+        final Map<IProcedureFileProvider, List<Path>> chains =
+            new HashMap<IProcedureFileProvider, List<Path>>();
+        List<Path> group = null;
+        for(Path file : paths)
+        {
+            final IProcedureFileProvider provider = fProviders.get(file);
+
+            group = null;
+            if(!provider.isIndependent())
+            {
+                group = chains.get(provider);
+            }
+            if(group == null)
+            {
+                group = new ArrayList<Path>();
+                groups.add(group);
+                if(!provider.isIndependent())
+                {
+                    chains.put(provider, group);
+                }
+            }
+            group.add(file);
+        }
+
+        final List<Future<Map<Path, Map<String, IStoredProcedure>>>> loads =
+            new ArrayList<Future<Map<Path, Map<String, IStoredProcedure>>>>();
+        for(final List<Path> files : groups)
+        {
+            loads.add(executor.submit(
+                new Callable<Map<Path, Map<String, IStoredProcedure>>>()
+            {
+                @Override
+                public Map<Path, Map<String, IStoredProcedure>> call()
+                {
+                    return load(files, report);
+                }
+            }));
+        }
+
+        final Map<Path, Map<String, IStoredProcedure>> results =
+            new HashMap<Path, Map<String, IStoredProcedure>>();
+        for(Future<Map<Path, Map<String, IStoredProcedure>>> load : loads)
+        {
+            try
+            {
+                results.putAll(load.get());
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                fLogger.log(Level.SEVERE, "interrupted while loading "
+                    + "procedure definition files");
+                break;
+            }
+            catch(ExecutionException e)
+            {
+                e.getCause().printStackTrace();
+                fLogger.log(Level.SEVERE, "could not load procedure "
+                    + "definition files", e.getCause());
+            }
+        }
+
+        //merge in definition order, later files override earlier ones
+        final Map<String, Path> origins = new HashMap<String, Path>();
+        Map<String, IStoredProcedure> procedures = null;
+        Path previous = null;
+        int loaded = 0;
+
+        for(int i = 0; i < paths.size(); ++i)
+        {
+            path = paths.get(i);
+
+            //skipped if it could not be loaded
+            procedures = results.get(path);
+            if(procedures == null)
+            {
+                continue;
+            }
+
+            for(String name : procedures.keySet())
+            {
+                previous = origins.put(name, path);
+
+                if(previous != null)
+                {
+                    fLogger.log(Level.WARNING, "procedure " + name + " from "
+                        + path + " overrides definition from " + previous);
+                }
+            }
+
+            fLoaded.put(path, procedures);
+            fBulkheads.setDirectives(path.toString(),
+                fProviders.get(path).getDirectives(path.toString()));
+            loaded += procedures.size();
+        }
+
+        publish();
+
+        fLogger.log(Level.INFO, "loaded " + loaded
+            + " procedures from " + paths.size() + " files");
+    }
+
+    private Map<Path, Map<String, IStoredProcedure>> load(
+        final List<Path> files, final LoadingReport report)
+    {
+        final Map<Path, Map<String, IStoredProcedure>> loaded =
+            new HashMap<Path, Map<String, IStoredProcedure>>();
+
+        long start = 0;
+        Map<String, IStoredProcedure> procedures = null;
+        for(Path file : files)
+        {
+            start = System.nanoTime();
+
+            try
+            {
+                procedures = fProviders.get(file).getProcedures(
+                    file.toString());
+            }
+            catch(Exception e)
+            {
+                e.printStackTrace();
+                fLogger.log(Level.SEVERE, "could not load procedure "
+                    + "definition file: " + file, e);
+                continue;
+            }
+
+            if(report != null)
+            {
+                report.record(LoadingReport.FILE, file.toString(),
+                    System.nanoTime() - start, procedures.size());
+            }
+            loaded.put(file, procedures);
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Starts watching all added files for changes in a background thread.
+     *
+     * @throws IOException if the files' directories can't be watched
+     */
+    public synchronized void start() throws IOException
+    {
+        if(fThread != null || fProviders.isEmpty())
+        {
+            return;
+        }
+
+        fWatcher = FileSystems.getDefault().newWatchService();
+
+        final Set<Path> dirs = new HashSet<Path>();
+        for(Path path : fProviders.keySet())
+        {
+            dirs.add(path.getParent());
+        }
+        for(Path dir : dirs)
+        {
+            dir.register(fWatcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+
+        fActive = true;
+        fThread = new Thread(this, "procedure file watcher");
+        fThread.setDaemon(true);
+        fThread.start();
+
+        fLogger.log(Level.INFO, "watching " + fProviders.size()
+            + " procedure definition files");
+    }
+
+    /**
+     * Stops watching files for changes.
+     */
+    public synchronized void stop()
+    {
+        fActive = false;
+
+        if(fWatcher != null)
+        {
+            try
+            {
+                fWatcher.close();
+            }
+            catch(IOException e)
+            {
+                fLogger.log(Level.WARNING, "failed to close file watcher", e);
+            }
+        }
+
+        fWatcher = null;
+        fThread = null;
+    }
+
+    @Override
+    public void run()
+    {
+        final WatchService watcher = fWatcher;
+        final Set<Path> changed = new HashSet<Path>();
+
+        WatchKey key = null;
+        while(fActive)
+        {
+            try
+            {
+                key = watcher.take();
+                collectChanges(key, changed);
+
+                //let writers finish, merging subsequent events
+                Thread.sleep(SETTLE_TIME);
+                key = watcher.poll();
+                while(key != null)
+                {
+                    collectChanges(key, changed);
+                    key = watcher.poll();
+                }
+            }
+            catch(InterruptedException | ClosedWatchServiceException e)
+            {
+                break;
+            }
+
+            for(Path path : changed)
+            {
+                reload(path);
+            }
+            changed.clear();
+        }
+    }
+
+    private void collectChanges(final WatchKey key, final Set<Path> changed)
+    {
+        final Path dir = (Path) key.watchable();
+
+        Path path = null;
+        for(WatchEvent<?> event : key.pollEvents())
+        {
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW)
+            {
+                //events lost, reload all files in the directory
+                for(Path file : fProviders.keySet())
+                {
+                    if(dir.equals(file.getParent()))
+                    {
+                        changed.add(file);
+                    }
+                }
+            }
+            else
+            {
+                path = dir.resolve((Path) event.context());
+
+                if(fProviders.containsKey(path))
+                {
+                    changed.add(path);
+                }
+            }
+        }
+
+        key.reset();
+    }
+
+    private synchronized void reload(final Path path)
+    {
+        final IProcedureFileProvider provider = fProviders.get(path);
+
+        Map<String, IStoredProcedure> procedures = null;
+        try
+        {
+            procedures = provider.getProcedures(path.toString());
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace();
+            fLogger.log(Level.SEVERE, "could not load procedure definition "
+                + "file: " + path + ", keeping previous definitions", e);
+            return;
+        }
+
+        //procedures no longer defined in the file are removed
+        fLoaded.put(path, procedures);
+        fBulkheads.setDirectives(path.toString(),
+            provider.getDirectives(path.toString()));
+        publish();
+
+        fLogger.log(Level.INFO, "loaded " + procedures.size()
+            + " procedures from " + path);
+    }
+
+    private void publish()
+    {
+        //called while holding the lock, in definition order
+        final Map<String, IStoredProcedure> merged =
+            new HashMap<String, IStoredProcedure>();
+        for(Map<String, IStoredProcedure> procedures : fLoaded.values())
+        {
+            merged.putAll(procedures);
+        }
+
+        fRegistry.setLayer(EProcedureLayer.FILE, merged);
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.procedures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only journal file persisting Cypher procedures stored and deleted at
+ * runtime. Every change is written as a single record with an increasing
+ * version number and synced to disk before it is acknowledged. When
+ * restoring, incomplete trailing records are ignored and the journal is
+ * compacted to the live procedures, replacing the old file atomically.
+ */
+public class ProcedureJournal
+{
+    private static final int MAGIC = 0x4e574a50;
+    private static final int FORMAT = 1;
+
+    private static final byte STORE = 'S';
+    private static final byte DELETE = 'D';
+
+    private final File fFile;
+    private final Logger fLogger;
+
+    private FileOutputStream fFileOut;
+    private DataOutputStream fOut;
+
+    private long fVersion;
+
+    /**
+     * Creates a journal using the given file, which is created if it does
+     * not exist. The journal has to be restored before it can be written to.
+     * The given path must not be null.
+     *
+     * @param file path of the journal file
+     */
+    public ProcedureJournal(String file)
+    {
+        if(file == null)
+        {
+            throw new NullPointerException("journal file was null");
+        }
+
+        fFile = new File(file);
+        fLogger = Logger.getLogger(this.getClass().getName());
+    }
+
+    /**
+     * Reads all procedures from the journal, compacts it and opens it for
+     * writing.
+     *
+     * @return Cypher statements of live procedures by name in storage order
+     * @throws IOException if the journal can't be read or written
+     */
+    public synchronized Map<String, String> restore() throws IOException
+    {
+        close();
+
+        final Map<String, String> statements =
+            new LinkedHashMap<String, String>();
+        fVersion = 0;
+
+        if(fFile.exists() && fFile.length() > 0)
+        {
+            read(statements);
+        }
+
+        compact(statements);
+
+        fFileOut = new FileOutputStream(fFile, true);
+        fOut = new DataOutputStream(new BufferedOutputStream(fFileOut));
+
+        fLogger.log(Level.INFO, "restored " + statements.size()
+            + " stored procedures, journal version " + fVersion);
+
+        return statements;
+    }
+
+    private void read(final Map<String, String> statements)
+        throws IOException
+    {
+        final DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(fFile)));
+
+        try
+        {
+            if(in.readInt() != MAGIC || in.readInt() != FORMAT)
+            {
+                throw new IOException("unknown journal format: " + fFile);
+            }
+            fVersion = in.readLong();
+
+            byte op = 0;
+            long version = 0;
+            String name = null;
+            String statement = null;
+            while(true)
+            {
+                op = in.readByte();
+                version = in.readLong();
+                name = in.readUTF();
+
+                if(op == STORE)
+                {
+                    statement = readString(in);
+                    statements.remove(name);
+                    statements.put(name, statement);
+                }
+                else if(op == DELETE)
+                {
+                    statements.remove(name);
+                }
+                else
+                {
+                    fLogger.log(Level.WARNING, "corrupt journal entry after "
+                        + "version " + fVersion + ", ignoring remainder");
+                    break;
+                }
+
+                fVersion = version;
+            }
+        }
+        catch(EOFException e)
+        {
+            //end of journal or incomplete last record
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private void compact(final Map<String, String> statements)
+        throws IOException
+    {
+        final File temp = new File(fFile.getPath() + ".tmp");
+        final FileOutputStream fileOut = new FileOutputStream(temp);
+        final DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(fileOut));
+
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(fVersion);
+
+            for(Map.Entry<String, String> stmE : statements.entrySet())
+            {
+                writeRecord(out, STORE, fVersion, stmE.getKey(),
+                    stmE.getValue());
+            }
+
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+
+        Files.move(temp.toPath(), fFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Persists a stored procedure, replacing any previous version.
+     *
+     * @param name name of the procedure
+     * @param statement Cypher statement of the procedure
+     * @return version of the change
+     * @throws IOException if the change could not be persisted
+     */
+    public synchronized long store(String name, String statement)
+        throws IOException
+    {
+        return append(STORE, name, statement);
+    }
+
+    /**
+     * Persists the deletion of a stored procedure.
+     *
+     * @param name name of the procedure
+     * @return version of the change
+     * @throws IOException if the change could not be persisted
+     */
+    public synchronized long delete(String name) throws IOException
+    {
+        return append(DELETE, name, null);
+    }
+
+    /**
+     * @return version of the last change
+     */
+    public synchronized long getVersion()
+    {
+        return fVersion;
+    }
+
+    /**
+     * Closes the journal file, it needs to be restored before the next write.
+     */
+    public synchronized void close()
+    {
+        if(fOut != null)
+        {
+            try
+            {
+                fOut.close();
+            }
+            catch(IOException e)
+            {
+                fLogger.log(Level.WARNING, "failed to close journal", e);
+            }
+
+            fOut = null;
+            fFileOut = null;
+        }
+    }
+
+    private long append(final byte op, final String name,
+        final String statement) throws IOException
+    {
+        if(fOut == null)
+        {
+            throw new IllegalStateException("journal was not restored");
+        }
+
+        final long version = fVersion + 1;
+        final long position = fFileOut.getChannel().position();
+
+        try
+        {
+            writeRecord(fOut, op, version, name, statement);
+            fOut.flush();
+            fFileOut.getFD().sync();
+        }
+        catch(IOException e)
+        {
+            //remove partially written record
+            close();
+            fFileOut = new FileOutputStream(fFile, true);
+            fFileOut.getChannel().truncate(position);
+            fOut = new DataOutputStream(new BufferedOutputStream(fFileOut));
+            throw e;
+        }
+
+        fVersion = version;
+        return version;
+    }
+
+    private void writeRecord(final DataOutputStream out, final byte op,
+        final long version, final String name, final String statement)
+        throws IOException
+    {
+        out.writeByte(op);
+        out.writeLong(version);
+        out.writeUTF(name);
+
+        if(op == STORE)
+        {
+            //statements may exceed the limit of writeUTF
+            final byte[] bytes = statement.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private String readString(final DataInputStream in) throws IOException
+    {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
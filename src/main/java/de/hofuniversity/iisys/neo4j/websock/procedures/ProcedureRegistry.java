@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.procedures;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.hofuniversity.iisys.neo4j.websock.calls.IStoredProcedure;
+
+/**
+ * Thread safe registry of stored procedures by name. Readers always see a
+ * consistent, immutable snapshot without locking, while changes copy the
+ * current snapshot and atomically replace it with a new version.
+ * Procedures are kept in separate layers by their source, a procedure in a
+ * layer of higher precedence hiding one with the same name in a lower layer
+ * without replacing it. Changes without a layer apply to procedures stored at
+ * runtime.
+ * Every name ever registered gets a numeric handle which never changes, so
+ * that clients can call procedures by handle, even across later changes.
+ * Handles of removed procedures resolve to null until a procedure with the
+ * same name is registered again.
+ */
+public class ProcedureRegistry
+{
+    private final AtomicReference<Snapshot> fSnapshot;
+
+    /**
+     * Creates an empty procedure registry.
+     */
+    public ProcedureRegistry()
+    {
+        this(new HashMap<String, IStoredProcedure>());
+    }
+
+    /**
+     * Creates a procedure registry containing a copy of the given map of
+     * procedures as procedures stored at runtime.
+     * The given map must not be null.
+     *
+     * @param procedures initial map of stored procedures by name
+     */
+    @SuppressWarnings("unchecked")
+    public ProcedureRegistry(Map<String, IStoredProcedure> procedures)
+    {
+        if(procedures == null)
+        {
+            throw new NullPointerException(
+                "map of stored procedures was null");
+        }
+
+        final Map<String, IStoredProcedure>[] layers =
+            new Map[EProcedureLayer.values().length];
+        for(int i = 0; i < layers.length; ++i)
+        {
+            layers[i] = new HashMap<String, IStoredProcedure>();
+        }
+        layers[EProcedureLayer.RUNTIME.ordinal()].putAll(procedures);
+
+        fSnapshot = new AtomicReference<Snapshot>(new Snapshot(0, layers,
+            new HashMap<String, Integer>(), new String[0]));
+    }
+
+    /**
+     * Returns the procedure with the given name in the current version or null
+     * if there is none.
+     *
+     * @param name name of the procedure
+     * @return procedure or null
+     */
+    public IStoredProcedure get(String name)
+    {
+        return fSnapshot.get().fProcedures.get(name);
+    }
+
+    /**
+     * Returns the procedure with the given name in the given layer of the
+     * current version or null if there is none, even if it is hidden by
+     * another layer.
+     * The given layer must not be null.
+     *
+     * @param layer layer to look in
+     * @param name name of the procedure
+     * @return procedure or null
+     */
+    public IStoredProcedure get(EProcedureLayer layer, String name)
+    {
+        return fSnapshot.get().fLayers[layer.ordinal()].get(name);
+    }
+
+    /**
+     * Returns the procedure with the given handle in the current version or
+     * null if there is none.
+     *
+     * @param handle handle of the procedure
+     * @return procedure or null
+     */
+    public IStoredProcedure get(int handle)
+    {
+        final IStoredProcedure[] byHandle = fSnapshot.get().fByHandle;
+
+        if(handle < 0 || handle >= byHandle.length)
+        {
+            return null;
+        }
+
+        return byHandle[handle];
+    }
+
+    /**
+     * Returns the name a handle was assigned to or null if it is unknown.
+     *
+     * @param handle handle of a procedure
+     * @return name of the procedure or null
+     */
+    public String getName(int handle)
+    {
+        final String[] names = fSnapshot.get().fNames;
+
+        if(handle < 0 || handle >= names.length)
+        {
+            return null;
+        }
+
+        return names[handle];
+    }
+
+    /**
+     * Returns the handle of the procedure with the given name or -1 if it is
+     * not registered.
+     *
+     * @param name name of the procedure
+     * @return handle or -1
+     */
+    public int getHandle(String name)
+    {
+        final Snapshot snapshot = fSnapshot.get();
+
+        if(!snapshot.fProcedures.containsKey(name))
+        {
+            return -1;
+        }
+
+        return snapshot.fHandles.get(name);
+    }
+
+    /**
+     * @return unmodifiable map of handles of all registered procedures by name
+     */
+    public Map<String, Integer> getHandles()
+    {
+        final Snapshot snapshot = fSnapshot.get();
+        final Map<String, Integer> handles = new HashMap<String, Integer>();
+
+        for(String name : snapshot.fProcedures.keySet())
+        {
+            handles.put(name, snapshot.fHandles.get(name));
+        }
+
+        return Collections.unmodifiableMap(handles);
+    }
+
+    /**
+     * @return unmodifiable map of all procedures in the current version
+     */
+    public Map<String, IStoredProcedure> getProcedures()
+    {
+        return fSnapshot.get().fProcedures;
+    }
+
+    /**
+     * @return current version, incremented with every change
+     */
+    public long getVersion()
+    {
+        return fSnapshot.get().fVersion;
+    }
+
+    /**
+     * Registers a procedure stored at runtime under the given name, replacing
+     * any previous runtime procedure with that name.
+     *
+     * @param name name of the procedure
+     * @param procedure procedure to register
+     * @return replaced procedure or null
+     */
+    public IStoredProcedure put(String name, IStoredProcedure procedure)
+    {
+        return put(EProcedureLayer.RUNTIME, name, procedure);
+    }
+
+    /**
+     * Registers a procedure in the given layer under the given name,
+     * replacing any previous procedure with that name in the layer.
+     * The given layer must not be null.
+     *
+     * @param layer layer to register the procedure in
+     * @param name name of the procedure
+     * @param procedure procedure to register
+     * @return replaced procedure or null
+     */
+    public IStoredProcedure put(EProcedureLayer layer, String name,
+        IStoredProcedure procedure)
+    {
+        Snapshot current = null;
+        Map<String, IStoredProcedure> procedures = null;
+        IStoredProcedure old = null;
+
+        do
+        {
+            current = fSnapshot.get();
+            procedures = new HashMap<String, IStoredProcedure>(
+                current.fLayers[layer.ordinal()]);
+            old = procedures.put(name, procedure);
+        }
+        while(!fSnapshot.compareAndSet(current, current.next(layer,
+            procedures)));
+
+        return old;
+    }
+
+    /**
+     * Removes the procedure stored at runtime with the given name.
+     *
+     * @param name name of the procedure
+     * @return removed procedure or null
+     */
+    public IStoredProcedure remove(String name)
+    {
+        return remove(EProcedureLayer.RUNTIME, name);
+    }
+
+    /**
+     * Removes the procedure with the given name from the given layer. A
+     * procedure with the same name in a lower layer becomes visible again.
+     * The given layer must not be null.
+     *
+     * @param layer layer to remove the procedure from
+     * @param name name of the procedure
+     * @return removed procedure or null
+     */
+    public IStoredProcedure remove(EProcedureLayer layer, String name)
+    {
+        Snapshot current = null;
+        Map<String, IStoredProcedure> procedures = null;
+        IStoredProcedure old = null;
+
+        do
+        {
+            current = fSnapshot.get();
+
+            if(!current.fLayers[layer.ordinal()].containsKey(name))
+            {
+                return null;
+            }
+
+            procedures = new HashMap<String, IStoredProcedure>(
+                current.fLayers[layer.ordinal()]);
+            old = procedures.remove(name);
+        }
+        while(!fSnapshot.compareAndSet(current, current.next(layer,
+            procedures)));
+
+        return old;
+    }
+
+    /**
+     * Removes and adds procedures stored at runtime in a single atomic change,
+     * so that readers either see all or none of the modifications.
+     *
+     * @param removed names of procedures to remove or null
+     * @param added procedures to add or replace by name or null
+     */
+    public void update(Collection<String> removed,
+        Map<String, IStoredProcedure> added)
+    {
+        update(EProcedureLayer.RUNTIME, removed, added);
+    }
+
+    /**
+     * Removes and adds procedures of the given layer in a single atomic
+     * change, so that readers either see all or none of the modifications.
+     * The given layer must not be null.
+     *
+     * @param layer layer to change
+     * @param removed names of procedures to remove or null
+     * @param added procedures to add or replace by name or null
+     */
+    public void update(EProcedureLayer layer, Collection<String> removed,
+        Map<String, IStoredProcedure> added)
+    {
+        Snapshot current = null;
+        Map<String, IStoredProcedure> procedures = null;
+
+        do
+        {
+            current = fSnapshot.get();
+            procedures = new HashMap<String, IStoredProcedure>(
+                current.fLayers[layer.ordinal()]);
+
+            if(removed != null)
+            {
+                procedures.keySet().removeAll(removed);
+            }
+            if(added != null)
+            {
+                procedures.putAll(added);
+            }
+        }
+        while(!fSnapshot.compareAndSet(current, current.next(layer,
+            procedures)));
+    }
+
+    /**
+     * Replaces all procedures of the given layer in a single atomic change.
+     * None of the parameters may be null.
+     *
+     * @param layer layer to replace
+     * @param procedures new procedures of the layer by name
+     */
+    public void setLayer(EProcedureLayer layer,
+        Map<String, IStoredProcedure> procedures)
+    {
+        final Map<String, IStoredProcedure> copy =
+            new HashMap<String, IStoredProcedure>(procedures);
+        Snapshot current = null;
+
+        do
+        {
+            current = fSnapshot.get();
+        }
+        while(!fSnapshot.compareAndSet(current, current.next(layer, copy)));
+    }
+
+    private static class Snapshot
+    {
+        private final long fVersion;
+        private final Map<String, IStoredProcedure>[] fLayers;
+        private final Map<String, IStoredProcedure> fProcedures;
+
+        private final Map<String, Integer> fHandles;
+        private final String[] fNames;
+        private final IStoredProcedure[] fByHandle;
+
+        public Snapshot(long version,
+            Map<String, IStoredProcedure>[] layers,
+            Map<String, Integer> handles, String[] names)
+        {
+            fVersion = version;
+            fLayers = layers;
+
+            //higher layers hide lower ones
+            final Map<String, IStoredProcedure> procedures =
+                new HashMap<String, IStoredProcedure>();
+            for(Map<String, IStoredProcedure> layer : layers)
+            {
+                procedures.putAll(layer);
+            }
+            fProcedures = Collections.unmodifiableMap(procedures);
+
+            //assign handles to new names
+            Map<String, Integer> newHandles = handles;
+            String[] newNames = names;
+            for(String name : procedures.keySet())
+            {
+                if(!newHandles.containsKey(name))
+                {
+                    if(newHandles == handles)
+                    {
+                        newHandles = new HashMap<String, Integer>(handles);
+                        newNames = Arrays.copyOf(names,
+                            names.length + procedures.size());
+                    }
+
+                    newNames[newHandles.size()] = name;
+                    newHandles.put(name, newHandles.size());
+                }
+            }
+            fHandles = newHandles;
+            fNames = Arrays.copyOf(newNames, newHandles.size());
+
+            fByHandle = new IStoredProcedure[fNames.length];
+            for(int i = 0; i < fNames.length; ++i)
+            {
+                fByHandle[i] = procedures.get(fNames[i]);
+            }
+        }
+
+        public Snapshot next(EProcedureLayer layer,
+            Map<String, IStoredProcedure> procedures)
+        {
+            final Map<String, IStoredProcedure>[] layers = fLayers.clone();
+            layers[layer.ordinal()] = Collections.unmodifiableMap(procedures);
+
+            return new Snapshot(fVersion + 1, layers, fHandles, fNames);
+        }
+    }
+}
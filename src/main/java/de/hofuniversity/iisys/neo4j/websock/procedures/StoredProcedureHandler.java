@@ -18,18 +18,39 @@
  */
 package de.hofuniversity.iisys.neo4j.websock.procedures;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.transaction.TransactionManager;
+
+import org.neo4j.cypher.javacompat.ExecutionEngine;
+import org.neo4j.cypher.javacompat.ExecutionResult;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
 
+import de.hofuniversity.iisys.neo4j.websock.calls.AsyncProcedurePool;
 import de.hofuniversity.iisys.neo4j.websock.calls.CypherProcedure;
+import de.hofuniversity.iisys.neo4j.websock.calls.IAsyncProcedure;
+import de.hofuniversity.iisys.neo4j.websock.calls.IResultCallback;
+import de.hofuniversity.iisys.neo4j.websock.calls.IRowIterator;
 import de.hofuniversity.iisys.neo4j.websock.calls.IStoredProcedure;
+import de.hofuniversity.iisys.neo4j.websock.calls.IStreamingProcedure;
+import de.hofuniversity.iisys.neo4j.websock.calls.ResultPromise;
+import de.hofuniversity.iisys.neo4j.websock.calls.ResultReferences;
+import de.hofuniversity.iisys.neo4j.websock.calls.ServerQueries;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.ConversionTimer;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.CypherResultConverter;
 import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
 import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
 import de.hofuniversity.iisys.neo4j.websock.result.AResultSet;
+import de.hofuniversity.iisys.neo4j.websock.result.TableResult;
 import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
 import de.hofuniversity.iisys.neo4j.websock.util.ImplUtil;
 import de.hofuniversity.iisys.neo4j.websock.util.ResultSetConverter;
@@ -41,13 +62,24 @@ import de.hofuniversity.iisys.neo4j.websock.util.ResultSetConverter;
 public class StoredProcedureHandler
 {
     private final GraphDatabaseService fDb;
-    private final Map<String, IStoredProcedure> fProcedures;
+    private final ProcedureRegistry fProcedures;
 
     private final ImplUtil fImpl;
 
     private final Logger fLogger;
     private final boolean fDebug;
 
+    private final ExecutionEngine fEngine;
+    private final TransactionManager fTxManager;
+
+    private ProcedureJournal fJournal;
+
+    private BulkheadRegistry fBulkheads;
+    private boolean fBulkheadsConfigurable;
+
+    private GroupCommitter fGroupCommitter;
+    private volatile IReadiness fReadiness;
+
     /**
      * Creates a stored procedure handler using the given database and creating
      * results based on the given map implementation with no predefined stored
@@ -74,6 +106,22 @@ public class StoredProcedureHandler
      */
     public StoredProcedureHandler(GraphDatabaseService database,
         Map<String, IStoredProcedure> procedures, ImplUtil impl)
+    {
+        this(database, new ProcedureRegistry(procedures), impl);
+    }
+
+    /**
+     * Creates a stored procedure handler using the given database and creating
+     * results based on the given map implementation, using the given
+     * procedure registry, which may be shared and updated concurrently.
+     * None of the parameters may be null.
+     *
+     * @param database database service to use
+     * @param procedures registry of stored procedures
+     * @param impl implementation utility to use
+     */
+    public StoredProcedureHandler(GraphDatabaseService database,
+        ProcedureRegistry procedures, ImplUtil impl)
     {
         if(database == null)
         {
@@ -82,7 +130,7 @@ public class StoredProcedureHandler
         if(procedures == null)
         {
             throw new NullPointerException(
-                "map of stored procedures was null");
+                "registry of stored procedures was null");
         }
         if(impl == null)
         {
@@ -92,6 +140,16 @@ public class StoredProcedureHandler
         fDb = database;
         fProcedures = procedures;
         fImpl = impl;
+        fEngine = new ExecutionEngine(fDb);
+        fBulkheads = BulkheadRegistry.getInstance();
+
+        TransactionManager txManager = null;
+        if(database instanceof GraphDatabaseAPI)
+        {
+            txManager = ((GraphDatabaseAPI) database).getDependencyResolver()
+                .resolveDependency(TransactionManager.class);
+        }
+        fTxManager = txManager;
         fLogger = Logger.getLogger(this.getClass().getName());
         fDebug = (fLogger.getLevel() == Level.FINEST);
     }
@@ -106,8 +164,99 @@ public class StoredProcedureHandler
      */
     public WebsockQuery handleCall(final WebsockQuery query)
     {
+        return handleCall(query, null);
+    }
+
+    /**
+     * Calls a stored procedure if there is one with the name specified.
+     * Results of streaming procedures are read incrementally and, if
+     * requested, sent to the given sink in chunks before the final response.
+     * The given query must be of the right type and contain a valid procedure
+     * name.
+     *
+     * @param query message containing a procedure call
+     * @param sink receiver of partial responses or null
+     * @return response for caller
+     */
+    public WebsockQuery handleCall(final WebsockQuery query,
+        final IResponseSink sink)
+    {
+        return handleCall(query, sink, false);
+    }
+
+    /**
+     * Calls a stored procedure if there is one with the name specified.
+     * Results of streaming procedures are read incrementally and, if
+     * requested, sent to the given sink in chunks before the final response.
+     * If asynchronous calls are allowed and a sink is given, asynchronous
+     * procedures are only started and their response is sent to the sink by
+     * the thread completing them, returning null.
+     * The given query must be of the right type and contain a valid procedure
+     * name.
+     *
+     * @param query message containing a procedure call
+     * @param sink receiver of partial and asynchronous responses or null
+     * @param async whether procedures may complete asynchronously or on the
+     * group commit writer thread
+     * @return response for caller or null if sent asynchronously
+     */
+    public WebsockQuery handleCall(final WebsockQuery query,
+        final IResponseSink sink, final boolean async)
+    {
+        if(ServerQueries.PROFILE.equals(query.getPayload()))
+        {
+            return handleProfile(query, true);
+        }
+        else if(ServerQueries.EXPLAIN.equals(query.getPayload()))
+        {
+            return handleProfile(query, false);
+        }
+        else if(ServerQueries.BULKHEAD.equals(query.getPayload()))
+        {
+            if(!fBulkheadsConfigurable)
+            {
+                WebsockQuery response = new WebsockQuery(query.getId(),
+                    EQueryType.ERROR);
+                response.setPayload("configuring bulkheads at runtime is "
+                    + "disabled");
+                return response;
+            }
+
+            return configureBulkhead(query);
+        }
+        else if(ServerQueries.BULKHEADS.equals(query.getPayload()))
+        {
+            WebsockQuery response = new WebsockQuery(query.getId(),
+                EQueryType.RESULT);
+            response.setPayload(fBulkheads.toMap(fImpl));
+            return response;
+        }
+        else if(ServerQueries.HANDLES.equals(query.getPayload()))
+        {
+            return getHandles(query);
+        }
+        else if(ServerQueries.READY.equals(query.getPayload()))
+        {
+            return getReadiness(query);
+        }
+        else if(ServerQueries.PIPELINE.equals(query.getPayload()))
+        {
+            return handlePipeline(query);
+        }
+
         WebsockQuery response = null;
-        IStoredProcedure proc = fProcedures.get(query.getPayload());
+        final String name = getProcedureName(query.getPayload());
+        IStoredProcedure proc = null;
+
+        //call by numeric handle or name
+        if(query.getPayload() instanceof Number)
+        {
+            proc = fProcedures.get(((Number) query.getPayload()).intValue());
+        }
+        else
+        {
+            proc = fProcedures.get(name);
+        }
 
         if(proc == null)
         {
@@ -119,23 +268,207 @@ public class StoredProcedureHandler
             return response;
         }
 
+        //limit concurrent calls
+        final Bulkhead bulkhead = fBulkheads.get(name);
+        if(bulkhead != null)
+        {
+            if(async && sink != null)
+            {
+                //wait in the queue without occupying this thread
+                if(!bulkhead.acquire(new DeferredCall(name, query, proc, sink,
+                    bulkhead)))
+                {
+                    return null;
+                }
+            }
+            else if(!bulkhead.tryAcquire())
+            {
+                return toRejection(query, bulkhead);
+            }
+        }
+
+        //the thread completing an asynchronous call releases the bulkhead
+        boolean handedOff = false;
+
         try
         {
             if(fDebug)
             {
                 fLogger.log(Level.FINEST, "call to procedure '"
-                    + query.getPayload() + "' (" + query.getParameters()
+                    + name + "' (" + query.getParameters()
                     + ")");
             }
 
-            AResultSet<?> result = proc.call(query.getParameters());
+            if(async && sink != null && (proc instanceof IAsyncProcedure
+                || isGrouped(name, proc)))
+            {
+                //grouped calls share a commit without blocking this thread
+                final ResultPromise promise = proc instanceof IAsyncProcedure
+                    ? ((IAsyncProcedure) proc).callAsync(query.getParameters())
+                    : fGroupCommitter.submit(proc, query.getParameters());
+                promise.addCallback(new AsyncResponder(query, sink,
+                    bulkhead));
+                handedOff = true;
+
+                return null;
+            }
+
+            AResultSet<?> result = null;
+            if(proc instanceof IStreamingProcedure)
+            {
+                result = stream(query, (IStreamingProcedure) proc, sink);
+            }
+            else
+            {
+                result = proc.call(query.getParameters());
+            }
+
+            response = toResponse(query, result);
+        }
+        catch(Exception e)
+        {
+            response = toError(query, e);
+        }
+        finally
+        {
+            if(bulkhead != null && !handedOff)
+            {
+                bulkhead.release();
+            }
+        }
+
+        return response;
+    }
+
+    private boolean isGrouped(final String name, final IStoredProcedure proc)
+    {
+        return fGroupCommitter != null
+            && !(proc instanceof IStreamingProcedure)
+            && fGroupCommitter.isBatchable(name);
+    }
+
+    private WebsockQuery toResponse(final WebsockQuery query,
+        final AResultSet<?> result)
+    {
+        WebsockQuery response = null;
+
+        if(result != null)
+        {
+            response = new WebsockQuery(query.getId(), EQueryType.RESULT);
+
+            final long converting = System.nanoTime();
+            Map<String, Object> map = fImpl.newMap();
+            response.setPayload(ResultSetConverter.toMap(result, map));
+            ConversionTimer.add(System.nanoTime() - converting);
+        }
+        else
+        {
+            response = new WebsockQuery(query.getId(), EQueryType.SUCCESS);
+        }
+
+        return response;
+    }
+
+    private WebsockQuery toError(final WebsockQuery query,
+        final Throwable error)
+    {
+        error.printStackTrace();
+        fLogger.log(Level.SEVERE, "error during query execution", error);
+
+        WebsockQuery response = new WebsockQuery(query.getId(),
+            EQueryType.ERROR);
+        response.setPayload(error.toString());
+        return response;
+    }
+
+    private WebsockQuery toRejection(final WebsockQuery query,
+        final Bulkhead bulkhead)
+    {
+        fLogger.log(Level.WARNING, "call to procedure '"
+            + query.getPayload() + "' rejected by bulkhead '"
+            + bulkhead.getName() + "'");
+
+        WebsockQuery response = new WebsockQuery(query.getId(),
+            EQueryType.ERROR);
+        response.setPayload("stored procedure '" + query.getPayload()
+            + "' rejected, too many concurrent calls");
+        return response;
+    }
+
+    /**
+     * Executes a sequence of stored procedures in a single read transaction.
+     * Each step's parameters can reference columns of previous steps'
+     * results, only the last step's result is converted and sent to the
+     * client. Intermediate Cypher results are passed on as raw rows.
+     * Updating Cypher procedures are rejected and the transaction is always
+     * rolled back, so native procedures can't commit changes either. Within
+     * a client transaction, the steps run in that transaction, which is left
+     * intact.
+     * The given request must not be null.
+     *
+     * @param query pipeline request
+     * @return response for caller
+     */
+    @SuppressWarnings("unchecked")
+    public WebsockQuery handlePipeline(final WebsockQuery query)
+    {
+        WebsockQuery response = null;
+
+        final Object stepsObj = query.getParameter(
+            ServerQueries.PIPELINE_STEPS);
+        if(!(stepsObj instanceof List<?>) || ((List<?>) stepsObj).isEmpty())
+        {
+            response = new WebsockQuery(query.getId(), EQueryType.ERROR);
+            response.setPayload("no pipeline steps given");
+            return response;
+        }
+
+        final List<?> steps = (List<?>) stepsObj;
+        final List<List<Map<String, Object>>> stepRows =
+            new ArrayList<List<Map<String, Object>>>(steps.size());
+
+        int index = 0;
+        final Transaction tx = beginOwnTx();
+
+        try
+        {
+            AResultSet<?> result = null;
+
+            for(Object stepObj : steps)
+            {
+                if(!(stepObj instanceof Map<?, ?>))
+                {
+                    throw new IllegalArgumentException("pipeline step was "
+                        + "not a map");
+                }
+
+                final Map<?, ?> step = (Map<?, ?>) stepObj;
+                final Object procId = step.get(
+                    ServerQueries.PIPELINE_PROCEDURE);
+                final Map<String, Object> params = ResultReferences.resolveAll(
+                    (Map<String, Object>) step.get(
+                        ServerQueries.STATEMENT_PARAMS), stepRows);
+
+                //only the last result is converted
+                if(index < steps.size() - 1)
+                {
+                    stepRows.add(callStepRows(procId, params));
+                }
+                else
+                {
+                    result = callStep(procId, params);
+                }
+
+                ++index;
+            }
 
             if(result != null)
             {
+                final long converting = System.nanoTime();
                 response = new WebsockQuery(query.getId(), EQueryType.RESULT);
-
-                Map<String, Object> map = fImpl.newMap();
-                response.setPayload(ResultSetConverter.toMap(result, map));
+                response.setPayload(ResultSetConverter.toMap(result,
+                    fImpl.newMap()));
+                ConversionTimer.add(System.nanoTime() - converting);
             }
             else
             {
@@ -145,7 +478,483 @@ public class StoredProcedureHandler
         catch(Exception e)
         {
             e.printStackTrace();
-            fLogger.log(Level.SEVERE, "error during query execution", e);
+            fLogger.log(Level.SEVERE, "failed to execute pipeline", e);
+
+            response = new WebsockQuery(query.getId(), EQueryType.ERROR);
+            response.setPayload("failed to execute pipeline step " + index
+                + ":\n" + e.toString());
+        }
+        finally
+        {
+            //read-only, never commit
+            if(tx != null)
+            {
+                tx.failure();
+                tx.finish();
+            }
+        }
+
+        return response;
+    }
+
+    private AResultSet<?> callStep(final Object procId,
+        final Map<String, Object> params)
+    {
+        final IStoredProcedure proc = getStep(procId, params);
+        final Bulkhead bulkhead = enterStep(getProcedureName(procId));
+
+        try
+        {
+            return proc.call(params);
+        }
+        finally
+        {
+            if(bulkhead != null)
+            {
+                bulkhead.release();
+            }
+        }
+    }
+
+    private List<Map<String, Object>> callStepRows(final Object procId,
+        final Map<String, Object> params)
+    {
+        final IStoredProcedure proc = getStep(procId, params);
+        final Bulkhead bulkhead = enterStep(getProcedureName(procId));
+
+        try
+        {
+            //skip converting Cypher results back and forth
+            if(proc instanceof CypherProcedure)
+            {
+                return ((CypherProcedure) proc).callRows(params);
+            }
+
+            return toRows(proc.call(params));
+        }
+        finally
+        {
+            if(bulkhead != null)
+            {
+                bulkhead.release();
+            }
+        }
+    }
+
+    private IStoredProcedure getStep(final Object procId,
+        final Map<String, Object> params)
+    {
+        final String name = getProcedureName(procId);
+        IStoredProcedure proc = null;
+
+        if(procId instanceof Number)
+        {
+            proc = fProcedures.get(((Number) procId).intValue());
+        }
+        else if(procId != null)
+        {
+            proc = fProcedures.get(name);
+        }
+
+        if(proc == null)
+        {
+            throw new IllegalArgumentException("stored procedure '" + procId
+                + "' not found");
+        }
+        if(proc instanceof CypherProcedure
+            && !((CypherProcedure) proc).isReadOnly())
+        {
+            throw new IllegalArgumentException("stored procedure '" + name
+                + "' updates data, pipelines are read-only");
+        }
+
+        if(fDebug)
+        {
+            fLogger.log(Level.FINEST, "pipeline call to procedure '"
+                + name + "' (" + params + ")");
+        }
+
+        return proc;
+    }
+
+    private Bulkhead enterStep(final String name)
+    {
+        final Bulkhead bulkhead = fBulkheads.get(name);
+        if(bulkhead != null && !bulkhead.tryAcquire())
+        {
+            throw new IllegalStateException("stored procedure '" + name
+                + "' rejected, too many concurrent calls");
+        }
+
+        return bulkhead;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> toRows(final AResultSet<?> result)
+    {
+        final List<Map<String, Object>> rows =
+            new ArrayList<Map<String, Object>>();
+
+        if(result instanceof TableResult)
+        {
+            final TableResult table = (TableResult) result;
+            final List<String> columns = table.getColumns();
+
+            Map<String, Object> row = null;
+            for(List<Object> values : table.getResults())
+            {
+                row = new HashMap<String, Object>();
+                for(int i = 0; i < columns.size(); ++i)
+                {
+                    row.put(columns.get(i), values.get(i));
+                }
+                rows.add(row);
+            }
+        }
+        else if(result != null)
+        {
+            final Object results = result.getResults();
+
+            if(results instanceof Map<?, ?>)
+            {
+                rows.add((Map<String, Object>) results);
+            }
+            else if(results instanceof List<?>)
+            {
+                Map<String, Object> row = null;
+                for(Object value : (List<?>) results)
+                {
+                    if(value instanceof Map<?, ?>)
+                    {
+                        rows.add((Map<String, Object>) value);
+                    }
+                    else
+                    {
+                        row = new HashMap<String, Object>();
+                        row.put(ServerQueries.PIPELINE_VALUE, value);
+                        rows.add(row);
+                    }
+                }
+            }
+        }
+
+        return rows;
+    }
+
+    private TableResult stream(final WebsockQuery query,
+        final IStreamingProcedure proc, final IResponseSink sink)
+        throws Exception
+    {
+        //pagination
+        Integer first =
+            (Integer) query.getParameter(WebsockConstants.SUBSET_START);
+        Integer max =
+            (Integer) query.getParameter(WebsockConstants.SUBSET_SIZE);
+        Object chunkParam = query.getParameter(ServerQueries.CHUNK_SIZE);
+
+        if(first == null)
+        {
+            first = 0;
+        }
+        if(max == null)
+        {
+            max = 0;
+        }
+        int chunk = 0;
+        if(sink != null && chunkParam instanceof Number)
+        {
+            chunk = ((Number) chunkParam).intValue();
+        }
+
+        List<List<Object>> entries = new ArrayList<List<Object>>();
+        final IRowIterator rows = proc.stream(query.getParameters());
+        int chunkFirst = first;
+        int read = 0;
+        int total = 0;
+
+        try
+        {
+            //skip rows before the requested subset
+            while(total < first && rows.hasNext())
+            {
+                rows.next();
+                ++total;
+            }
+
+            //stop reading once the subset is complete
+            while((max == 0 || read < max) && rows.hasNext())
+            {
+                entries.add(rows.next());
+                ++read;
+                ++total;
+
+                //send full chunks while further rows are needed
+                if(chunk > 0 && entries.size() == chunk
+                    && (max == 0 || read < max) && rows.hasNext())
+                {
+                    TableResult part = new TableResult(rows.getColumns(),
+                        entries);
+                    part.setFirst(chunkFirst);
+                    part.setMax(chunk);
+                    part.setTotal(-1);
+
+                    WebsockQuery partial = new WebsockQuery(query.getId(),
+                        EQueryType.RESULT);
+                    partial.setPayload(ResultSetConverter.toMap(part,
+                        fImpl.newMap()));
+                    partial.setParameter(ServerQueries.MORE, true);
+                    sink.send(partial);
+
+                    chunkFirst += chunk;
+                    entries = new ArrayList<List<Object>>();
+                }
+            }
+
+            if(rows.hasNext())
+            {
+                //not read completely, total unknown
+                total = -1;
+            }
+        }
+        finally
+        {
+            rows.close();
+        }
+
+        TableResult table = new TableResult(rows.getColumns(), entries);
+        table.setFirst(chunkFirst);
+        if(max > 0)
+        {
+            table.setMax(max - (chunkFirst - first));
+        }
+        table.setTotal(total);
+
+        return table;
+    }
+
+    /**
+     * Returns the procedure name for a call payload, which is either the name
+     * itself or a numeric handle. Returns null for unknown handles.
+     *
+     * @param payload procedure call payload
+     * @return name of the procedure or null
+     */
+    public String getProcedureName(Object payload)
+    {
+        if(payload instanceof Number)
+        {
+            return fProcedures.getName(((Number) payload).intValue());
+        }
+
+        return String.valueOf(payload);
+    }
+
+    /**
+     * Returns the numeric handles of all registered procedures by name along
+     * with the registry's version. Handles stay valid for a procedure name,
+     * but a procedure may be removed, resulting in an error when called.
+     * The given request must not be null.
+     *
+     * @param query handle table request
+     * @return response for caller
+     */
+    public WebsockQuery getHandles(final WebsockQuery query)
+    {
+        final Map<String, Object> handles = fImpl.newMap();
+        handles.putAll(fProcedures.getHandles());
+
+        final Map<String, Object> payload = fImpl.newMap();
+        payload.put(ServerQueries.HANDLE_TABLE, handles);
+        payload.put(ServerQueries.REGISTRY_VERSION, fProcedures.getVersion());
+
+        WebsockQuery response = new WebsockQuery(query.getId(),
+            EQueryType.RESULT);
+        response.setPayload(payload);
+        return response;
+    }
+
+    /**
+     * Returns whether the database has completed its startup, so clients can
+     * wait for a background warm-up before sending latency-critical
+     * requests. Without a readiness source, the database is always ready.
+     * The given request must not be null.
+     *
+     * @param query readiness request
+     * @return response for caller
+     */
+    public WebsockQuery getReadiness(final WebsockQuery query)
+    {
+        final IReadiness readiness = fReadiness;
+
+        final Map<String, Object> payload = fImpl.newMap();
+        payload.put(ServerQueries.READY_FIELD,
+            readiness == null || readiness.isReady());
+
+        WebsockQuery response = new WebsockQuery(query.getId(),
+            EQueryType.RESULT);
+        response.setPayload(payload);
+        return response;
+    }
+
+    /**
+     * Creates or changes the bulkhead specified in the given request and
+     * assigns the listed procedures to it.
+     * The given request must not be null.
+     *
+     * @param query bulkhead configuration request
+     * @return response for caller
+     */
+    public WebsockQuery configureBulkhead(final WebsockQuery query)
+    {
+        WebsockQuery response = null;
+
+        try
+        {
+            final Object name = query.getParameter(
+                ServerQueries.BULKHEAD_NAME);
+            final Object limit = query.getParameter(
+                ServerQueries.BULKHEAD_LIMIT);
+            final Object queue = query.getParameter(
+                ServerQueries.BULKHEAD_QUEUE);
+            final Object wait = query.getParameter(
+                ServerQueries.BULKHEAD_WAIT);
+            final Object procs = query.getParameter(
+                ServerQueries.BULKHEAD_PROCEDURES);
+
+            if(name == null || limit == null)
+            {
+                throw new IllegalArgumentException(
+                    "bulkhead name and limit are required");
+            }
+
+            int maxQueue = 0;
+            long maxWait = 0;
+            if(queue != null)
+            {
+                maxQueue = ((Number) queue).intValue();
+            }
+            if(wait != null)
+            {
+                maxWait = ((Number) wait).longValue();
+            }
+
+            fBulkheads.configure(name.toString(),
+                ((Number) limit).intValue(), maxQueue, maxWait);
+
+            if(procs instanceof List<?>)
+            {
+                for(Object proc : (List<?>) procs)
+                {
+                    fBulkheads.assign(proc.toString(), name.toString());
+                }
+            }
+
+            response = new WebsockQuery(query.getId(), EQueryType.SUCCESS);
+        }
+        catch(Exception e)
+        {
+            fLogger.log(Level.WARNING, "failed to configure bulkhead", e);
+            response = new WebsockQuery(query.getId(), EQueryType.ERROR);
+            response.setPayload(e.toString());
+        }
+
+        return response;
+    }
+
+    /**
+     * Returns the execution plan for the Cypher query or stored Cypher
+     * procedure specified in the given request. When profiling, the query is
+     * executed and its result is returned along with the plan's rows and
+     * database hits per operator. Otherwise the results are not read and
+     * the transaction is rolled back. Within a client transaction, the query
+     * runs in that transaction, which is left intact. Since Cypher can't
+     * plan a query without
+     * executing it, only read-only queries can be explained and updating
+     * queries are rejected.
+     * The given request must not be null.
+     *
+     * @param query profiling request
+     * @param profile whether to execute the query and collect statistics
+     * @return response for caller
+     */
+    public WebsockQuery handleProfile(final WebsockQuery query,
+        final boolean profile)
+    {
+        WebsockQuery response = null;
+
+        try
+        {
+            final String statement = getProfiledStatement(query);
+            final Map<String, Object> params = query.getParameters();
+            final Map<String, Object> payload = fImpl.newMap();
+
+            if(profile)
+            {
+                ExecutionResult result = fEngine.profile(statement,
+                    params);
+
+                //pagination
+                Integer first =
+                    (Integer) query.getParameter(WebsockConstants.SUBSET_START);
+                Integer max =
+                    (Integer) query.getParameter(WebsockConstants.SUBSET_SIZE);
+
+                if(first == null)
+                {
+                    first = 0;
+                }
+                if(max == null)
+                {
+                    max = 0;
+                }
+                max += first;
+
+                //statistics are only complete after reading all results
+                TableResult table = CypherResultConverter.toTableResult(result,
+                    first, max, CypherResultConverter.getProjection(
+                        query.getParameter(ServerQueries.FIELDS)));
+                payload.put(WebsockConstants.RESULT,
+                    ResultSetConverter.toMap(table, fImpl.newMap()));
+                payload.put(ServerQueries.PLAN, CypherResultConverter
+                    .toPlanMap(result.executionPlanDescription(), fImpl));
+            }
+            else
+            {
+                //executing writes has side effects even if rolled back
+                if(!CypherProcedure.isReadOnly(statement))
+                {
+                    throw new IllegalArgumentException("only read-only "
+                        + "queries can be explained, use "
+                        + ServerQueries.PROFILE + " for updating queries");
+                }
+
+                //results are not read, a client's transaction is not doomed
+                final Transaction tx = beginOwnTx();
+
+                try
+                {
+                    ExecutionResult result = fEngine.execute(statement,
+                        params);
+                    payload.put(ServerQueries.PLAN, CypherResultConverter
+                        .toPlanMap(result.executionPlanDescription(), fImpl));
+                }
+                finally
+                {
+                    if(tx != null)
+                    {
+                        tx.failure();
+                        tx.finish();
+                    }
+                }
+            }
+
+            response = new WebsockQuery(query.getId(), EQueryType.RESULT);
+            response.setPayload(payload);
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace();
+            fLogger.log(Level.SEVERE, "failed to profile query", e);
             response = new WebsockQuery(query.getId(), EQueryType.ERROR);
             response.setPayload(e.toString());
         }
@@ -153,8 +962,149 @@ public class StoredProcedureHandler
         return response;
     }
 
+    //new transaction or null if the thread already has one, as failing a
+    //nested transaction marks the enclosing one rollback-only
+    private Transaction beginOwnTx()
+    {
+        boolean inTx = false;
+
+        if(fTxManager != null)
+        {
+            try
+            {
+                inTx = (fTxManager.getTransaction() != null);
+            }
+            catch(Exception e)
+            {
+                throw new RuntimeException("could not check transaction", e);
+            }
+        }
+
+        return inTx ? null : fDb.beginTx();
+    }
+
+    private String getProfiledStatement(final WebsockQuery query)
+    {
+        Object statement = query.getParameter(ServerQueries.STATEMENT);
+        Object procName = query.getParameter(
+            ServerQueries.PROFILED_PROCEDURE);
+
+        if(statement == null && procName != null)
+        {
+            IStoredProcedure proc = fProcedures.get(procName.toString());
+
+            if(proc == null)
+            {
+                throw new IllegalArgumentException("stored procedure '"
+                    + procName + "' not found");
+            }
+            if(!(proc instanceof CypherProcedure))
+            {
+                throw new IllegalArgumentException("stored procedure '"
+                    + procName + "' is not a Cypher procedure");
+            }
+
+            statement = ((CypherProcedure) proc).getQuery();
+        }
+
+        if(statement == null)
+        {
+            throw new IllegalArgumentException(
+                "no query or procedure name given");
+        }
+
+        return statement.toString();
+    }
+
+    /**
+     * Returns the stored procedure registered under the given name or null if
+     * there is none.
+     *
+     * @param name name of the procedure
+     * @return procedure or null
+     */
+    public IStoredProcedure getProcedure(String name)
+    {
+        return fProcedures.get(name);
+    }
+
+    /**
+     * @return registry of stored procedures used by this handler
+     */
+    public ProcedureRegistry getRegistry()
+    {
+        return fProcedures;
+    }
+
+    /**
+     * Sets the registry of bulkheads limiting concurrent procedure calls,
+     * replacing the shared registry used by default.
+     * The given registry must not be null.
+     *
+     * @param bulkheads bulkhead registry to use
+     */
+    public void setBulkheads(BulkheadRegistry bulkheads)
+    {
+        if(bulkheads == null)
+        {
+            throw new NullPointerException("bulkhead registry was null");
+        }
+
+        fBulkheads = bulkheads;
+    }
+
+    /**
+     * Sets whether clients may configure bulkheads at runtime through
+     * "$bulkhead" calls, which is disabled by default. Otherwise limits can
+     * only be set through directives in procedure files.
+     *
+     * @param configurable whether clients may configure bulkheads
+     */
+    public void setBulkheadsConfigurable(boolean configurable)
+    {
+        fBulkheadsConfigurable = configurable;
+    }
+
+    /**
+     * Sets a journal in which stored and deleted procedures are persisted
+     * before they are registered or removed.
+     *
+     * @param journal restored journal or null to disable persistence
+     */
+    public void setJournal(ProcedureJournal journal)
+    {
+        fJournal = journal;
+    }
+
+    /**
+     * Sets the source of the database's readiness reported to clients.
+     * Can be null to always report the database as ready.
+     *
+     * @param readiness readiness source or null
+     */
+    public void setReadiness(IReadiness readiness)
+    {
+        fReadiness = readiness;
+    }
+
+    /**
+     * Sets the group committer executing calls of batchable procedures in
+     * shared transactions. Calls are only grouped outside of client
+     * transactions, under the same condition as asynchronous completion.
+     * Can be null to execute all calls directly.
+     *
+     * @param committer group committer to use or null
+     */
+    public void setGroupCommitter(GroupCommitter committer)
+    {
+        fGroupCommitter = committer;
+    }
+
     /**
      * Deletes the procedure named in the given request.
+     * Only procedures stored at runtime can be deleted, procedures from
+     * definition files or services are rejected since they would return
+     * after a restart.
      * The given request must not be null and must contain a valid procedure
      * name.
      *
@@ -163,7 +1113,7 @@ public class StoredProcedureHandler
      */
     public WebsockQuery deleteProcedure(WebsockQuery query)
     {
-        String name = query.getPayload().toString();
+        String name = getProcedureName(query.getPayload());
 
         if(fDebug)
         {
@@ -171,7 +1121,41 @@ public class StoredProcedureHandler
                 + query.getPayload() + "'");
         }
 
-        fProcedures.remove(name);
+        final ProcedureJournal journal = fJournal;
+        if(name == null)
+        {
+            //unknown handle, nothing to delete
+        }
+        else if(fProcedures.get(EProcedureLayer.RUNTIME, name) == null
+            && fProcedures.get(name) != null)
+        {
+            WebsockQuery response = new WebsockQuery(query.getId(),
+                EQueryType.ERROR);
+            response.setPayload("procedure '" + name + "' is not stored at "
+                + "runtime and can't be deleted");
+            return response;
+        }
+        else if(journal != null)
+        {
+            //keeps journal and registry order consistent
+            synchronized(journal)
+            {
+                try
+                {
+                    journal.delete(name);
+                }
+                catch(IOException e)
+                {
+                    return journalError(query, e);
+                }
+
+                fProcedures.remove(name);
+            }
+        }
+        else
+        {
+            fProcedures.remove(name);
+        }
 
         WebsockQuery respsonse = new WebsockQuery(query.getId(),
             EQueryType.SUCCESS);
@@ -192,15 +1176,185 @@ public class StoredProcedureHandler
             WebsockConstants.PROCEDURE_NAME).toString();
         String statement = query.getPayload().toString();
 
-        //TODO: synchronization?
-
         //TODO: regulate overwriting?
 
         IStoredProcedure procedure = new CypherProcedure(name, fDb, statement);
-        fProcedures.put(name, procedure);
 
+        final ProcedureJournal journal = fJournal;
+        if(journal != null)
+        {
+            //keeps journal and registry order consistent
+            synchronized(journal)
+            {
+                try
+                {
+                    journal.store(name, statement);
+                }
+                catch(IOException e)
+                {
+                    return journalError(query, e);
+                }
+
+                fProcedures.put(name, procedure);
+            }
+        }
+        else
+        {
+            fProcedures.put(name, procedure);
+        }
+
+        //handle for calls without the name
         WebsockQuery respsonse = new WebsockQuery(query.getId(),
             EQueryType.SUCCESS);
+        respsonse.setPayload(fProcedures.getHandle(name));
         return respsonse;
     }
+
+    private WebsockQuery journalError(final WebsockQuery query,
+        final IOException e)
+    {
+        e.printStackTrace();
+        fLogger.log(Level.SEVERE, "failed to persist procedure change", e);
+
+        WebsockQuery response = new WebsockQuery(query.getId(),
+            EQueryType.ERROR);
+        response.setPayload("failed to persist procedure change: "
+            + e.getMessage());
+        return response;
+    }
+
+    private class AsyncResponder implements IResultCallback
+    {
+        private final WebsockQuery fQuery;
+        private final IResponseSink fSink;
+        private final Bulkhead fBulkhead;
+
+        public AsyncResponder(WebsockQuery query, IResponseSink sink,
+            Bulkhead bulkhead)
+        {
+            fQuery = query;
+            fSink = sink;
+            fBulkhead = bulkhead;
+        }
+
+        @Override
+        public void onResult(AResultSet<?> result)
+        {
+            WebsockQuery response = null;
+
+            try
+            {
+                response = toResponse(fQuery, result);
+            }
+            catch(Exception e)
+            {
+                response = toError(fQuery, e);
+            }
+
+            send(response);
+        }
+
+        @Override
+        public void onError(Throwable error)
+        {
+            send(toError(fQuery, error));
+        }
+
+        private void send(final WebsockQuery response)
+        {
+            if(fBulkhead != null)
+            {
+                fBulkhead.release();
+            }
+
+            try
+            {
+                fSink.send(response);
+            }
+            catch(Exception e)
+            {
+                fLogger.log(Level.SEVERE, "failed to send asynchronous "
+                    + "response to client", e);
+            }
+        }
+    }
+
+    private class DeferredCall implements IDeferredCall
+    {
+        private final String fName;
+        private final WebsockQuery fQuery;
+        private final IStoredProcedure fProc;
+        private final IResponseSink fSink;
+        private final Bulkhead fBulkhead;
+
+        public DeferredCall(String name, WebsockQuery query,
+            IStoredProcedure proc, IResponseSink sink, Bulkhead bulkhead)
+        {
+            fName = name;
+            fQuery = query;
+            fProc = proc;
+            fSink = sink;
+            fBulkhead = bulkhead;
+        }
+
+        @Override
+        public void start()
+        {
+            ResultPromise promise = null;
+
+            if(fProc instanceof IAsyncProcedure)
+            {
+                try
+                {
+                    promise = ((IAsyncProcedure) fProc).callAsync(
+                        fQuery.getParameters());
+                }
+                catch(Exception e)
+                {
+                    promise = new ResultPromise();
+                    promise.fail(e);
+                }
+            }
+            else if(isGrouped(fName, fProc))
+            {
+                promise = fGroupCommitter.submit(fProc,
+                    fQuery.getParameters());
+            }
+            else
+            {
+                promise = AsyncProcedurePool.getInstance().submit(
+                    new Callable<AResultSet<?>>()
+                {
+                    @Override
+                    public AResultSet<?> call() throws Exception
+                    {
+                        if(fProc instanceof IStreamingProcedure)
+                        {
+                            return stream(fQuery,
+                                (IStreamingProcedure) fProc, fSink);
+                        }
+
+                        return fProc.call(fQuery.getParameters());
+                    }
+                });
+            }
+
+            promise.addCallback(new AsyncResponder(fQuery, fSink,
+                fBulkhead));
+        }
+
+        @Override
+        public void reject()
+        {
+            try
+            {
+                fSink.send(toRejection(fQuery, fBulkhead));
+            }
+            catch(Exception e)
+            {
+                fLogger.log(Level.SEVERE, "failed to send rejection to "
+                    + "client", e);
+            }
+        }
+    }
 }
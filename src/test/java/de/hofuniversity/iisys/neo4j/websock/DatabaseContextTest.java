@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests starting databases with the configured warm-up modes.
+ */
+public class DatabaseContextTest
+{
+    /**
+     * Tests that unknown warm-up modes are rejected before the database is
+     * started.
+     */
+    @Test
+    public void unknownModeTest() throws Exception
+    {
+        GraphConfig config = new GraphConfig(true);
+        config.setProperty(WebsockContextHandler.WARMUP_PROP, "backgroud");
+
+        DatabaseContext context = new DatabaseContext("test", config);
+
+        boolean fail = false;
+        try
+        {
+            context.start();
+        }
+        catch(IllegalArgumentException e)
+        {
+            fail = true;
+        }
+        Assert.assertTrue(fail);
+        Assert.assertNull(context.getDatabase());
+    }
+
+    /**
+     * Tests that a database warmed up in the background becomes ready.
+     */
+    @Test
+    public void backgroundTest() throws Exception
+    {
+        GraphConfig config = new GraphConfig(true);
+        config.setProperty(WebsockContextHandler.WARMUP_PROP,
+            WebsockContextHandler.WARMUP_BACKGROUND);
+
+        DatabaseContext context = new DatabaseContext("test", config);
+        context.start();
+
+        try
+        {
+            final long deadline = System.currentTimeMillis() + 10000;
+            while(!context.isReady()
+                && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(context.isReady());
+        }
+        finally
+        {
+            context.shutdown();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.hofuniversity.iisys.neo4j.websock.neo4j.Neo4jImpermConnector;
+
+/**
+ * Tests the configuration of additional named databases.
+ */
+public class GraphConfigTest
+{
+    private GraphConfig createBase()
+    {
+        GraphConfig base = new GraphConfig(true);
+        base.setProperty("neo4j.mode", "impermanent");
+        base.setProperty("neo4j.path", "/tmp/neo4j/");
+        base.setProperty("neo4j.databases", "tenant1, tenant2,default,tenant1");
+        base.setProperty(ServiceWebSocket.JOURNAL_PROP, "/tmp/journal");
+        base.setProperty(ServiceWebSocket.INDEX_CACHE_PROP, "100");
+        base.setProperty("database.tenant1.neo4j.path", "/tmp/tenant1/");
+        base.setProperty("database.tenant1."
+            + ServiceWebSocket.INDEX_CACHE_PROP, "5");
+
+        return base;
+    }
+
+    /**
+     * Tests reading the names of additional databases.
+     */
+    @Test
+    public void namesTest()
+    {
+        GraphConfig base = createBase();
+
+        Assert.assertEquals(Arrays.asList("tenant1", "tenant2"),
+            base.getDatabaseNames());
+
+        Assert.assertTrue(new GraphConfig(true).getDatabaseNames().isEmpty());
+    }
+
+    /**
+     * Tests inheriting and overriding properties.
+     */
+    @Test
+    public void derivedTest()
+    {
+        GraphConfig base = createBase();
+
+        GraphConfig tenant1 = new GraphConfig(base, "tenant1");
+        Assert.assertEquals("impermanent", tenant1.getProperty("neo4j.mode"));
+        Assert.assertEquals("/tmp/tenant1/",
+            tenant1.getProperty("neo4j.path"));
+        Assert.assertEquals("5",
+            tenant1.getProperty(ServiceWebSocket.INDEX_CACHE_PROP));
+        Assert.assertTrue(tenant1.getConnector()
+            instanceof Neo4jImpermConnector);
+
+        //database-specific settings are not inherited
+        Assert.assertNull(tenant1.getProperty(ServiceWebSocket.JOURNAL_PROP));
+        Assert.assertNull(tenant1.getProperty(
+            "database.tenant1.neo4j.path"));
+
+        GraphConfig tenant2 = new GraphConfig(base, "tenant2");
+        Assert.assertNull(tenant2.getProperty("neo4j.path"));
+        Assert.assertEquals("100",
+            tenant2.getProperty(ServiceWebSocket.INDEX_CACHE_PROP));
+        Assert.assertNotSame(tenant1.getConnector(), tenant2.getConnector());
+    }
+
+    /**
+     * Tests that permanent databases need their own path.
+     */
+    @Test(expected = RuntimeException.class)
+    public void missingPathTest()
+    {
+        GraphConfig base = createBase();
+        base.setProperty("neo4j.mode", "embedded");
+
+        new GraphConfig(base, "tenant2");
+    }
+}
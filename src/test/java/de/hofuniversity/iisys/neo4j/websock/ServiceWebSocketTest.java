@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests routing sessions to the databases they select.
+ */
+public class ServiceWebSocketTest
+{
+    private static final String TENANT = "tenant1";
+
+    private Map<String, String> fPathParams;
+    private Map<String, List<String>> fRequestParams;
+
+    /**
+     * Registers the default and an additional named database.
+     */
+    @Before
+    public void setup()
+    {
+        GraphConfig config = new GraphConfig(true);
+        config.setProperty("neo4j.databases", TENANT);
+        config.setProperty(GraphConfig.DATABASE_PREFIX + TENANT
+            + ".neo4j.mode", "impermanent");
+        new WebsockContextHandler().initTestContext(config);
+
+        fPathParams = new HashMap<String, String>();
+        fRequestParams = new HashMap<String, List<String>>();
+    }
+
+    /**
+     * Tests that sessions without a selection use the default database.
+     */
+    @Test
+    public void defaultTest()
+    {
+        DatabaseContext database = ServiceWebSocket.selectDatabase(
+            fPathParams, fRequestParams);
+
+        Assert.assertNotNull(database);
+        Assert.assertEquals(WebsockContextHandler.DEFAULT_DATABASE,
+            database.getName());
+    }
+
+    /**
+     * Tests selecting a database through the endpoint path, which takes
+     * precedence over the handshake parameter.
+     */
+    @Test
+    public void pathTest()
+    {
+        fPathParams.put(ServiceWebSocket.DATABASE_PARAM, TENANT);
+        fRequestParams.put(ServiceWebSocket.DATABASE_PARAM,
+            Arrays.asList(WebsockContextHandler.DEFAULT_DATABASE));
+
+        DatabaseContext database = ServiceWebSocket.selectDatabase(
+            fPathParams, fRequestParams);
+
+        Assert.assertNotNull(database);
+        Assert.assertEquals(TENANT, database.getName());
+    }
+
+    /**
+     * Tests selecting a database through the handshake parameter.
+     */
+    @Test
+    public void parameterTest()
+    {
+        fRequestParams.put(ServiceWebSocket.DATABASE_PARAM,
+            Arrays.asList(TENANT));
+
+        DatabaseContext database = ServiceWebSocket.selectDatabase(
+            fPathParams, fRequestParams);
+
+        Assert.assertNotNull(database);
+        Assert.assertEquals(TENANT, database.getName());
+    }
+
+    /**
+     * Tests that unknown databases are rejected instead of falling back to
+     * the default database.
+     */
+    @Test
+    public void unknownTest()
+    {
+        fPathParams.put(ServiceWebSocket.DATABASE_PARAM, "tenant2");
+        Assert.assertNull(ServiceWebSocket.selectDatabase(fPathParams,
+            fRequestParams));
+
+        fPathParams.clear();
+        fRequestParams.put(ServiceWebSocket.DATABASE_PARAM,
+            Arrays.asList("tenant2"));
+        Assert.assertNull(ServiceWebSocket.selectDatabase(fPathParams,
+            fRequestParams));
+    }
+}
@@ -18,6 +18,8 @@
  */
 package de.hofuniversity.iisys.neo4j.websock.calls;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -279,4 +281,84 @@ public class CypherCallEngineTest
         result = engine.call(wsQuery);
         Assert.assertEquals(EQueryType.ERROR, result.getType());
     }
+
+    /**
+     * Tests the execution of a batch of statements in a single transaction,
+     * referencing earlier results.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testBatch()
+    {
+        CypherCallEngine engine = setupService();
+
+        List<Object> statements = new ArrayList<Object>();
+
+        //look up a person
+        Map<String, Object> statement = new HashMap<String, Object>();
+        statement.put(ServerQueries.STATEMENT, "START n=node:" + INDEX_NAME
+            + "(" + ID_FIELD + "={" + ID_PARAM + "}) RETURN n");
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put(ID_PARAM, HORST_ID);
+        statement.put(ServerQueries.STATEMENT_PARAMS, params);
+        statements.add(statement);
+
+        //create an activity for the person found
+        statement = new HashMap<String, Object>();
+        statement.put(ServerQueries.STATEMENT, "START n=node({person}) "
+            + "CREATE n-[:" + Neo4jRelTypes.ACTED.toString() + "]->"
+            + "(a {" + ID_FIELD + ":'8'}) RETURN a." + ID_FIELD);
+        params = new HashMap<String, Object>();
+        params.put("person", "$0.n");
+        statement.put(ServerQueries.STATEMENT_PARAMS, params);
+        statements.add(statement);
+
+        //plain query String
+        statements.add("START n=node:" + INDEX_NAME + "(" + ID_FIELD + "='"
+            + HORST_ID + "') MATCH n-[:" + Neo4jRelTypes.ACTED.toString()
+            + "]->a RETURN count(a) as c");
+
+        WebsockQuery wsQuery = new WebsockQuery(EQueryType.DIRECT_CYPHER);
+        wsQuery.setPayload(statements);
+
+        WebsockQuery response = engine.call(wsQuery);
+        Assert.assertEquals(EQueryType.RESULT, response.getType());
+
+        List<Object> results = (List<Object>) response.getPayload();
+        Assert.assertEquals(3, results.size());
+
+        TableResult result = (TableResult) ResultSetConverter.toResultSet(
+            (Map<String, Object>) results.get(1));
+        Assert.assertEquals("8", result.getResults().get(0).get(0));
+
+        result = (TableResult) ResultSetConverter.toResultSet(
+            (Map<String, Object>) results.get(2));
+        Assert.assertEquals(3L, ((Number) result.getResults().get(0).get(0))
+            .longValue());
+
+        //failing batch is rolled back completely
+        statements = new ArrayList<Object>();
+        statements.add("START n=node:" + INDEX_NAME + "(" + ID_FIELD + "='"
+            + HORST_ID + "') CREATE n-[:" + Neo4jRelTypes.ACTED.toString()
+            + "]->(a {" + ID_FIELD + ":'9'})");
+        statements.add("START n=node:" + INDEX_NAME + "(" + ID_FIELD
+            + "={missing}) RETURN n");
+
+        wsQuery = new WebsockQuery(EQueryType.DIRECT_CYPHER);
+        wsQuery.setPayload(statements);
+
+        response = engine.call(wsQuery);
+        Assert.assertEquals(EQueryType.ERROR, response.getType());
+
+        wsQuery = new WebsockQuery(EQueryType.DIRECT_CYPHER);
+        wsQuery.setPayload("START n=node:" + INDEX_NAME + "(" + ID_FIELD
+            + "='" + HORST_ID + "') MATCH n-[:"
+            + Neo4jRelTypes.ACTED.toString() + "]->a RETURN count(a) as c");
+        response = engine.call(wsQuery);
+
+        result = (TableResult) ResultSetConverter.toResultSet(
+            (Map<String, Object>) response.getPayload());
+        Assert.assertEquals(3L, ((Number) result.getResults().get(0).get(0))
+            .longValue());
+    }
 }
@@ -32,6 +32,7 @@ import org.neo4j.graphdb.index.Index;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
 import de.hofuniversity.iisys.neo4j.websock.neo4j.Neo4jRelTypes;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.util.IndexLookupCache;
 import de.hofuniversity.iisys.neo4j.websock.result.AResultSet;
 import de.hofuniversity.iisys.neo4j.websock.result.TableResult;
 import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
@@ -277,4 +278,37 @@ public class CypherProcedureTest
         }
         Assert.assertTrue(fail);
     }
+
+    /**
+     * Tests that index queries in START clauses are served by the lookup
+     * cache with unchanged results.
+     */
+    @Test
+    public void testCachedIndexQuery()
+    {
+        GraphDatabaseService db = setupService();
+        IndexLookupCache cache = IndexLookupCache.getInstance(db);
+        cache.setMaxEntries(100);
+
+        //build query procedure
+        String query = "START n=node:" + INDEX_NAME + "({" + ID_PARAM
+            + "})\n"
+            + "MATCH n-[:" + Neo4jRelTypes.ACTED.toString() + "]->a\n"
+            + "RETURN a." + ID_FIELD + ";";
+        CypherProcedure procedure = new CypherProcedure(PROC_NAME, db, query);
+        Assert.assertEquals(query, procedure.getQuery());
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(ID_PARAM, ID_FIELD + ":" + JANE_ID);
+
+        //first call reads the index, second one uses the cache
+        AResultSet<?> set = procedure.call(parameters);
+        Assert.assertEquals(2, set.getSize());
+        final long hits = cache.getHits();
+
+        set = procedure.call(parameters);
+        Assert.assertEquals(2, set.getSize());
+        Assert.assertEquals(hits + 1, cache.getHits());
+        Assert.assertEquals(1, cache.size());
+    }
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.calls;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BasicBSONList;
+import org.bson.BasicBSONObject;
+
+import de.hofuniversity.iisys.neo4j.websock.GraphConfig;
+import de.hofuniversity.iisys.neo4j.websock.procedures.NativeTestProcedures;
+import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
+import de.hofuniversity.iisys.neo4j.websock.util.ImplUtil;
+
+/**
+ * Micro benchmark comparing reflective invocation of the native test
+ * procedures with the precompiled invocation of native procedures.
+ * Not run as part of the test suite, start the main method manually.
+ */
+public class NativeProcedureBenchmark
+{
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+    private static final int CALLS = 1000000;
+
+    private static final String TEST_STRING = "test";
+    private static final int TEST_INT = 42;
+
+    //prevents the elimination of unused results
+    private static int fSink = 0;
+
+    /**
+     * Runs the benchmark, printing the average time per call.
+     *
+     * @param args ignored
+     * @throws Exception if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception
+    {
+        final NativeTestProcedures host = new NativeTestProcedures(
+            new GraphConfig(true), null,
+            new ImplUtil(BasicBSONList.class, BasicBSONObject.class));
+        final Map<String, IStoredProcedure> procedures = host.getProcedures();
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(NativeTestProcedures.STRING_PARAM, TEST_STRING);
+        parameters.put(NativeTestProcedures.INTEGER_PARAM, TEST_INT);
+        parameters.put(NativeTestProcedures.LIST_PARAM,
+            new ArrayList<Object>());
+
+        //getConfig
+        List<String> names = new ArrayList<String>();
+        names.add(NativeTestProcedures.MISS_PARAM);
+        run(NativeTestProcedures.GET_CONFIG, host,
+            NativeTestProcedures.class.getMethod(
+                NativeTestProcedures.GET_CONFIG, Object.class),
+            names, procedures, parameters);
+
+        //getDatabase
+        names = new ArrayList<String>();
+        names.add(NativeTestProcedures.STRING_PARAM);
+        names.add(NativeTestProcedures.INTEGER_PARAM);
+        run(NativeTestProcedures.GET_DATABASE, host,
+            NativeTestProcedures.class.getMethod(
+                NativeTestProcedures.GET_DATABASE, String.class,
+                Integer.TYPE),
+            names, procedures, parameters);
+
+        //getImplUtil
+        names = new ArrayList<String>();
+        names.add(NativeTestProcedures.LIST_PARAM);
+        names.add(WebsockConstants.OPTIONS_MAP);
+        run(NativeTestProcedures.GET_IMPL_UTIL, host,
+            NativeTestProcedures.class.getMethod(
+                NativeTestProcedures.GET_IMPL_UTIL, List.class, Map.class),
+            names, procedures, parameters);
+
+        System.out.println("sink: " + fSink);
+    }
+
+    private static void run(final String name, final Object host,
+        final Method method, final List<String> names,
+        final Map<String, IStoredProcedure> procedures,
+        final Map<String, Object> parameters) throws Exception
+    {
+        final IStoredProcedure proc = procedures.get(name);
+
+        for(int i = 0; i < WARMUP_ROUNDS; ++i)
+        {
+            reflective(host, method, names, parameters);
+            precompiled(proc, parameters);
+        }
+
+        long reflTime = 0;
+        long precTime = 0;
+        for(int i = 0; i < ROUNDS; ++i)
+        {
+            reflTime += reflective(host, method, names, parameters);
+            precTime += precompiled(proc, parameters);
+        }
+
+        final long calls = (long) ROUNDS * CALLS;
+        System.out.println(name + ": reflective " + (reflTime / (double) calls)
+            + " ns/call, precompiled " + (precTime / (double) calls)
+            + " ns/call");
+    }
+
+    private static long reflective(final Object host, final Method method,
+        final List<String> names, final Map<String, Object> parameters)
+        throws Exception
+    {
+        final int count = names.size();
+
+        long time = System.nanoTime();
+
+        for(int i = 0; i < CALLS; ++i)
+        {
+            //equivalent of the former reflection based invocation
+            final Object[] args = new Object[count];
+            for(int j = 0; j < count; ++j)
+            {
+                final String name = names.get(j);
+
+                if(!WebsockConstants.OPTIONS_MAP.equals(name))
+                {
+                    args[j] = parameters.get(name);
+                }
+                else
+                {
+                    args[j] = parameters;
+                }
+            }
+
+            fSink += method.invoke(host, args).hashCode();
+        }
+
+        return System.nanoTime() - time;
+    }
+
+    private static long precompiled(final IStoredProcedure proc,
+        final Map<String, Object> parameters)
+    {
+        long time = System.nanoTime();
+
+        for(int i = 0; i < CALLS; ++i)
+        {
+            fSink += proc.call(parameters).hashCode();
+        }
+
+        return System.nanoTime() - time;
+    }
+}
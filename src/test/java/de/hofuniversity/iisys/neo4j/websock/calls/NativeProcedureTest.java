@@ -171,6 +171,51 @@ public class NativeProcedureTest
         Assert.assertTrue(fail);
     }
 
+    /**
+     * Tests the conversion of numbers to primitive parameters and the
+     * handling of mismatching parameter counts.
+     */
+    @Test
+    public void testNumberConversion() throws Exception
+    {
+        NativeTestObject host = new NativeTestObject();
+
+        Method method = host.getClass().getMethod(THREE_PARAM_METHOD,
+            Integer.TYPE, List.class, Map.class);
+        List<String> paramList = new ArrayList<String>();
+        paramList.add(PARAM_1);
+        paramList.add(PARAM_2);
+        paramList.add(PARAM_3);
+        NativeProcedure procedure = new NativeProcedure(THREE_PARAM_METHOD,
+            host, method, paramList);
+
+        //long value as decoded from messages
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(PARAM_1, (long) INT_1);
+
+        procedure.call(parameters);
+        Assert.assertTrue(host.ThreeParamCalled());
+        Assert.assertEquals(INT_1, host.getParam1());
+
+        host.clear();
+
+        //missing parameter names, only failing when called
+        paramList.remove(PARAM_3);
+        procedure = new NativeProcedure(THREE_PARAM_METHOD, host, method,
+            paramList);
+        boolean fail = false;
+        try
+        {
+            procedure.call(parameters);
+        }
+        catch(RuntimeException e)
+        {
+            fail = true;
+        }
+        Assert.assertTrue(fail);
+        Assert.assertFalse(host.ThreeParamCalled());
+    }
+
     public class NativeTestObject
     {
         private boolean fNoParamCalled = false;
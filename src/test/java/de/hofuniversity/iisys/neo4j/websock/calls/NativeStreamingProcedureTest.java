@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.calls;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import de.hofuniversity.iisys.neo4j.websock.result.TableResult;
+import de.hofuniversity.iisys.neo4j.websock.session.WebsockConstants;
+
+/**
+ * Test for native procedures streaming their results row by row.
+ */
+public class NativeStreamingProcedureTest
+{
+    private static final String STREAM_METHOD = "streamRows";
+    private static final String COUNT_PARAM = "count";
+    private static final String COLUMN = "row";
+
+    private GraphDatabaseService fDb;
+
+    private int fRead;
+
+    @Before
+    public void startDatabase()
+    {
+        TestGraphDatabaseFactory fact = new TestGraphDatabaseFactory();
+        fDb = fact.newImpermanentDatabase();
+        fRead = 0;
+    }
+
+    @After
+    public void stopDatabase()
+    {
+        fDb.shutdown();
+    }
+
+    /**
+     * Tests that only the requested subset of rows is read.
+     */
+    @Test
+    public void testSubset() throws Exception
+    {
+        Method method = getClass().getMethod(STREAM_METHOD, Integer.TYPE);
+        List<String> paramNames = new ArrayList<String>();
+        paramNames.add(COUNT_PARAM);
+
+        NativeStreamingProcedure proc = new NativeStreamingProcedure(
+            STREAM_METHOD, this, method, paramNames);
+
+        //subset, reading stops early
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put(COUNT_PARAM, 100);
+        params.put(WebsockConstants.SUBSET_START, 10);
+        params.put(WebsockConstants.SUBSET_SIZE, 5);
+
+        TableResult table = (TableResult) proc.call(params);
+        Assert.assertEquals(5, table.getResults().size());
+        Assert.assertEquals(10, table.getResults().get(0).get(0));
+        Assert.assertEquals(-1, table.getTotal());
+        Assert.assertEquals(15, fRead);
+
+        //complete result
+        fRead = 0;
+        params.remove(WebsockConstants.SUBSET_START);
+        params.remove(WebsockConstants.SUBSET_SIZE);
+
+        table = (TableResult) proc.call(params);
+        Assert.assertEquals(100, table.getResults().size());
+        Assert.assertEquals(100, table.getTotal());
+        Assert.assertEquals(100, fRead);
+
+        //streaming directly
+        fRead = 0;
+        IRowIterator rows = proc.stream(params);
+        Assert.assertEquals(COLUMN, rows.getColumns().get(0));
+        Assert.assertEquals(0, rows.next().get(0));
+        rows.close();
+        rows.close();
+        Assert.assertEquals(1, fRead);
+    }
+
+    /**
+     * Tests that methods not returning row iterators are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMethod() throws Exception
+    {
+        Method method = getClass().getMethod("stopDatabase");
+        new NativeStreamingProcedure("invalid", this, method, null);
+    }
+
+    /**
+     * @param count number of rows to generate
+     * @return lazy iterator over the given number of rows
+     */
+    public IRowIterator streamRows(final int count)
+    {
+        List<String> columns = new ArrayList<String>();
+        columns.add(COLUMN);
+
+        Iterator<List<Object>> rows = new Iterator<List<Object>>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return fRead < count;
+            }
+
+            @Override
+            public List<Object> next()
+            {
+                List<Object> row = new ArrayList<Object>();
+                row.add(fRead++);
+                return row;
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        return new TransactionalRowIterator(fDb, columns, rows);
+    }
+}
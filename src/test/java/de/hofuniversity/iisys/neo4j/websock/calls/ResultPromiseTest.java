@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.calls;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.hofuniversity.iisys.neo4j.websock.result.AResultSet;
+import de.hofuniversity.iisys.neo4j.websock.result.SingleResult;
+
+/**
+ * Test for result promises and the asynchronous procedure pool.
+ */
+public class ResultPromiseTest
+{
+    /**
+     * Tests completion, callbacks and waiting.
+     */
+    @Test
+    public void testCompletion() throws Exception
+    {
+        final List<Object> notified = new ArrayList<Object>();
+        final IResultCallback callback = new IResultCallback()
+        {
+            @Override
+            public void onResult(AResultSet<?> result)
+            {
+                notified.add(result);
+            }
+
+            @Override
+            public void onError(Throwable error)
+            {
+                notified.add(error);
+            }
+        };
+
+        //callback registered before completion
+        ResultPromise promise = new ResultPromise();
+        promise.addCallback(callback);
+        Assert.assertFalse(promise.isDone());
+
+        try
+        {
+            promise.get(10, TimeUnit.MILLISECONDS);
+            Assert.fail("no timeout");
+        }
+        catch(TimeoutException e)
+        {
+            //expected
+        }
+
+        SingleResult result = new SingleResult(new HashMap<String, Object>());
+        Assert.assertTrue(promise.complete(result));
+        Assert.assertFalse(promise.complete(null));
+        Assert.assertTrue(promise.isDone());
+        Assert.assertSame(result, promise.get());
+        Assert.assertEquals(1, notified.size());
+        Assert.assertSame(result, notified.get(0));
+
+        //callback registered after completion
+        promise.addCallback(callback);
+        Assert.assertEquals(2, notified.size());
+
+        //failure
+        notified.clear();
+        promise = new ResultPromise();
+        promise.addCallback(callback);
+        IllegalStateException error = new IllegalStateException();
+        promise.fail(error);
+        Assert.assertSame(error, notified.get(0));
+
+        try
+        {
+            promise.get();
+            Assert.fail("no exception");
+        }
+        catch(ExecutionException e)
+        {
+            Assert.assertSame(error, e.getCause());
+        }
+
+        //cancellation
+        promise = new ResultPromise();
+        Assert.assertTrue(promise.cancel(false));
+        Assert.assertTrue(promise.isCancelled());
+        Assert.assertFalse(promise.complete(null));
+
+        try
+        {
+            promise.get();
+            Assert.fail("no exception");
+        }
+        catch(CancellationException e)
+        {
+            //expected
+        }
+    }
+
+    /**
+     * Tests that the pool completes promises on its own threads.
+     */
+    @Test
+    public void testPool() throws Exception
+    {
+        final AsyncProcedurePool pool = new AsyncProcedurePool(2);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Thread caller = Thread.currentThread();
+
+        ResultPromise promise = pool.submit(new Callable<AResultSet<?>>()
+        {
+            @Override
+            public AResultSet<?> call() throws Exception
+            {
+                latch.await();
+
+                Map<String, Object> map = new HashMap<String, Object>();
+                map.put("thread", Thread.currentThread() != caller);
+                return new SingleResult(map);
+            }
+        });
+
+        //caller is not blocked
+        Assert.assertFalse(promise.isDone());
+        latch.countDown();
+
+        SingleResult result = (SingleResult) promise.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(true, result.getResults().get("thread"));
+
+        //errors are passed on
+        promise = pool.submit(new Callable<AResultSet<?>>()
+        {
+            @Override
+            public AResultSet<?> call() throws Exception
+            {
+                throw new IllegalArgumentException();
+            }
+        });
+
+        try
+        {
+            promise.get(5, TimeUnit.SECONDS);
+            Assert.fail("no exception");
+        }
+        catch(ExecutionException e)
+        {
+            Assert.assertTrue(
+                e.getCause() instanceof IllegalArgumentException);
+        }
+
+        pool.setThreads(4);
+        pool.setThreads(1);
+    }
+}
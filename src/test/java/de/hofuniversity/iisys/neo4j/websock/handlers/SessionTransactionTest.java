@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.handlers;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+/**
+ * Test for client-controlled transactions running on their own thread.
+ */
+public class SessionTransactionTest
+{
+    private GraphDatabaseService fDb;
+
+    /**
+     * Sets up an impermanent database.
+     */
+    @Before
+    public void setupService()
+    {
+        TestGraphDatabaseFactory fact = new TestGraphDatabaseFactory();
+        fDb = fact.newImpermanentDatabase();
+
+        Runtime.getRuntime().addShutdownHook(new Thread()
+        {
+            @Override
+            public void run()
+            {
+                if(fDb != null)
+                {
+                    fDb.shutdown();
+                }
+            }
+        });
+    }
+
+    @After
+    public void stopDatabase()
+    {
+        fDb.shutdown();
+    }
+
+    private Long createNode(SessionTransaction tx)
+    {
+        return tx.execute(new Callable<Long>()
+        {
+            @Override
+            public Long call() throws Exception
+            {
+                Node node = fDb.createNode();
+                node.setProperty("name", "test");
+                return node.getId();
+            }
+        });
+    }
+
+    private boolean exists(long id)
+    {
+        try
+        {
+            fDb.getNodeById(id);
+            return true;
+        }
+        catch(Exception e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Tests committing changes made across several calls.
+     */
+    @Test
+    public void commitTest()
+    {
+        SessionTransaction tx = new SessionTransaction(fDb, 0);
+        Long id1 = createNode(tx);
+        Long id2 = createNode(tx);
+
+        tx.commit();
+
+        Assert.assertTrue(exists(id1));
+        Assert.assertTrue(exists(id2));
+
+        //no further use after finishing
+        try
+        {
+            createNode(tx);
+            Assert.fail();
+        }
+        catch(IllegalStateException e)
+        {
+            //expected
+        }
+    }
+
+    /**
+     * Tests rolling back changes made across several calls.
+     */
+    @Test
+    public void rollbackTest()
+    {
+        SessionTransaction tx = new SessionTransaction(fDb, 0);
+        Long id = createNode(tx);
+
+        tx.rollback();
+
+        Assert.assertFalse(exists(id));
+
+        //rolling back twice has no effect
+        tx.rollback();
+    }
+
+    /**
+     * Tests the automatic rollback of idle transactions.
+     */
+    @Test
+    public void timeoutTest() throws Exception
+    {
+        SessionTransaction tx = new SessionTransaction(fDb, 50);
+        Long id = createNode(tx);
+
+        Thread.sleep(500);
+
+        Assert.assertTrue(tx.isTimedOut());
+        Assert.assertFalse(exists(id));
+
+        try
+        {
+            tx.commit();
+            Assert.fail();
+        }
+        catch(IllegalStateException e)
+        {
+            //expected
+        }
+    }
+
+    /**
+     * Tests that the timeout handler is notified after the rollback.
+     */
+    @Test
+    public void timeoutHandlerTest() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final SessionTransaction tx = new SessionTransaction(fDb, 50,
+            new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+            }
+        });
+        Long id = createNode(tx);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(tx.isTimedOut());
+
+        //rollback is done on the transaction's thread after notification
+        Thread.sleep(100);
+        Assert.assertFalse(exists(id));
+
+        //rolling back afterwards has no effect
+        tx.rollback();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.handlers;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.hofuniversity.iisys.neo4j.websock.GraphConfig;
+import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+
+/**
+ * Test for the slow query log.
+ */
+public class SlowQueryLogTest
+{
+    /**
+     * Tests the threshold and the written entries.
+     */
+    @Test
+    public void logTest() throws Exception
+    {
+        File file = File.createTempFile("slowlog", ".log");
+        file.deleteOnExit();
+
+        GraphConfig config = new GraphConfig(true);
+        config.setProperty(SlowQueryLog.FILE_PROP, file.getAbsolutePath());
+        config.setProperty(SlowQueryLog.FILE_COUNT_PROP, "1");
+        config.setProperty(SlowQueryLog.THRESHOLD_PROP, "10");
+
+        SlowQueryLog log = new SlowQueryLog(config);
+        Assert.assertTrue(log.isEnabled());
+
+        //threshold in milliseconds, times in nanoseconds
+        Assert.assertFalse(log.shouldLog(1000000L));
+        Assert.assertTrue(log.shouldLog(20000000L));
+
+        WebsockQuery query = new WebsockQuery(EQueryType.DIRECT_CYPHER);
+        query.setPayload("START n=node:persons(id='john')\nMATCH n-->m "
+            + "WHERE m.age > 42 RETURN m");
+        query.setParameter("secret", "value");
+
+        log.log(query, null, 0, 0, 20000000L, 3000000L, 0, null);
+
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String line = reader.readLine();
+        reader.close();
+
+        Assert.assertNotNull(line);
+        Assert.assertTrue(line.contains("START n=node:persons(id=?) "
+            + "MATCH n-->m WHERE m.age > ? RETURN m"));
+        Assert.assertTrue(line.contains("secret:String"));
+        Assert.assertTrue(line.contains(" convert="));
+        Assert.assertFalse(line.contains("value"));
+        Assert.assertFalse(line.contains("john"));
+    }
+
+    /**
+     * Tests that the log is disabled without a file.
+     */
+    @Test
+    public void disabledTest()
+    {
+        SlowQueryLog log = new SlowQueryLog(new GraphConfig(true));
+        Assert.assertFalse(log.isEnabled());
+        Assert.assertFalse(log.shouldLog(Long.MAX_VALUE));
+    }
+}
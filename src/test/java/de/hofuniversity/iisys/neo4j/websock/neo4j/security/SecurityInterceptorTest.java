@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.security;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
+import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
+
+/**
+ * Tests authorizing authenticated users for a database.
+ */
+public class SecurityInterceptorTest
+{
+    //accepts the user name given as payload
+    private final IAuthHandler fAuthHandler = new IAuthHandler()
+    {
+        @Override
+        public String handleAuthentication(WebsockQuery query)
+        {
+            return (String) query.getPayload();
+        }
+
+        @Override
+        public WebsockQuery getChallenge()
+        {
+            return null;
+        }
+    };
+
+    private String authenticate(SecurityInterceptor interceptor, String user)
+    {
+        WebsockQuery query = new WebsockQuery(1, EQueryType.AUTHENTICATION);
+        query.setPayload(user);
+
+        //no transfer utility, responses are not checked
+        return interceptor.handle(query, null);
+    }
+
+    /**
+     * Tests that only the configured users are authorized.
+     */
+    @Test
+    public void authorizationTest()
+    {
+        SecurityInterceptor interceptor = new SecurityInterceptor(
+            fAuthHandler, new HashSet<String>(Arrays.asList("alice")));
+
+        Assert.assertEquals("alice", authenticate(interceptor, "alice"));
+        Assert.assertNull(authenticate(interceptor, "mallory"));
+
+        //unrestricted
+        interceptor = new SecurityInterceptor(fAuthHandler);
+        Assert.assertEquals("mallory", authenticate(interceptor, "mallory"));
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.shindig.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import de.hofuniversity.iisys.neo4j.websock.neo4j.Neo4jRelTypes;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.service.GraphImporter;
+import de.hofuniversity.iisys.neo4j.websock.neo4j.service.IndexManager;
+import de.hofuniversity.iisys.neo4j.websock.service.Neo4jServiceQueries;
+
+/**
+ * Tests the streaming graph import.
+ */
+public class GraphImporterTest
+{
+    private static final String INDEX_NAME = "persons";
+    private static final String INDEX_KEY = "id";
+
+    private GraphDatabaseService fDb;
+    private GraphImporter fImporter;
+
+    /**
+     * Sets up an impermanent test database.
+     */
+    @Before
+    public void setupDb()
+    {
+        TestGraphDatabaseFactory fact = new TestGraphDatabaseFactory();
+        fDb = fact.newImpermanentDatabase();
+
+        fImporter = new GraphImporter(fDb, 3);
+    }
+
+    /**
+     * Shuts down the impermanent test database.
+     */
+    @After
+    public void shutdownDb()
+    {
+        fDb.shutdown();
+    }
+
+    private Map<String, Object> node(String id)
+    {
+        final Map<String, Object> props = new HashMap<String, Object>();
+        props.put("name", id);
+
+        final Map<String, Object> entry = new HashMap<String, Object>();
+        entry.put(Neo4jServiceQueries.INDEX, INDEX_NAME);
+        entry.put(Neo4jServiceQueries.KEY, INDEX_KEY);
+        entry.put(Neo4jServiceQueries.VALUE, id);
+        final List<Object> entries = new ArrayList<Object>();
+        entries.add(entry);
+
+        final Map<String, Object> node = new HashMap<String, Object>();
+        node.put(GraphImporter.ID_FIELD, id);
+        node.put(GraphImporter.PROPERTIES_FIELD, props);
+        node.put(GraphImporter.INDEX_FIELD, entries);
+        return node;
+    }
+
+    private Map<String, Object> rel(String from, String to, String type)
+    {
+        final Map<String, Object> rel = new HashMap<String, Object>();
+        rel.put(GraphImporter.FROM_FIELD, from);
+        rel.put(GraphImporter.TO_FIELD, to);
+        rel.put(GraphImporter.TYPE_FIELD, type);
+        return rel;
+    }
+
+    /**
+     * Imports nodes and relationships in several calls, referencing nodes
+     * from earlier calls.
+     */
+    @Test
+    public void importTest()
+    {
+        final String id = (String) fImporter.beginImport().getResults().get(
+            GraphImporter.ID_FIELD);
+
+        //first call stays below the batch size
+        List<Object> nodes = new ArrayList<Object>();
+        nodes.add(node("john"));
+        nodes.add(node("jane"));
+
+        Map<String, ?> summary = fImporter.importRecords(id, nodes, null)
+            .getResults();
+        Assert.assertEquals(0, summary.get(GraphImporter.NODES_FIELD));
+        Assert.assertEquals(2, summary.get(GraphImporter.PENDING_FIELD));
+
+        //second call completes a batch, including an unknown node reference
+        nodes = new ArrayList<Object>();
+        nodes.add(node("jack"));
+
+        List<Object> rels = new ArrayList<Object>();
+        rels.add(rel("john", "jane", Neo4jRelTypes.FRIEND_OF.name()));
+        rels.add(rel("jane", "jack", "WORKS_WITH"));
+        rels.add(rel("john", "nobody", Neo4jRelTypes.KNOWS.name()));
+
+        summary = fImporter.importRecords(id, nodes, rels).getResults();
+        Assert.assertEquals(3, summary.get(GraphImporter.NODES_FIELD));
+        Assert.assertEquals(2, summary.get(GraphImporter.RELATIONSHIPS_FIELD));
+        Assert.assertEquals(3, summary.get(GraphImporter.INDEX_ENTRIES_FIELD));
+        Assert.assertEquals(1, summary.get(IndexManager.FAILED_FIELD));
+        Assert.assertEquals(2, summary.get(IndexManager.BATCHES_FIELD));
+
+        //remaining records are committed when finishing
+        rels = new ArrayList<Object>();
+        rels.add(rel("jack", "john", Neo4jRelTypes.KNOWS.name()));
+        fImporter.importRecords(id, null, rels);
+
+        summary = fImporter.finishImport(id).getResults();
+        Assert.assertEquals(3, summary.get(GraphImporter.RELATIONSHIPS_FIELD));
+        Assert.assertEquals(0, summary.get(GraphImporter.PENDING_FIELD));
+
+        //check the graph
+        final Node john = fDb.index().forNodes(INDEX_NAME).get(INDEX_KEY,
+            "john").getSingle();
+        Assert.assertEquals("john", john.getProperty("name"));
+
+        final Relationship friend = john.getSingleRelationship(
+            Neo4jRelTypes.FRIEND_OF, Direction.OUTGOING);
+        Assert.assertEquals("jane", friend.getEndNode().getProperty("name"));
+
+        final Relationship known = john.getSingleRelationship(
+            Neo4jRelTypes.KNOWS, Direction.INCOMING);
+        Assert.assertEquals("jack", known.getStartNode().getProperty("name"));
+
+        //import is no longer available
+        boolean fail = false;
+        try
+        {
+            fImporter.importRecords(id, null, null);
+        }
+        catch(IllegalArgumentException e)
+        {
+            fail = true;
+        }
+        Assert.assertTrue(fail);
+    }
+
+    /**
+     * Checks that invalid properties don't leave half-built nodes and that a
+     * rolled back batch drops its ID mappings and counts all lost records.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void rollbackTest()
+    {
+        //fail commits containing a node named "fail"
+        fDb.registerTransactionEventHandler(
+            new TransactionEventHandler.Adapter<Object>()
+            {
+                @Override
+                public Object beforeCommit(TransactionData data)
+                    throws Exception
+                {
+                    for(Node node : data.createdNodes())
+                    {
+                        if("fail".equals(node.getProperty("name", null)))
+                        {
+                            throw new IllegalStateException("rejected");
+                        }
+                    }
+                    return null;
+                }
+            });
+
+        String id = (String) fImporter.beginImport().getResults().get(
+            GraphImporter.ID_FIELD);
+
+        //invalid property value is rejected without creating a node
+        final Map<String, Object> invalid = node("invalid");
+        ((Map<String, Object>) invalid.get(GraphImporter.PROPERTIES_FIELD))
+            .put("value", new Object());
+
+        List<Object> nodes = new ArrayList<Object>();
+        nodes.add(node("john"));
+        nodes.add(invalid);
+        fImporter.importRecords(id, nodes, null);
+
+        Map<String, ?> summary = fImporter.finishImport(id).getResults();
+        Assert.assertEquals(1, summary.get(GraphImporter.NODES_FIELD));
+        Assert.assertEquals(1, summary.get(IndexManager.FAILED_FIELD));
+        Assert.assertNull(fDb.index().forNodes(INDEX_NAME).get(INDEX_KEY,
+            "invalid").getSingle());
+
+        //first batch fails on commit, second one is never attempted
+        id = (String) fImporter.beginImport().getResults().get(
+            GraphImporter.ID_FIELD);
+
+        nodes = new ArrayList<Object>();
+        nodes.add(node("jane"));
+        nodes.add(node("jack"));
+        nodes.add(node("fail"));
+        nodes.add(node("jim"));
+
+        boolean fail = false;
+        try
+        {
+            fImporter.importRecords(id, nodes, null);
+        }
+        catch(RuntimeException e)
+        {
+            fail = true;
+        }
+        Assert.assertTrue(fail);
+
+        //mappings of the lost batch are gone
+        final List<Object> rels = new ArrayList<Object>();
+        rels.add(rel("jane", "jack", Neo4jRelTypes.KNOWS.name()));
+        fImporter.importRecords(id, null, rels);
+
+        summary = fImporter.finishImport(id).getResults();
+        Assert.assertEquals(0, summary.get(GraphImporter.NODES_FIELD));
+        Assert.assertEquals(0, summary.get(GraphImporter.RELATIONSHIPS_FIELD));
+        Assert.assertEquals(0, summary.get(GraphImporter.INDEX_ENTRIES_FIELD));
+        Assert.assertEquals(5, summary.get(IndexManager.FAILED_FIELD));
+        Assert.assertNull(fDb.index().forNodes(INDEX_NAME).get(INDEX_KEY,
+            "jane").getSingle());
+    }
+}
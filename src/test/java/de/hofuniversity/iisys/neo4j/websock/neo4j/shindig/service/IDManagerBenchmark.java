@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.shindig.service;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import de.hofuniversity.iisys.neo4j.websock.neo4j.service.IDManager;
+
+/**
+ * Multi-threaded benchmark comparing the generation of IDs one at a time
+ * with the reservation of ID blocks, using a persistent database so
+ * transaction logs are forced as in production.
+ * Not run as part of the test suite, start the main method manually.
+ */
+public class IDManagerBenchmark
+{
+    private static final String TYPE = "benchmark";
+
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 2000;
+
+    private static final int[] BLOCK_SIZES = {1, 10, 100, 1000};
+
+    /**
+     * Runs the benchmark, printing the IDs generated per second for each
+     * block size.
+     *
+     * @param args ignored
+     * @throws Exception if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception
+    {
+        final File dir = Files.createTempDirectory("idbench").toFile();
+        final GraphDatabaseService db = new GraphDatabaseFactory()
+            .newEmbeddedDatabase(dir.getAbsolutePath());
+
+        try
+        {
+            for(int blockSize : BLOCK_SIZES)
+            {
+                final IDManager manager = new IDManager(db, blockSize);
+
+                //warm up
+                run(manager, IDS_PER_THREAD / 10);
+
+                final long time = run(manager, IDS_PER_THREAD);
+                final long ids = (long) THREADS * IDS_PER_THREAD;
+                System.out.println("block size " + blockSize + ": "
+                    + (long) (ids / (time / 1000000000.0)) + " IDs/s");
+            }
+        }
+        finally
+        {
+            db.shutdown();
+            delete(dir);
+        }
+    }
+
+    private static long run(final IDManager manager, final int count)
+        throws Exception
+    {
+        final List<Thread> workers = new ArrayList<Thread>();
+        for(int i = 0; i < THREADS; ++i)
+        {
+            workers.add(new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for(int j = 0; j < count; ++j)
+                    {
+                        manager.genID(TYPE);
+                    }
+                }
+            });
+        }
+
+        final long start = System.nanoTime();
+        for(Thread worker : workers)
+        {
+            worker.start();
+        }
+        for(Thread worker : workers)
+        {
+            worker.join();
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private static void delete(final File file)
+    {
+        final File[] children = file.listFiles();
+        if(children != null)
+        {
+            for(File child : children)
+            {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+}
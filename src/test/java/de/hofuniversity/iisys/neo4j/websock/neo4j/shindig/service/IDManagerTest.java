@@ -18,12 +18,20 @@
  */
 package de.hofuniversity.iisys.neo4j.websock.neo4j.shindig.service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.junit.Assert;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
 import de.hofuniversity.iisys.neo4j.websock.neo4j.service.IDManager;
@@ -131,4 +139,129 @@ public class IDManagerTest
             Assert.assertEquals(TYPE2 + ':' + Integer.toString(i), id);
         }
     }
+
+    /**
+     * Tests the reservation of ID blocks, skipping unused IDs of a block
+     * after a restart.
+     */
+    @Test
+    public void blockTest()
+    {
+        IDManager manager = new IDManager(fDb, 10);
+        String id = null;
+
+        for(int i = 0; i < 45; ++i)
+        {
+            id = manager.genID(TYPE1);
+            Assert.assertEquals(TYPE1 + ':' + Integer.toString(i), id);
+        }
+
+        //new manager continues after the last reserved block
+        manager = new IDManager(fDb, 10);
+        for(int i = 50; i < 60; ++i)
+        {
+            id = manager.genID(TYPE1);
+            Assert.assertEquals(TYPE1 + ':' + Integer.toString(i), id);
+        }
+
+        //switching to single IDs
+        manager = new IDManager(fDb);
+        Assert.assertEquals(TYPE1 + ":60", manager.genID(TYPE1));
+    }
+
+    /**
+     * Tests that reserved blocks stay reserved if the calling transaction is
+     * rolled back.
+     */
+    @Test
+    public void rollbackTest()
+    {
+        IDManager manager = new IDManager(fDb, 10);
+
+        final Transaction tx = fDb.beginTx();
+        try
+        {
+            Assert.assertEquals(TYPE1 + ":0", manager.genID(TYPE1));
+            fDb.createNode();
+        }
+        finally
+        {
+            tx.failure();
+            tx.finish();
+        }
+
+        //the block was committed on its own, IDs are not reissued
+        Assert.assertEquals(TYPE1 + ":1", manager.genID(TYPE1));
+        manager = new IDManager(fDb, 10);
+        Assert.assertEquals(TYPE1 + ":10", manager.genID(TYPE1));
+    }
+
+    /**
+     * Tests reserving ranges of IDs alongside single IDs.
+     */
+    @Test
+    public void rangeTest()
+    {
+        final IDManager manager = new IDManager(fDb, 10);
+
+        Assert.assertEquals(TYPE1 + ":0", manager.genID(TYPE1));
+
+        //range starts after the current block
+        Assert.assertEquals(10, manager.reserveIDs(TYPE1, 1000));
+        Assert.assertEquals(1010, manager.reserveIDs(TYPE1, 5));
+
+        //current block continues, next block after the ranges
+        for(int i = 1; i < 10; ++i)
+        {
+            Assert.assertEquals(TYPE1 + ':' + Integer.toString(i),
+                manager.genID(TYPE1));
+        }
+        Assert.assertEquals(TYPE1 + ":1015", manager.genID(TYPE1));
+
+        //procedure result
+        Map<String, ?> range = manager.requestIds(TYPE2, 100).getResults();
+        Assert.assertEquals(TYPE2 + ':', range.get(IDManager.PREFIX_FIELD));
+        Assert.assertEquals(0L, range.get(IDManager.START_FIELD));
+        Assert.assertEquals(100, range.get(IDManager.COUNT_FIELD));
+        Assert.assertEquals(TYPE2 + ":100", manager.genID(TYPE2));
+    }
+
+    /**
+     * Tests that concurrently generated IDs are unique.
+     */
+    @Test
+    public void concurrencyTest() throws Exception
+    {
+        final IDManager manager = new IDManager(fDb, 16);
+        final Set<String> ids = Collections.newSetFromMap(
+            new ConcurrentHashMap<String, Boolean>());
+        final int threads = 8;
+        final int perThread = 500;
+
+        final List<Thread> workers = new ArrayList<Thread>();
+        for(int i = 0; i < threads; ++i)
+        {
+            workers.add(new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for(int j = 0; j < perThread; ++j)
+                    {
+                        ids.add(manager.genID(TYPE1));
+                    }
+                }
+            });
+        }
+        for(Thread worker : workers)
+        {
+            worker.start();
+        }
+        for(Thread worker : workers)
+        {
+            worker.join();
+        }
+
+        Assert.assertEquals(threads * perThread, ids.size());
+    }
 }
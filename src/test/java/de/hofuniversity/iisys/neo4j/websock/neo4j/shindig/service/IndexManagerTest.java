@@ -18,6 +18,11 @@
  */
 package de.hofuniversity.iisys.neo4j.websock.neo4j.shindig.service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -30,6 +35,8 @@ import org.neo4j.graphdb.index.IndexHits;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
 import de.hofuniversity.iisys.neo4j.websock.neo4j.service.IndexManager;
+import de.hofuniversity.iisys.neo4j.websock.result.SingleResult;
+import de.hofuniversity.iisys.neo4j.websock.service.Neo4jServiceQueries;
 
 /**
  * Tests the server's index management functionality.
@@ -190,4 +197,111 @@ public class IndexManagerTest
         }
         Assert.assertTrue(fail);
     }
+
+    private Map<String, Object> entry(Long nodeId, String key, String value)
+    {
+        final Map<String, Object> entry = new HashMap<String, Object>();
+        entry.put(Neo4jServiceQueries.NODE_ID, nodeId);
+        entry.put(Neo4jServiceQueries.KEY, key);
+        entry.put(Neo4jServiceQueries.VALUE, value);
+        return entry;
+    }
+
+    /**
+     * Tests the creation and deletion of entries in batches.
+     */
+    @Test
+    public void bulkTest()
+    {
+        final IndexManager indexMan = new IndexManager(fDb, 2);
+
+        //three valid entries and one for a missing node
+        List<Object> entries = new ArrayList<Object>();
+        entries.add(entry(fNode1.getId(), INDEX_3_KEY, NODE_1_VALUE));
+        entries.add(entry(fNode2.getId(), INDEX_3_KEY, NODE_2_VALUE));
+        entries.add(entry(Long.MAX_VALUE, INDEX_3_KEY, NODE_3_VALUE));
+        entries.add(entry(fNode4.getId(), INDEX_3_KEY, NODE_4_VALUE));
+
+        Map<String, ?> summary = indexMan.createIndexEntries(INDEX_3_NAME,
+            entries).getResults();
+        Assert.assertEquals(3, summary.get(IndexManager.PROCESSED_FIELD));
+        Assert.assertEquals(1, summary.get(IndexManager.FAILED_FIELD));
+        Assert.assertEquals(2, summary.get(IndexManager.BATCHES_FIELD));
+        Assert.assertEquals(1,
+            ((List<?>) summary.get(IndexManager.ERRORS_FIELD)).size());
+
+        Index<Node> index3 = fDb.index().forNodes(INDEX_3_NAME);
+        Assert.assertEquals(fNode1,
+            index3.get(INDEX_3_KEY, NODE_1_VALUE).getSingle());
+        Assert.assertEquals(fNode2,
+            index3.get(INDEX_3_KEY, NODE_2_VALUE).getSingle());
+        Assert.assertEquals(fNode4,
+            index3.get(INDEX_3_KEY, NODE_4_VALUE).getSingle());
+
+        //delete by node and by key-value combination
+        entries = new ArrayList<Object>();
+        entries.add(entry(fNode1.getId(), INDEX_3_KEY, NODE_1_VALUE));
+        entries.add(entry(null, INDEX_3_KEY, NODE_2_VALUE));
+
+        summary = indexMan.deleteIndexEntries(INDEX_3_NAME, entries)
+            .getResults();
+        Assert.assertEquals(2, summary.get(IndexManager.PROCESSED_FIELD));
+        Assert.assertEquals(0, summary.get(IndexManager.FAILED_FIELD));
+        Assert.assertEquals(1, summary.get(IndexManager.BATCHES_FIELD));
+
+        Assert.assertNull(index3.get(INDEX_3_KEY, NODE_1_VALUE).getSingle());
+        Assert.assertNull(index3.get(INDEX_3_KEY, NODE_2_VALUE).getSingle());
+        Assert.assertEquals(fNode4,
+            index3.get(INDEX_3_KEY, NODE_4_VALUE).getSingle());
+    }
+
+    /**
+     * Tests a bulk operation spanning several calls.
+     */
+    @Test
+    public void streamingBulkTest()
+    {
+        final IndexManager indexMan = new IndexManager(fDb, 2);
+
+        final String bulk = (String) indexMan.beginBulkIndex(INDEX_3_NAME,
+            false).getResults().get(IndexManager.BULK_FIELD);
+        Assert.assertNotNull(bulk);
+
+        //an incomplete batch is kept until the next call
+        List<Object> entries = new ArrayList<Object>();
+        entries.add(entry(fNode1.getId(), INDEX_3_KEY, NODE_1_VALUE));
+
+        Map<String, ?> summary = indexMan.addBulkIndexEntries(bulk, entries)
+            .getResults();
+        Assert.assertEquals(0, summary.get(IndexManager.PROCESSED_FIELD));
+
+        entries = new ArrayList<Object>();
+        entries.add(entry(fNode2.getId(), INDEX_3_KEY, NODE_2_VALUE));
+        entries.add(entry(fNode3.getId(), INDEX_3_KEY, NODE_3_VALUE));
+
+        summary = indexMan.addBulkIndexEntries(bulk, entries).getResults();
+        Assert.assertEquals(2, summary.get(IndexManager.PROCESSED_FIELD));
+        Assert.assertEquals(1, summary.get(IndexManager.BATCHES_FIELD));
+
+        //the rest is committed when finishing
+        summary = indexMan.finishBulkIndex(bulk).getResults();
+        Assert.assertEquals(3, summary.get(IndexManager.PROCESSED_FIELD));
+        Assert.assertEquals(2, summary.get(IndexManager.BATCHES_FIELD));
+
+        Index<Node> index3 = fDb.index().forNodes(INDEX_3_NAME);
+        Assert.assertEquals(fNode3,
+            index3.get(INDEX_3_KEY, NODE_3_VALUE).getSingle());
+
+        //operation is no longer available
+        boolean fail = false;
+        try
+        {
+            indexMan.finishBulkIndex(bulk);
+        }
+        catch(IllegalArgumentException e)
+        {
+            fail = true;
+        }
+        Assert.assertTrue(fail);
+    }
 }
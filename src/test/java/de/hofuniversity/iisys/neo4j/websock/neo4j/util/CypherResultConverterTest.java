@@ -18,9 +18,11 @@
  */
 package de.hofuniversity.iisys.neo4j.websock.neo4j.util;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -34,6 +36,7 @@ import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.index.Index;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
+import de.hofuniversity.iisys.neo4j.websock.calls.ServerQueries;
 import de.hofuniversity.iisys.neo4j.websock.neo4j.Neo4jRelTypes;
 import de.hofuniversity.iisys.neo4j.websock.result.TableResult;
 
@@ -312,4 +315,71 @@ public class CypherResultConverterTest
         Assert.assertEquals(0, table.getTotal());
         Assert.assertEquals(0, table.getColumnIndex("n"));
     }
+
+    /**
+     * Tests the restriction of converted nodes to the requested properties.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void projectionTest()
+    {
+        ExecutionEngine engine = getEngine(true);
+
+        String query = "START n=node:" + INDEX_NAME + "(" + ID_FIELD + "={"
+            + ID_PARAM + "})\n"
+            + "MATCH n-[:" + Neo4jRelTypes.ACTED + "]->a\n"
+            + "RETURN n, a\n"
+            + "ORDER BY a." + ID_FIELD + ";";
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(ID_PARAM, JOHN_ID);
+
+        //only the title for activities, arrays by wildcard for the rest
+        List<String> actFields = new ArrayList<String>();
+        actFields.add(TITLE_FIELD);
+        List<String> otherFields = new ArrayList<String>();
+        otherFields.add(ID_FIELD);
+        otherFields.add("*Arr");
+
+        Map<String, Object> fieldParam = new HashMap<String, Object>();
+        fieldParam.put("a", actFields);
+        fieldParam.put(ServerQueries.ALL_COLUMNS, otherFields);
+
+        Map<String, Set<String>> projection =
+            CypherResultConverter.getProjection(fieldParam);
+
+        ExecutionResult result = engine.execute(query, parameters);
+        TableResult table = CypherResultConverter.toTableResult(result, 0, 0,
+            projection);
+        Assert.assertEquals(4, table.getSize());
+
+        List<List<Object>> results = table.getResults();
+
+        Map<String, Object> personMap =
+            (Map<String, Object>) results.get(0).get(0);
+        Assert.assertEquals(1, personMap.size());
+        Assert.assertEquals(JOHN_ID, personMap.get(ID_FIELD));
+
+        Map<String, Object> actMap =
+            (Map<String, Object>) results.get(0).get(1);
+        Assert.assertEquals(1, actMap.size());
+        Assert.assertEquals(TITLE_1, actMap.get(TITLE_FIELD));
+
+        //wildcards for all columns
+        projection = CypherResultConverter.getProjection(otherFields);
+        result = engine.execute(query, parameters);
+        table = CypherResultConverter.toTableResult(result, 0, 0, projection);
+        results = table.getResults();
+
+        actMap = (Map<String, Object>) results.get(0).get(1);
+        Assert.assertEquals(3, actMap.size());
+        Assert.assertEquals("1", actMap.get(ID_FIELD));
+        Assert.assertArrayEquals(STRING_ARR_1,
+            (String[]) actMap.get(STRING_ARRAY_FIELD));
+        Assert.assertArrayEquals(BYTE_ARR_1,
+            (byte[]) actMap.get(BYTE_ARRAY_FIELD));
+
+        //no projection
+        Assert.assertNull(CypherResultConverter.getProjection(null));
+    }
 }
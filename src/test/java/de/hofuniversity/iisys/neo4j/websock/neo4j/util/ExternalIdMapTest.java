@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the primitive external ID map.
+ */
+public class ExternalIdMapTest
+{
+    /**
+     * Tests storing, replacing and retrieving mappings across resizes.
+     */
+    @Test
+    public void mappingTest()
+    {
+        final ExternalIdMap map = new ExternalIdMap(4);
+
+        for(int i = 0; i < 10000; ++i)
+        {
+            map.put("id" + i, i * 2);
+        }
+        Assert.assertEquals(10000, map.size());
+
+        for(int i = 0; i < 10000; ++i)
+        {
+            Assert.assertEquals(i * 2, map.get("id" + i));
+        }
+
+        map.put("id42", 7);
+        Assert.assertEquals(10000, map.size());
+        Assert.assertEquals(7, map.get("id42"));
+
+        Assert.assertEquals(ExternalIdMap.MISSING, map.get("unknown"));
+        Assert.assertEquals(ExternalIdMap.MISSING, map.get(null));
+    }
+
+    /**
+     * Tests removing mappings without losing colliding ones.
+     */
+    @Test
+    public void removalTest()
+    {
+        final ExternalIdMap map = new ExternalIdMap(4);
+
+        for(int i = 0; i < 1000; ++i)
+        {
+            map.put("id" + i, i);
+        }
+
+        for(int i = 0; i < 1000; i += 2)
+        {
+            Assert.assertEquals(i, map.remove("id" + i));
+        }
+        Assert.assertEquals(500, map.size());
+
+        for(int i = 0; i < 1000; ++i)
+        {
+            final long expected = i % 2 == 0 ? ExternalIdMap.MISSING : i;
+            Assert.assertEquals(expected, map.get("id" + i));
+        }
+
+        Assert.assertEquals(ExternalIdMap.MISSING, map.remove("id0"));
+        Assert.assertEquals(ExternalIdMap.MISSING, map.remove(null));
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import de.hofuniversity.iisys.neo4j.websock.neo4j.service.IndexManager;
+
+/**
+ * Tests the cache for legacy index lookups and its invalidation.
+ */
+public class IndexLookupCacheTest
+{
+    private static final String INDEX = "persons";
+    private static final String KEY = "id";
+
+    private GraphDatabaseService fDb;
+    private IndexLookupCache fCache;
+
+    private Node fJohn, fJane;
+
+    /**
+     * Sets up an impermanent test database with two indexed nodes.
+     */
+    @Before
+    public void setupDb()
+    {
+        fDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        fCache = IndexLookupCache.getInstance(fDb);
+        fCache.setMaxEntries(100);
+
+        Transaction tx = fDb.beginTx();
+
+        Index<Node> index = fDb.index().forNodes(INDEX);
+        fJohn = fDb.createNode();
+        index.add(fJohn, KEY, "john");
+        fJane = fDb.createNode();
+        index.add(fJane, KEY, "jane");
+
+        tx.success();
+        tx.finish();
+    }
+
+    /**
+     * Shuts down the impermanent test database.
+     */
+    @After
+    public void shutdownDb()
+    {
+        fDb.shutdown();
+    }
+
+    /**
+     * Tests cached lookups, queries and bulk resolution.
+     */
+    @Test
+    public void lookupTest()
+    {
+        long[] ids = fCache.get(INDEX, KEY, "john");
+        Assert.assertArrayEquals(new long[] {fJohn.getId()}, ids);
+        Assert.assertEquals(0, fCache.getHits());
+
+        Assert.assertSame(ids, fCache.get(INDEX, KEY, "john"));
+        Assert.assertEquals(1, fCache.getHits());
+
+        ids = fCache.query(INDEX, KEY + ":jane");
+        Assert.assertArrayEquals(new long[] {fJane.getId()}, ids);
+
+        //empty results are not cached
+        Assert.assertEquals(0, fCache.get(INDEX, KEY, "nobody").length);
+        Assert.assertEquals(2, fCache.size());
+
+        final List<Object> values = new ArrayList<Object>();
+        values.add("jane");
+        values.add("nobody");
+        values.add("john");
+        final long[][] all = fCache.getAll(INDEX, KEY, values);
+        Assert.assertEquals(fJane.getId(), all[0][0]);
+        Assert.assertEquals(0, all[1].length);
+        Assert.assertEquals(fJohn.getId(), all[2][0]);
+
+        //bounded size
+        fCache.setMaxEntries(1);
+        Assert.assertEquals(1, fCache.size());
+    }
+
+    /**
+     * Tests invalidation through the index manager and committed
+     * transactions.
+     */
+    @Test
+    public void invalidationTest()
+    {
+        final IndexManager indexMan = new IndexManager(fDb);
+
+        fCache.get(INDEX, KEY, "john");
+        fCache.query(INDEX, KEY + ":j*");
+
+        //adding jane under john's ID invalidates the entry and all queries
+        indexMan.createIndexEntry(INDEX, fJane.getId(), KEY, "john");
+        Assert.assertEquals(2, fCache.get(INDEX, KEY, "john").length);
+
+        final long misses = fCache.getMisses();
+        Assert.assertEquals(2, fCache.query(INDEX, KEY + ":j*").length);
+        Assert.assertEquals(misses + 1, fCache.getMisses());
+
+        //changing a node's properties removes entries containing it
+        fCache.get(INDEX, KEY, "jane");
+        final int size = fCache.size();
+
+        Transaction tx = fDb.beginTx();
+        fJane.setProperty(KEY, "jane");
+        tx.success();
+        tx.finish();
+
+        Assert.assertEquals(size - 3, fCache.size());
+
+        //lookups in transactions bypass the cache
+        tx = fDb.beginTx();
+        try
+        {
+            Node jack = fDb.createNode();
+            fDb.index().forNodes(INDEX).add(jack, KEY, "john");
+            Assert.assertEquals(3, fCache.get(INDEX, KEY, "john").length);
+        }
+        finally
+        {
+            tx.failure();
+            tx.finish();
+        }
+        Assert.assertEquals(2, fCache.get(INDEX, KEY, "john").length);
+    }
+
+    /**
+     * Tests that cached queries are invalidated by committed node creations
+     * and that explicit invalidation covers removed index entries.
+     */
+    @Test
+    public void creationTest()
+    {
+        final String query = KEY + ":(john OR jack)";
+        Assert.assertEquals(1, fCache.query(INDEX, query).length);
+        fCache.get(INDEX, KEY, "john");
+
+        //a new node may match the cached query
+        Transaction tx = fDb.beginTx();
+        final Node jack = fDb.createNode();
+        fDb.index().forNodes(INDEX).add(jack, KEY, "jack");
+        tx.success();
+        tx.finish();
+
+        Assert.assertEquals(2, fCache.query(INDEX, query).length);
+
+        //plain lookups of other values stay cached
+        final long hits = fCache.getHits();
+        Assert.assertEquals(1, fCache.get(INDEX, KEY, "john").length);
+        Assert.assertEquals(hits + 1, fCache.getHits());
+
+        //removing entries directly requires invalidation
+        tx = fDb.beginTx();
+        fDb.index().forNodes(INDEX).remove(jack, KEY, "jack");
+        tx.success();
+        tx.finish();
+        fCache.invalidate(INDEX, KEY, "jack");
+
+        Assert.assertEquals(1, fCache.query(INDEX, query).length);
+    }
+}
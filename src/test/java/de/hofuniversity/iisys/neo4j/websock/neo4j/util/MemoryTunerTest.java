@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.util;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the derivation of memory mapping and cache settings from store
+ * sizes.
+ */
+public class MemoryTunerTest
+{
+    private static final long MB = 1024L * 1024L;
+    private static final long GB = 1024L * MB;
+
+    private static final String NODES = "neostore.nodestore.db";
+    private static final String RELS = "neostore.relationshipstore.db";
+    private static final String PROPS = "neostore.propertystore.db";
+    private static final String STRINGS = "neostore.propertystore.db.strings";
+    private static final String ARRAYS = "neostore.propertystore.db.arrays";
+
+    private File fDir;
+
+    /**
+     * Creates a store directory with store files of known sizes, 100MB in
+     * total.
+     */
+    @Before
+    public void createStore() throws Exception
+    {
+        fDir = Files.createTempDirectory("tunertest").toFile();
+
+        createFile(NODES, 10 * MB);
+        createFile(RELS, 30 * MB);
+        createFile(PROPS, 20 * MB);
+        createFile(STRINGS, 40 * MB);
+    }
+
+    private void createFile(final String name, final long size)
+        throws Exception
+    {
+        final RandomAccessFile file = new RandomAccessFile(
+            new File(fDir, name), "rw");
+        try
+        {
+            file.setLength(size);
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    /**
+     * Deletes the store directory.
+     */
+    @After
+    public void deleteStore()
+    {
+        for(File file : fDir.listFiles())
+        {
+            file.delete();
+        }
+        fDir.delete();
+    }
+
+    private long mapped(final Map<String, String> settings, final String store)
+    {
+        final String value = settings.get(store + MemoryTuner.MAPPED_MEMORY);
+        Assert.assertTrue(value.endsWith("M"));
+
+        return Long.parseLong(value.substring(0, value.length() - 1));
+    }
+
+    /**
+     * Tests settings if the whole store fits into memory.
+     */
+    @Test
+    public void sufficientMemoryTest()
+    {
+        final MemoryTuner tuner = new MemoryTuner(GB, 16 * GB, false);
+        final Map<String, String> settings = tuner.tune(fDir.getPath());
+
+        //store sizes with room for growth
+        Assert.assertEquals(11, mapped(settings, NODES));
+        Assert.assertEquals(33, mapped(settings, RELS));
+        Assert.assertEquals(22, mapped(settings, PROPS));
+        Assert.assertEquals(44, mapped(settings, STRINGS));
+        Assert.assertEquals(1, mapped(settings, ARRAYS));
+
+        Assert.assertEquals("true", settings.get(MemoryTuner.USE_MAPPED));
+        Assert.assertEquals("strong", settings.get(MemoryTuner.CACHE_TYPE));
+    }
+
+    /**
+     * Tests that node and relationship stores are preferred if memory is
+     * scarce.
+     */
+    @Test
+    public void scarceMemoryTest()
+    {
+        //50MB left after heap and reserve
+        final MemoryTuner tuner = new MemoryTuner(GB,
+            GB + 512 * MB + 50 * MB, false);
+        final Map<String, String> settings = tuner.tune(fDir.getPath());
+
+        Assert.assertEquals(11, mapped(settings, NODES));
+        Assert.assertEquals(33, mapped(settings, RELS));
+
+        final long props = mapped(settings, PROPS);
+        final long strings = mapped(settings, STRINGS);
+        Assert.assertTrue(props >= 1 && props < 22);
+        Assert.assertTrue(strings >= 1 && strings < 44);
+
+        //within budget, allowing for rounding to megabytes
+        final long total = 11 + 33 + props + strings
+            + mapped(settings, ARRAYS);
+        Assert.assertTrue(total <= 50 + 5);
+    }
+
+    /**
+     * Tests that memory is shared between several instances and that
+     * memory mapped within the heap reduces the cache budget.
+     */
+    @Test
+    public void sharedMemoryTest()
+    {
+        //heap halved for mapping, halved again for two instances
+        final MemoryTuner tuner = new MemoryTuner(200 * MB, -1, true);
+        tuner.setInstances(2);
+        final Map<String, String> settings = tuner.tune(fDir.getPath());
+
+        Assert.assertEquals("false", settings.get(MemoryTuner.USE_MAPPED));
+        Assert.assertEquals(11, mapped(settings, NODES));
+        Assert.assertEquals(33, mapped(settings, RELS));
+        Assert.assertTrue(mapped(settings, STRINGS) < 44);
+
+        //400MB of cached objects against 50MB of heap
+        Assert.assertEquals("weak", settings.get(MemoryTuner.CACHE_TYPE));
+    }
+
+    /**
+     * Tests that mapping is left to Neo4j if the physical memory is unknown
+     * and the selection of cache types.
+     */
+    @Test
+    public void cacheTypeTest()
+    {
+        MemoryTuner tuner = new MemoryTuner(200 * MB, -1, false);
+        Map<String, String> settings = tuner.tune(fDir.getPath());
+
+        Assert.assertNull(settings.get(NODES + MemoryTuner.MAPPED_MEMORY));
+        Assert.assertNull(settings.get(MemoryTuner.USE_MAPPED));
+        Assert.assertEquals("soft", settings.get(MemoryTuner.CACHE_TYPE));
+
+        tuner = new MemoryTuner(16 * MB, -1, false);
+        settings = tuner.tune(fDir.getPath());
+        Assert.assertEquals("weak", settings.get(MemoryTuner.CACHE_TYPE));
+
+        //empty store
+        tuner = new MemoryTuner(GB, 16 * GB, false);
+        settings = tuner.tune(new File(fDir, "missing").getPath());
+        Assert.assertEquals(1, mapped(settings, NODES));
+        Assert.assertEquals("strong", settings.get(MemoryTuner.CACHE_TYPE));
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+/**
+ * Benchmark for the scatter-gather helper on a synthetic social graph,
+ * retrieving the latest activities of all friends of friends of a person
+ * with increasing numbers of threads.
+ * Not run as part of the test suite, start the main method manually.
+ */
+public class ScatterGatherBenchmark
+{
+    private static final int PEOPLE = 20000;
+    private static final int FRIENDS = 30;
+    private static final int ACTIVITIES = 10;
+    private static final int TOP = 20;
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 20;
+
+    private static final String TIME = "time";
+
+    private static final RelationshipType FRIEND_OF =
+        DynamicRelationshipType.withName("FRIEND_OF");
+    private static final RelationshipType ACTED =
+        DynamicRelationshipType.withName("ACTED");
+
+    //prevents the elimination of unused results
+    private static long fSink = 0;
+
+    /**
+     * Runs the benchmark, printing the average time per call and the speedup
+     * for each number of threads up to the number of available processors.
+     *
+     * @param args ignored
+     * @throws Exception if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception
+    {
+        final GraphDatabaseService db =
+            new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        try
+        {
+            final List<Node> people = createGraph(db);
+            final int cores = Runtime.getRuntime().availableProcessors();
+
+            //friends of the first person's friends as start set
+            final List<Node> starts = new ArrayList<Node>();
+            for(Relationship rel : people.get(0).getRelationships(
+                Direction.OUTGOING, FRIEND_OF))
+            {
+                for(Relationship rel2 : rel.getEndNode().getRelationships(
+                    Direction.OUTGOING, FRIEND_OF))
+                {
+                    starts.add(rel2.getEndNode());
+                }
+            }
+            System.out.println(starts.size() + " start nodes");
+
+            final IScatterTask<Node, Node> task = new IScatterTask<Node, Node>()
+            {
+                @Override
+                public void process(Node start, List<Node> results)
+                {
+                    for(Relationship rel : start.getRelationships(
+                        Direction.OUTGOING, ACTED))
+                    {
+                        results.add(rel.getEndNode());
+                    }
+                }
+            };
+            final Comparator<Node> latest = new Comparator<Node>()
+            {
+                @Override
+                public int compare(Node o1, Node o2)
+                {
+                    return Long.compare((Long) o2.getProperty(TIME),
+                        (Long) o1.getProperty(TIME));
+                }
+            };
+
+            double baseline = 0;
+            for(int threads = 1; threads <= cores; threads *= 2)
+            {
+                final ScatterGather scatter = new ScatterGather(db, threads);
+
+                for(int i = 0; i < WARMUP_ROUNDS; ++i)
+                {
+                    run(scatter, starts, task, latest);
+                }
+
+                long time = 0;
+                for(int i = 0; i < ROUNDS; ++i)
+                {
+                    time += run(scatter, starts, task, latest);
+                }
+                scatter.shutdown();
+
+                final double avg = time / (double) ROUNDS / 1000000;
+                if(threads == 1)
+                {
+                    baseline = avg;
+                }
+
+                System.out.println(threads + " threads: " + avg
+                    + " ms/call, speedup " + (baseline / avg));
+            }
+
+            System.out.println("sink: " + fSink);
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    private static long run(final ScatterGather scatter,
+        final List<Node> starts, final IScatterTask<Node, Node> task,
+        final Comparator<Node> order)
+    {
+        final long time = System.nanoTime();
+        final List<Node> results = scatter.gather(starts, task, order, TOP);
+        fSink += results.get(0).getId();
+        return System.nanoTime() - time;
+    }
+
+    private static List<Node> createGraph(final GraphDatabaseService db)
+    {
+        final Random random = new Random(42);
+        final List<Node> people = new ArrayList<Node>(PEOPLE);
+
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node person = null;
+            Node activity = null;
+            for(int i = 0; i < PEOPLE; ++i)
+            {
+                person = db.createNode();
+                people.add(person);
+
+                for(int j = 0; j < ACTIVITIES; ++j)
+                {
+                    activity = db.createNode();
+                    activity.setProperty(TIME, random.nextLong());
+                    person.createRelationshipTo(activity, ACTED);
+                }
+
+                //commit in chunks
+                if(i % 1000 == 999)
+                {
+                    tx.success();
+                    tx.finish();
+                    tx = db.beginTx();
+                }
+            }
+
+            int count = 0;
+            for(Node from : people)
+            {
+                for(int j = 0; j < FRIENDS; ++j)
+                {
+                    from.createRelationshipTo(
+                        people.get(random.nextInt(PEOPLE)), FRIEND_OF);
+                }
+
+                if(++count % 1000 == 0)
+                {
+                    tx.success();
+                    tx.finish();
+                    tx = db.beginTx();
+                }
+            }
+
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+
+        return people;
+    }
+}
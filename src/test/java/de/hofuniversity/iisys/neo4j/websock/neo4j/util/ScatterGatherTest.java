@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+/**
+ * Test for the parallel scatter-gather helper.
+ */
+public class ScatterGatherTest
+{
+    private static final int STARTS = 1000;
+
+    private GraphDatabaseService fDb;
+    private ScatterGather fScatter;
+
+    private final IScatterTask<Integer, Integer> fTask =
+        new IScatterTask<Integer, Integer>()
+    {
+        @Override
+        public void process(Integer start, List<Integer> results)
+        {
+            //two results per start element
+            results.add(start * 2);
+            results.add(start * 2 + 1);
+        }
+    };
+
+    @Before
+    public void setup()
+    {
+        TestGraphDatabaseFactory fact = new TestGraphDatabaseFactory();
+        fDb = fact.newImpermanentDatabase();
+        fScatter = new ScatterGather(fDb, 4);
+    }
+
+    @After
+    public void stopDatabase()
+    {
+        fScatter.shutdown();
+        fDb.shutdown();
+    }
+
+    /**
+     * Tests that results are merged in the order of their start elements.
+     */
+    @Test
+    public void orderTest()
+    {
+        final List<Integer> starts = new ArrayList<Integer>();
+        for(int i = 0; i < STARTS; ++i)
+        {
+            starts.add(i);
+        }
+
+        List<Integer> results = fScatter.gather(starts, fTask);
+        Assert.assertEquals(STARTS * 2, results.size());
+        for(int i = 0; i < results.size(); ++i)
+        {
+            Assert.assertEquals(i, results.get(i).intValue());
+        }
+
+        //limit without order
+        results = fScatter.gather(starts, fTask, null, 5);
+        Assert.assertEquals(5, results.size());
+        Assert.assertEquals(4, results.get(4).intValue());
+
+        //no start elements
+        results = fScatter.gather(new ArrayList<Integer>(), fTask);
+        Assert.assertTrue(results.isEmpty());
+    }
+
+    /**
+     * Tests sorting and limiting to the top results.
+     */
+    @Test
+    public void topTest()
+    {
+        final List<Integer> starts = new ArrayList<Integer>();
+        for(int i = 0; i < STARTS; ++i)
+        {
+            starts.add(i);
+        }
+        Collections.shuffle(starts);
+
+        final Comparator<Integer> descending = new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer o1, Integer o2)
+            {
+                return o2.compareTo(o1);
+            }
+        };
+
+        List<Integer> results = fScatter.gather(starts, fTask, descending,
+            10);
+        Assert.assertEquals(10, results.size());
+        for(int i = 0; i < 10; ++i)
+        {
+            Assert.assertEquals(STARTS * 2 - 1 - i, results.get(i).intValue());
+        }
+
+        //sorted without limit
+        results = fScatter.gather(starts, fTask, descending, 0);
+        Assert.assertEquals(STARTS * 2, results.size());
+        Assert.assertEquals(0, results.get(STARTS * 2 - 1).intValue());
+    }
+}
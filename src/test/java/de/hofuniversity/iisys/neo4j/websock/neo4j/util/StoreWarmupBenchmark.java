@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.util;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import de.hofuniversity.iisys.neo4j.websock.neo4j.Neo4jRelTypes;
+
+/**
+ * Benchmark comparing query latencies directly after a restart with those
+ * after a warm-up, printing the warm-up's duration as its cost.
+ * Operating system caches also affect cold reads, so results are most
+ * meaningful for stores larger than the available memory or after dropping
+ * those caches between runs.
+ * Not run as part of the test suite, start the main method manually.
+ */
+public class StoreWarmupBenchmark
+{
+    private static final int NODES = 200000;
+    private static final int FRIENDS = 10;
+    private static final int QUERIES = 20000;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args ignored
+     * @throws Exception if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception
+    {
+        final File dir = Files.createTempDirectory("warmupbench").toFile();
+
+        try
+        {
+            createData(dir);
+
+            //cold start
+            GraphDatabaseService db = open(dir);
+            print("cold", measure(db));
+            db.shutdown();
+
+            //warm start
+            db = open(dir);
+            final StoreWarmup warmup = new StoreWarmup(db,
+                Runtime.getRuntime().availableProcessors());
+            warmup.run();
+            System.out.println("warm-up: " + warmup.getProgress());
+            print("warm", measure(db));
+            db.shutdown();
+        }
+        finally
+        {
+            delete(dir);
+        }
+    }
+
+    private static GraphDatabaseService open(final File dir)
+    {
+        return new GraphDatabaseFactory().newEmbeddedDatabase(
+            dir.getAbsolutePath());
+    }
+
+    private static void createData(final File dir)
+    {
+        final GraphDatabaseService db = open(dir);
+        final Random random = new Random(42);
+        final long[] ids = new long[NODES];
+
+        Transaction tx = db.beginTx();
+        for(int i = 0; i < NODES; ++i)
+        {
+            final Node node = db.createNode();
+            node.setProperty("id", "person" + i);
+            ids[i] = node.getId();
+
+            if(i % 10000 == 9999)
+            {
+                tx.success();
+                tx.finish();
+                tx = db.beginTx();
+            }
+        }
+        for(int i = 0; i < NODES; ++i)
+        {
+            final Node node = db.getNodeById(ids[i]);
+            for(int j = 0; j < FRIENDS; ++j)
+            {
+                node.createRelationshipTo(db.getNodeById(
+                    ids[random.nextInt(NODES)]), Neo4jRelTypes.FRIEND_OF);
+            }
+
+            if(i % 1000 == 999)
+            {
+                tx.success();
+                tx.finish();
+                tx = db.beginTx();
+            }
+        }
+        tx.success();
+        tx.finish();
+
+        db.shutdown();
+    }
+
+    //latencies of reading random people's friends, in microseconds
+    private static long[] measure(final GraphDatabaseService db)
+    {
+        final Random random = new Random(7);
+        final long[] latencies = new long[QUERIES];
+
+        for(int i = 0; i < QUERIES; ++i)
+        {
+            final long start = System.nanoTime();
+
+            final Node node = db.getNodeById(random.nextInt(NODES) + 1);
+            for(Relationship rel : node.getRelationships())
+            {
+                rel.getOtherNode(node).getProperty("id");
+            }
+
+            latencies[i] = (System.nanoTime() - start) / 1000;
+        }
+
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static void print(final String name, final long[] latencies)
+    {
+        System.out.println(name + ": p50 "
+            + latencies[latencies.length / 2] + " us, p99 "
+            + latencies[latencies.length * 99 / 100] + " us, max "
+            + latencies[latencies.length - 1] + " us");
+    }
+
+    private static void delete(final File file)
+    {
+        final File[] children = file.listFiles();
+        if(children != null)
+        {
+            for(File child : children)
+            {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+}
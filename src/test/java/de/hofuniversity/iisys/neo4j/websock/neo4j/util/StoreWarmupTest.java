@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.neo4j.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import de.hofuniversity.iisys.neo4j.websock.neo4j.Neo4jRelTypes;
+
+/**
+ * Tests the store warm-up's selection of nodes and relationships.
+ */
+public class StoreWarmupTest
+{
+    private static final String INDEX = "persons";
+    private static final int PEOPLE = 2500;
+
+    private GraphDatabaseService fDb;
+
+    /**
+     * Sets up an impermanent test database with indexed people, each of
+     * which has a friend and an activity.
+     */
+    @Before
+    public void setupDb()
+    {
+        fDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        Transaction tx = fDb.beginTx();
+        final Index<Node> index = fDb.index().forNodes(INDEX);
+
+        Node previous = null;
+        for(int i = 0; i < PEOPLE; ++i)
+        {
+            final Node person = fDb.createNode();
+            person.setProperty("id", "person" + i);
+            index.add(person, "id", "person" + i);
+
+            final Node activity = fDb.createNode();
+            activity.setProperty("title", "activity" + i);
+            person.createRelationshipTo(activity, Neo4jRelTypes.ACTED);
+
+            if(previous != null)
+            {
+                previous.createRelationshipTo(person,
+                    Neo4jRelTypes.FRIEND_OF);
+            }
+            previous = person;
+        }
+
+        tx.success();
+        tx.finish();
+    }
+
+    /**
+     * Shuts down the impermanent test database.
+     */
+    @After
+    public void shutdownDb()
+    {
+        fDb.shutdown();
+    }
+
+    /**
+     * Tests reading all nodes.
+     */
+    @Test
+    public void fullTest() throws Exception
+    {
+        final StoreWarmup warmup = new StoreWarmup(fDb, 4);
+        warmup.run();
+
+        Assert.assertTrue(warmup.getNodes() >= 2 * PEOPLE);
+        //each relationship is seen from both ends
+        Assert.assertEquals(2 * (PEOPLE + PEOPLE - 1),
+            warmup.getRelationships());
+        Assert.assertEquals(2 * PEOPLE, warmup.getProperties());
+    }
+
+    /**
+     * Tests limiting the warm-up to indexed nodes and certain relationships.
+     */
+    @Test
+    public void selectionTest() throws Exception
+    {
+        final StoreWarmup warmup = new StoreWarmup(fDb, 2);
+
+        final List<String> indexes = new ArrayList<String>();
+        indexes.add(INDEX);
+        warmup.setIndexes(indexes);
+
+        final List<String> types = new ArrayList<String>();
+        types.add(Neo4jRelTypes.ACTED.name());
+        warmup.setRelationshipTypes(types);
+
+        warmup.setReadProperties(false);
+        warmup.run();
+
+        Assert.assertEquals(PEOPLE, warmup.getNodes());
+        Assert.assertEquals(PEOPLE, warmup.getRelationships());
+        Assert.assertEquals(0, warmup.getProperties());
+    }
+}
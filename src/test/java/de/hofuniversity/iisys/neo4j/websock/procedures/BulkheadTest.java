@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.procedures;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for bulkheads limiting concurrent procedure calls.
+ */
+public class BulkheadTest
+{
+    private static final String PROC_1 = "proc1";
+    private static final String PROC_2 = "proc2";
+    private static final String GROUP = "group";
+
+    /**
+     * Tests deferring and rejecting calls exceeding the limit.
+     */
+    @Test
+    public void limitTest() throws Exception
+    {
+        final Bulkhead bulkhead = new Bulkhead(PROC_1, 1, 1, 5000);
+        Assert.assertTrue(bulkhead.acquire(new TestCall()));
+
+        //second call waits for the first without blocking
+        final TestCall waiting = new TestCall();
+        Assert.assertFalse(bulkhead.acquire(waiting));
+        Assert.assertEquals(1, bulkhead.getQueued());
+        Assert.assertFalse(waiting.fStarted.get());
+
+        //third call rejected, queue full
+        final TestCall rejected = new TestCall();
+        Assert.assertFalse(bulkhead.acquire(rejected));
+        Assert.assertTrue(rejected.fRejected.get());
+        Assert.assertEquals(1, bulkhead.getRejected());
+
+        //calls that can't wait are rejected while calls are queued
+        Assert.assertFalse(bulkhead.tryAcquire());
+        Assert.assertEquals(2, bulkhead.getRejected());
+
+        //releasing starts the waiting call
+        bulkhead.release();
+        Assert.assertTrue(waiting.fStarted.get());
+        Assert.assertEquals(0, bulkhead.getQueued());
+
+        //rejected after waiting
+        bulkhead.configure(1, 1, 10);
+        final TestCall expired = new TestCall();
+        Assert.assertFalse(bulkhead.acquire(expired));
+
+        long end = System.currentTimeMillis() + 5000;
+        while(!expired.fRejected.get() && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(expired.fRejected.get());
+        Assert.assertFalse(expired.fStarted.get());
+        Assert.assertEquals(3, bulkhead.getRejected());
+
+        bulkhead.release();
+        Assert.assertTrue(bulkhead.tryAcquire());
+
+        //raising the limit starts waiting calls
+        bulkhead.configure(1, 1, 5000);
+        final TestCall raised = new TestCall();
+        Assert.assertFalse(bulkhead.acquire(raised));
+        bulkhead.configure(2, 1, 5000);
+        Assert.assertTrue(raised.fStarted.get());
+    }
+
+    /**
+     * Tests the declaration of bulkheads through directives.
+     */
+    @Test
+    public void directiveTest()
+    {
+        BulkheadRegistry registry = new BulkheadRegistry();
+
+        registry.parseDirective("@limit " + PROC_1 + " 2");
+        registry.parseDirective("@limit " + GROUP + " 4 8 100");
+        registry.parseDirective("@group " + GROUP + " " + PROC_2);
+
+        Assert.assertEquals(PROC_1, registry.get(PROC_1).getName());
+        Assert.assertEquals(GROUP, registry.get(PROC_2).getName());
+        Assert.assertNull(registry.get("other"));
+
+        //group assignment overrides same name
+        registry.parseDirective("@group " + GROUP + " " + PROC_1);
+        Assert.assertEquals(GROUP, registry.get(PROC_1).getName());
+
+        boolean fail = false;
+        try
+        {
+            registry.parseDirective("@group unknown " + PROC_1);
+        }
+        catch(IllegalArgumentException e)
+        {
+            fail = true;
+        }
+        Assert.assertTrue(fail);
+    }
+
+    private static class TestCall implements IDeferredCall
+    {
+        private final AtomicBoolean fStarted = new AtomicBoolean();
+        private final AtomicBoolean fRejected = new AtomicBoolean();
+
+        @Override
+        public void start()
+        {
+            fStarted.set(true);
+        }
+
+        @Override
+        public void reject()
+        {
+            fRejected.set(true);
+        }
+    }
+}
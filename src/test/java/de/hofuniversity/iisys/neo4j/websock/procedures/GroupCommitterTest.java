@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.procedures;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import de.hofuniversity.iisys.neo4j.websock.calls.IStoredProcedure;
+import de.hofuniversity.iisys.neo4j.websock.result.AResultSet;
+import de.hofuniversity.iisys.neo4j.websock.result.SingleResult;
+
+/**
+ * Test for grouping the calls of batchable procedures into shared commits.
+ */
+public class GroupCommitterTest
+{
+    private static final String NAME = "name";
+
+    private GraphDatabaseService fDb;
+
+    /**
+     * Sets up an impermanent test database.
+     */
+    @Before
+    public void setupDb()
+    {
+        fDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    /**
+     * Shuts down the impermanent test database.
+     */
+    @After
+    public void shutdownDb()
+    {
+        fDb.shutdown();
+    }
+
+    /**
+     * Tests that concurrent calls get their own results and that a failing
+     * call does not affect the others of its group.
+     */
+    @Test
+    public void testGrouping() throws Exception
+    {
+        final GroupCommitter committer = new GroupCommitter(fDb, 200, 100);
+        final List<String> batchable = new ArrayList<String>();
+        batchable.add("create");
+        committer.addBatchable(batchable);
+
+        Assert.assertTrue(committer.isBatchable("create"));
+        Assert.assertFalse(committer.isBatchable("other"));
+
+        final IStoredProcedure create = new WriteProcedure(false);
+        final IStoredProcedure fail = new WriteProcedure(true);
+
+        final int callers = 6;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Object[] outcomes = new Object[callers];
+        final List<Thread> threads = new ArrayList<Thread>();
+
+        for(int i = 0; i < callers; ++i)
+        {
+            final int index = i;
+            final Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    final Map<String, Object> params =
+                        new HashMap<String, Object>();
+                    params.put(NAME, "node" + index);
+
+                    try
+                    {
+                        start.await();
+                        outcomes[index] = committer.call(
+                            index == 2 ? fail : create, params);
+                    }
+                    catch(Exception e)
+                    {
+                        outcomes[index] = e;
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for(Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        //each caller got its own outcome
+        for(int i = 0; i < callers; ++i)
+        {
+            if(i == 2)
+            {
+                Assert.assertTrue(outcomes[i] instanceof IllegalStateException);
+            }
+            else
+            {
+                final SingleResult result = (SingleResult) outcomes[i];
+                Assert.assertEquals("node" + i, result.getResults().get(NAME));
+            }
+        }
+
+        //only the failed call's node is missing
+        int count = 0;
+        for(Node node : GlobalGraphOperations.at(fDb).getAllNodes())
+        {
+            if(node.hasProperty(NAME))
+            {
+                Assert.assertFalse("node2".equals(node.getProperty(NAME)));
+                ++count;
+            }
+        }
+        Assert.assertEquals(callers - 1, count);
+    }
+
+    private class WriteProcedure implements IStoredProcedure
+    {
+        private final boolean fFail;
+
+        public WriteProcedure(boolean fail)
+        {
+            fFail = fail;
+        }
+
+        @Override
+        public String getName()
+        {
+            return "create";
+        }
+
+        @Override
+        public AResultSet<?> call(Map<String, Object> parameters)
+        {
+            final Transaction tx = fDb.beginTx();
+
+            try
+            {
+                final Node node = fDb.createNode();
+                node.setProperty(NAME, parameters.get(NAME));
+
+                if(fFail)
+                {
+                    throw new IllegalStateException("failing write");
+                }
+
+                tx.success();
+            }
+            catch(RuntimeException e)
+            {
+                tx.failure();
+                throw e;
+            }
+            finally
+            {
+                tx.finish();
+            }
+
+            final Map<String, Object> map = new HashMap<String, Object>();
+            map.put(NAME, parameters.get(NAME));
+            return new SingleResult(map);
+        }
+
+        @Override
+        public boolean isNative()
+        {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.procedures;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.hofuniversity.iisys.neo4j.websock.calls.IStoredProcedure;
+import de.hofuniversity.iisys.neo4j.websock.result.AResultSet;
+
+/**
+ * Test for the procedure registry being updated from watched definition
+ * files.
+ */
+public class ProcedureFileWatcherTest
+{
+    private static final long MAX_WAIT = 10000;
+
+    /**
+     * Tests the initial loading and the reloading of changed files.
+     */
+    @Test
+    public void reloadTest() throws Exception
+    {
+        final Path dir = Files.createTempDirectory("procedures");
+        final File file = new File(dir.toFile(), "procedures.ini");
+        write(file, "proc1\nproc2\n");
+
+        final ProcedureRegistry registry = new ProcedureRegistry();
+        registry.put("other", new TestProcedure("other"));
+        final long version = registry.getVersion();
+
+        final ProcedureFileWatcher watcher = new ProcedureFileWatcher(registry);
+        watcher.addProvider(new TestProvider(file.getPath()));
+
+        Assert.assertNotNull(registry.get("proc1"));
+        Assert.assertNotNull(registry.get("proc2"));
+        Assert.assertNotNull(registry.get("other"));
+        Assert.assertTrue(registry.getVersion() > version);
+
+        final IStoredProcedure oldProc = registry.get("proc2");
+
+        watcher.start();
+        try
+        {
+            write(file, "proc2\nproc3\n");
+
+            final long end = System.currentTimeMillis() + MAX_WAIT;
+            while(registry.get("proc3") == null
+                && System.currentTimeMillis() < end)
+            {
+                Thread.sleep(50);
+            }
+
+            //removed procedure gone, others replaced or kept
+            Assert.assertNotNull(registry.get("proc3"));
+            Assert.assertNull(registry.get("proc1"));
+            Assert.assertNotNull(registry.get("proc2"));
+            Assert.assertNotSame(oldProc, registry.get("proc2"));
+            Assert.assertNotNull(registry.get("other"));
+        }
+        finally
+        {
+            watcher.stop();
+            file.delete();
+            dir.toFile().delete();
+        }
+    }
+
+    /**
+     * Tests parallel loading with definitions of later files overriding
+     * those of earlier ones.
+     */
+    @Test
+    public void parallelLoadingTest() throws Exception
+    {
+        final Path dir = Files.createTempDirectory("procedures");
+        final File file1 = new File(dir.toFile(), "procedures1.ini");
+        final File file2 = new File(dir.toFile(), "procedures2.ini");
+        final File file3 = new File(dir.toFile(), "procedures3.ini");
+        write(file1, "proc1\nshared\n");
+        write(file2, "proc2\nshared\n");
+        write(file3, "proc3\nshared\n");
+
+        final ProcedureRegistry registry = new ProcedureRegistry();
+        final ProcedureFileWatcher watcher = new ProcedureFileWatcher(registry);
+        final LoadingReport report = new LoadingReport();
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try
+        {
+            final List<IProcedureFileProvider> providers =
+                new ArrayList<IProcedureFileProvider>();
+            providers.add(new TestProvider(file1.getPath(),
+                file2.getPath()));
+            providers.add(new TestProvider(file3.getPath()));
+            providers.add(new TestProvider(new File(dir.toFile(),
+                "missing.ini").getPath()));
+
+            watcher.addProviders(providers, executor, report);
+
+            Assert.assertNotNull(registry.get("proc1"));
+            Assert.assertNotNull(registry.get("proc2"));
+            Assert.assertNotNull(registry.get("proc3"));
+
+            //last definition wins
+            TestProcedure shared = (TestProcedure) registry.get("shared");
+            Assert.assertEquals(file3.getAbsolutePath(), shared.getSource());
+
+            //all loaded files recorded
+            Assert.assertEquals(3, report.getCount(LoadingReport.FILE));
+        }
+        finally
+        {
+            executor.shutdown();
+            file1.delete();
+            file2.delete();
+            file3.delete();
+            dir.toFile().delete();
+        }
+    }
+
+    /**
+     * Tests that files neither replace service procedures nor procedures
+     * stored at runtime and that reloading a file replaces its bulkhead
+     * directives.
+     */
+    @Test
+    public void layerTest() throws Exception
+    {
+        final Path dir = Files.createTempDirectory("procedures");
+        final File file = new File(dir.toFile(), "procedures.ini");
+        write(file, "@limit proc1 2\nproc1\nservice\nruntime\n");
+
+        final IStoredProcedure service = new TestProcedure("service");
+        final IStoredProcedure runtime = new TestProcedure("runtime");
+        final Map<String, IStoredProcedure> services =
+            new HashMap<String, IStoredProcedure>();
+        services.put("service", service);
+
+        final ProcedureRegistry registry = new ProcedureRegistry();
+        registry.setLayer(EProcedureLayer.SERVICE, services);
+        registry.put("runtime", runtime);
+
+        final BulkheadRegistry bulkheads = new BulkheadRegistry();
+        final ProcedureFileWatcher watcher = new ProcedureFileWatcher(registry,
+            bulkheads);
+
+        try
+        {
+            watcher.addProvider(new TestProvider(file.getPath()));
+
+            Assert.assertNotNull(registry.get("proc1"));
+            Assert.assertSame(service, registry.get("service"));
+            Assert.assertSame(runtime, registry.get("runtime"));
+            Assert.assertNotNull(bulkheads.get("proc1"));
+
+            //removing the runtime procedure reveals the file's definition
+            registry.remove("runtime");
+            Assert.assertNotNull(registry.get("runtime"));
+            Assert.assertNotSame(runtime, registry.get("runtime"));
+
+            //reloading drops the file's procedures and directives
+            write(file, "proc1\n");
+            watcher.addProvider(new TestProvider(file.getPath()));
+
+            Assert.assertNotNull(registry.get("proc1"));
+            Assert.assertNull(registry.get("runtime"));
+            Assert.assertSame(service, registry.get("service"));
+            Assert.assertNull(bulkheads.get("proc1"));
+        }
+        finally
+        {
+            file.delete();
+            dir.toFile().delete();
+        }
+    }
+
+    /**
+     * Tests that dependent files of a provider are loaded one after another
+     * in definition order.
+     */
+    @Test
+    public void dependentLoadingTest() throws Exception
+    {
+        final Path dir = Files.createTempDirectory("procedures");
+        final File file1 = new File(dir.toFile(), "procedures1.ini");
+        final File file2 = new File(dir.toFile(), "procedures2.ini");
+        final File file3 = new File(dir.toFile(), "procedures3.ini");
+        write(file1, "proc1\n");
+        write(file2, "proc2\n");
+        write(file3, "proc3\n");
+
+        final ProcedureRegistry registry = new ProcedureRegistry();
+        final ProcedureFileWatcher watcher = new ProcedureFileWatcher(registry);
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try
+        {
+            final TestProvider provider = new TestProvider(file1.getPath(),
+                file2.getPath(), file3.getPath());
+            provider.fIndependent = false;
+
+            final List<IProcedureFileProvider> providers =
+                new ArrayList<IProcedureFileProvider>();
+            providers.add(provider);
+            watcher.addProviders(providers, executor, null);
+
+            Assert.assertNotNull(registry.get("proc1"));
+            Assert.assertNotNull(registry.get("proc2"));
+            Assert.assertNotNull(registry.get("proc3"));
+
+            Assert.assertEquals(1, provider.fMaxLoading);
+            Assert.assertEquals(3, provider.fLoaded.size());
+            Assert.assertTrue(provider.fLoaded.get(0).endsWith(
+                file1.getName()));
+            Assert.assertTrue(provider.fLoaded.get(1).endsWith(
+                file2.getName()));
+            Assert.assertTrue(provider.fLoaded.get(2).endsWith(
+                file3.getName()));
+        }
+        finally
+        {
+            executor.shutdown();
+            file1.delete();
+            file2.delete();
+            file3.delete();
+            dir.toFile().delete();
+        }
+    }
+
+    private void write(File file, String content) throws Exception
+    {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+    }
+
+    private class TestProvider implements IProcedureFileProvider
+    {
+        private final String[] fFiles;
+        private final List<String> fLoaded;
+
+        private boolean fIndependent = true;
+        private int fLoading = 0;
+        private int fMaxLoading = 0;
+
+        public TestProvider(String... files)
+        {
+            fFiles = files;
+            fLoaded = new ArrayList<String>();
+        }
+
+        @Override
+        public Map<String, IStoredProcedure> getProcedures()
+        {
+            return null;
+        }
+
+        @Override
+        public String[] getFiles()
+        {
+            return fFiles;
+        }
+
+        @Override
+        public boolean isIndependent()
+        {
+            return fIndependent;
+        }
+
+        @Override
+        public Map<String, IStoredProcedure> getProcedures(String file)
+            throws Exception
+        {
+            synchronized(this)
+            {
+                fLoaded.add(file);
+                fMaxLoading = Math.max(fMaxLoading, ++fLoading);
+            }
+
+            //give parallel loads a chance to overlap
+            Thread.sleep(20);
+
+            synchronized(this)
+            {
+                --fLoading;
+            }
+
+            //one procedure name per line
+            final Map<String, IStoredProcedure> procedures =
+                new HashMap<String, IStoredProcedure>();
+
+            List<String> lines = Files.readAllLines(new File(file).toPath(),
+                StandardCharsets.UTF_8);
+            for(String line : lines)
+            {
+                if(!line.isEmpty()
+                    && !line.startsWith(BulkheadRegistry.DIRECTIVE_PREFIX))
+                {
+                    procedures.put(line, new TestProcedure(line, file));
+                }
+            }
+
+            return procedures;
+        }
+
+        @Override
+        public List<String> getDirectives(String file)
+        {
+            //directive lines start with the prefix
+            final List<String> directives = new ArrayList<String>();
+
+            try
+            {
+                for(String line : Files.readAllLines(new File(file).toPath(),
+                    StandardCharsets.UTF_8))
+                {
+                    if(line.startsWith(BulkheadRegistry.DIRECTIVE_PREFIX))
+                    {
+                        directives.add(line);
+                    }
+                }
+            }
+            catch(Exception e)
+            {
+                throw new RuntimeException(e);
+            }
+
+            return directives;
+        }
+    }
+
+    private class TestProcedure implements IStoredProcedure
+    {
+        private final String fName;
+        private final String fSource;
+
+        public TestProcedure(String name)
+        {
+            this(name, null);
+        }
+
+        public TestProcedure(String name, String source)
+        {
+            fName = name;
+            fSource = source;
+        }
+
+        public String getSource()
+        {
+            return fSource;
+        }
+
+        @Override
+        public String getName()
+        {
+            return fName;
+        }
+
+        @Override
+        public AResultSet<?> call(Map<String, Object> parameters)
+        {
+            return null;
+        }
+
+        @Override
+        public boolean isNative()
+        {
+            return true;
+        }
+    }
+}
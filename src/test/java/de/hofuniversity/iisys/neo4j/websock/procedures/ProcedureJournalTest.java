@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2012-2015 Institute of Information Systems, Hof University
+ *
+ * This file is part of "Neo4j WebSocket Server".
+ *
+ * "Neo4j WebSocket Server" is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.hofuniversity.iisys.neo4j.websock.procedures;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for the journal persisting procedures stored at runtime.
+ */
+public class ProcedureJournalTest
+{
+    private static final String PROC_1 = "proc1";
+    private static final String PROC_2 = "proc2";
+    private static final String PROC_3 = "proc3";
+
+    private static final String QUERY_1 = "START n=node(1) RETURN n";
+    private static final String QUERY_2 = "START n=node(2) RETURN n";
+    private static final String QUERY_3 = "START n=node(3) RETURN n";
+
+    /**
+     * Tests storing, deleting and restoring procedures.
+     */
+    @Test
+    public void restoreTest() throws Exception
+    {
+        File file = File.createTempFile("procedures", ".journal");
+        file.delete();
+
+        try
+        {
+            ProcedureJournal journal = new ProcedureJournal(file.getPath());
+            Assert.assertTrue(journal.restore().isEmpty());
+
+            Assert.assertEquals(1, journal.store(PROC_1, QUERY_1));
+            Assert.assertEquals(2, journal.store(PROC_2, QUERY_1));
+            Assert.assertEquals(3, journal.store(PROC_2, QUERY_2));
+            Assert.assertEquals(4, journal.store(PROC_3, QUERY_3));
+            Assert.assertEquals(5, journal.delete(PROC_1));
+            journal.close();
+
+            //restore and compact
+            journal = new ProcedureJournal(file.getPath());
+            Map<String, String> statements = journal.restore();
+            Assert.assertEquals(2, statements.size());
+            Assert.assertEquals(QUERY_2, statements.get(PROC_2));
+            Assert.assertEquals(QUERY_3, statements.get(PROC_3));
+            Assert.assertEquals(5, journal.getVersion());
+
+            //versions continue after compaction
+            Assert.assertEquals(6, journal.store(PROC_1, QUERY_1));
+            journal.close();
+
+            //incomplete last record is ignored
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(raf.length() - 3);
+            raf.close();
+
+            journal = new ProcedureJournal(file.getPath());
+            statements = journal.restore();
+            Assert.assertEquals(2, statements.size());
+            Assert.assertNull(statements.get(PROC_1));
+            Assert.assertEquals(5, journal.getVersion());
+            journal.close();
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
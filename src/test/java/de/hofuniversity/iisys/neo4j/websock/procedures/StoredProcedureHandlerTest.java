@@ -18,8 +18,15 @@
  */
 package de.hofuniversity.iisys.neo4j.websock.procedures;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.bson.BasicBSONObject;
 import org.bson.types.BasicBSONList;
@@ -28,9 +35,17 @@ import org.junit.Assert;
 
 import org.junit.Test;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
+import de.hofuniversity.iisys.neo4j.websock.calls.AsyncProcedurePool;
+import de.hofuniversity.iisys.neo4j.websock.calls.CypherProcedure;
+import de.hofuniversity.iisys.neo4j.websock.calls.IAsyncProcedure;
+import de.hofuniversity.iisys.neo4j.websock.calls.IRowIterator;
 import de.hofuniversity.iisys.neo4j.websock.calls.IStoredProcedure;
+import de.hofuniversity.iisys.neo4j.websock.calls.IStreamingProcedure;
+import de.hofuniversity.iisys.neo4j.websock.calls.ResultPromise;
+import de.hofuniversity.iisys.neo4j.websock.calls.ServerQueries;
 import de.hofuniversity.iisys.neo4j.websock.procedures.StoredProcedureHandler;
 import de.hofuniversity.iisys.neo4j.websock.query.EQueryType;
 import de.hofuniversity.iisys.neo4j.websock.query.WebsockQuery;
@@ -45,6 +60,8 @@ import de.hofuniversity.iisys.neo4j.websock.util.ImplUtil;
 public class StoredProcedureHandlerTest
 {
     private static final String NAME_FIELD = "name";
+    private static final String LIST_FIELD = "list";
+    private static final String VALUE_FIELD = "value";
 
     private static final String PROCEDURE_1 = "proc1";
     private static final String PROCEDURE_2 = "proc2";
@@ -194,6 +211,582 @@ public class StoredProcedureHandlerTest
         query = new WebsockQuery(EQueryType.DELETE_PROCEDURE);
         query.setPayload(PROCEDURE_4);
         handler.handleCall(query);
+
+        //procedures from definition files can't be deleted
+        ProcedureRegistry registry = new ProcedureRegistry();
+        registry.put(EProcedureLayer.FILE, PROCEDURE_2,
+            new TestProcedure(PROCEDURE_2, false, true));
+        handler = new StoredProcedureHandler(fDb, registry, new ImplUtil(
+            BasicBSONList.class, BasicBSONObject.class));
+
+        query = new WebsockQuery(EQueryType.DELETE_PROCEDURE);
+        query.setPayload(PROCEDURE_2);
+        response = handler.deleteProcedure(query);
+        Assert.assertEquals(EQueryType.ERROR, response.getType());
+        Assert.assertNotNull(registry.get(PROCEDURE_2));
+
+        //unless overridden at runtime, revealing the file's procedure
+        registry.put(PROCEDURE_2, new TestProcedure(PROCEDURE_2, true, false));
+        response = handler.deleteProcedure(query);
+        Assert.assertEquals(EQueryType.SUCCESS, response.getType());
+        Assert.assertNotNull(registry.get(PROCEDURE_2));
+        Assert.assertNull(registry.get(EProcedureLayer.RUNTIME, PROCEDURE_2));
+    }
+
+    /**
+     * Tests profiling and explaining stored Cypher procedures.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testProfiling()
+    {
+        StoredProcedureHandler handler = setupHandler();
+
+        //store new procedure
+        WebsockQuery query = new WebsockQuery(EQueryType.STORE_PROCEDURE);
+        query.setPayload("START n=node(*) RETURN n");
+        query.setParameter(WebsockConstants.PROCEDURE_NAME, PROCEDURE_4);
+        handler.storeProcedure(query);
+
+        //profile with statistics
+        query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(ServerQueries.PROFILE);
+        query.setParameter(ServerQueries.PROFILED_PROCEDURE, PROCEDURE_4);
+
+        WebsockQuery response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.RESULT, response.getType());
+        Map<String, Object> payload = (Map<String, Object>)
+            response.getPayload();
+        Assert.assertNotNull(payload.get(WebsockConstants.RESULT));
+        Map<String, Object> plan = (Map<String, Object>) payload.get(
+            ServerQueries.PLAN);
+        Assert.assertNotNull(plan.get(ServerQueries.PLAN_NAME));
+        Assert.assertNotNull(plan.get(ServerQueries.PLAN_DB_HITS));
+
+        //plan only
+        query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(ServerQueries.EXPLAIN);
+        query.setParameter(ServerQueries.PROFILED_PROCEDURE, PROCEDURE_4);
+
+        response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.RESULT, response.getType());
+        payload = (Map<String, Object>) response.getPayload();
+        Assert.assertNull(payload.get(WebsockConstants.RESULT));
+        Assert.assertNotNull(payload.get(ServerQueries.PLAN));
+
+        //explaining within a client transaction doesn't doom it
+        Transaction tx = fDb.beginTx();
+        try
+        {
+            fDb.createNode();
+
+            response = handler.handleCall(query);
+            Assert.assertEquals(EQueryType.RESULT, response.getType());
+
+            tx.success();
+        }
+        finally
+        {
+            //fails if the transaction was marked rollback-only
+            tx.finish();
+        }
+
+        //native procedures have no plan
+        query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(ServerQueries.EXPLAIN);
+        query.setParameter(ServerQueries.PROFILED_PROCEDURE, PROCEDURE_1);
+
+        response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.ERROR, response.getType());
+
+        //updating queries can't be explained without executing them
+        query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(ServerQueries.EXPLAIN);
+        query.setParameter(ServerQueries.STATEMENT, "CREATE (n {id: 1})");
+
+        response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.ERROR, response.getType());
+    }
+
+    /**
+     * Tests calling procedures by their numeric handles.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testHandles()
+    {
+        StoredProcedureHandler handler = setupHandler();
+
+        //retrieve handle table
+        WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(ServerQueries.HANDLES);
+
+        WebsockQuery response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.RESULT, response.getType());
+        Map<String, Object> payload = (Map<String, Object>)
+            response.getPayload();
+        Map<String, Object> handles = (Map<String, Object>) payload.get(
+            ServerQueries.HANDLE_TABLE);
+        Assert.assertEquals(3, handles.size());
+        Assert.assertNotNull(payload.get(ServerQueries.REGISTRY_VERSION));
+
+        //call by handle
+        final Integer handle2 = (Integer) handles.get(PROCEDURE_2);
+        query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(handle2);
+
+        response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.RESULT, response.getType());
+        Map<String, Object> set = (Map<String, Object>) response.getPayload();
+        Map<String, ?> map = (Map<String, ?>) set.get(WebsockConstants.RESULT);
+        Assert.assertEquals(PROCEDURE_2, map.get(NAME_FIELD));
+
+        //new procedure gets a new handle
+        query = new WebsockQuery(EQueryType.STORE_PROCEDURE);
+        query.setPayload("START n=node(*) RETURN n");
+        query.setParameter(WebsockConstants.PROCEDURE_NAME, PROCEDURE_4);
+        response = handler.storeProcedure(query);
+        Integer handle4 = (Integer) response.getPayload();
+        Assert.assertFalse(handles.containsValue(handle4));
+
+        //handles stay valid after deletion and restoring
+        query = new WebsockQuery(EQueryType.DELETE_PROCEDURE);
+        query.setPayload(PROCEDURE_2);
+        handler.deleteProcedure(query);
+
+        query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(handle2);
+        response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.ERROR, response.getType());
+
+        query = new WebsockQuery(EQueryType.STORE_PROCEDURE);
+        query.setPayload("START n=node(*) RETURN n");
+        query.setParameter(WebsockConstants.PROCEDURE_NAME, PROCEDURE_2);
+        response = handler.storeProcedure(query);
+        Assert.assertEquals(handle2, response.getPayload());
+
+        query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(handle4);
+        response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.RESULT, response.getType());
+
+        //unknown handle
+        query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(1000);
+        response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.ERROR, response.getType());
+    }
+
+    /**
+     * Tests reporting the database's readiness.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testReadiness()
+    {
+        StoredProcedureHandler handler = setupHandler();
+
+        WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(ServerQueries.READY);
+
+        //ready without a readiness source
+        WebsockQuery response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.RESULT, response.getType());
+        Map<String, Object> payload = (Map<String, Object>)
+            response.getPayload();
+        Assert.assertEquals(true, payload.get(ServerQueries.READY_FIELD));
+
+        final boolean[] ready = {false};
+        handler.setReadiness(new IReadiness()
+        {
+            @Override
+            public boolean isReady()
+            {
+                return ready[0];
+            }
+        });
+
+        response = handler.handleCall(query);
+        payload = (Map<String, Object>) response.getPayload();
+        Assert.assertEquals(false, payload.get(ServerQueries.READY_FIELD));
+
+        ready[0] = true;
+        response = handler.handleCall(query);
+        payload = (Map<String, Object>) response.getPayload();
+        Assert.assertEquals(true, payload.get(ServerQueries.READY_FIELD));
+    }
+
+    /**
+     * Tests incremental consumption and chunked sending of streamed results.
+     */
+    @Test
+    public void testStreaming() throws Exception
+    {
+        StoredProcedureHandler handler = setupHandler();
+        TestStreamingProcedure proc = new TestStreamingProcedure(100);
+        handler.getRegistry().put(PROCEDURE_4, proc);
+
+        final List<WebsockQuery> partials = new ArrayList<WebsockQuery>();
+        IResponseSink sink = new IResponseSink()
+        {
+            @Override
+            public void send(WebsockQuery response) throws Exception
+            {
+                partials.add(response);
+            }
+        };
+
+        //subset, reading stops early
+        WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(PROCEDURE_4);
+        query.setParameter(WebsockConstants.SUBSET_START, 10);
+        query.setParameter(WebsockConstants.SUBSET_SIZE, 5);
+
+        WebsockQuery response = handler.handleCall(query, sink);
+        Assert.assertEquals(EQueryType.RESULT, response.getType());
+        Assert.assertEquals(15, proc.getRead());
+        Assert.assertTrue(proc.isClosed());
+        Assert.assertTrue(partials.isEmpty());
+
+        //chunked transfer of complete result
+        proc = new TestStreamingProcedure(25);
+        handler.getRegistry().put(PROCEDURE_4, proc);
+
+        query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(PROCEDURE_4);
+        query.setParameter(ServerQueries.CHUNK_SIZE, 10);
+
+        response = handler.handleCall(query, sink);
+        Assert.assertEquals(EQueryType.RESULT, response.getType());
+        Assert.assertNull(response.getParameter(ServerQueries.MORE));
+        Assert.assertEquals(25, proc.getRead());
+        Assert.assertTrue(proc.isClosed());
+
+        Assert.assertEquals(2, partials.size());
+        for(WebsockQuery partial : partials)
+        {
+            Assert.assertEquals(query.getId(), partial.getId());
+            Assert.assertEquals(EQueryType.RESULT, partial.getType());
+            Assert.assertEquals(true,
+                partial.getParameter(ServerQueries.MORE));
+        }
+
+        //no chunks without a sink
+        proc = new TestStreamingProcedure(25);
+        handler.getRegistry().put(PROCEDURE_4, proc);
+        partials.clear();
+
+        response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.RESULT, response.getType());
+        Assert.assertTrue(partials.isEmpty());
+        Assert.assertTrue(proc.isClosed());
+    }
+
+    /**
+     * Tests pipelines passing results between procedures on the server.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testPipeline()
+    {
+        StoredProcedureHandler handler = setupHandler();
+        handler.getRegistry().put(PROCEDURE_4, new EchoProcedure());
+
+        //first step returns its name, second step echoes references
+        List<Object> steps = new ArrayList<Object>();
+        Map<String, Object> step = new HashMap<String, Object>();
+        step.put(ServerQueries.PIPELINE_PROCEDURE, PROCEDURE_2);
+        steps.add(step);
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put(NAME_FIELD, "$0." + NAME_FIELD);
+        params.put(LIST_FIELD, "$0." + NAME_FIELD
+            + ServerQueries.REFERENCE_ALL);
+        params.put(VALUE_FIELD, 42);
+        step = new HashMap<String, Object>();
+        step.put(ServerQueries.PIPELINE_PROCEDURE,
+            handler.getRegistry().getHandle(PROCEDURE_4));
+        step.put(ServerQueries.STATEMENT_PARAMS, params);
+        steps.add(step);
+
+        WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(ServerQueries.PIPELINE);
+        query.setParameter(ServerQueries.PIPELINE_STEPS, steps);
+
+        WebsockQuery response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.RESULT, response.getType());
+        Map<String, Object> set = (Map<String, Object>) response.getPayload();
+        Map<String, ?> map = (Map<String, ?>) set.get(WebsockConstants.RESULT);
+        Assert.assertEquals(PROCEDURE_2, map.get(NAME_FIELD));
+        Assert.assertEquals(42, map.get(VALUE_FIELD));
+        List<Object> list = (List<Object>) map.get(LIST_FIELD);
+        Assert.assertEquals(1, list.size());
+        Assert.assertEquals(PROCEDURE_2, list.get(0));
+
+        //failing step
+        step = new HashMap<String, Object>();
+        step.put(ServerQueries.PIPELINE_PROCEDURE, PROCEDURE_3);
+        steps.add(step);
+
+        response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.ERROR, response.getType());
+        Assert.assertTrue(response.getPayload().toString().contains("step 2"));
+
+        //missing procedure and missing steps
+        steps.remove(2);
+        step = new HashMap<String, Object>();
+        step.put(ServerQueries.PIPELINE_PROCEDURE, "missing");
+        steps.add(0, step);
+
+        response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.ERROR, response.getType());
+
+        query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(ServerQueries.PIPELINE);
+        response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.ERROR, response.getType());
+
+        //Cypher steps pass on raw nodes
+        handler.getRegistry().put("node", new CypherProcedure("node", fDb,
+            "START n=node(0) RETURN n"));
+        handler.getRegistry().put("nodeId", new CypherProcedure("nodeId",
+            fDb, "START n=node({node}) RETURN id(n) AS id"));
+
+        steps = new ArrayList<Object>();
+        step = new HashMap<String, Object>();
+        step.put(ServerQueries.PIPELINE_PROCEDURE, "node");
+        steps.add(step);
+
+        params = new HashMap<String, Object>();
+        params.put("node", "$0.n");
+        step = new HashMap<String, Object>();
+        step.put(ServerQueries.PIPELINE_PROCEDURE, "nodeId");
+        step.put(ServerQueries.STATEMENT_PARAMS, params);
+        steps.add(step);
+
+        params = new HashMap<String, Object>();
+        params.put(VALUE_FIELD, "$1.id");
+        step = new HashMap<String, Object>();
+        step.put(ServerQueries.PIPELINE_PROCEDURE, PROCEDURE_4);
+        step.put(ServerQueries.STATEMENT_PARAMS, params);
+        steps.add(step);
+
+        query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(ServerQueries.PIPELINE);
+        query.setParameter(ServerQueries.PIPELINE_STEPS, steps);
+
+        response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.RESULT, response.getType());
+        set = (Map<String, Object>) response.getPayload();
+        map = (Map<String, ?>) set.get(WebsockConstants.RESULT);
+        Assert.assertEquals(0L, ((Number) map.get(VALUE_FIELD)).longValue());
+
+        //pipelines within a client transaction don't doom it
+        Transaction tx = fDb.beginTx();
+        try
+        {
+            fDb.createNode();
+
+            response = handler.handleCall(query);
+            Assert.assertEquals(EQueryType.RESULT, response.getType());
+
+            tx.success();
+        }
+        finally
+        {
+            //fails if the transaction was marked rollback-only
+            tx.finish();
+        }
+
+        //updating steps are rejected
+        handler.getRegistry().put("create", new CypherProcedure("create",
+            fDb, "CREATE (n {id: 1}) RETURN n"));
+        step = new HashMap<String, Object>();
+        step.put(ServerQueries.PIPELINE_PROCEDURE, "create");
+        steps.add(0, step);
+
+        response = handler.handleCall(query);
+        Assert.assertEquals(EQueryType.ERROR, response.getType());
+        Assert.assertTrue(response.getPayload().toString().contains("step 0"));
+    }
+
+    /**
+     * Tests sending responses of asynchronous procedures from the completing
+     * thread.
+     */
+    @Test
+    public void testAsync() throws Exception
+    {
+        StoredProcedureHandler handler = setupHandler();
+        final AsyncProcedurePool pool = new AsyncProcedurePool(1);
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        handler.getRegistry().put(PROCEDURE_4, new IAsyncProcedure()
+        {
+            @Override
+            public String getName()
+            {
+                return PROCEDURE_4;
+            }
+
+            @Override
+            public AResultSet<?> call(Map<String, Object> parameters)
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean isNative()
+            {
+                return true;
+            }
+
+            @Override
+            public ResultPromise callAsync(Map<String, Object> parameters)
+            {
+                return pool.submit(new Callable<AResultSet<?>>()
+                {
+                    @Override
+                    public AResultSet<?> call() throws Exception
+                    {
+                        latch.await();
+                        return new SingleResult(new HashMap<String, Object>());
+                    }
+                });
+            }
+        });
+
+        final BlockingQueue<WebsockQuery> sent =
+            new LinkedBlockingQueue<WebsockQuery>();
+        IResponseSink sink = new IResponseSink()
+        {
+            @Override
+            public void send(WebsockQuery response) throws Exception
+            {
+                sent.add(response);
+            }
+        };
+
+        //call returns immediately, response is sent on completion
+        WebsockQuery query = new WebsockQuery(EQueryType.PROCEDURE_CALL);
+        query.setPayload(PROCEDURE_4);
+
+        WebsockQuery response = handler.handleCall(query, sink, true);
+        Assert.assertNull(response);
+        Assert.assertTrue(sent.isEmpty());
+
+        latch.countDown();
+        response = sent.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(response);
+        Assert.assertEquals(query.getId(), response.getId());
+        Assert.assertEquals(EQueryType.RESULT, response.getType());
+
+        //synchronous call if not allowed
+        response = handler.handleCall(query, sink, false);
+        Assert.assertEquals(EQueryType.ERROR, response.getType());
+    }
+
+    private class EchoProcedure implements IStoredProcedure
+    {
+        @Override
+        public String getName()
+        {
+            return PROCEDURE_4;
+        }
+
+        @Override
+        public AResultSet<?> call(Map<String, Object> parameters)
+        {
+            return new SingleResult(new HashMap<String, Object>(parameters));
+        }
+
+        @Override
+        public boolean isNative()
+        {
+            return true;
+        }
+    }
+
+    private class TestStreamingProcedure implements IStreamingProcedure
+    {
+        private final int fRows;
+
+        private int fRead = 0;
+        private boolean fClosed = false;
+
+        public TestStreamingProcedure(int rows)
+        {
+            fRows = rows;
+        }
+
+        public int getRead()
+        {
+            return fRead;
+        }
+
+        public boolean isClosed()
+        {
+            return fClosed;
+        }
+
+        @Override
+        public String getName()
+        {
+            return PROCEDURE_4;
+        }
+
+        @Override
+        public AResultSet<?> call(Map<String, Object> parameters)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isNative()
+        {
+            return true;
+        }
+
+        @Override
+        public IRowIterator stream(Map<String, Object> parameters)
+        {
+            return new IRowIterator()
+            {
+                @Override
+                public boolean hasNext()
+                {
+                    return fRead < fRows;
+                }
+
+                @Override
+                public List<Object> next()
+                {
+                    List<Object> row = new ArrayList<Object>();
+                    row.add(fRead++);
+                    return row;
+                }
+
+                @Override
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public List<String> getColumns()
+                {
+                    List<String> columns = new ArrayList<String>();
+                    columns.add(NAME_FIELD);
+                    return columns;
+                }
+
+                @Override
+                public void close()
+                {
+                    fClosed = true;
+                }
+            };
+        }
     }
 
     private class TestProcedure implements IStoredProcedure